@@ -0,0 +1,81 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.engine.test;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.engine.CaptureEngine;
+import org.fosstrak.llrp.commander.persistence.type.BinaryContent;
+import org.fosstrak.llrp.commander.persistence.type.IngestEvent;
+import org.junit.Test;
+import org.llrp.ltk.generated.messages.GET_READER_CONFIG_RESPONSE;
+import org.llrp.ltk.generated.messages.GET_ROSPECS_RESPONSE;
+import org.llrp.ltk.generated.messages.KEEPALIVE;
+import org.llrp.ltk.types.LLRPMessage;
+
+/**
+ * unit test the reactions of the capture engine to the received messages.
+ * @author swieland
+ *
+ */
+public class CaptureEngineTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	
+	private IngestEvent newEvent(LLRPMessage message, String id) {
+		IngestEvent event = new IngestEvent(ADAPTER_NAME, READER_NAME, message);
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setId(id);
+		item.setAdapter(ADAPTER_NAME);
+		item.setReader(READER_NAME);
+		item.setMessageType(message.getName());
+		event.setItem(item);
+		return event;
+	}
+	
+	@Test
+	public void testReaderStateTracking() {
+		CaptureEngine engine = new CaptureEngine(null);
+		Assert.assertNull(engine.getReaderConfigMsgId(ADAPTER_NAME, READER_NAME));
+		
+		engine.getMessageDispatcher().dispatch(newEvent(new GET_READER_CONFIG_RESPONSE(), "1"));
+		engine.getMessageDispatcher().dispatch(newEvent(new GET_ROSPECS_RESPONSE(), "2"));
+		engine.getMessageDispatcher().dispatch(newEvent(new KEEPALIVE(), "3"));
+		Assert.assertEquals("1", engine.getReaderConfigMsgId(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals("2", engine.getReaderROSpecMsgId(ADAPTER_NAME, READER_NAME));
+		
+		engine.getMessageDispatcher().dispatch(newEvent(new GET_READER_CONFIG_RESPONSE(), "4"));
+		Assert.assertEquals("4", engine.getReaderConfigMsgId(ADAPTER_NAME, READER_NAME));
+		
+		engine.setReaderROSpecMsgId(ADAPTER_NAME, READER_NAME, null);
+		Assert.assertNull(engine.getReaderROSpecMsgId(ADAPTER_NAME, READER_NAME));
+	}
+	
+	@Test
+	public void testEncodeContent() throws Exception {
+		CaptureEngine engine = new CaptureEngine(null);
+		engine.setStoreBinaryContent(true);
+		Assert.assertTrue(BinaryContent.isBinary(engine.encodeContent(new KEEPALIVE())));
+	}
+}
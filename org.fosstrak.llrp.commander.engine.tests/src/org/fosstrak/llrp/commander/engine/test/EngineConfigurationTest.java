@@ -0,0 +1,82 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.engine.test;
+
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.commander.engine.CaptureEngine;
+import org.fosstrak.llrp.commander.engine.EngineConfiguration;
+import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+import org.junit.Test;
+
+/**
+ * unit test the configuration of the headless capture engine.
+ * @author swieland
+ *
+ */
+public class EngineConfigurationTest {
+	
+	@Test
+	public void testDefaults() {
+		EngineConfiguration configuration = new EngineConfiguration(new Properties());
+		Assert.assertEquals(EngineConfiguration.DEFAULT_ADAPTOR_CONFIG, configuration.getAdaptorConfig());
+		Assert.assertEquals(EngineConfiguration.DEFAULT_DB_LOCATION, configuration.getDbLocation());
+		Assert.assertTrue(configuration.isInternalDB());
+		Assert.assertFalse(configuration.isBinaryContent());
+		Assert.assertEquals(CaptureEngine.DEFAULT_PARALLELISM, configuration.getParallelism());
+		
+		PersistenceDescriptor descriptor = configuration.createDescriptor();
+		Assert.assertFalse(descriptor.isWipeDbAtStartup());
+		Assert.assertFalse(descriptor.isLogRoAccess());
+		Assert.assertEquals("", descriptor.getJdbc());
+	}
+	
+	@Test
+	public void testDescriptor() {
+		Properties properties = new Properties();
+		properties.setProperty(EngineConfiguration.KEY_DB_LOCATION, "/var/lib/commander");
+		properties.setProperty(EngineConfiguration.KEY_INTERNAL_DB, "false");
+		properties.setProperty(EngineConfiguration.KEY_WIPE_DB, "true");
+		properties.setProperty(EngineConfiguration.KEY_LOG_RO_ACCESS, " true ");
+		properties.setProperty(EngineConfiguration.KEY_DB_JDBC, "jdbc:mysql://localhost/llrp");
+		properties.setProperty(EngineConfiguration.KEY_PARALLELISM, "x");
+		properties.setProperty(PersistenceDescriptor.PROP_WRITE_BEHIND, "true");
+		properties.setProperty(PersistenceDescriptor.PROP_SHARDS, " 4");
+		properties.setProperty("other.property", "ignored");
+		
+		EngineConfiguration configuration = new EngineConfiguration(properties);
+		Assert.assertEquals("/var/lib/commander/", configuration.getDbLocation());
+		Assert.assertFalse(configuration.isInternalDB());
+		Assert.assertEquals(CaptureEngine.DEFAULT_PARALLELISM, configuration.getParallelism());
+		
+		PersistenceDescriptor descriptor = configuration.createDescriptor();
+		Assert.assertTrue(descriptor.isWipeDbAtStartup());
+		Assert.assertFalse(descriptor.isWipeRoAccessDbAtStartup());
+		Assert.assertTrue(descriptor.isLogRoAccess());
+		Assert.assertEquals("jdbc:mysql://localhost/llrp", descriptor.getJdbc());
+		Assert.assertTrue(descriptor.getBooleanProperty(PersistenceDescriptor.PROP_WRITE_BEHIND, false));
+		Assert.assertEquals(4, descriptor.getIntProperty(PersistenceDescriptor.PROP_SHARDS, 1));
+		Assert.assertNull(descriptor.getProperty("other.property"));
+	}
+}
@@ -0,0 +1,302 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.engine;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.llrpaccess.LLRPAccess;
+import org.fosstrak.llrp.commander.llrpaccess.exception.LLRPAccessException;
+import org.fosstrak.llrp.commander.persistence.Persistence;
+import org.fosstrak.llrp.commander.persistence.exception.PersistenceException;
+import org.fosstrak.llrp.commander.persistence.impl.IngestPipeline;
+import org.fosstrak.llrp.commander.persistence.impl.IngestStages;
+import org.fosstrak.llrp.commander.persistence.impl.MessageDispatcher;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.impl.ReaderStateTable;
+import org.fosstrak.llrp.commander.persistence.type.BinaryContent;
+import org.fosstrak.llrp.commander.persistence.type.IngestEvent;
+import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+import org.llrp.ltk.exceptions.InvalidLLRPMessageException;
+import org.llrp.ltk.generated.messages.GET_READER_CONFIG_RESPONSE;
+import org.llrp.ltk.generated.messages.GET_ROSPECS_RESPONSE;
+import org.llrp.ltk.types.LLRPMessage;
+
+/**
+ * captures the messages received from the LLRP readers into the 
+ * persistence layer. the engine does not depend on the eclipse workbench, 
+ * it runs inside the commander plugin as well as on a headless server 
+ * (see {@link EngineLauncher}).
+ * <ol>
+ * <li>open the persistence layer {@link #openPersistence(boolean, PersistenceDescriptor)}</li>
+ * <li>start the capture {@link #start(String)}</li>
+ * <li>stop the capture {@link #stop()}</li>
+ * </ol>
+ * @author swieland
+ *
+ */
+public class CaptureEngine {
+	
+	/** the default number of threads per ingest stage. */
+	public static final int DEFAULT_PARALLELISM = 2;
+	
+	private static final Logger LOG = Logger.getLogger(CaptureEngine.class);
+	
+	private final LLRPAccess llrpAccess;
+	
+	// the id of the last GET_READER_CONFIG_RESPONSE per reader.
+	private final ReaderStateTable<String> readerConfigs = new ReaderStateTable<String> ();
+	
+	// the id of the last GET_ROSPECS_RESPONSE per reader.
+	private final ReaderStateTable<String> readerROSpecs = new ReaderStateTable<String> ();
+	
+	// the reactions to the received messages by message class.
+	private final MessageDispatcher messageDispatcher = new MessageDispatcher();
+	
+	private volatile Persistence persistence = null;
+	
+	// processes the received messages. null until started.
+	private IngestPipeline ingestPipeline = null;
+	
+	// hands the stored messages on to the client (eg. the message box). may be null.
+	private IngestPipeline.Stage publisher = null;
+	
+	private int parallelism = DEFAULT_PARALLELISM;
+	
+	// whether to store the binary LLRP frame instead of the XML representation.
+	private volatile boolean storeBinaryContent = false;
+	
+	/**
+	 * create a new engine.
+	 * @param llrpAccess the access to the adaptor management.
+	 */
+	public CaptureEngine(LLRPAccess llrpAccess) {
+		this.llrpAccess = llrpAccess;
+		
+		// remember the latest reader configuration and ROSpecs of each reader.
+		messageDispatcher.register(GET_READER_CONFIG_RESPONSE.class, new MessageDispatcher.Reaction() {
+			public void react(IngestEvent event) {
+				LLRPMessageItem item = event.getItem();
+				readerConfigs.put(item.getAdapter(), item.getReader(), item.getId());
+			}
+		});
+		messageDispatcher.register(GET_ROSPECS_RESPONSE.class, new MessageDispatcher.Reaction() {
+			public void react(IngestEvent event) {
+				LLRPMessageItem item = event.getItem();
+				readerROSpecs.put(item.getAdapter(), item.getReader(), item.getId());
+			}
+		});
+	}
+	
+	/**
+	 * open the persistence layer. the database location is taken from the 
+	 * system property {@link PersistenceImpl#DB_STORE_LOCATION}. does 
+	 * nothing if the persistence layer is already open.
+	 * @param internalDB whether to use the internal database only.
+	 * @param descriptor the descriptor of the persistence layer.
+	 * @return the exception that caused the fall-back to the internal 
+	 * database, null if there was no fall-back.
+	 * @throws LLRPRuntimeException if neither the configured nor the 
+	 * internal database could be opened.
+	 */
+	public synchronized PersistenceException openPersistence(boolean internalDB, 
+			PersistenceDescriptor descriptor) throws LLRPRuntimeException {
+		
+		if (null != persistence) {
+			LOG.info("persistence layer already open");
+			return null;
+		}
+		PersistenceImpl impl = new PersistenceImpl(llrpAccess);
+		PersistenceException beforeFallbackException = impl.initialize(internalDB, descriptor);
+		persistence = impl;
+		return beforeFallbackException;
+	}
+	
+	/**
+	 * start capturing the messages received from the readers. if the 
+	 * persistence layer is not open, the messages are not stored.
+	 * @param configurationPath the path to the configuration of the 
+	 * adaptor management.
+	 * @throws LLRPAccessException if the adaptor management could not be 
+	 * initialized.
+	 */
+	public synchronized void start(String configurationPath) throws LLRPAccessException {
+		if (null != ingestPipeline) {
+			LOG.info("capture engine already started");
+			return;
+		}
+		Persistence persistenceLayer = persistence;
+		if (null == persistenceLayer) {
+			LOG.error("persistence layer not open, received messages are not stored");
+		}
+		
+		// process the received messages in a staged pipeline off the adaptor threads.
+		ingestPipeline = new IngestPipeline()
+			.addStage("decode", new IngestStages.MetadataStage(persistenceLayer), parallelism)
+			.addStage("serialize", new IngestPipeline.Stage() {
+				public boolean process(IngestEvent event) {
+					// store the content to the repository
+					try {
+						event.getItem().setContent(encodeContent(event.getMessage()));
+					} catch (InvalidLLRPMessageException e) {
+						LOG.error("invalid LLRP message", e);
+					}
+					return true;
+				}
+			}, parallelism)
+			.addStage("persist", new IngestStages.PersistStage(persistenceLayer), parallelism);
+		if (null != publisher) {
+			ingestPipeline.addStage("publish", publisher, 1);
+		}
+		ingestPipeline.addStage("side-effects", messageDispatcher, 1);
+		// reject the shed messages on the adaptor thread, before they are queued.
+		ingestPipeline.setAdmission(new IngestStages.AdmissionStage(persistenceLayer));
+		ingestPipeline.start();
+		
+		llrpAccess.registerFullHandler(ingestPipeline);
+		llrpAccess.initialize(configurationPath);
+		LOG.info("capture engine started");
+	}
+	
+	/**
+	 * stop capturing: drain the received messages into the persistence 
+	 * layer, close the persistence layer and disconnect the readers.
+	 */
+	public synchronized void stop() {
+		if (null != ingestPipeline) {
+			LOG.info("Draining the ingest pipeline...");
+			ingestPipeline.stop();
+		}
+		Persistence persistenceLayer = persistence;
+		if (null != persistenceLayer) {
+			LOG.info("Closing Database...");
+			persistenceLayer.close();
+		}
+		LOG.info("Disconnecting all readers...");
+		llrpAccess.disconnectReaders();
+		llrpAccess.shutdown();
+	}
+	
+	/**
+	 * encode the content of a message for the persistence layer. either the 
+	 * XML representation or the binary frame.
+	 * @param message the LLRP message.
+	 * @return the content to store.
+	 * @throws InvalidLLRPMessageException if the message cannot be encoded.
+	 */
+	public String encodeContent(LLRPMessage message) throws InvalidLLRPMessageException {
+		if (storeBinaryContent) {
+			return BinaryContent.encode(message);
+		}
+		return message.toXMLString();
+	}
+	
+	/**
+	 * @return the persistence layer or null if not open.
+	 */
+	public Persistence getPersistence() {
+		return persistence;
+	}
+	
+	/**
+	 * @return the access to the adaptor management.
+	 */
+	public LLRPAccess getLLRPAccess() {
+		return llrpAccess;
+	}
+	
+	/**
+	 * @return the dispatcher running the reactions to the received messages. 
+	 * register a reaction for a message class to be notified about the 
+	 * messages of that class.
+	 */
+	public MessageDispatcher getMessageDispatcher() {
+		return messageDispatcher;
+	}
+	
+	/**
+	 * @param publisher the stage handing the stored messages on to the 
+	 * client. only taken into account before the engine is started.
+	 */
+	public synchronized void setPublisher(IngestPipeline.Stage publisher) {
+		this.publisher = publisher;
+	}
+	
+	/**
+	 * @param parallelism the number of threads per ingest stage. only taken 
+	 * into account before the engine is started.
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+	
+	/**
+	 * @param storeBinaryContent whether to store the binary LLRP frame 
+	 * instead of the XML representation.
+	 */
+	public void setStoreBinaryContent(boolean storeBinaryContent) {
+		this.storeBinaryContent = storeBinaryContent;
+	}
+	
+	/**
+	 * @return the ingest pipeline or null if not started.
+	 */
+	public synchronized IngestPipeline getIngestPipeline() {
+		return ingestPipeline;
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @param messageId the id of the GET_READER_CONFIG_RESPONSE. null removes it.
+	 */
+	public void setReaderConfigMsgId(String adapter, String reader, String messageId) {
+		readerConfigs.put(adapter, reader, messageId);
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @return the id of the last GET_READER_CONFIG_RESPONSE of the reader or null.
+	 */
+	public String getReaderConfigMsgId(String adapter, String reader) {
+		return readerConfigs.get(adapter, reader);
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @param messageId the id of the GET_ROSPECS_RESPONSE. null removes it.
+	 */
+	public void setReaderROSpecMsgId(String adapter, String reader, String messageId) {
+		readerROSpecs.put(adapter, reader, messageId);
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @return the id of the last GET_ROSPECS_RESPONSE of the reader or null.
+	 */
+	public String getReaderROSpecMsgId(String adapter, String reader) {
+		return readerROSpecs.get(adapter, reader);
+	}
+}
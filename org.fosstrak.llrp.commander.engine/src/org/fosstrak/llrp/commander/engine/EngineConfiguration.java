@@ -0,0 +1,192 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+
+/**
+ * the configuration of a headless capture engine, read from a properties 
+ * file. all the properties starting with {@link #PERSISTENCE_PREFIX} are 
+ * handed on to the persistence descriptor (see the <code>PROP_</code> 
+ * constants in {@link PersistenceDescriptor}).
+ * @author swieland
+ *
+ */
+public class EngineConfiguration {
+	
+	/** the path to the configuration of the adaptor management. */
+	public static final String KEY_ADAPTOR_CONFIG = "engine.adaptorConfig";
+	
+	/** the folder of the internal database. */
+	public static final String KEY_DB_LOCATION = "engine.dbLocation";
+	
+	/** whether to use the internal database only. */
+	public static final String KEY_INTERNAL_DB = "engine.internalDB";
+	
+	/** whether to wipe the database at startup. */
+	public static final String KEY_WIPE_DB = "engine.wipeDB";
+	
+	/** whether to wipe the RO_ACCESS_REPORTS database at startup. */
+	public static final String KEY_WIPE_RO_ACCESS_DB = "engine.wipeROAccessDB";
+	
+	/** whether to log the RO_ACCESS_REPORTS. */
+	public static final String KEY_LOG_RO_ACCESS = "engine.logROAccess";
+	
+	/** the user name of the external database. */
+	public static final String KEY_DB_USERNAME = "engine.db.username";
+	
+	/** the password of the external database. */
+	public static final String KEY_DB_PASSWORD = "engine.db.password";
+	
+	/** the JDBC connector string of the external database. */
+	public static final String KEY_DB_JDBC = "engine.db.jdbc";
+	
+	/** the repository implementation of the external database. */
+	public static final String KEY_DB_IMPLEMENTOR = "engine.db.implementor";
+	
+	/** the number of threads per ingest stage. */
+	public static final String KEY_PARALLELISM = "engine.ingest.parallelism";
+	
+	/** whether to store the binary LLRP frame instead of the XML representation. */
+	public static final String KEY_BINARY_CONTENT = "engine.binaryContent";
+	
+	/** the prefix of the properties handed on to the persistence descriptor. */
+	public static final String PERSISTENCE_PREFIX = "persistence.";
+	
+	/** the default path to the configuration of the adaptor management. */
+	public static final String DEFAULT_ADAPTOR_CONFIG = "readerDefinitions.xml";
+	
+	/** the default folder of the internal database. */
+	public static final String DEFAULT_DB_LOCATION = "db/";
+	
+	private final Properties properties;
+	
+	/**
+	 * @param properties the configuration.
+	 */
+	public EngineConfiguration(Properties properties) {
+		this.properties = properties;
+	}
+	
+	/**
+	 * read the configuration from a properties file.
+	 * @param file the properties file.
+	 * @return the configuration.
+	 * @throws IOException if the file could not be read.
+	 */
+	public static EngineConfiguration load(File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		return new EngineConfiguration(properties);
+	}
+	
+	/**
+	 * @return a descriptor of the persistence layer as configured.
+	 */
+	public PersistenceDescriptor createDescriptor() {
+		PersistenceDescriptor descriptor = new PersistenceDescriptor(
+				getBoolean(KEY_WIPE_DB, false),
+				getBoolean(KEY_WIPE_RO_ACCESS_DB, false),
+				isLogROAccess(),
+				properties.getProperty(KEY_DB_USERNAME, ""),
+				properties.getProperty(KEY_DB_PASSWORD, ""),
+				properties.getProperty(KEY_DB_JDBC, ""),
+				properties.getProperty(KEY_DB_IMPLEMENTOR, ""));
+		
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(PERSISTENCE_PREFIX)) {
+				descriptor.setProperty(key, properties.getProperty(key).trim());
+			}
+		}
+		return descriptor;
+	}
+	
+	/**
+	 * @return the path to the configuration of the adaptor management.
+	 */
+	public String getAdaptorConfig() {
+		return properties.getProperty(KEY_ADAPTOR_CONFIG, DEFAULT_ADAPTOR_CONFIG);
+	}
+	
+	/**
+	 * @return the folder of the internal database, ending with a slash.
+	 */
+	public String getDbLocation() {
+		String location = properties.getProperty(KEY_DB_LOCATION, DEFAULT_DB_LOCATION);
+		return location.endsWith("/") ? location : location + "/";
+	}
+	
+	/**
+	 * @return whether to use the internal database only.
+	 */
+	public boolean isInternalDB() {
+		return getBoolean(KEY_INTERNAL_DB, true);
+	}
+	
+	/**
+	 * @return whether to log the RO_ACCESS_REPORTS.
+	 */
+	public boolean isLogROAccess() {
+		return getBoolean(KEY_LOG_RO_ACCESS, false);
+	}
+	
+	/**
+	 * @return the number of threads per ingest stage.
+	 */
+	public int getParallelism() {
+		String value = properties.getProperty(KEY_PARALLELISM);
+		if (null == value) {
+			return CaptureEngine.DEFAULT_PARALLELISM;
+		}
+		try {
+			return Math.max(1, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			return CaptureEngine.DEFAULT_PARALLELISM;
+		}
+	}
+	
+	/**
+	 * @return whether to store the binary LLRP frame instead of the XML representation.
+	 */
+	public boolean isBinaryContent() {
+		return getBoolean(KEY_BINARY_CONTENT, false);
+	}
+	
+	private boolean getBoolean(String key, boolean defaultValue) {
+		String value = properties.getProperty(key);
+		if (null == value) {
+			return defaultValue;
+		}
+		return Boolean.parseBoolean(value.trim());
+	}
+}
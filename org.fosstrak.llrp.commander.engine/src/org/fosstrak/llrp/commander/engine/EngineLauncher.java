@@ -0,0 +1,97 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.engine;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.commander.llrpaccess.impl.LLRPAccessImpl;
+import org.fosstrak.llrp.commander.persistence.exception.PersistenceException;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+
+/**
+ * runs the capture engine without the eclipse workbench, eg. for a 24/7 
+ * capture on a server. usage:
+ * <pre>java org.fosstrak.llrp.commander.engine.EngineLauncher engine.properties</pre>
+ * the engine stops when the virtual machine shuts down.
+ * @author swieland
+ *
+ */
+public class EngineLauncher {
+	
+	/** the default configuration file. */
+	public static final String DEFAULT_CONFIGURATION = "engine.properties";
+	
+	private static final Logger LOG = Logger.getLogger(EngineLauncher.class);
+	
+	/**
+	 * start the capture engine.
+	 * @param args the path to the configuration file (optional).
+	 */
+	public static void main(String[] args) {
+		File file = new File((args.length > 0) ? args[0] : DEFAULT_CONFIGURATION);
+		try {
+			final CaptureEngine engine = launch(EngineConfiguration.load(file));
+			final CountDownLatch stopped = new CountDownLatch(1);
+			Runtime.getRuntime().addShutdownHook(new Thread("capture-engine-shutdown") {
+				public void run() {
+					engine.stop();
+					stopped.countDown();
+				}
+			});
+			stopped.await();
+		} catch (InterruptedException e) {
+			LOG.info("capture engine interrupted");
+		} catch (Exception e) {
+			LOG.error("could not start the capture engine with " + file.getAbsolutePath(), e);
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * open the persistence layer and start a capture engine as configured.
+	 * @param configuration the configuration.
+	 * @return the started engine.
+	 * @throws Exception if the engine could not be started.
+	 */
+	public static CaptureEngine launch(EngineConfiguration configuration) throws Exception {
+		String dbLocation = new File(configuration.getDbLocation()).getAbsolutePath() + "/";
+		System.setProperty(PersistenceImpl.DB_STORE_LOCATION, dbLocation);
+		LOG.info("using db location: " + dbLocation);
+		
+		CaptureEngine engine = new CaptureEngine(new LLRPAccessImpl());
+		engine.setParallelism(configuration.getParallelism());
+		engine.setStoreBinaryContent(configuration.isBinaryContent());
+		
+		PersistenceException beforeFallbackException = engine.openPersistence(
+				configuration.isInternalDB(), configuration.createDescriptor());
+		if (null != beforeFallbackException) {
+			LOG.error("Could not invoke the repository, using fallback", beforeFallbackException);
+		}
+		if (configuration.isLogROAccess()) {
+			engine.getPersistence().registerForRoAccessReports();
+		}
+		engine.start(new File(configuration.getAdaptorConfig()).getAbsolutePath());
+		return engine;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.commander.persistence.type.BinaryContent;
+import org.junit.Test;
+import org.llrp.ltk.generated.messages.KEEPALIVE;
+
+/**
+ * unit test the binary message content.
+ * @author swieland
+ *
+ */
+public class BinaryContentTest {
+	
+	@Test
+	public void testEncodeDecode() {
+		byte[] frame = new byte[] { 0x04, 0x3e, 0x00, 0x00, 0x00, 0x0a, (byte) 0xff, 0x01, 0x02, 0x03 };
+		String content = BinaryContent.encode(frame);
+		
+		Assert.assertTrue(BinaryContent.isBinary(content));
+		Assert.assertTrue(Arrays.equals(frame, BinaryContent.decode(content)));
+	}
+	
+	@Test
+	public void testRenderXmlUnchanged() throws Exception {
+		Assert.assertFalse(BinaryContent.isBinary("<KEEPALIVE/>"));
+		Assert.assertFalse(BinaryContent.isBinary(null));
+		Assert.assertEquals("<KEEPALIVE/>", BinaryContent.render("<KEEPALIVE/>"));
+	}
+	
+	@Test
+	public void testRenderMessage() throws Exception {
+		String content = BinaryContent.encode(new KEEPALIVE());
+		String xml = BinaryContent.render(content);
+		
+		Assert.assertFalse(BinaryContent.isBinary(xml));
+		Assert.assertTrue(xml.contains("KEEPALIVE"));
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.persistence.impl.ContentCache;
+import org.junit.Test;
+
+/**
+ * unit test the byte bounded message content cache.
+ * @author swieland
+ *
+ */
+public class ContentCacheTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	
+	private LLRPMessageItem newItem(String id, String reader) {
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setId(id);
+		item.setAdapter(ADAPTER_NAME);
+		item.setReader(reader);
+		item.setContent("<content " + id + "/>");
+		return item;
+	}
+	
+	@Test
+	public void testPutStoresCopy() {
+		ContentCache cache = new ContentCache(1024 * 1024);
+		LLRPMessageItem item = newItem("1", READER_NAME);
+		cache.put(item);
+		item.setContent("");
+		
+		Assert.assertEquals("<content 1/>", cache.get("1").getContent());
+		Assert.assertNull(cache.get("2"));
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+	}
+	
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		long weight = ContentCache.weight(newItem("1", READER_NAME));
+		ContentCache cache = new ContentCache(3 * weight);
+		cache.put(newItem("1", READER_NAME));
+		cache.put(newItem("2", READER_NAME));
+		cache.put(newItem("3", READER_NAME));
+		// touch 1, so 2 is the least recently used one.
+		cache.get("1");
+		cache.put(newItem("4", READER_NAME));
+		
+		Assert.assertEquals(3, cache.getSize());
+		Assert.assertEquals(1, cache.getEvictions());
+		Assert.assertNull(cache.get("2"));
+		Assert.assertNotNull(cache.get("1"));
+		Assert.assertTrue(cache.getBytes() <= cache.getMaxBytes());
+	}
+	
+	@Test
+	public void testInvalidate() {
+		ContentCache cache = new ContentCache(1024 * 1024);
+		cache.put(newItem("1", READER_NAME));
+		cache.put(newItem("2", OTHER_READER_NAME));
+		
+		cache.invalidate(ADAPTER_NAME, READER_NAME);
+		Assert.assertNull(cache.get("1"));
+		Assert.assertNotNull(cache.get("2"));
+		
+		cache.invalidate(null, null);
+		Assert.assertEquals(0, cache.getSize());
+		Assert.assertEquals(0, cache.getBytes());
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.commander.persistence.impl.ContentCompressor;
+import org.junit.Test;
+
+/**
+ * unit test the compression of the message content.
+ * @author swieland
+ *
+ */
+public class ContentCompressorTest {
+	
+	private static final String REPORT = 
+		"<llrp:RO_ACCESS_REPORT xmlns:llrp=\"http://www.llrp.org/ltk/schema/core/encoding/xml/1.0\" Version=\"1\" MessageID=\"0\">\n" + 
+		"  <llrp:TagReportData>\n" + 
+		"    <llrp:EPC_96>\n" + 
+		"      <llrp:EPC>300833b2ddd9014000000000</llrp:EPC>\n" + 
+		"    </llrp:EPC_96>\n" + 
+		"    <llrp:AntennaID>\n" + 
+		"      <llrp:AntennaID>1</llrp:AntennaID>\n" + 
+		"    </llrp:AntennaID>\n" + 
+		"    <llrp:PeakRSSI>\n" + 
+		"      <llrp:PeakRSSI>-55</llrp:PeakRSSI>\n" + 
+		"    </llrp:PeakRSSI>\n" + 
+		"  </llrp:TagReportData>\n" + 
+		"</llrp:RO_ACCESS_REPORT>";
+	
+	@Test
+	public void testRoundTrip() throws Exception {
+		ContentCompressor compressor = new ContentCompressor();
+		compressor.setThreshold(0);
+		
+		String compressed = compressor.compress(REPORT);
+		Assert.assertTrue(ContentCompressor.isCompressed(compressed));
+		Assert.assertTrue(compressed.length() < REPORT.length());
+		Assert.assertEquals(REPORT, compressor.decompress(compressed));
+		
+		Assert.assertEquals(1, compressor.getCompressed());
+		Assert.assertTrue(compressor.getCompressionRatio() < 0.5);
+	}
+	
+	@Test
+	public void testDisabledAndThreshold() throws Exception {
+		ContentCompressor compressor = new ContentCompressor();
+		Assert.assertSame(REPORT, compressor.compress(REPORT));
+		
+		compressor.setThreshold(REPORT.length() + 1);
+		Assert.assertSame(REPORT, compressor.compress(REPORT));
+		Assert.assertEquals(1.0, compressor.getCompressionRatio(), 0.0);
+		
+		// uncompressed content passes unchanged.
+		Assert.assertSame(REPORT, compressor.decompress(REPORT));
+	}
+	
+	@Test
+	public void testPooledReuse() throws Exception {
+		ContentCompressor compressor = new ContentCompressor();
+		compressor.setThreshold(0);
+		for (int i=0; i<10; i++) {
+			String content = REPORT.replace("-55", Integer.toString(-i));
+			Assert.assertEquals(content, compressor.decompress(compressor.compress(content)));
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.impl.DerbyFastStart;
+import org.fosstrak.llrp.commander.persistence.repository.RingBufferRepository;
+import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+import org.junit.Test;
+
+/**
+ * unit test the fast startup of the fall-back Derby database.
+ * @author swieland
+ *
+ */
+public class DerbyFastStartTest {
+	
+	private File newFolder() {
+		File folder = new File(System.getProperty("java.io.tmpdir"), "testDerbyFastStart" + System.nanoTime());
+		folder.mkdirs();
+		return folder;
+	}
+	
+	private void touch(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		new FileOutputStream(file).close();
+	}
+	
+	/**
+	 * create a folder looking like a Derby database with some content.
+	 */
+	private File newDatabase(File parent, String name) throws IOException {
+		File database = new File(parent, name);
+		touch(new File(database, DerbyFastStart.DERBY_SERVICE_FILE));
+		touch(new File(database, "seg0/c10.dat"));
+		touch(new File(database, "log/log1.dat"));
+		return database;
+	}
+	
+	private PersistenceDescriptor newDescriptor(boolean wipe, boolean wipeRoAccess) {
+		PersistenceDescriptor descriptor = new PersistenceDescriptor(wipe, wipeRoAccess, true, "", "", "", "");
+		descriptor.setProperty(PersistenceDescriptor.PROP_DERBY_FAST_WIPE, "true");
+		return descriptor;
+	}
+	
+	@Test
+	public void testWipeMovesDatabasesAside() throws Exception {
+		File folder = newFolder();
+		File database = newDatabase(folder, "llrpMsgDB");
+		// not a database, e.g. the segment log.
+		File other = new File(folder, "log/segment-0.log");
+		touch(other);
+		
+		DerbyFastStart fastStart = new DerbyFastStart(newDescriptor(true, true), folder.getAbsolutePath());
+		Assert.assertTrue(fastStart.wipe());
+		Assert.assertFalse(database.exists());
+		fastStart.join(10000);
+		
+		// only the other files are left.
+		Assert.assertTrue(other.exists());
+		Assert.assertEquals(1, folder.listFiles().length);
+		other.delete();
+		other.getParentFile().delete();
+		folder.delete();
+	}
+	
+	@Test
+	public void testNoWipeUnlessRequested() throws Exception {
+		File folder = newFolder();
+		File database = newDatabase(folder, "llrpMsgDB");
+		
+		// the RO_ACCESS reports share the database, they must be wiped as well.
+		Assert.assertFalse(new DerbyFastStart(newDescriptor(true, false), folder.getAbsolutePath()).wipe());
+		Assert.assertFalse(new DerbyFastStart(newDescriptor(false, true), folder.getAbsolutePath()).wipe());
+		PersistenceDescriptor disabled = new PersistenceDescriptor(true, true, true, "", "", "", "");
+		Assert.assertFalse(new DerbyFastStart(disabled, folder.getAbsolutePath()).wipe());
+		Assert.assertTrue(new File(database, DerbyFastStart.DERBY_SERVICE_FILE).exists());
+		
+		DerbyFastStart fastStart = new DerbyFastStart(newDescriptor(true, true), folder.getAbsolutePath());
+		Assert.assertTrue(fastStart.wipe());
+		fastStart.join(10000);
+		Assert.assertEquals(0, folder.listFiles().length);
+		folder.delete();
+	}
+	
+	@Test
+	public void testTuneKeepsCommandLineProperties() {
+		String pageCache = System.getProperty(DerbyFastStart.DERBY_PAGE_CACHE_SIZE);
+		String logBuffer = System.getProperty(DerbyFastStart.DERBY_LOG_BUFFER_SIZE);
+		try {
+			System.clearProperty(DerbyFastStart.DERBY_PAGE_CACHE_SIZE);
+			System.setProperty(DerbyFastStart.DERBY_LOG_BUFFER_SIZE, "65536");
+			PersistenceDescriptor descriptor = newDescriptor(false, false);
+			descriptor.setProperty(PersistenceDescriptor.PROP_DERBY_PAGE_CACHE_SIZE, "4000");
+			descriptor.setProperty(PersistenceDescriptor.PROP_DERBY_LOG_BUFFER_SIZE, "131072");
+			new DerbyFastStart(descriptor, null).tune();
+			Assert.assertEquals("4000", System.getProperty(DerbyFastStart.DERBY_PAGE_CACHE_SIZE));
+			Assert.assertEquals("65536", System.getProperty(DerbyFastStart.DERBY_LOG_BUFFER_SIZE));
+		} finally {
+			restore(DerbyFastStart.DERBY_PAGE_CACHE_SIZE, pageCache);
+			restore(DerbyFastStart.DERBY_LOG_BUFFER_SIZE, logBuffer);
+		}
+	}
+	
+	private void restore(String key, String value) {
+		if (null == value) {
+			System.clearProperty(key);
+		} else {
+			System.setProperty(key, value);
+		}
+	}
+	
+	@Test
+	public void testWarmUp() throws Exception {
+		Map<String, String> args = new HashMap<String, String> ();
+		args.put(RingBufferRepository.ARG_CAPACITY, "10");
+		Repository repository = new RingBufferRepository();
+		repository.initialize(args);
+		
+		PersistenceDescriptor descriptor = newDescriptor(false, false);
+		DerbyFastStart fastStart = new DerbyFastStart(descriptor, null);
+		fastStart.warmUp(repository);
+		fastStart.join(10000);
+		Assert.assertEquals(-1, fastStart.getWarmUpTime());
+		
+		descriptor.setProperty(PersistenceDescriptor.PROP_DERBY_WARM_UP, "true");
+		fastStart.warmUp(repository);
+		fastStart.join(10000);
+		Assert.assertTrue(fastStart.getWarmUpTime() >= 0);
+	}
+}
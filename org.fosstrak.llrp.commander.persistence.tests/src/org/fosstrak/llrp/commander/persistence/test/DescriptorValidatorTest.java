@@ -0,0 +1,137 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.client.RepositoryFactory;
+import org.fosstrak.llrp.commander.persistence.exception.PersistenceException;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.repository.RingBufferRepository;
+import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+import org.fosstrak.llrp.commander.persistence.type.RepositoryFactoryDelegate;
+import org.fosstrak.llrp.commander.persistence.type.ValidationResult;
+import org.fosstrak.llrp.commander.persistence.type.ValidationResult.Verdict;
+import org.junit.Test;
+
+/**
+ * unit test the parallel validation of persistence descriptors.
+ * @author swieland
+ *
+ */
+public class DescriptorValidatorTest {
+	
+	private static final String WORKING = "working.Repository";
+	private static final String SLOW = "slow.Repository";
+	private static final String BROKEN = "broken.Repository";
+	
+	// time in ms the slow repository needs to connect.
+	private static final long SLOW_CONNECT = 5000;
+	
+	/**
+	 * creates ring buffers, hangs on the slow and fails on the broken repository.
+	 */
+	private static class Factory extends RepositoryFactoryDelegate {
+		@Override
+		public Repository create(Map<String, String> args) throws PersistenceException {
+			String className = args.get(RepositoryFactory.ARG_DB_CLASSNAME);
+			if (BROKEN.equals(className)) {
+				throw new PersistenceException("connection refused");
+			}
+			if (SLOW.equals(className)) {
+				try {
+					Thread.sleep(SLOW_CONNECT);
+				} catch (InterruptedException e) {
+					throw new PersistenceException(e);
+				}
+			}
+			try {
+				Map<String, String> ringArgs = new HashMap<String, String> ();
+				ringArgs.put(RingBufferRepository.ARG_CAPACITY, "100");
+				Repository repository = new RingBufferRepository();
+				repository.initialize(ringArgs);
+				return repository;
+			} catch (Exception e) {
+				throw new PersistenceException(e);
+			}
+		}
+	}
+	
+	private PersistenceDescriptor newDescriptor(String className) {
+		return new PersistenceDescriptor(false, false, false, "user", "pass", "jdbc", className);
+	}
+	
+	@Test
+	public void testValidateConcurrently() throws Exception {
+		PersistenceImpl persistence = new PersistenceImpl(null);
+		persistence.setRepositoryFactory(new Factory());
+		
+		List<PersistenceDescriptor> descriptors = new ArrayList<PersistenceDescriptor> ();
+		descriptors.add(newDescriptor(WORKING));
+		descriptors.add(newDescriptor(SLOW));
+		descriptors.add(newDescriptor(BROKEN));
+		
+		final long start = System.currentTimeMillis();
+		List<Future<ValidationResult>> futures = persistence.validate(descriptors, 500);
+		// the call does not block on the slow repository.
+		Assert.assertTrue(System.currentTimeMillis() - start < SLOW_CONNECT);
+		Assert.assertEquals(3, futures.size());
+		
+		ValidationResult working = futures.get(0).get();
+		Assert.assertEquals(Verdict.HEALTHY, working.getVerdict());
+		Assert.assertTrue(working.getConnectTime() >= 0);
+		Assert.assertTrue(working.getInsertTime() >= 0);
+		Assert.assertTrue(working.getSelectTime() >= 0);
+		Assert.assertNull(working.getError());
+		
+		ValidationResult slow = futures.get(1).get();
+		Assert.assertEquals(Verdict.TIMED_OUT, slow.getVerdict());
+		Assert.assertEquals(-1, slow.getConnectTime());
+		
+		ValidationResult broken = futures.get(2).get();
+		Assert.assertEquals(Verdict.FAILED, broken.getVerdict());
+		Assert.assertEquals("connection refused", broken.getError().getMessage());
+		
+		// all the attempts ran side by side.
+		Assert.assertTrue(System.currentTimeMillis() - start < SLOW_CONNECT);
+	}
+	
+	@Test
+	public void testRepositoryInUse() throws Exception {
+		PersistenceImpl persistence = new PersistenceImpl(null);
+		persistence.setRepositoryFactory(new Factory());
+		persistence.setRepository(new Factory().create(new HashMap<String, String> ()));
+		
+		List<PersistenceDescriptor> descriptors = new ArrayList<PersistenceDescriptor> ();
+		descriptors.add(newDescriptor(RingBufferRepository.class.getName()));
+		ValidationResult result = persistence.validate(descriptors, 1000).get(0).get();
+		Assert.assertEquals(Verdict.IN_USE, result.getVerdict());
+		Assert.assertFalse(result.isHealthy());
+	}
+}
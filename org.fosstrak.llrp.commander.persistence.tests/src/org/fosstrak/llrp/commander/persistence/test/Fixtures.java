@@ -0,0 +1,96 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.repository.RingBufferRepository;
+
+/**
+ * shared set up of the persistence tests: in-memory repositories, a 
+ * persistence layer on top of them and message items.
+ * @author swieland
+ *
+ */
+final class Fixtures {
+	
+	private Fixtures() {
+	}
+	
+	/**
+	 * @param repository the ring buffer to initialize.
+	 * @param capacity the maximum number of messages kept per reader.
+	 * @return the initialized ring buffer.
+	 */
+	static <T extends RingBufferRepository> T initialize(T repository, int capacity) throws LLRPRuntimeException {
+		Map<String, String> args = new HashMap<String, String> ();
+		args.put(RingBufferRepository.ARG_CAPACITY, Integer.toString(capacity));
+		repository.initialize(args);
+		return repository;
+	}
+	
+	/**
+	 * @param capacity the maximum number of messages kept per reader.
+	 * @return a new initialized ring buffer.
+	 */
+	static RingBufferRepository newRingBuffer(int capacity) throws LLRPRuntimeException {
+		return initialize(new RingBufferRepository(), capacity);
+	}
+	
+	/**
+	 * @param repository the repository to store the messages.
+	 * @return a persistence layer without LLRP access on top of the repository.
+	 */
+	static PersistenceImpl newPersistence(Repository repository) {
+		PersistenceImpl persistence = new PersistenceImpl(null);
+		persistence.setRepository(repository);
+		return persistence;
+	}
+	
+	/**
+	 * @param capacity the maximum number of messages kept per reader.
+	 * @return a persistence layer on top of a new ring buffer.
+	 */
+	static PersistenceImpl newPersistence(int capacity) throws LLRPRuntimeException {
+		return newPersistence(newRingBuffer(capacity));
+	}
+	
+	/**
+	 * @return a new message item with the content &lt;type/&gt;.
+	 */
+	static LLRPMessageItem newItem(String id, String adapter, String reader, String type, long time) {
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setId(id);
+		item.setAdapter(adapter);
+		item.setReader(reader);
+		item.setMessageType(type);
+		item.setContent("<" + type + "/>");
+		item.setTime(new Timestamp(time));
+		return item;
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.commander.persistence.impl.IngestPipeline;
+import org.fosstrak.llrp.commander.persistence.impl.IngestStages;
+import org.fosstrak.llrp.commander.persistence.type.IngestEvent;
+import org.junit.Test;
+import org.llrp.ltk.generated.messages.KEEPALIVE;
+import org.llrp.ltk.types.LLRPMessage;
+
+/**
+ * unit test the staged ingest pipeline.
+ * @author swieland
+ *
+ */
+public class IngestPipelineTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final int READERS = 8;
+	private static final int MESSAGES = 200;
+	
+	/**
+	 * collects the messages per reader in the order they arrive.
+	 */
+	private static class Collector implements IngestPipeline.Stage {
+		private final Map<String, List<LLRPMessage>> messages = new HashMap<String, List<LLRPMessage>> ();
+		
+		public synchronized boolean process(IngestEvent event) {
+			List<LLRPMessage> list = messages.get(event.getReader());
+			if (null == list) {
+				list = new ArrayList<LLRPMessage> ();
+				messages.put(event.getReader(), list);
+			}
+			list.add(event.getMessage());
+			return true;
+		}
+		
+		private synchronized int size() {
+			int size = 0;
+			for (List<LLRPMessage> list : messages.values()) {
+				size += list.size();
+			}
+			return size;
+		}
+	}
+	
+	/**
+	 * takes a random short time per message.
+	 */
+	private static class SlowStage implements IngestPipeline.Stage {
+		private final Random random = new Random(42);
+		
+		public boolean process(IngestEvent event) throws InterruptedException {
+			int delay;
+			synchronized (random) {
+				delay = random.nextInt(3);
+			}
+			if (delay > 0) {
+				Thread.sleep(delay);
+			}
+			return true;
+		}
+	}
+	
+	@Test
+	public void testPerReaderOrder() throws Exception {
+		Collector collector = new Collector();
+		// the first stage takes all the messages, the others wait for each other.
+		IngestPipeline pipeline = new IngestPipeline(MESSAGES)
+			.addStage("decode", new IngestStages.MetadataStage(null), 4)
+			.addStage("slow", new SlowStage(), 4)
+			.addStage("collect", collector, 2);
+		pipeline.start();
+		Assert.assertTrue(pipeline.isRunning());
+		
+		Map<String, List<LLRPMessage>> sent = new HashMap<String, List<LLRPMessage>> ();
+		for (int i=0; i<MESSAGES; i++) {
+			String reader = "reader" + (i % READERS);
+			LLRPMessage message = new KEEPALIVE();
+			List<LLRPMessage> list = sent.get(reader);
+			if (null == list) {
+				list = new ArrayList<LLRPMessage> ();
+				sent.put(reader, list);
+			}
+			list.add(message);
+			pipeline.handle(ADAPTER_NAME, reader, message);
+		}
+		// stop drains all the stages.
+		pipeline.stop();
+		Assert.assertFalse(pipeline.isRunning());
+		Assert.assertEquals(MESSAGES, collector.size());
+		for (String reader : sent.keySet()) {
+			List<LLRPMessage> expected = sent.get(reader);
+			List<LLRPMessage> actual = collector.messages.get(reader);
+			Assert.assertEquals(expected.size(), actual.size());
+			for (int i=0; i<expected.size(); i++) {
+				Assert.assertSame(expected.get(i), actual.get(i));
+			}
+		}
+		Assert.assertEquals(MESSAGES, pipeline.getProcessed(0));
+		Assert.assertEquals(0, pipeline.getQueued(1));
+		Assert.assertEquals("slow", pipeline.getStages().get(1));
+	}
+	
+	@Test
+	public void testDropAndFailure() throws Exception {
+		Collector collector = new Collector();
+		IngestPipeline pipeline = new IngestPipeline()
+			.addStage("drop", new IngestPipeline.Stage() {
+				private int count = 0;
+				public synchronized boolean process(IngestEvent event) {
+					return (0 == (count++ % 2));
+				}
+			}, 1)
+			.addStage("fail", new IngestPipeline.Stage() {
+				public boolean process(IngestEvent event) {
+					throw new IllegalStateException("failure");
+				}
+			}, 1)
+			.addStage("collect", collector, 1);
+		
+		// not started: the messages pass the stages synchronously.
+		for (int i=0; i<10; i++) {
+			pipeline.handle(ADAPTER_NAME, "reader", new KEEPALIVE());
+		}
+		Assert.assertEquals(5, collector.size());
+		
+		pipeline.start();
+		for (int i=0; i<10; i++) {
+			pipeline.handle(ADAPTER_NAME, "reader", new KEEPALIVE());
+		}
+		pipeline.stop();
+		Assert.assertEquals(10, collector.size());
+		Assert.assertEquals(10, pipeline.getDropped(0));
+		Assert.assertEquals(10, pipeline.getFailed(1));
+		Assert.assertEquals(10, pipeline.getProcessed(2));
+	}
+	
+	@Test
+	public void testAdmissionAndOverflow() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		Collector collector = new Collector();
+		IngestPipeline pipeline = new IngestPipeline(2)
+			.addStage("blocked", new IngestPipeline.Stage() {
+				public boolean process(IngestEvent event) throws InterruptedException {
+					release.await();
+					return true;
+				}
+			}, 1)
+			.addStage("collect", collector, 1);
+		pipeline.setAdmission(new IngestPipeline.Stage() {
+			public boolean process(IngestEvent event) {
+				return !"rejected".equals(event.getReader());
+			}
+		});
+		pipeline.start();
+		
+		// rejected before being queued.
+		pipeline.handle(ADAPTER_NAME, "rejected", new KEEPALIVE());
+		Assert.assertEquals(1, pipeline.getRejected());
+		Assert.assertEquals(0, pipeline.getQueued(0));
+		
+		// the adaptor callback does not wait for the blocked stage.
+		for (int i=0; i<10; i++) {
+			pipeline.handle(ADAPTER_NAME, "reader", new KEEPALIVE());
+		}
+		Assert.assertTrue(pipeline.getOverflowed() >= 7);
+		
+		release.countDown();
+		pipeline.stop();
+		Assert.assertEquals(10 - pipeline.getOverflowed(), collector.size());
+	}
+	
+	@Test
+	public void testHandleWhileStopping() throws Exception {
+		Collector collector = new Collector();
+		// small queues, so the stages wait for each other.
+		final IngestPipeline pipeline = new IngestPipeline(4)
+			.addStage("decode", new IngestStages.MetadataStage(null), 2)
+			.addStage("slow", new SlowStage(), 2)
+			.addStage("collect", collector, 1);
+		pipeline.start();
+		
+		final AtomicBoolean done = new AtomicBoolean(false);
+		final AtomicLong handled = new AtomicLong(0);
+		List<Thread> callbacks = new ArrayList<Thread> ();
+		for (int r=0; r<READERS; r++) {
+			final String reader = "reader" + r;
+			Thread callback = new Thread(new Runnable() {
+				public void run() {
+					while (!done.get()) {
+						pipeline.handle(ADAPTER_NAME, reader, new KEEPALIVE());
+						handled.incrementAndGet();
+					}
+				}
+			});
+			callback.setDaemon(true);
+			callbacks.add(callback);
+			callback.start();
+		}
+		// the callbacks go on while the pipeline stops and afterwards.
+		Thread.sleep(20);
+		pipeline.stop();
+		Thread.sleep(20);
+		done.set(true);
+		for (Thread callback : callbacks) {
+			callback.join(10000);
+			Assert.assertFalse(callback.isAlive());
+		}
+		Assert.assertEquals(handled.get() - pipeline.getOverflowed(), collector.size());
+	}
+	
+	@Test
+	public void testMetadataStage() throws Exception {
+		final List<IngestEvent> events = new ArrayList<IngestEvent> ();
+		IngestPipeline pipeline = new IngestPipeline()
+			.addStage("decode", new IngestStages.MetadataStage(null), 1)
+			.addStage("collect", new IngestPipeline.Stage() {
+				public boolean process(IngestEvent event) {
+					events.add(event);
+					return true;
+				}
+			}, 1);
+		pipeline.handle(ADAPTER_NAME, "reader", new KEEPALIVE());
+		Assert.assertEquals(1, events.size());
+		Assert.assertEquals("KEEPALIVE", events.get(0).getItem().getMessageType());
+		Assert.assertEquals("reader", events.get(0).getItem().getReader());
+		Assert.assertEquals("", events.get(0).getItem().getStatusCode());
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.persistence.impl.KeepaliveCoalescer;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.type.KeepaliveSummary;
+import org.junit.Test;
+
+/**
+ * unit test the keepalive coalescing.
+ * @author swieland
+ *
+ */
+public class KeepaliveCoalescerTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	
+	private LLRPMessageItem newItem(String reader, String type, long time) {
+		return Fixtures.newItem(null, ADAPTER_NAME, reader, type, time);
+	}
+	
+	private PersistenceImpl newPersistence() throws Exception {
+		return Fixtures.newPersistence(1000);
+	}
+	
+	@Test
+	public void testCoalesceRun() throws Exception {
+		PersistenceImpl persistence = newPersistence();
+		KeepaliveCoalescer coalescer = new KeepaliveCoalescer(persistence, 1000, 3600000);
+		
+		// 10 keepalives one second apart, one late by 3 seconds.
+		long time = 10000;
+		for (int i=0; i<10; i++) {
+			time += (i == 5) ? 4000 : 1000;
+			Assert.assertTrue(coalescer.offer(newItem(READER_NAME, "KEEPALIVE", time)));
+			Assert.assertTrue(coalescer.offer(newItem(READER_NAME, "KEEPALIVE_ACK", time)));
+		}
+		Assert.assertEquals(0, persistence.count(ADAPTER_NAME, READER_NAME));
+		
+		List<KeepaliveSummary> summaries = coalescer.getSummaries();
+		Assert.assertEquals(1, summaries.size());
+		KeepaliveSummary summary = summaries.get(0);
+		Assert.assertEquals(10, summary.getCount());
+		Assert.assertEquals(10, summary.getAcks());
+		Assert.assertEquals(11000, summary.getFirstSeen());
+		Assert.assertEquals(time, summary.getLastSeen());
+		Assert.assertEquals(4000, summary.getMaxGap());
+		Assert.assertEquals(1, summary.getAnomalies());
+		Assert.assertEquals(3, summary.getMissed());
+		
+		// any other message of the reader closes the run.
+		Assert.assertFalse(coalescer.offer(newItem(READER_NAME, "RO_ACCESS_REPORT", time + 1)));
+		Assert.assertTrue(coalescer.getSummaries().isEmpty());
+		
+		List<LLRPMessageItem> items = persistence.get(ADAPTER_NAME, READER_NAME, -1, false);
+		Assert.assertEquals(1, items.size());
+		Assert.assertEquals("KEEPALIVE", items.get(0).getMessageType());
+		Assert.assertEquals(time, items.get(0).getTime().getTime());
+		Assert.assertTrue(items.get(0).getComment().startsWith(KeepaliveCoalescer.SUMMARY_COMMENT));
+	}
+	
+	@Test
+	public void testFlushIntervalAndReaders() throws Exception {
+		PersistenceImpl persistence = newPersistence();
+		KeepaliveCoalescer coalescer = new KeepaliveCoalescer(persistence, 1000, 5000);
+		for (int i=0; i<12; i++) {
+			coalescer.offer(newItem(READER_NAME, "KEEPALIVE", 1000 * i));
+			coalescer.offer(newItem(OTHER_READER_NAME, "KEEPALIVE", 1000 * i));
+		}
+		// runs of 5 seconds: two closed runs per reader so far.
+		Assert.assertEquals(2, persistence.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(2, persistence.count(ADAPTER_NAME, OTHER_READER_NAME));
+		Assert.assertEquals(2, coalescer.getSummaries().size());
+		
+		coalescer.flush();
+		Assert.assertTrue(coalescer.getSummaries().isEmpty());
+		Assert.assertEquals(3, persistence.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(3, persistence.count(ADAPTER_NAME, OTHER_READER_NAME));
+		
+		// no anomalies in a regular run.
+		coalescer.offer(newItem(READER_NAME, "KEEPALIVE", 20000));
+		coalescer.offer(newItem(READER_NAME, "KEEPALIVE", 21400));
+		Assert.assertFalse(coalescer.getSummaries().get(0).isAnomalous());
+	}
+	
+	@Test
+	public void testSweep() throws Exception {
+		PersistenceImpl persistence = newPersistence();
+		KeepaliveCoalescer coalescer = new KeepaliveCoalescer(persistence, 1000, 5000);
+		coalescer.offer(newItem(READER_NAME, "KEEPALIVE", 1000));
+		coalescer.offer(newItem(READER_NAME, "KEEPALIVE", 2000));
+		Assert.assertEquals(0, coalescer.sweep(2500));
+		Assert.assertEquals(0, coalescer.getSummaries().get(0).getAnomalies());
+		
+		// the reader is silent, flagged once without waiting for its next keepalive.
+		Assert.assertEquals(0, coalescer.sweep(4000));
+		Assert.assertEquals(1, coalescer.getSummaries().get(0).getAnomalies());
+		Assert.assertEquals(0, coalescer.sweep(5000));
+		Assert.assertEquals(1, coalescer.getSummaries().get(0).getAnomalies());
+		coalescer.offer(newItem(READER_NAME, "KEEPALIVE", 5500));
+		KeepaliveSummary summary = coalescer.getSummaries().get(0);
+		Assert.assertEquals(1, summary.getAnomalies());
+		Assert.assertEquals(3, summary.getMissed());
+		Assert.assertEquals(3500, summary.getMaxGap());
+		
+		// the run exceeds the flush interval without another keepalive.
+		Assert.assertEquals(1, coalescer.sweep(6000));
+		Assert.assertTrue(coalescer.getSummaries().isEmpty());
+		Assert.assertEquals(1, persistence.count(ADAPTER_NAME, READER_NAME));
+		
+		// a silent reader without an open run is reported as well.
+		Assert.assertEquals(0, coalescer.sweep(7500));
+		summary = coalescer.getSummaries().get(0);
+		Assert.assertEquals(0, summary.getCount());
+		Assert.assertEquals(1, summary.getAnomalies());
+		coalescer.flush();
+		Assert.assertEquals(2, persistence.count(ADAPTER_NAME, READER_NAME));
+	}
+	
+	@Test
+	public void testGapAcrossRuns() throws Exception {
+		PersistenceImpl persistence = newPersistence();
+		KeepaliveCoalescer coalescer = new KeepaliveCoalescer(persistence, 1000, 3600000);
+		coalescer.offer(newItem(READER_NAME, "KEEPALIVE", 1000));
+		coalescer.offer(newItem(READER_NAME, "KEEPALIVE", 2000));
+		// closes the run.
+		coalescer.offer(newItem(READER_NAME, "RO_ACCESS_REPORT", 2100));
+		Assert.assertTrue(coalescer.getSummaries().isEmpty());
+		
+		// the gap to the last keepalive of the closed run counts.
+		coalescer.offer(newItem(READER_NAME, "KEEPALIVE", 5000));
+		KeepaliveSummary summary = coalescer.getSummaries().get(0);
+		Assert.assertEquals(1, summary.getCount());
+		Assert.assertEquals(5000, summary.getFirstSeen());
+		Assert.assertEquals(3000, summary.getMaxGap());
+		Assert.assertEquals(1, summary.getAnomalies());
+		Assert.assertEquals(2, summary.getMissed());
+	}
+	
+	@Test
+	public void testSweepThread() throws Exception {
+		PersistenceImpl persistence = newPersistence();
+		KeepaliveCoalescer coalescer = new KeepaliveCoalescer(persistence, 1000, 50);
+		coalescer.start();
+		coalescer.offer(newItem(READER_NAME, "KEEPALIVE", System.currentTimeMillis()));
+		for (int i=0; (i<100) && (0 == persistence.count(ADAPTER_NAME, READER_NAME)); i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, persistence.count(ADAPTER_NAME, READER_NAME));
+		
+		// stop writes the open runs.
+		coalescer.offer(newItem(READER_NAME, "KEEPALIVE", System.currentTimeMillis()));
+		coalescer.stop();
+		Assert.assertEquals(2, persistence.count(ADAPTER_NAME, READER_NAME));
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.persistence.impl.LoadShedder;
+import org.fosstrak.llrp.commander.persistence.impl.WriteBehindQueue;
+import org.fosstrak.llrp.commander.persistence.repository.RingBufferRepository;
+import org.junit.Test;
+
+/**
+ * unit test the load shedding policy.
+ * @author swieland
+ *
+ */
+public class LoadShedderTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	
+	private LLRPMessageItem newItem(String type) {
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setAdapter(ADAPTER_NAME);
+		item.setReader(READER_NAME);
+		item.setMessageType(type);
+		return item;
+	}
+	
+	private LoadShedder newShedder() {
+		return new LoadShedder(50, 80, 4, LoadShedder.parseTypes(LoadShedder.DEFAULT_SHEDDABLE_TYPES));
+	}
+	
+	@Test
+	public void testPriorities() {
+		LoadShedder shedder = newShedder();
+		Assert.assertEquals(LoadShedder.Priority.CRITICAL, shedder.priority("ADD_ROSPEC_RESPONSE"));
+		Assert.assertEquals(LoadShedder.Priority.CRITICAL, shedder.priority("ERROR_MESSAGE"));
+		Assert.assertEquals(LoadShedder.Priority.SHEDDABLE, shedder.priority("KEEPALIVE"));
+		Assert.assertEquals(LoadShedder.Priority.SHEDDABLE, shedder.priority("RO_ACCESS_REPORT"));
+		Assert.assertEquals(LoadShedder.Priority.NORMAL, shedder.priority("READER_EVENT_NOTIFICATION"));
+	}
+	
+	@Test
+	public void testWatermarks() {
+		LoadShedder shedder = newShedder();
+		// below the low watermark everything is kept.
+		for (int i=0; i<10; i++) {
+			Assert.assertTrue(shedder.admit(newItem("KEEPALIVE"), 10, 100));
+		}
+		Assert.assertFalse(shedder.isShedding());
+		
+		// between the watermarks one out of four sheddable messages is kept.
+		int kept = 0;
+		for (int i=0; i<100; i++) {
+			if (shedder.admit(newItem("RO_ACCESS_REPORT"), 60, 100)) {
+				kept++;
+			}
+		}
+		Assert.assertEquals(25, kept);
+		Assert.assertTrue(shedder.isShedding());
+		Assert.assertTrue(shedder.admit(newItem("READER_EVENT_NOTIFICATION"), 60, 100));
+		
+		// above the high watermark all the sheddable messages are dropped.
+		Assert.assertFalse(shedder.admit(newItem("KEEPALIVE"), 90, 100));
+		Assert.assertTrue(shedder.admit(newItem("GET_ROSPECS_RESPONSE"), 90, 100));
+		
+		Assert.assertEquals(76, shedder.getDropped());
+		Assert.assertEquals(76, shedder.getDropCounts().getCount(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(Long.valueOf(75), 
+				shedder.getDropCounts().getTypeCounts(ADAPTER_NAME, READER_NAME).get("RO_ACCESS_REPORT"));
+	}
+	
+	@Test
+	public void testFullQueueDoesNotBlock() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		RingBufferRepository repository = new RingBufferRepository() {
+			@Override
+			public void putAll(List<LLRPMessageItem> messages) {
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.putAll(messages);
+			}
+		};
+		repository.initialize(null);
+		
+		WriteBehindQueue queue = new WriteBehindQueue(repository, 4, 1, 1);
+		LoadShedder shedder = newShedder();
+		queue.setLoadShedder(shedder);
+		queue.start();
+		
+		// the writer blocks on the first message, the queue fills up.
+		int stored = 0;
+		for (int i=0; i<20; i++) {
+			if (queue.put(newItem("READER_EVENT_NOTIFICATION"))) {
+				stored++;
+			}
+		}
+		Assert.assertTrue(stored <= 5);
+		Assert.assertEquals(20 - stored, shedder.getDropped());
+		
+		release.countDown();
+		queue.stop();
+		Assert.assertEquals(stored, repository.count(ADAPTER_NAME, READER_NAME));
+	}
+}
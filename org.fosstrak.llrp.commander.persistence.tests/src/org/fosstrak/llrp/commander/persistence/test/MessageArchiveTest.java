@@ -0,0 +1,162 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.persistence.exception.PersistenceException;
+import org.fosstrak.llrp.commander.persistence.impl.MessageArchive;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.junit.Test;
+
+/**
+ * unit test the export and import of message archives.
+ * @author swieland
+ *
+ */
+public class MessageArchiveTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	
+	private static final int MESSAGES = 1000;
+	
+	private PersistenceImpl newPersistence() throws Exception {
+		return Fixtures.newPersistence(2 * MESSAGES);
+	}
+	
+	private PersistenceImpl newFilledPersistence() throws Exception {
+		return fill(newPersistence());
+	}
+	
+	private PersistenceImpl fill(PersistenceImpl persistence) throws Exception {
+		for (int i=0; i<MESSAGES; i++) {
+			LLRPMessageItem item = Fixtures.newItem("id" + i, ADAPTER_NAME,
+					(i % 2 == 0) ? READER_NAME : OTHER_READER_NAME, "KEEPALIVE", 1000 + i);
+			item.setStatusCode((i % 3 == 0) ? null : "M_Success");
+			item.setContent("<KEEPALIVE MessageID=\"" + i + "\">\u00e9</KEEPALIVE>");
+			persistence.put(item);
+		}
+		return persistence;
+	}
+	
+	private void assertRoundTrip(boolean compress) throws Exception {
+		PersistenceImpl source = newFilledPersistence();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// small chunks to get plenty of frames.
+		MessageArchive archive = new MessageArchive(source, 4096, 64);
+		Assert.assertEquals(MESSAGES, archive.export(ADAPTER_NAME, null, out, compress));
+		
+		PersistenceImpl target = newPersistence();
+		Assert.assertEquals(MESSAGES, new MessageArchive(target, 4096, 64).importArchive(
+				new ByteArrayInputStream(out.toByteArray())));
+		Assert.assertEquals(MESSAGES / 2, target.count(ADAPTER_NAME, READER_NAME));
+		for (int i=0; i<MESSAGES; i += 7) {
+			LLRPMessageItem expected = source.get("id" + i);
+			LLRPMessageItem actual = target.get("id" + i);
+			Assert.assertNotNull(actual);
+			Assert.assertEquals(expected.getReader(), actual.getReader());
+			Assert.assertEquals(expected.getStatusCode(), actual.getStatusCode());
+			Assert.assertEquals(expected.getTime(), actual.getTime());
+			Assert.assertEquals(expected.getContent(), actual.getContent());
+		}
+	}
+	
+	@Test
+	public void testRoundTrip() throws Exception {
+		assertRoundTrip(false);
+	}
+	
+	@Test
+	public void testCompressedRoundTrip() throws Exception {
+		assertRoundTrip(true);
+	}
+	
+	@Test
+	public void testCompressedIsSmaller() throws Exception {
+		PersistenceImpl source = newFilledPersistence();
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		source.exportArchive(null, null, plain, false);
+		source.exportArchive(null, null, compressed, true);
+		Assert.assertTrue(compressed.size() * 3 < plain.size());
+	}
+	
+	@Test
+	public void testExportSingleReader() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertEquals(MESSAGES / 2, newFilledPersistence().exportArchive(
+				ADAPTER_NAME, OTHER_READER_NAME, out, true));
+		PersistenceImpl target = newPersistence();
+		target.importArchive(new ByteArrayInputStream(out.toByteArray()));
+		Assert.assertEquals(0, target.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(MESSAGES / 2, target.count(ADAPTER_NAME, OTHER_READER_NAME));
+	}
+	
+	private void assertOldestFirst(PersistenceImpl source) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertEquals(MESSAGES, new MessageArchive(source, 4096, 64).export(
+				null, null, out, false));
+		// a ring buffer of half the size per reader keeps the messages imported last.
+		PersistenceImpl target = Fixtures.newPersistence(MESSAGES / 4);
+		target.importArchive(new ByteArrayInputStream(out.toByteArray()));
+		Assert.assertNull(target.get("id0"));
+		Assert.assertNotNull(target.get("id" + (MESSAGES - 1)));
+	}
+	
+	@Test
+	public void testExportOldestFirst() throws Exception {
+		assertOldestFirst(newFilledPersistence());
+	}
+	
+	@Test
+	public void testExportPlainOldestFirst() throws Exception {
+		assertOldestFirst(fill(Fixtures.newPersistence(new PlainRepository(2 * MESSAGES))));
+	}
+	
+	@Test
+	public void testInvalidArchive() throws Exception {
+		PersistenceImpl target = newPersistence();
+		try {
+			target.importArchive(new ByteArrayInputStream("not an archive".getBytes()));
+			Assert.fail("invalid archive imported.");
+		} catch (PersistenceException e) {
+			// expected.
+		}
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		newFilledPersistence().exportArchive(null, null, out, true);
+		byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() / 2);
+		try {
+			target.importArchive(new ByteArrayInputStream(truncated));
+			Assert.fail("truncated archive imported.");
+		} catch (PersistenceException e) {
+			// expected.
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.commander.persistence.impl.MessageBuffer;
+import org.junit.Test;
+
+/**
+ * unit test the bounded message buffer.
+ * @author swieland
+ *
+ */
+public class MessageBufferTest {
+	
+	@Test
+	public void testCapacityRoundedUp() {
+		Assert.assertEquals(8, new MessageBuffer<String>(5).getCapacity());
+		Assert.assertEquals(8, new MessageBuffer<String>(8).getCapacity());
+	}
+	
+	@Test
+	public void testDrainInOrder() {
+		MessageBuffer<String> buffer = new MessageBuffer<String>(8);
+		buffer.offer("a");
+		buffer.offer("b");
+		buffer.offer("c");
+		Assert.assertEquals(3, buffer.peek().size());
+		
+		List<String> batch = new ArrayList<String> ();
+		Assert.assertEquals(2, buffer.drainTo(batch, 2));
+		Assert.assertEquals("a", batch.get(0));
+		Assert.assertEquals("b", batch.get(1));
+		Assert.assertEquals(1, buffer.size());
+		
+		List<String> rest = buffer.drain();
+		Assert.assertEquals(1, rest.size());
+		Assert.assertEquals("c", rest.get(0));
+		Assert.assertEquals(0, buffer.drain().size());
+		Assert.assertEquals(0, buffer.getDropped());
+	}
+	
+	@Test
+	public void testDropOldest() {
+		MessageBuffer<Integer> buffer = new MessageBuffer<Integer>(4);
+		for (int i=0; i<10; i++) {
+			buffer.offer(i);
+		}
+		Assert.assertEquals(4, buffer.size());
+		List<Integer> batch = buffer.drain();
+		Assert.assertEquals(4, batch.size());
+		Assert.assertEquals(Integer.valueOf(6), batch.get(0));
+		Assert.assertEquals(Integer.valueOf(9), batch.get(3));
+		Assert.assertEquals(6, buffer.getDropped());
+	}
+	
+	@Test
+	public void testClear() {
+		MessageBuffer<String> buffer = new MessageBuffer<String>(4);
+		buffer.offer("a");
+		buffer.clear();
+		Assert.assertEquals(0, buffer.drain().size());
+		buffer.offer("b");
+		Assert.assertEquals("b", buffer.drain().get(0));
+		Assert.assertEquals(0, buffer.getDropped());
+	}
+	
+	@Test
+	public void testConcurrentProducers() throws Exception {
+		final int producers = 4;
+		final int perProducer = 5000;
+		final MessageBuffer<Integer> buffer = new MessageBuffer<Integer>(256);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(producers);
+		for (int p=0; p<producers; p++) {
+			final int offset = p * perProducer;
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						for (int i=0; i<perProducer; i++) {
+							buffer.offer(offset + i);
+						}
+					} catch (InterruptedException e) {
+						// ends the producer.
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		
+		Set<Integer> received = new HashSet<Integer> ();
+		start.countDown();
+		while (done.getCount() > 0) {
+			received.addAll(buffer.drain());
+		}
+		received.addAll(buffer.drain());
+		
+		// every item is either received exactly once or counted as dropped.
+		Assert.assertEquals(producers * perProducer, received.size() + buffer.getDropped());
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.Constants;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.impl.MessageCounters;
+import org.fosstrak.llrp.commander.persistence.type.MessageCountSnapshot;
+import org.junit.Test;
+
+/**
+ * unit test the incrementally maintained message counters.
+ * @author swieland
+ *
+ */
+public class MessageCountersTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String OTHER_ADAPTER_NAME = "otherAdapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	
+	private LLRPMessageItem newItem(String adapter, String reader, String type, long time) {
+		return Fixtures.newItem(adapter + reader + time, adapter, reader, type, time);
+	}
+	
+	@Test
+	public void testSeedFromRepository() throws Exception {
+		Repository repository = Fixtures.newRingBuffer(5000);
+		// more than one seed page.
+		for (int i=0; i<2500; i++) {
+			repository.put(newItem(ADAPTER_NAME, (i % 2 == 0) ? READER_NAME : OTHER_READER_NAME, "KEEPALIVE", i));
+		}
+		
+		MessageCounters counters = new MessageCounters();
+		counters.seed(repository);
+		Assert.assertEquals(2500, counters.count(null, null));
+		Assert.assertEquals(1250, counters.count(ADAPTER_NAME, READER_NAME));
+	}
+	
+	@Test
+	public void testSeedFromPlainRepository() throws Exception {
+		PlainRepository repository = new PlainRepository(5000);
+		for (int i=0; i<2500; i++) {
+			repository.put(newItem(ADAPTER_NAME, (i % 2 == 0) ? READER_NAME : OTHER_READER_NAME, "KEEPALIVE", i));
+		}
+		
+		// only one of the readers is known.
+		Map<String, List<String>> readers = new HashMap<String, List<String>> ();
+		readers.put(ADAPTER_NAME, Arrays.asList(READER_NAME));
+		MessageCounters counters = new MessageCounters();
+		counters.seed(repository, readers);
+		Assert.assertEquals(2500, counters.count(null, null));
+		Assert.assertEquals(1250, counters.count(ADAPTER_NAME, READER_NAME));
+		// the messages were counted, not loaded.
+		Assert.assertTrue(repository.getRequested().isEmpty());
+		
+		// a deleted message is uncounted even though its type is not known.
+		counters.decrement(newItem(ADAPTER_NAME, READER_NAME, "KEEPALIVE", 0));
+		Assert.assertEquals(1249, counters.count(ADAPTER_NAME, READER_NAME));
+	}
+	
+	@Test
+	public void testIncrementAndClear() {
+		MessageCounters counters = new MessageCounters();
+		counters.increment(newItem(ADAPTER_NAME, READER_NAME, "KEEPALIVE", 1));
+		counters.increment(newItem(ADAPTER_NAME, READER_NAME, "RO_ACCESS_REPORT", 2));
+		counters.increment(newItem(ADAPTER_NAME, OTHER_READER_NAME, "KEEPALIVE", 3));
+		counters.increment(newItem(OTHER_ADAPTER_NAME, READER_NAME, "KEEPALIVE", 4));
+		
+		Assert.assertEquals(4, counters.count(null, null));
+		Assert.assertEquals(4, counters.count(Constants.ROOT_NAME, null));
+		Assert.assertEquals(3, counters.count(ADAPTER_NAME, null));
+		Assert.assertEquals(2, counters.count(ADAPTER_NAME, READER_NAME));
+		
+		counters.clear(ADAPTER_NAME, READER_NAME);
+		Assert.assertEquals(0, counters.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(1, counters.count(ADAPTER_NAME, null));
+		
+		counters.clear(OTHER_ADAPTER_NAME, null);
+		Assert.assertEquals(1, counters.count(null, null));
+		
+		counters.clear(null, null);
+		Assert.assertEquals(0, counters.count(null, null));
+	}
+	
+	@Test
+	public void testSnapshot() {
+		MessageCounters counters = new MessageCounters();
+		counters.increment(newItem(ADAPTER_NAME, READER_NAME, "KEEPALIVE", 1));
+		counters.increment(newItem(ADAPTER_NAME, READER_NAME, "KEEPALIVE", 2));
+		counters.increment(newItem(ADAPTER_NAME, OTHER_READER_NAME, "RO_ACCESS_REPORT", 3));
+		
+		MessageCountSnapshot snapshot = counters.snapshot();
+		counters.increment(newItem(ADAPTER_NAME, READER_NAME, "KEEPALIVE", 4));
+		
+		Assert.assertEquals(3, snapshot.getTotal());
+		Assert.assertEquals(3, snapshot.getCount(ADAPTER_NAME));
+		Assert.assertEquals(2, snapshot.getCount(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(Long.valueOf(2), snapshot.getTypeCounts(ADAPTER_NAME, READER_NAME).get("KEEPALIVE"));
+		Assert.assertEquals(Long.valueOf(1), snapshot.getTypeCounts().get("RO_ACCESS_REPORT"));
+		Assert.assertEquals(2, snapshot.getReaders(ADAPTER_NAME).size());
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.repository.KeysetCollector;
+import org.fosstrak.llrp.commander.persistence.repository.PageMerger;
+import org.fosstrak.llrp.commander.persistence.type.MessageCursor;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.junit.Test;
+
+/**
+ * unit test the keyset paging of the persistence layer.
+ * @author swieland
+ *
+ */
+public class MessageCursorTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	
+	private PersistenceImpl newPersistence() throws Exception {
+		Repository repository = Fixtures.newRingBuffer(100);
+		PersistenceImpl persistence = Fixtures.newPersistence(repository);
+		// two readers interleaved, message i was stored at time i.
+		for (int i=0; i<10; i++) {
+			LLRPMessageItem item = Fixtures.newItem("id" + i, ADAPTER_NAME,
+					(i % 2 == 0) ? READER_NAME : OTHER_READER_NAME, "KEEPALIVE", i);
+			item.setContent("<content " + i + "/>");
+			repository.put(item);
+		}
+		return persistence;
+	}
+	
+	private void assertPage(List<LLRPMessageItem> page, String... ids) {
+		Assert.assertEquals(ids.length, page.size());
+		for (int i=0; i<ids.length; i++) {
+			Assert.assertEquals(ids[i], page.get(i).getId());
+		}
+	}
+	
+	@Test
+	public void testForwardAndBackward() throws Exception {
+		MessageCursor cursor = newPersistence().cursor(ADAPTER_NAME, null, 4);
+		
+		assertPage(cursor.next(), "id9", "id8", "id7", "id6");
+		assertPage(cursor.next(), "id5", "id4", "id3", "id2");
+		Assert.assertTrue(cursor.hasNext());
+		assertPage(cursor.next(), "id1", "id0");
+		Assert.assertFalse(cursor.hasNext());
+		Assert.assertTrue(cursor.next().isEmpty());
+		
+		assertPage(cursor.previous(), "id5", "id4", "id3", "id2");
+		assertPage(cursor.previous(), "id9", "id8", "id7", "id6");
+		Assert.assertTrue(cursor.previous().isEmpty());
+		Assert.assertTrue(cursor.hasNext());
+	}
+	
+	@Test
+	public void testSingleReaderLazyContent() throws Exception {
+		MessageCursor cursor = newPersistence().cursor(ADAPTER_NAME, READER_NAME, 2);
+		
+		List<LLRPMessageItem> page = cursor.next();
+		assertPage(page, "id8", "id6");
+		Assert.assertNull(page.get(0).getContent());
+		Assert.assertEquals("<content 8/>", cursor.getContent(page.get(0)));
+		assertPage(cursor.next(), "id4", "id2");
+	}
+	
+	@Test
+	public void testCollectorKeepsClosestToKey() {
+		KeysetCollector<String> collector = new KeysetCollector<String> (
+				new MessageKey(50, "b"), true, 3);
+		collector.offer(10, "a", "10a");
+		collector.offer(50, "c", "50c");
+		collector.offer(50, "a", "50a");
+		collector.offer(49, "z", "49z");
+		collector.offer(60, "a", "60a");
+		collector.offer(30, "a", "30a");
+		
+		List<String> result = collector.result();
+		Assert.assertEquals(3, result.size());
+		Assert.assertEquals("50a", result.get(0));
+		Assert.assertEquals("49z", result.get(1));
+		Assert.assertEquals("30a", result.get(2));
+	}
+	
+	@Test
+	public void testPlainRepositoryBoundedWindow() throws Exception {
+		PlainRepository repository = new PlainRepository(1000);
+		PersistenceImpl persistence = Fixtures.newPersistence(repository);
+		for (int i=0; i<500; i++) {
+			repository.put(Fixtures.newItem("id" + i, ADAPTER_NAME, READER_NAME, "KEEPALIVE", i));
+		}
+		
+		MessageCursor cursor = persistence.cursor(ADAPTER_NAME, READER_NAME, 10);
+		assertPage(cursor.next(), "id499", "id498", "id497", "id496", "id495", 
+				"id494", "id493", "id492", "id491", "id490");
+		assertPage(cursor.next(), "id489", "id488", "id487", "id486", "id485", 
+				"id484", "id483", "id482", "id481", "id480");
+		assertPage(cursor.previous(), "id499", "id498", "id497", "id496", "id495", 
+				"id494", "id493", "id492", "id491", "id490");
+		
+		// never the whole table, only windows of a few pages.
+		for (Integer num : repository.getRequested()) {
+			Assert.assertTrue(num > 0);
+			Assert.assertTrue(num <= 40);
+		}
+	}
+	
+	@Test
+	public void testPlainRepositoryForward() throws Exception {
+		PlainRepository repository = new PlainRepository(1000);
+		for (int i=0; i<500; i++) {
+			repository.put(Fixtures.newItem("id" + i, ADAPTER_NAME, READER_NAME, "KEEPALIVE", i));
+		}
+		
+		// walking forward from the oldest message the window must reach back to the start.
+		List<LLRPMessageItem> page = PageMerger.page(repository, ADAPTER_NAME, READER_NAME, null, false, 5, false);
+		assertPage(page, "id0", "id1", "id2", "id3", "id4");
+		page = PageMerger.page(repository, ADAPTER_NAME, READER_NAME, 
+				MessageKey.of(page.get(page.size() - 1)), false, 5, false);
+		assertPage(page, "id5", "id6", "id7", "id8", "id9");
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.commander.persistence.impl.MessageDispatcher;
+import org.fosstrak.llrp.commander.persistence.impl.ReaderStateTable;
+import org.fosstrak.llrp.commander.persistence.type.IngestEvent;
+import org.fosstrak.llrp.commander.persistence.type.ReaderKey;
+import org.junit.Test;
+import org.llrp.ltk.generated.messages.KEEPALIVE;
+import org.llrp.ltk.generated.messages.RO_ACCESS_REPORT;
+
+/**
+ * unit test the message dispatcher and the reader state table.
+ * @author swieland
+ *
+ */
+public class MessageDispatcherTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	
+	@Test
+	public void testDispatchByClass() {
+		final List<String> seen = new ArrayList<String> ();
+		MessageDispatcher.Reaction reaction = new MessageDispatcher.Reaction() {
+			public void react(IngestEvent event) {
+				seen.add(event.getMessage().getName());
+			}
+		};
+		MessageDispatcher dispatcher = new MessageDispatcher()
+			.register(KEEPALIVE.class, reaction)
+			.register(KEEPALIVE.class, new MessageDispatcher.Reaction() {
+				public void react(IngestEvent event) throws Exception {
+					throw new Exception("failing reaction");
+				}
+			});
+		
+		Assert.assertEquals(2, dispatcher.dispatch(
+				new IngestEvent(ADAPTER_NAME, READER_NAME, new KEEPALIVE())));
+		Assert.assertEquals(0, dispatcher.dispatch(
+				new IngestEvent(ADAPTER_NAME, READER_NAME, new RO_ACCESS_REPORT())));
+		Assert.assertEquals(1, seen.size());
+		Assert.assertEquals("KEEPALIVE", seen.get(0));
+		
+		Assert.assertTrue(dispatcher.unregister(KEEPALIVE.class, reaction));
+		Assert.assertFalse(dispatcher.unregister(KEEPALIVE.class, reaction));
+		Assert.assertEquals(1, dispatcher.dispatch(
+				new IngestEvent(ADAPTER_NAME, READER_NAME, new KEEPALIVE())));
+		Assert.assertEquals(1, seen.size());
+		Assert.assertFalse(dispatcher.hasReaction(RO_ACCESS_REPORT.class));
+	}
+	
+	@Test
+	public void testReaderKeyInterned() {
+		Assert.assertSame(ReaderKey.of(ADAPTER_NAME, READER_NAME), 
+				ReaderKey.of(ADAPTER_NAME, new String(READER_NAME)));
+		Assert.assertNotSame(ReaderKey.of("ab", "c"), ReaderKey.of("a", "bc"));
+		Assert.assertSame(ReaderKey.of(null, null), ReaderKey.of(null, null));
+		Assert.assertEquals(READER_NAME, ReaderKey.of(ADAPTER_NAME, READER_NAME).getReader());
+	}
+	
+	@Test
+	public void testReaderStateTable() {
+		ReaderStateTable<String> table = new ReaderStateTable<String> ();
+		table.put("ab", "c", "1");
+		table.put("a", "bc", "2");
+		table.put(ADAPTER_NAME, READER_NAME, "3");
+		Assert.assertEquals("1", table.get("ab", "c"));
+		Assert.assertEquals("2", table.get("a", "bc"));
+		Assert.assertEquals(3, table.size());
+		
+		table.put("ab", "c", null);
+		Assert.assertNull(table.get("ab", "c"));
+		Assert.assertEquals("2", table.remove("a", "bc"));
+		
+		table.removeAdapter(ADAPTER_NAME);
+		Assert.assertEquals(0, table.size());
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.repository.SegmentLogRepository;
+import org.fosstrak.llrp.commander.persistence.type.MessageCursor;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
+import org.junit.Test;
+
+/**
+ * unit test the message queries on the indexed repositories.
+ * @author swieland
+ *
+ */
+public class MessageQueryTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	
+	private static final String[] TYPES = { "KEEPALIVE", "ADD_ROSPEC", "ADD_ROSPEC_RESPONSE", "RO_ACCESS_REPORT" };
+	
+	private LLRPMessageItem newItem(int i) {
+		LLRPMessageItem item = Fixtures.newItem("msg" + i, ADAPTER_NAME,
+				(i % 2 == 0) ? READER_NAME : OTHER_READER_NAME, TYPES[i % TYPES.length], 1000 + i);
+		if ("ADD_ROSPEC_RESPONSE".equals(item.getMessageType())) {
+			item.setStatusCode((i % 3 == 0) ? "M_ParameterError" : "M_Success");
+		}
+		item.setMark(("ADD_ROSPEC".equals(item.getMessageType())) ? 
+				LLRPMessageItem.MARK_OUTGOING : LLRPMessageItem.MARK_INCOMING);
+		item.setComment((i % 10 == 0) ? "Checked by operator" : null);
+		return item;
+	}
+	
+	private List<LLRPMessageItem> all(MessageCursor cursor) {
+		List<LLRPMessageItem> result = new ArrayList<LLRPMessageItem> ();
+		while (cursor.hasNext()) {
+			result.addAll(cursor.next());
+		}
+		return result;
+	}
+	
+	private void assertQueries(Repository repository) {
+		PersistenceImpl persistence = Fixtures.newPersistence(repository);
+		for (int i=0; i<1200; i++) {
+			persistence.put(newItem(i));
+		}
+		
+		// failed ADD_ROSPEC_RESPONSE in a time range.
+		MessageQuery query = new MessageQuery();
+		query.addMessageType("ADD_ROSPEC_RESPONSE");
+		query.excludeStatusCode("M_Success");
+		query.setFrom(1100);
+		query.setTo(1999);
+		List<LLRPMessageItem> result = all(persistence.query(query, 7));
+		// i = 2 mod 4, i = 0 mod 3, i in [100, 999] -> i = 6 mod 12.
+		Assert.assertEquals(75, result.size());
+		long last = Long.MAX_VALUE;
+		for (LLRPMessageItem item : result) {
+			Assert.assertEquals("ADD_ROSPEC_RESPONSE", item.getMessageType());
+			Assert.assertEquals("M_ParameterError", item.getStatusCode());
+			Assert.assertTrue(item.getTime().getTime() < last);
+			Assert.assertNull(item.getContent());
+			last = item.getTime().getTime();
+		}
+		
+		// outgoing messages of one reader.
+		query = new MessageQuery();
+		query.setAdapter(ADAPTER_NAME);
+		query.setReader(OTHER_READER_NAME);
+		query.setMark(LLRPMessageItem.MARK_OUTGOING);
+		Assert.assertEquals(300, all(persistence.query(query, 50)).size());
+		
+		// comment and status code (i = 0 mod 10 without the responses i = 10 mod 20).
+		query = new MessageQuery();
+		query.setComment("OPERATOR");
+		query.addStatusCode("");
+		Assert.assertEquals(60, all(persistence.query(query, 1000)).size());
+		
+		// nothing matches.
+		query = new MessageQuery();
+		query.addMessageType("GET_READER_CONFIG");
+		Assert.assertEquals(0, all(persistence.query(query, 10)).size());
+	}
+	
+	@Test
+	public void testRingBufferQueries() throws Exception {
+		Repository repository = Fixtures.newRingBuffer(1000);
+		assertQueries(repository);
+	}
+	
+	@Test
+	public void testRingBufferIndexFollowsOverwrites() throws Exception {
+		Repository repository = Fixtures.newRingBuffer(4);
+		PersistenceImpl persistence = Fixtures.newPersistence(repository);
+		for (int i=0; i<16; i+=2) {
+			persistence.put(newItem(i));
+		}
+		// only the last 4 messages of the reader remain (i = 8, 10, 12, 14).
+		MessageQuery query = new MessageQuery();
+		query.addMessageType("KEEPALIVE");
+		List<LLRPMessageItem> result = all(persistence.query(query, 10));
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals("msg12", result.get(0).getId());
+		Assert.assertEquals("msg8", result.get(1).getId());
+	}
+	
+	@Test
+	public void testSegmentLogQueries() throws Exception {
+		File folder = new File(System.getProperty("java.io.tmpdir"), "testQuerySegmentLog" + System.nanoTime());
+		folder.mkdirs();
+		Map<String, String> args = new HashMap<String, String> ();
+		args.put(SegmentLogRepository.ARG_LOCATION, folder.getAbsolutePath());
+		Repository repository = new SegmentLogRepository();
+		repository.initialize(args);
+		assertQueries(repository);
+		repository.close();
+		
+		// the index is rebuilt from the segments.
+		repository = new SegmentLogRepository();
+		repository.initialize(args);
+		PersistenceImpl persistence = Fixtures.newPersistence(repository);
+		MessageQuery query = new MessageQuery();
+		query.addMessageType("ADD_ROSPEC_RESPONSE");
+		query.addStatusCode("M_ParameterError");
+		Assert.assertEquals(100, all(persistence.query(query, 30)).size());
+		repository.clearAll();
+		repository.close();
+	}
+}
@@ -291,6 +291,38 @@ public class PersistenceTest {
 		EasyMock.verify(repository);
 	}
 	
+	/**
+	 * messages put through the write-behind queue must all reach the repository 
+	 * at the latest when the persistence layer is closed.
+	 */
+	@Test
+	public void testPutWriteBehind() throws LLRPRuntimeException {
+		final LLRPMessageItem llrpMessageItem = new LLRPMessageItem();
+		Repository repository = EasyMock.createMock(Repository.class);
+		repository.put(llrpMessageItem);
+		EasyMock.expectLastCall().times(3);
+		repository.close();
+		EasyMock.expectLastCall();
+		EasyMock.replay(repository);
+		
+		PersistenceDescriptor desc = PersistenceDescriptor.dummy();
+		desc.setProperty(PersistenceDescriptor.PROP_WRITE_BEHIND, "true");
+		desc.setProperty(PersistenceDescriptor.PROP_WRITE_BEHIND_BATCH_SIZE, "2");
+		
+		Persistence p = newPersistenceImpl();
+		((PersistenceImpl)p).setRepositoryFactory(new CreatorMock(repository));
+		Assert.assertNull(p.initialize(false, desc));
+		Assert.assertNotNull(((PersistenceImpl)p).getWriteBehindQueue());
+		
+		p.put(llrpMessageItem);
+		p.put(llrpMessageItem);
+		p.put(llrpMessageItem);
+		p.close();
+		
+		Assert.assertNull(((PersistenceImpl)p).getWriteBehindQueue());
+		EasyMock.verify(repository);
+	}
+	
 	@Test
 	public void testGetByIdNull() {
 		Persistence p = newPersistenceImpl();
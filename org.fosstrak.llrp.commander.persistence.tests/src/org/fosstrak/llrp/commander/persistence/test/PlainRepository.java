@@ -0,0 +1,108 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.ROAccessReportsRepository;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.repository.RingBufferRepository;
+
+/**
+ * repository offering nothing but the plain {@link Repository} interface, 
+ * like the SQL repositories of the adaptor. remembers the sizes of the 
+ * message lists requested.
+ * @author swieland
+ *
+ */
+class PlainRepository implements Repository {
+	
+	private final RingBufferRepository delegate = new RingBufferRepository();
+	
+	private final List<Integer> requested = new ArrayList<Integer> ();
+	
+	/**
+	 * @param capacity the maximum number of messages kept.
+	 */
+	PlainRepository(int capacity) throws LLRPRuntimeException {
+		Fixtures.initialize(delegate, capacity);
+	}
+	
+	/**
+	 * @return the number of messages requested per list retrieval.
+	 */
+	List<Integer> getRequested() {
+		return requested;
+	}
+
+	public void initialize(Map<String, String> args) throws LLRPRuntimeException {
+	}
+
+	public Map<String, String> getArgs() {
+		return delegate.getArgs();
+	}
+
+	public boolean isHealth() {
+		return true;
+	}
+
+	public void put(LLRPMessageItem aMessage) {
+		delegate.put(aMessage);
+	}
+
+	public LLRPMessageItem get(String aMsgSysId) {
+		return delegate.get(aMsgSysId);
+	}
+
+	public List<LLRPMessageItem> get(String adaptorName, String readerName, int num, boolean content) {
+		requested.add(num);
+		return delegate.get(adaptorName, readerName, num, content);
+	}
+
+	public int count(String adaptor, String reader) {
+		return delegate.count(adaptor, reader);
+	}
+
+	public void clearAll() {
+		delegate.clearAll();
+	}
+
+	public void clearAdapter(String adapter) {
+		delegate.clearAdapter(adapter);
+	}
+
+	public void clearReader(String adapter, String reader) {
+		delegate.clearReader(adapter, reader);
+	}
+
+	public void close() {
+		delegate.close();
+	}
+
+	public ROAccessReportsRepository getROAccessRepository() {
+		return null;
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.ROAccessReportsRepository;
+import org.fosstrak.llrp.client.repository.sql.roaccess.AbstractSQLROAccessReportsRepository;
+import org.fosstrak.llrp.client.repository.sql.roaccess.ROAccessItem;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.repository.RingBufferRepository;
+import org.fosstrak.llrp.commander.persistence.type.ROAccessCursor;
+import org.fosstrak.llrp.commander.persistence.type.ROAccessQuery;
+import org.junit.Test;
+import org.llrp.ltk.generated.messages.RO_ACCESS_REPORT;
+import org.llrp.ltk.generated.parameters.EPC_96;
+import org.llrp.ltk.generated.parameters.TagReportData;
+import org.llrp.ltk.types.Integer96_HEX;
+import org.llrp.ltk.types.LLRPMessage;
+
+/**
+ * unit test the paged RO_ACCESS report queries.
+ * @author swieland
+ *
+ */
+public class ROAccessCursorTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	
+	private static final String EPC_A = "300833B2DDD9014000000001";
+	private static final String EPC_B = "350833B2DDD9014000000002";
+	
+	/**
+	 * RO_ACCESS repository keeping the reports in a list.
+	 */
+	private static class ListROAccessRepository implements ROAccessReportsRepository {
+		
+		private final List<ROAccessItem> reports = new ArrayList<ROAccessItem> ();
+		
+		public void add(RO_ACCESS_REPORT report, String adapter, String reader, long time) {
+			reports.addAll(ROAccessItem.parse(report, adapter, reader, time));
+		}
+
+		@Override
+		public void handle(String adaptorName, String readerName, LLRPMessage message) {
+			add((RO_ACCESS_REPORT) message, adaptorName, readerName, System.currentTimeMillis());
+		}
+
+		@Override
+		public void clear() {
+			reports.clear();
+		}
+
+		@Override
+		public List<ROAccessItem> getAll() {
+			return new ArrayList<ROAccessItem> (reports);
+		}
+	}
+	
+	/**
+	 * ring buffer repository with a RO_ACCESS repository attached.
+	 */
+	private static class ReportingRepository extends RingBufferRepository {
+		
+		private final ListROAccessRepository rorepo = new ListROAccessRepository();
+		
+		@Override
+		public ROAccessReportsRepository getROAccessRepository() {
+			return rorepo;
+		}
+	}
+	
+	private RO_ACCESS_REPORT newReport(String... epcs) throws Exception {
+		RO_ACCESS_REPORT report = new RO_ACCESS_REPORT();
+		for (String epc : epcs) {
+			EPC_96 epc96 = new EPC_96();
+			epc96.setEPC(new Integer96_HEX(epc));
+			TagReportData tag = new TagReportData();
+			tag.setEPCParameter(epc96);
+			report.addToTagReportDataList(tag);
+		}
+		return report;
+	}
+	
+	private PersistenceImpl newPersistence() throws Exception {
+		ReportingRepository repository = Fixtures.initialize(new ReportingRepository(), 100);
+		PersistenceImpl persistence = Fixtures.newPersistence(repository);
+		for (int i=0; i<1000; i++) {
+			repository.rorepo.add(newReport(EPC_A, EPC_B), ADAPTER_NAME, 
+					(i % 2 == 0) ? READER_NAME : OTHER_READER_NAME, 1000 + i);
+		}
+		return persistence;
+	}
+	
+	private String epc(ROAccessItem item) {
+		return item.getAsString(AbstractSQLROAccessReportsRepository.CINDEX_EPC);
+	}
+	
+	@Test
+	public void testPagesAllReports() throws Exception {
+		PersistenceImpl persistence = newPersistence();
+		ROAccessCursor cursor = persistence.queryRoAccessReports(null, 300);
+		int total = 0;
+		long last = Long.MAX_VALUE;
+		while (cursor.hasNext()) {
+			List<ROAccessItem> page = cursor.next();
+			Assert.assertTrue(page.size() <= 300);
+			for (ROAccessItem item : page) {
+				Assert.assertTrue(item.getLogTime().getTime() <= last);
+				last = item.getLogTime().getTime();
+			}
+			total += page.size();
+		}
+		Assert.assertEquals(2000, total);
+		Assert.assertEquals(2000, cursor.getScanned());
+	}
+	
+	@Test
+	public void testFilters() throws Exception {
+		PersistenceImpl persistence = newPersistence();
+		ROAccessQuery query = new ROAccessQuery();
+		query.setReader(READER_NAME);
+		query.setAdapter(ADAPTER_NAME);
+		query.setFrom(1100);
+		query.setTo(1199);
+		query.setEpcPrefix("35");
+		
+		ROAccessCursor cursor = persistence.queryRoAccessReports(query, 20);
+		int total = 0;
+		while (cursor.hasNext()) {
+			for (ROAccessItem item : cursor.next()) {
+				Assert.assertTrue(epc(item).equalsIgnoreCase(EPC_B));
+				Assert.assertTrue(item.getLogTime().getTime() >= 1100);
+				Assert.assertTrue(item.getLogTime().getTime() <= 1199);
+				total++;
+			}
+		}
+		// every second report of the time range belongs to the reader.
+		Assert.assertEquals(50, total);
+	}
+	
+	@Test
+	public void testClearedReportsStayCleared() throws Exception {
+		PersistenceImpl persistence = newPersistence();
+		persistence.clearRoAccessReports();
+		ROAccessCursor cursor = persistence.queryRoAccessReports(null, 100);
+		Assert.assertFalse(cursor.hasNext());
+		Assert.assertEquals(0, cursor.next().size());
+	}
+	
+	@Test
+	public void testNoROAccessRepository() throws Exception {
+		RingBufferRepository repository = Fixtures.newRingBuffer(100);
+		PersistenceImpl persistence = Fixtures.newPersistence(repository);
+		Assert.assertFalse(persistence.queryRoAccessReports(null, 100).hasNext());
+	}
+}
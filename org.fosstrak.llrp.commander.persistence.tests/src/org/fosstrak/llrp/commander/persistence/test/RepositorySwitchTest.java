@@ -0,0 +1,311 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.exception.PersistenceException;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.repository.RingBufferRepository;
+import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+import org.fosstrak.llrp.commander.persistence.type.RepositoryFactoryDelegate;
+import org.junit.Test;
+
+/**
+ * unit test switching the repository while messages are stored.
+ * @author swieland
+ *
+ */
+public class RepositorySwitchTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final int MESSAGES = 5000;
+	
+	/**
+	 * ring buffer keeping its messages on close, so they can be counted.
+	 */
+	private static class KeepingRepository extends RingBufferRepository {
+		@Override
+		public void close() {
+		}
+	}
+	
+	/**
+	 * second ring buffer type, the persistence refuses to switch to the same type.
+	 */
+	private static class OtherKeepingRepository extends KeepingRepository {
+	}
+	
+	/**
+	 * ring buffer blocking the writes until it is opened.
+	 */
+	private static class GatedRepository extends OtherKeepingRepository {
+		private final CountDownLatch open = new CountDownLatch(1);
+		
+		@Override
+		public void put(LLRPMessageItem message) {
+			await(open);
+			super.put(message);
+		}
+		
+		@Override
+		public void putAll(List<LLRPMessageItem> messages) {
+			await(open);
+			super.putAll(messages);
+		}
+	}
+	
+	/**
+	 * repository without counts of its own blocking the writes until it is 
+	 * opened, keeps its messages on close.
+	 */
+	private static class GatedPlainRepository extends PlainRepository {
+		private final CountDownLatch open = new CountDownLatch(1);
+		
+		private GatedPlainRepository() throws LLRPRuntimeException {
+			super(1000);
+		}
+		
+		@Override
+		public void put(LLRPMessageItem message) {
+			await(open);
+			super.put(message);
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+	
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static class Creator extends RepositoryFactoryDelegate {
+		private final Repository repository;
+		
+		private Creator(Repository repository) {
+			this.repository = repository;
+		}
+		
+		@Override
+		public Repository create(Map<String, String> args) throws PersistenceException {
+			return repository;
+		}
+	}
+	
+	private LLRPMessageItem newItem(int i) {
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setId("id" + i);
+		item.setAdapter(ADAPTER_NAME);
+		item.setReader(READER_NAME);
+		item.setMessageType("RO_ACCESS_REPORT");
+		item.setStatusCode("");
+		item.setContent("<RO_ACCESS_REPORT/>");
+		return item;
+	}
+	
+	@Test
+	public void testNoMessageLostDuringSwitch() throws Exception {
+		Repository first = new KeepingRepository();
+		first.initialize(null);
+		Repository second = new OtherKeepingRepository();
+		second.initialize(null);
+		Repository third = new KeepingRepository();
+		third.initialize(null);
+		
+		final PersistenceImpl persistence = new PersistenceImpl(null);
+		persistence.setRepository(first);
+		
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				for (int i=0; i<MESSAGES; i++) {
+					persistence.put(newItem(i));
+				}
+			}
+		});
+		writer.start();
+		
+		// switch onto a write-behind repository and back while writing.
+		PersistenceDescriptor writeBehind = PersistenceDescriptor.dummy();
+		writeBehind.setProperty(PersistenceDescriptor.PROP_WRITE_BEHIND, "true");
+		persistence.setRepositoryFactory(new Creator(second));
+		Assert.assertTrue(persistence.change(writeBehind));
+		Assert.assertTrue(persistence.getLastSwitchTime() >= persistence.getLastSwitchPause());
+		
+		persistence.setRepositoryFactory(new Creator(third));
+		Assert.assertTrue(persistence.change(PersistenceDescriptor.dummy()));
+		writer.join();
+		
+		int total = first.count(ADAPTER_NAME, READER_NAME) + 
+			second.count(ADAPTER_NAME, READER_NAME) + third.count(ADAPTER_NAME, READER_NAME);
+		Assert.assertEquals(MESSAGES, total);
+		
+		// the new repository is answering.
+		persistence.put(newItem(MESSAGES));
+		Assert.assertNotNull(third.get("id" + MESSAGES));
+	}
+	
+	@Test
+	public void testWriteBehindAssignsId() throws Exception {
+		Repository repository = new KeepingRepository();
+		repository.initialize(null);
+		Repository first = new OtherKeepingRepository();
+		first.initialize(null);
+		PersistenceImpl persistence = new PersistenceImpl(null);
+		persistence.setRepository(first);
+		
+		PersistenceDescriptor writeBehind = PersistenceDescriptor.dummy();
+		writeBehind.setProperty(PersistenceDescriptor.PROP_WRITE_BEHIND, "true");
+		persistence.setRepositoryFactory(new Creator(repository));
+		Assert.assertTrue(persistence.change(writeBehind));
+		
+		LLRPMessageItem item = newItem(0);
+		item.setId(null);
+		Assert.assertTrue(persistence.put(item));
+		// the id is known before the queue has been flushed.
+		Assert.assertNotNull(item.getId());
+		
+		persistence.close();
+		Assert.assertNotNull(repository.get(item.getId()));
+	}
+	
+	@Test
+	public void testKeepalivesStayInOldRepository() throws Exception {
+		Repository first = new OtherKeepingRepository();
+		first.initialize(null);
+		Repository second = new KeepingRepository();
+		second.initialize(null);
+		Repository third = new OtherKeepingRepository();
+		third.initialize(null);
+		PersistenceImpl persistence = new PersistenceImpl(null);
+		persistence.setRepository(first);
+		
+		PersistenceDescriptor coalescing = PersistenceDescriptor.dummy();
+		coalescing.setProperty(PersistenceDescriptor.PROP_KEEPALIVE_COALESCING, "true");
+		persistence.setRepositoryFactory(new Creator(second));
+		Assert.assertTrue(persistence.change(coalescing));
+		for (int i=0; i<3; i++) {
+			LLRPMessageItem item = Fixtures.newItem("keepalive" + i, ADAPTER_NAME, READER_NAME, "KEEPALIVE", 1000 * i);
+			if (persistence.admit(item)) {
+				persistence.put(item);
+			}
+		}
+		Assert.assertEquals(0, second.count(ADAPTER_NAME, READER_NAME));
+		
+		// the summary of the open run is written before the switch.
+		persistence.setRepositoryFactory(new Creator(third));
+		Assert.assertTrue(persistence.change(PersistenceDescriptor.dummy()));
+		Assert.assertEquals(1, second.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(0, third.count(ADAPTER_NAME, READER_NAME));
+	}
+	
+	@Test
+	public void testClearDropsQueuedMessages() throws Exception {
+		Repository first = new KeepingRepository();
+		first.initialize(null);
+		final GatedRepository gated = new GatedRepository();
+		gated.initialize(null);
+		final PersistenceImpl persistence = new PersistenceImpl(null);
+		persistence.setRepository(first);
+		
+		PersistenceDescriptor writeBehind = PersistenceDescriptor.dummy();
+		writeBehind.setProperty(PersistenceDescriptor.PROP_WRITE_BEHIND, "true");
+		writeBehind.setProperty(PersistenceDescriptor.PROP_WRITE_BEHIND_BATCH_SIZE, "10");
+		persistence.setRepositoryFactory(new Creator(gated));
+		Assert.assertTrue(persistence.change(writeBehind));
+		
+		// the writer blocks on the first batch, the other messages stay queued.
+		for (int i=0; i<100; i++) {
+			persistence.put(newItem(i));
+		}
+		Thread clear = new Thread(new Runnable() {
+			public void run() {
+				persistence.clearReader(ADAPTER_NAME, READER_NAME);
+			}
+		});
+		clear.start();
+		Thread.sleep(100);
+		gated.open.countDown();
+		clear.join();
+		
+		// neither the queued messages nor the batch in flight come back.
+		persistence.close();
+		Assert.assertEquals(0, gated.count(ADAPTER_NAME, READER_NAME));
+	}
+	
+	@Test
+	public void testClearResetsCountersOfQueuedMessages() throws Exception {
+		Repository first = new KeepingRepository();
+		first.initialize(null);
+		final GatedPlainRepository gated = new GatedPlainRepository();
+		final PersistenceImpl persistence = new PersistenceImpl(null);
+		persistence.setRepository(first);
+		
+		PersistenceDescriptor writeBehind = PersistenceDescriptor.dummy();
+		writeBehind.setProperty(PersistenceDescriptor.PROP_WRITE_BEHIND, "true");
+		writeBehind.setProperty(PersistenceDescriptor.PROP_WRITE_BEHIND_BATCH_SIZE, "10");
+		writeBehind.setProperty(PersistenceDescriptor.PROP_COUNTERS, "true");
+		persistence.setRepositoryFactory(new Creator(gated));
+		Assert.assertTrue(persistence.change(writeBehind));
+		
+		for (int i=0; i<100; i++) {
+			persistence.put(newItem(i));
+		}
+		// more messages are put while the clear waits for the writer.
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				for (int i=100; i<200; i++) {
+					persistence.put(newItem(i));
+				}
+			}
+		});
+		Thread clear = new Thread(new Runnable() {
+			public void run() {
+				persistence.clearReader(ADAPTER_NAME, READER_NAME);
+			}
+		});
+		clear.start();
+		writer.start();
+		Thread.sleep(100);
+		gated.open.countDown();
+		clear.join();
+		writer.join();
+		
+		Assert.assertNotNull(persistence.getCounts());
+		persistence.close();
+		Assert.assertEquals(gated.count(ADAPTER_NAME, READER_NAME), 
+				persistence.count(ADAPTER_NAME, READER_NAME));
+	}
+}
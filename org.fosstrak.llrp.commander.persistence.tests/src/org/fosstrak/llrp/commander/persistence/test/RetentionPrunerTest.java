@@ -0,0 +1,95 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.impl.RetentionPruner;
+import org.junit.Test;
+
+/**
+ * unit test the retention pruner.
+ * @author swieland
+ *
+ */
+public class RetentionPrunerTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	
+	private LLRPMessageItem newItem(String reader, long time) {
+		return Fixtures.newItem(reader + time, ADAPTER_NAME, reader, "KEEPALIVE", time);
+	}
+	
+	private PersistenceImpl newPersistence() throws Exception {
+		return Fixtures.newPersistence(1000);
+	}
+	
+	@Test
+	public void testPruneByAge() throws Exception {
+		PersistenceImpl persistence = newPersistence();
+		final long now = System.currentTimeMillis();
+		for (int i=0; i<10; i++) {
+			// 5 messages of two hours ago, 5 recent ones.
+			persistence.put(newItem(READER_NAME, now - ((i < 5) ? 7200000 : 0) + i));
+		}
+		
+		RetentionPruner pruner = new RetentionPruner(persistence, 3600000, 0, 1000, 2);
+		Assert.assertEquals(5, pruner.prune());
+		Assert.assertEquals(5, persistence.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(5, pruner.getLastPruned());
+		Assert.assertEquals(1, pruner.getRuns());
+		
+		List<LLRPMessageItem> items = persistence.get(ADAPTER_NAME, READER_NAME, -1, false);
+		for (LLRPMessageItem item : items) {
+			Assert.assertTrue(item.getTime().getTime() >= now - 3600000);
+		}
+		// nothing left to prune.
+		Assert.assertEquals(0, pruner.prune());
+		Assert.assertEquals(5, pruner.getPruned());
+	}
+	
+	@Test
+	public void testPruneByRows() throws Exception {
+		PersistenceImpl persistence = newPersistence();
+		for (int i=0; i<25; i++) {
+			persistence.put(newItem(READER_NAME, 1000 + i));
+			persistence.put(newItem(OTHER_READER_NAME, 1000 + i));
+		}
+		
+		RetentionPruner pruner = new RetentionPruner(persistence, 0, 10, 1000, 4);
+		Assert.assertEquals(30, pruner.prune());
+		Assert.assertEquals(10, persistence.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(10, persistence.count(ADAPTER_NAME, OTHER_READER_NAME));
+		
+		// the most recent messages are kept.
+		List<LLRPMessageItem> items = persistence.get(ADAPTER_NAME, READER_NAME, -1, false);
+		Assert.assertEquals(READER_NAME + 1024, items.get(0).getId());
+		Assert.assertEquals(READER_NAME + 1015, items.get(items.size() - 1).getId());
+		Assert.assertNull(persistence.get(READER_NAME + 1014));
+	}
+}
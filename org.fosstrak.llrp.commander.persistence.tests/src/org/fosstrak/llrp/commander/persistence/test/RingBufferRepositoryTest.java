@@ -0,0 +1,163 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.junit.Test;
+
+/**
+ * unit test the in-memory ring buffer repository.
+ * @author swieland
+ *
+ */
+public class RingBufferRepositoryTest {
+
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	
+	private Repository newRepository(int capacity) throws LLRPRuntimeException {
+		Repository repository = Fixtures.newRingBuffer(capacity);
+		return repository;
+	}
+	
+	private LLRPMessageItem newItem(String id, String reader, long time) {
+		LLRPMessageItem item = Fixtures.newItem(id, ADAPTER_NAME, reader, "KEEPALIVE", time);
+		item.setContent("<content " + id + "/>");
+		return item;
+	}
+	
+	@Test(expected = LLRPRuntimeException.class)
+	public void testInitializeInvalidCapacity() throws LLRPRuntimeException {
+		newRepository(0);
+	}
+	
+	@Test
+	public void testPutAndGetById() throws LLRPRuntimeException {
+		Repository repository = newRepository(10);
+		repository.put(newItem("1", READER_NAME, 1000));
+		
+		LLRPMessageItem item = repository.get("1");
+		Assert.assertNotNull(item);
+		Assert.assertEquals(READER_NAME, item.getReader());
+		Assert.assertEquals("<content 1/>", item.getContent());
+		Assert.assertNull(repository.get("2"));
+	}
+	
+	@Test
+	public void testStoredContentIsDetachedFromCaller() throws LLRPRuntimeException {
+		Repository repository = newRepository(10);
+		LLRPMessageItem item = newItem("1", READER_NAME, 1000);
+		repository.put(item);
+		item.setContent("");
+		
+		Assert.assertEquals("<content 1/>", repository.get("1").getContent());
+	}
+	
+	@Test
+	public void testEvictOldest() throws LLRPRuntimeException {
+		Repository repository = newRepository(3);
+		for (int i=0; i<5; i++) {
+			repository.put(newItem(Integer.toString(i), READER_NAME, 1000 + i));
+		}
+		
+		Assert.assertEquals(3, repository.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertNull(repository.get("0"));
+		Assert.assertNull(repository.get("1"));
+		Assert.assertNotNull(repository.get("2"));
+		
+		List<LLRPMessageItem> items = repository.get(ADAPTER_NAME, READER_NAME, Repository.RETRIEVE_ALL, false);
+		Assert.assertEquals(3, items.size());
+		Assert.assertEquals("4", items.get(0).getId());
+		Assert.assertEquals("2", items.get(2).getId());
+	}
+	
+	@Test
+	public void testEvictAfterDuplicateId() throws LLRPRuntimeException {
+		Repository repository = newRepository(3);
+		for (int i=0; i<3; i++) {
+			repository.put(newItem(Integer.toString(i), READER_NAME, 1000 + i));
+		}
+		// the oldest message stored again (eg. re-imported from an archive).
+		LLRPMessageItem duplicate = newItem("0", READER_NAME, 1003);
+		duplicate.setContent("<duplicate/>");
+		repository.put(duplicate);
+		Assert.assertEquals(3, repository.count(ADAPTER_NAME, READER_NAME));
+		
+		// evicts the oldest remaining message, not the new copy.
+		repository.put(newItem("3", READER_NAME, 1004));
+		Assert.assertEquals(3, repository.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertNull(repository.get("1"));
+		Assert.assertEquals("<duplicate/>", repository.get("0").getContent());
+		Assert.assertEquals("<content 2/>", repository.get("2").getContent());
+		
+		List<LLRPMessageItem> items = repository.get(ADAPTER_NAME, READER_NAME, Repository.RETRIEVE_ALL, false);
+		Assert.assertEquals(3, items.size());
+		Assert.assertEquals("3", items.get(0).getId());
+		Assert.assertEquals("0", items.get(1).getId());
+		Assert.assertEquals("2", items.get(2).getId());
+		
+		// moved to another reader.
+		repository.put(newItem("2", OTHER_READER_NAME, 1005));
+		Assert.assertEquals(2, repository.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(OTHER_READER_NAME, repository.get("2").getReader());
+		Assert.assertEquals("<duplicate/>", repository.get("0").getContent());
+		Assert.assertEquals("<content 3/>", repository.get("3").getContent());
+	}
+	
+	@Test
+	public void testGetMergesReaders() throws LLRPRuntimeException {
+		Repository repository = newRepository(10);
+		repository.put(newItem("1", READER_NAME, 1000));
+		repository.put(newItem("2", OTHER_READER_NAME, 2000));
+		repository.put(newItem("3", READER_NAME, 3000));
+		
+		List<LLRPMessageItem> items = repository.get(ADAPTER_NAME, null, 2, true);
+		Assert.assertEquals(2, items.size());
+		Assert.assertEquals("3", items.get(0).getId());
+		Assert.assertEquals("2", items.get(1).getId());
+		
+		Assert.assertEquals(3, repository.count(null, null));
+		Assert.assertEquals(1, repository.count(ADAPTER_NAME, OTHER_READER_NAME));
+	}
+	
+	@Test
+	public void testClear() throws LLRPRuntimeException {
+		Repository repository = newRepository(10);
+		repository.put(newItem("1", READER_NAME, 1000));
+		repository.put(newItem("2", OTHER_READER_NAME, 2000));
+		
+		repository.clearReader(ADAPTER_NAME, READER_NAME);
+		Assert.assertNull(repository.get("1"));
+		Assert.assertEquals(1, repository.count(ADAPTER_NAME, null));
+		
+		repository.clearAdapter(ADAPTER_NAME);
+		Assert.assertNull(repository.get("2"));
+		Assert.assertEquals(0, repository.count(null, null));
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.client.RepositoryFactory;
+import org.fosstrak.llrp.client.repository.sql.DerbyRepository;
+import org.fosstrak.llrp.commander.persistence.impl.MessageCounters;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.repository.SQLPagedRepository;
+import org.fosstrak.llrp.commander.persistence.type.MessageCursor;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
+import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+import org.fosstrak.llrp.commander.persistence.type.ReaderKey;
+import org.junit.Test;
+
+/**
+ * unit test the keyset paging of the SQL repositories on the internal 
+ * Derby database.
+ * @author swieland
+ *
+ */
+public class SQLPagedRepositoryTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	private static final int MESSAGES = 1000;
+	private static final int PAGE_SIZE = 25;
+	private static final String[] TYPES = { "KEEPALIVE", "RO_ACCESS_REPORT", "READER_EVENT_NOTIFICATION" };
+	
+	private File newFolder() {
+		File folder = new File(System.getProperty("java.io.tmpdir"), "testSQLPaged" + System.nanoTime());
+		folder.mkdirs();
+		return folder;
+	}
+	
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+	
+	/**
+	 * open the internal Derby database and store the messages.
+	 */
+	private PersistenceImpl open(File folder) throws Exception {
+		System.setProperty(PersistenceImpl.DB_STORE_LOCATION, folder.getAbsolutePath());
+		PersistenceImpl persistence = new PersistenceImpl(null);
+		Assert.assertNull(persistence.initialize(true, PersistenceDescriptor.dummy()));
+		for (int i=0; i<MESSAGES; i++) {
+			persistence.put(newItem(i));
+		}
+		return persistence;
+	}
+	
+	/**
+	 * open a Derby repository in the given folder, adapted for paging, and 
+	 * store the messages.
+	 */
+	private SQLPagedRepository openDerby(File folder) throws Exception {
+		Map<String, String> args = new HashMap<String, String> ();
+		args.put(DerbyRepository.ARG_REPO_LOCATION, folder.getAbsolutePath());
+		args.put(RepositoryFactory.ARG_USERNAME, "");
+		args.put(RepositoryFactory.ARG_PASSWRD, "");
+		args.put(RepositoryFactory.ARG_JDBC_STRING, "");
+		args.put(RepositoryFactory.ARG_WIPE_DB, "true");
+		args.put(RepositoryFactory.ARG_WIPE_RO_ACCESS_REPORTS_DB, "true");
+		args.put(RepositoryFactory.ARG_LOG_RO_ACCESS_REPORT, "false");
+		Repository derby = new DerbyRepository();
+		derby.initialize(args);
+		Repository adapted = SQLPagedRepository.adapt(derby);
+		Assert.assertTrue(adapted instanceof SQLPagedRepository);
+		for (int i=0; i<MESSAGES; i++) {
+			adapted.put(newItem(i));
+		}
+		return (SQLPagedRepository) adapted;
+	}
+	
+	/**
+	 * @return message i, three messages share a time stamp.
+	 */
+	private LLRPMessageItem newItem(int i) {
+		return Fixtures.newItem("id" + i, ADAPTER_NAME, 
+				(i % 2 == 0) ? READER_NAME : OTHER_READER_NAME, "KEEPALIVE", 1000 + i / 3);
+	}
+	
+	/**
+	 * walk the cursor to the end.
+	 * @return the number of messages walked.
+	 */
+	private int walk(MessageCursor cursor, String reader) {
+		Set<String> ids = new HashSet<String> ();
+		MessageKey previous = null;
+		int pages = 0;
+		while (cursor.hasNext()) {
+			List<LLRPMessageItem> page = cursor.next();
+			Assert.assertTrue(page.size() <= PAGE_SIZE);
+			for (LLRPMessageItem item : page) {
+				Assert.assertTrue(ids.add(item.getId()));
+				if (null != reader) {
+					Assert.assertEquals(reader, item.getReader());
+				}
+				MessageKey key = MessageKey.of(item);
+				// most recent first, strictly descending.
+				Assert.assertTrue((null == previous) || (key.compareTo(previous) < 0));
+				previous = key;
+			}
+			pages++;
+		}
+		Assert.assertTrue(pages >= ids.size() / PAGE_SIZE);
+		return ids.size();
+	}
+	
+	@Test
+	public void testWalkAllPages() throws Exception {
+		File folder = newFolder();
+		PersistenceImpl persistence = open(folder);
+		try {
+			Assert.assertEquals(MESSAGES, walk(persistence.cursor(null, null, PAGE_SIZE), null));
+			Assert.assertEquals(MESSAGES / 2, walk(persistence.cursor(ADAPTER_NAME, READER_NAME, PAGE_SIZE), READER_NAME));
+			Assert.assertEquals(MESSAGES / 2, persistence.count(ADAPTER_NAME, OTHER_READER_NAME));
+		} finally {
+			persistence.close();
+			delete(folder);
+		}
+	}
+	
+	@Test
+	public void testPageWithContent() throws Exception {
+		File folder = newFolder();
+		SQLPagedRepository repository = openDerby(folder);
+		try {
+			// the oldest messages first, starting after a key deep in the history.
+			LLRPMessageItem middle = repository.get("id500");
+			List<LLRPMessageItem> page = repository.page(ADAPTER_NAME, READER_NAME, 
+					MessageKey.of(middle), false, PAGE_SIZE, true);
+			Assert.assertEquals(PAGE_SIZE, page.size());
+			Assert.assertEquals("id502", page.get(0).getId());
+			Assert.assertEquals("<KEEPALIVE/>", page.get(0).getContent());
+			
+			page = repository.page(ADAPTER_NAME, READER_NAME, MessageKey.of(middle), true, PAGE_SIZE, false);
+			Assert.assertEquals("id498", page.get(0).getId());
+			Assert.assertNull(page.get(0).getContent());
+		} finally {
+			repository.close();
+			delete(folder);
+		}
+	}
+	
+	@Test
+	public void testSeedCounters() throws Exception {
+		File folder = newFolder();
+		SQLPagedRepository repository = openDerby(folder);
+		try {
+			MessageCounters counters = new MessageCounters();
+			counters.seed(repository);
+			Assert.assertEquals(MESSAGES / 2, counters.count(ADAPTER_NAME, READER_NAME));
+			Assert.assertEquals(MESSAGES, counters.count(null, null));
+			Assert.assertEquals(Integer.valueOf(MESSAGES / 2), 
+					repository.countByType().get(ReaderKey.of(ADAPTER_NAME, OTHER_READER_NAME)).get("KEEPALIVE"));
+		} finally {
+			repository.close();
+			delete(folder);
+		}
+	}
+	
+	/**
+	 * walk all the pages of a query.
+	 * @return the ids of the matches, most recent first.
+	 */
+	private List<String> query(SQLPagedRepository repository, MessageQuery query) {
+		List<String> ids = new ArrayList<String> ();
+		MessageKey key = null;
+		List<LLRPMessageItem> page;
+		do {
+			page = repository.query(query, key, true, 7, false);
+			for (LLRPMessageItem item : page) {
+				ids.add(item.getId());
+			}
+			if (!page.isEmpty()) {
+				key = MessageKey.of(page.get(page.size() - 1));
+			}
+		} while (page.size() == 7);
+		return ids;
+	}
+	
+	/**
+	 * @return the ids of the stored messages matching the query, most recent first.
+	 */
+	private List<String> expected(MessageQuery query) {
+		List<String> ids = new ArrayList<String> ();
+		for (int i=MESSAGES - 1; i>=0; i--) {
+			if (query.matches(newQueryItem(i))) {
+				ids.add("id" + i);
+			}
+		}
+		return ids;
+	}
+	
+	/**
+	 * @return message i with varying type, status code, comment and mark.
+	 */
+	private LLRPMessageItem newQueryItem(int i) {
+		LLRPMessageItem item = Fixtures.newItem("id" + i, ADAPTER_NAME, 
+				(i % 2 == 0) ? READER_NAME : OTHER_READER_NAME, TYPES[i % TYPES.length], 1000 + i);
+		item.setStatusCode((i % 4 == 0) ? null : ((i % 4 == 1) ? "M_Success" : "R_DeviceError"));
+		item.setComment((i % 10 == 0) ? "Checked by 100% operator" : null);
+		item.setMark((i % 5 == 0) ? LLRPMessageItem.MARK_OUTGOING : LLRPMessageItem.MARK_INCOMING);
+		return item;
+	}
+	
+	@Test
+	public void testQuery() throws Exception {
+		File folder = newFolder();
+		SQLPagedRepository repository = openDerby(folder);
+		try {
+			repository.clearAll();
+			for (int i=0; i<MESSAGES; i++) {
+				repository.put(newQueryItem(i));
+			}
+			
+			MessageQuery types = new MessageQuery();
+			types.addMessageType("RO_ACCESS_REPORT");
+			types.addStatusCode("M_Success");
+			types.addStatusCode(null);
+			Assert.assertEquals(expected(types), query(repository, types));
+			
+			MessageQuery range = new MessageQuery();
+			range.setAdapter(ADAPTER_NAME);
+			range.setReader(READER_NAME);
+			range.excludeStatusCode(null);
+			range.setFrom(1100);
+			range.setTo(1300);
+			Assert.assertEquals(expected(range), query(repository, range));
+			
+			MessageQuery comment = new MessageQuery();
+			comment.setComment("100% OPERATOR");
+			comment.setMark(LLRPMessageItem.MARK_OUTGOING);
+			List<String> ids = query(repository, comment);
+			Assert.assertEquals(MESSAGES / 10, ids.size());
+			Assert.assertEquals(expected(comment), ids);
+		} finally {
+			repository.close();
+			delete(folder);
+		}
+	}
+}
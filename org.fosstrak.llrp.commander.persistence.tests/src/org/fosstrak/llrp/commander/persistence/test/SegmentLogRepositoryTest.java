@@ -0,0 +1,234 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.repository.SegmentLogRepository;
+import org.junit.Test;
+
+/**
+ * unit test the memory-mapped segment log repository.
+ * @author swieland
+ *
+ */
+public class SegmentLogRepositoryTest {
+
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	
+	private File newFolder() {
+		File folder = new File(System.getProperty("java.io.tmpdir"), "testSegmentLog" + System.nanoTime());
+		folder.mkdirs();
+		return folder;
+	}
+	
+	private Repository open(File folder) throws LLRPRuntimeException {
+		Map<String, String> args = new HashMap<String, String> ();
+		args.put(SegmentLogRepository.ARG_LOCATION, folder.getAbsolutePath());
+		args.put(SegmentLogRepository.ARG_SEGMENT_SIZE, "1024");
+		Repository repository = new SegmentLogRepository();
+		repository.initialize(args);
+		return repository;
+	}
+	
+	private void delete(File folder) {
+		File log = new File(folder, SegmentLogRepository.LOG_SUBFOLDER);
+		File[] files = log.listFiles();
+		if (null != files) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		log.delete();
+		folder.delete();
+	}
+	
+	private LLRPMessageItem newItem(String id, String reader, long time) {
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setId(id);
+		item.setAdapter(ADAPTER_NAME);
+		item.setReader(reader);
+		item.setMessageType("RO_ACCESS_REPORT");
+		item.setStatusCode("");
+		item.setContent("<RO_ACCESS_REPORT id=\"" + id + "\"/>");
+		item.setTime(new Timestamp(time));
+		return item;
+	}
+	
+	@Test
+	public void testPutAndGet() throws LLRPRuntimeException {
+		File folder = newFolder();
+		Repository repository = open(folder);
+		repository.put(newItem("1", READER_NAME, 1000));
+		repository.put(newItem("2", OTHER_READER_NAME, 2000));
+		repository.put(newItem("3", READER_NAME, 3000));
+		
+		LLRPMessageItem item = repository.get("2");
+		Assert.assertNotNull(item);
+		Assert.assertEquals(OTHER_READER_NAME, item.getReader());
+		Assert.assertEquals("<RO_ACCESS_REPORT id=\"2\"/>", item.getContent());
+		
+		List<LLRPMessageItem> items = repository.get(ADAPTER_NAME, null, 2, false);
+		Assert.assertEquals(2, items.size());
+		Assert.assertEquals("3", items.get(0).getId());
+		Assert.assertEquals("2", items.get(1).getId());
+		Assert.assertNull(items.get(0).getContent());
+		
+		Assert.assertEquals(2, repository.count(ADAPTER_NAME, READER_NAME));
+		repository.close();
+		delete(folder);
+	}
+	
+	@Test
+	public void testRecoverAfterReopen() throws LLRPRuntimeException {
+		File folder = newFolder();
+		Repository repository = open(folder);
+		// enough messages to roll over several segments.
+		for (int i=0; i<50; i++) {
+			repository.put(newItem(Integer.toString(i), (i % 2 == 0) ? READER_NAME : OTHER_READER_NAME, 1000 + i));
+		}
+		repository.close();
+		
+		repository = open(folder);
+		Assert.assertEquals(50, repository.count(null, null));
+		Assert.assertEquals(25, repository.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals("<RO_ACCESS_REPORT id=\"7\"/>", repository.get("7").getContent());
+		
+		List<LLRPMessageItem> items = repository.get(ADAPTER_NAME, READER_NAME, 1, true);
+		Assert.assertEquals("48", items.get(0).getId());
+		repository.close();
+		delete(folder);
+	}
+	
+	@Test
+	public void testClearReaderSurvivesCompactionAndReopen() throws LLRPRuntimeException {
+		File folder = newFolder();
+		Repository repository = open(folder);
+		for (int i=0; i<50; i++) {
+			repository.put(newItem(Integer.toString(i), (i % 2 == 0) ? READER_NAME : OTHER_READER_NAME, 1000 + i));
+		}
+		repository.clearReader(ADAPTER_NAME, READER_NAME);
+		Assert.assertEquals(0, repository.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(25, repository.count(ADAPTER_NAME, OTHER_READER_NAME));
+		Assert.assertNull(repository.get("0"));
+		Assert.assertNotNull(repository.get("1"));
+		
+		repository.put(newItem("50", READER_NAME, 2000));
+		repository.close();
+		
+		repository = open(folder);
+		Assert.assertEquals(1, repository.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(25, repository.count(ADAPTER_NAME, OTHER_READER_NAME));
+		Assert.assertEquals("<RO_ACCESS_REPORT id=\"1\"/>", repository.get("1").getContent());
+		Assert.assertNull(repository.get("0"));
+		
+		repository.clearAdapter(ADAPTER_NAME);
+		Assert.assertEquals(0, repository.count(null, null));
+		repository.close();
+		
+		repository = open(folder);
+		Assert.assertEquals(0, repository.count(null, null));
+		repository.close();
+		delete(folder);
+	}
+	
+	@Test
+	public void testDuplicateIdSurvivesCompaction() throws LLRPRuntimeException {
+		File folder = newFolder();
+		Repository repository = open(folder);
+		repository.put(newItem("dup", READER_NAME, 1000));
+		for (int i=0; i<50; i++) {
+			repository.put(newItem(Integer.toString(i), OTHER_READER_NAME, 1001 + i));
+		}
+		// the same message again (eg. re-imported from an archive).
+		repository.put(newItem("dup", READER_NAME, 1000));
+		Assert.assertEquals(1, repository.count(ADAPTER_NAME, READER_NAME));
+		
+		// compacts the segment of the first record.
+		repository.clearReader(ADAPTER_NAME, OTHER_READER_NAME);
+		Assert.assertEquals("<RO_ACCESS_REPORT id=\"dup\"/>", repository.get("dup").getContent());
+		List<LLRPMessageItem> items = repository.get(ADAPTER_NAME, READER_NAME, Repository.RETRIEVE_ALL, true);
+		Assert.assertEquals(1, items.size());
+		Assert.assertEquals("<RO_ACCESS_REPORT id=\"dup\"/>", items.get(0).getContent());
+		repository.close();
+		
+		repository = open(folder);
+		Assert.assertEquals(1, repository.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertNotNull(repository.get("dup"));
+		repository.close();
+		delete(folder);
+	}
+	
+	@Test
+	public void testClearAll() throws LLRPRuntimeException {
+		File folder = newFolder();
+		Repository repository = open(folder);
+		repository.put(newItem("1", READER_NAME, 1000));
+		repository.clearAll();
+		Assert.assertEquals(0, repository.count(null, null));
+		repository.put(newItem("2", READER_NAME, 2000));
+		repository.close();
+		
+		repository = open(folder);
+		Assert.assertEquals(1, repository.count(null, null));
+		Assert.assertNull(repository.get("1"));
+		repository.close();
+		delete(folder);
+	}
+	
+	@Test
+	public void testPruneSurvivesReopen() throws LLRPRuntimeException {
+		File folder = newFolder();
+		SegmentLogRepository repository = (SegmentLogRepository) open(folder);
+		for (int i=0; i<20; i++) {
+			repository.put(newItem(Integer.toString(i), READER_NAME, 1000 + i));
+		}
+		repository.put(newItem("other", OTHER_READER_NAME, 5000));
+		
+		// older than 1010 or more than 8 messages, at most 5 per call.
+		Assert.assertEquals(5, repository.prune(ADAPTER_NAME, READER_NAME, 1010, 8, 5).size());
+		Assert.assertEquals(15, repository.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(7, repository.prune(ADAPTER_NAME, READER_NAME, 1010, 8, 100).size());
+		Assert.assertEquals(8, repository.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertNull(repository.get("11"));
+		repository.close();
+		
+		Repository reopened = open(folder);
+		Assert.assertEquals(8, reopened.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(1, reopened.count(ADAPTER_NAME, OTHER_READER_NAME));
+		Assert.assertNull(reopened.get("11"));
+		Assert.assertNotNull(reopened.get("12"));
+		reopened.close();
+		delete(folder);
+	}
+}
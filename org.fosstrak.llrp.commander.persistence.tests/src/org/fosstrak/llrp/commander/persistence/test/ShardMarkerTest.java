@@ -0,0 +1,120 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.impl.ShardMarker;
+import org.fosstrak.llrp.commander.persistence.repository.SegmentLogRepository;
+import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+import org.fosstrak.llrp.commander.persistence.type.RepositoryFactoryDelegate;
+import org.junit.Test;
+
+/**
+ * unit test keeping the number of shards of a storage location.
+ * @author swieland
+ *
+ */
+public class ShardMarkerTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	
+	private File newFolder() {
+		File folder = new File(System.getProperty("java.io.tmpdir"), "testShardMarker" + System.nanoTime());
+		folder.mkdirs();
+		return folder;
+	}
+	
+	private PersistenceImpl open(File folder, int shards) throws Exception {
+		PersistenceDescriptor desc = new PersistenceDescriptor(false, false, false, "", "", "", 
+				SegmentLogRepository.class.getName());
+		desc.setProperty(SegmentLogRepository.ARG_LOCATION, folder.getAbsolutePath());
+		desc.setProperty(PersistenceDescriptor.PROP_SHARDS, Integer.toString(shards));
+		PersistenceImpl persistence = new PersistenceImpl(null);
+		persistence.setRepositoryFactory(new RepositoryFactoryDelegate());
+		Assert.assertNull(persistence.initialize(false, desc));
+		return persistence;
+	}
+	
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+	
+	@Test
+	public void testKeepStoredNumber() {
+		File folder = newFolder();
+		Assert.assertEquals(4, new ShardMarker(folder.getAbsolutePath()).resolve(4, false));
+		Assert.assertTrue(new File(folder, ShardMarker.MARKER_FILE).isFile());
+		
+		// a changed number is refused unless the database is wiped.
+		Assert.assertEquals(4, new ShardMarker(folder.getAbsolutePath()).resolve(2, false));
+		Assert.assertEquals(4, new ShardMarker(folder.getAbsolutePath()).resolve(1, false));
+		Assert.assertEquals(2, new ShardMarker(folder.getAbsolutePath()).resolve(2, true));
+		Assert.assertEquals(2, new ShardMarker(folder.getAbsolutePath()).resolve(3, false));
+		
+		delete(folder);
+	}
+	
+	@Test
+	public void testUnshardedMessages() {
+		File folder = newFolder();
+		File data = new File(folder, SegmentLogRepository.LOG_SUBFOLDER);
+		data.mkdirs();
+		
+		// the messages of a single instance are not split.
+		Assert.assertEquals(1, new ShardMarker(folder.getAbsolutePath()).resolve(3, false));
+		Assert.assertFalse(new File(folder, ShardMarker.MARKER_FILE).isFile());
+		
+		delete(folder);
+	}
+	
+	@Test
+	public void testHistoryKeptOnChange() throws Exception {
+		File folder = newFolder();
+		PersistenceImpl persistence = open(folder, 2);
+		for (int i=0; i<10; i++) {
+			persistence.put(Fixtures.newItem("id" + i, ADAPTER_NAME, "reader" + i, "KEEPALIVE", i));
+		}
+		persistence.close();
+		
+		// the readers are still found in their shards.
+		persistence = open(folder, 3);
+		for (int i=0; i<10; i++) {
+			List<LLRPMessageItem> items = persistence.get(ADAPTER_NAME, "reader" + i, -1, false);
+			Assert.assertEquals(1, items.size());
+			Assert.assertEquals("id" + i, items.get(0).getId());
+		}
+		persistence.close();
+		delete(folder);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.repository.RingBufferRepository;
+import org.fosstrak.llrp.commander.persistence.repository.ShardedRepository;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
+import org.junit.Test;
+
+/**
+ * unit test the sharded repository.
+ * @author swieland
+ *
+ */
+public class ShardedRepositoryTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final int SHARDS = 4;
+	private static final int READERS = 8;
+	
+	private LLRPMessageItem newItem(int reader, long time) {
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setId("reader" + reader + "-" + time);
+		item.setAdapter(ADAPTER_NAME);
+		item.setReader("reader" + reader);
+		item.setMessageType((time % 2 == 0) ? "KEEPALIVE" : "RO_ACCESS_REPORT");
+		item.setStatusCode("");
+		item.setTime(new Timestamp(time));
+		return item;
+	}
+	
+	private ShardedRepository newSharded() throws Exception {
+		List<Repository> shards = new ArrayList<Repository> ();
+		for (int i=0; i<SHARDS; i++) {
+			Repository shard = new RingBufferRepository();
+			shard.initialize(null);
+			shards.add(shard);
+		}
+		ShardedRepository sharded = new ShardedRepository(shards);
+		sharded.initialize(null);
+		return sharded;
+	}
+	
+	@Test
+	public void testPartitionAndMerge() throws Exception {
+		ShardedRepository sharded = newSharded();
+		List<LLRPMessageItem> batch = new ArrayList<LLRPMessageItem> ();
+		for (int t=0; t<10; t++) {
+			for (int r=0; r<READERS; r++) {
+				batch.add(newItem(r, 1000 + t * READERS + r));
+			}
+		}
+		sharded.putAll(batch);
+		
+		// all the messages of a reader are in its own shard.
+		for (int r=0; r<READERS; r++) {
+			String reader = "reader" + r;
+			Repository shard = sharded.getShards().get(sharded.shardOf(ADAPTER_NAME, reader));
+			Assert.assertEquals(10, shard.count(ADAPTER_NAME, reader));
+			Assert.assertEquals(10, sharded.count(ADAPTER_NAME, reader));
+		}
+		Assert.assertEquals(10 * READERS, sharded.count(ADAPTER_NAME, null));
+		Assert.assertNotNull(sharded.get("reader3-1003"));
+		
+		// the most recent messages over all the shards.
+		List<LLRPMessageItem> items = sharded.get(ADAPTER_NAME, null, 5, false);
+		Assert.assertEquals(5, items.size());
+		Assert.assertEquals(1079, items.get(0).getTime().getTime());
+		Assert.assertEquals(1075, items.get(4).getTime().getTime());
+		
+		// paging and queries fan out.
+		List<LLRPMessageItem> page = sharded.page(ADAPTER_NAME, null, 
+				new MessageKey(1010, "reader2-1010"), true, 4, false);
+		Assert.assertEquals(4, page.size());
+		Assert.assertEquals(1009, page.get(0).getTime().getTime());
+		Assert.assertEquals(1006, page.get(3).getTime().getTime());
+		
+		MessageQuery query = new MessageQuery();
+		query.setAdapter(ADAPTER_NAME);
+		query.addMessageType("KEEPALIVE");
+		Assert.assertEquals(40, sharded.query(query, null, true, 100, false).size());
+		
+		// clearing a reader touches its shard only.
+		sharded.clearReader(ADAPTER_NAME, "reader5");
+		Assert.assertEquals(0, sharded.count(ADAPTER_NAME, "reader5"));
+		Assert.assertEquals(10 * (READERS - 1), sharded.count(ADAPTER_NAME, null));
+		sharded.close();
+	}
+}
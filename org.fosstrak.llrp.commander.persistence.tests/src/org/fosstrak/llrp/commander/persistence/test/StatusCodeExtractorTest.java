@@ -0,0 +1,73 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.commander.persistence.impl.StatusCodeExtractor;
+import org.junit.Test;
+import org.llrp.ltk.generated.enumerations.StatusCode;
+import org.llrp.ltk.generated.messages.ADD_ROSPEC_RESPONSE;
+import org.llrp.ltk.generated.messages.KEEPALIVE;
+import org.llrp.ltk.generated.parameters.LLRPStatus;
+
+/**
+ * unit test the cached status code extraction.
+ * @author swieland
+ *
+ */
+public class StatusCodeExtractorTest {
+	
+	private ADD_ROSPEC_RESPONSE newResponse(int code) {
+		LLRPStatus status = new LLRPStatus();
+		status.setStatusCode(new StatusCode(code));
+		ADD_ROSPEC_RESPONSE response = new ADD_ROSPEC_RESPONSE();
+		response.setLLRPStatus(status);
+		return response;
+	}
+	
+	@Test
+	public void testStatusCode() {
+		Assert.assertEquals("M_Success", StatusCodeExtractor.getStatusCode(newResponse(StatusCode.M_Success)));
+		Assert.assertEquals("M_ParameterError", StatusCodeExtractor.getStatusCode(newResponse(StatusCode.M_ParameterError)));
+		Assert.assertTrue(StatusCodeExtractor.hasStatus(ADD_ROSPEC_RESPONSE.class));
+		
+		// a response without status parameter.
+		Assert.assertEquals(StatusCodeExtractor.NO_STATUS, StatusCodeExtractor.getStatusCode(new ADD_ROSPEC_RESPONSE()));
+	}
+	
+	@Test
+	public void testNoStatusIsRemembered() {
+		Assert.assertEquals(StatusCodeExtractor.NO_STATUS, StatusCodeExtractor.getStatusCode(new KEEPALIVE()));
+		Assert.assertFalse(StatusCodeExtractor.hasStatus(KEEPALIVE.class));
+		Assert.assertEquals(StatusCodeExtractor.NO_STATUS, StatusCodeExtractor.getStatusCode(null));
+		
+		// resolved once per class.
+		int registered = StatusCodeExtractor.getRegistered();
+		for (int i=0; i<100; i++) {
+			StatusCodeExtractor.getStatusCode(new KEEPALIVE());
+			StatusCodeExtractor.getStatusCode(newResponse(StatusCode.M_Success));
+		}
+		Assert.assertTrue(registered >= 1);
+		Assert.assertEquals(Math.max(registered, 2), StatusCodeExtractor.getRegistered());
+	}
+}
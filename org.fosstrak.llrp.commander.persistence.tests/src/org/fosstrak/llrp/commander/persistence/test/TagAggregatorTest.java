@@ -0,0 +1,128 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.MessageHandler;
+import org.fosstrak.llrp.commander.persistence.impl.TagAggregator;
+import org.fosstrak.llrp.commander.persistence.type.TagAggregate;
+import org.junit.Test;
+import org.llrp.ltk.generated.messages.RO_ACCESS_REPORT;
+import org.llrp.ltk.generated.parameters.AntennaID;
+import org.llrp.ltk.generated.parameters.EPC_96;
+import org.llrp.ltk.generated.parameters.FirstSeenTimestampUTC;
+import org.llrp.ltk.generated.parameters.PeakRSSI;
+import org.llrp.ltk.generated.parameters.TagReportData;
+import org.llrp.ltk.types.Integer96_HEX;
+import org.llrp.ltk.types.LLRPMessage;
+import org.llrp.ltk.types.SignedByte;
+import org.llrp.ltk.types.UnsignedLong_DATETIME;
+import org.llrp.ltk.types.UnsignedShort;
+
+/**
+ * unit test the RO_ACCESS_REPORT tag aggregation.
+ * @author swieland
+ *
+ */
+public class TagAggregatorTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String EPC1 = "300833b2ddd9014000000001";
+	private static final String EPC2 = "300833b2ddd9014000000002";
+	
+	/**
+	 * collects the reports handed to the repository.
+	 */
+	private static class Collector implements MessageHandler {
+		private final List<RO_ACCESS_REPORT> reports = new ArrayList<RO_ACCESS_REPORT> ();
+		
+		public void handle(String adaptorName, String readerName, LLRPMessage message) {
+			reports.add((RO_ACCESS_REPORT) message);
+		}
+	}
+	
+	private TagReportData newTag(String epc, int antenna, int rssi, long firstSeen) {
+		TagReportData tag = new TagReportData();
+		EPC_96 epc96 = new EPC_96();
+		epc96.setEPC(new Integer96_HEX(epc));
+		tag.setEPCParameter(epc96);
+		AntennaID antennaID = new AntennaID();
+		antennaID.setAntennaID(new UnsignedShort(antenna));
+		tag.setAntennaID(antennaID);
+		PeakRSSI peak = new PeakRSSI();
+		peak.setPeakRSSI(new SignedByte(rssi));
+		tag.setPeakRSSI(peak);
+		FirstSeenTimestampUTC first = new FirstSeenTimestampUTC();
+		first.setMicroseconds(new UnsignedLong_DATETIME(firstSeen));
+		tag.setFirstSeenTimestampUTC(first);
+		return tag;
+	}
+	
+	@Test
+	public void testAggregateByAntennaAndEpc() {
+		Collector collector = new Collector();
+		TagAggregator aggregator = new TagAggregator(collector, 60000);
+		
+		// 2 tags seen by 2 antennas, 25 reports of 4 reads.
+		for (int i=0; i<25; i++) {
+			RO_ACCESS_REPORT report = new RO_ACCESS_REPORT();
+			report.addToTagReportDataList(newTag(EPC1, 1, -60 - i, 1000 + i));
+			report.addToTagReportDataList(newTag(EPC1, 2, -70, 1000 + i));
+			report.addToTagReportDataList(newTag(EPC2, 1, -50, 2000 + i));
+			report.addToTagReportDataList(newTag(EPC2, 2, -40 - (i % 2) * 10, 2000 + i));
+			aggregator.handle(ADAPTER_NAME, READER_NAME, report);
+		}
+		Assert.assertEquals(100, aggregator.getReads());
+		
+		// nothing leaves the window before it expires.
+		Assert.assertEquals(0, aggregator.flush(System.currentTimeMillis()));
+		Assert.assertTrue(collector.reports.isEmpty());
+		
+		List<TagAggregate> aggregates = aggregator.getAggregates();
+		Assert.assertEquals(4, aggregates.size());
+		TagAggregate first = aggregates.get(0);
+		Assert.assertEquals(EPC1, first.getEpc());
+		Assert.assertEquals(1, first.getAntenna());
+		Assert.assertEquals(25, first.getCount());
+		Assert.assertEquals(1000, first.getFirstSeen());
+		Assert.assertEquals(-60, first.getPeakRssi());
+		Assert.assertEquals(-72.0, first.getAverageRssi(), 0.001);
+		Assert.assertEquals(-44.8, aggregates.get(3).getAverageRssi(), 0.001);
+		
+		// one report of 4 rows instead of 100 rows.
+		Assert.assertEquals(4, aggregator.flush(Long.MAX_VALUE));
+		Assert.assertEquals(1, collector.reports.size());
+		List<TagReportData> rows = collector.reports.get(0).getTagReportDataList();
+		Assert.assertEquals(4, rows.size());
+		Assert.assertEquals("25", rows.get(0).getTagSeenCount().getTagCount().toString());
+		Assert.assertEquals("-60", rows.get(0).getPeakRSSI().getPeakRSSI().toString());
+		Assert.assertEquals("1000", rows.get(0).getFirstSeenTimestampUTC().getMicroseconds().toString());
+		Assert.assertEquals("-40", rows.get(3).getPeakRSSI().getPeakRSSI().toString());
+		Assert.assertEquals(4, aggregator.getRows());
+		Assert.assertTrue(aggregator.getAggregates().isEmpty());
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Assert;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.impl.TierMigrator;
+import org.fosstrak.llrp.commander.persistence.repository.RingBufferRepository;
+import org.fosstrak.llrp.commander.persistence.repository.TieredRepository;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.junit.Test;
+
+/**
+ * unit test the hot/cold tiered repository.
+ * @author swieland
+ *
+ */
+public class TieredRepositoryTest {
+	
+	private static final String ADAPTER_NAME = "adapterName";
+	private static final String READER_NAME = "readerName";
+	private static final String OTHER_READER_NAME = "otherReaderName";
+	
+	/**
+	 * cold tier holding every write until released.
+	 */
+	private static class SlowRepository extends RingBufferRepository {
+		
+		private final CountDownLatch writing = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		
+		@Override
+		public void putAll(List<LLRPMessageItem> messages) {
+			writing.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			super.putAll(messages);
+		}
+	}
+	
+	private LLRPMessageItem newItem(long time) {
+		return newItem(READER_NAME, time);
+	}
+	
+	private LLRPMessageItem newItem(String reader, long time) {
+		LLRPMessageItem item = Fixtures.newItem("id" + time, ADAPTER_NAME, reader, "RO_ACCESS_REPORT", time);
+		item.setStatusCode("");
+		item.setContent("<RO_ACCESS_REPORT id=\"" + time + "\"/>");
+		return item;
+	}
+	
+	private Repository newCold() throws Exception {
+		Repository cold = Fixtures.newRingBuffer(1000);
+		return cold;
+	}
+	
+	private TieredRepository newTiered(Repository cold, int hotCapacity) throws Exception {
+		Map<String, String> args = new HashMap<String, String> ();
+		args.put(TieredRepository.ARG_HOT_CAPACITY, Integer.toString(hotCapacity));
+		args.put(TieredRepository.ARG_SPILL_BATCH_SIZE, "5");
+		TieredRepository tiered = new TieredRepository(cold);
+		tiered.initialize(args);
+		return tiered;
+	}
+	
+	@Test
+	public void testMigrateAndMerge() throws Exception {
+		Repository cold = newCold();
+		TieredRepository tiered = newTiered(cold, 100);
+		for (int i=0; i<50; i++) {
+			tiered.put(newItem(1000 + i));
+		}
+		
+		// keep 10 messages hot, move the others in batches of 7.
+		TierMigrator migrator = new TierMigrator(tiered, 0, 10, 1000, 7);
+		Assert.assertEquals(40, migrator.migrate());
+		Assert.assertEquals(10, tiered.getHotTier().count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(40, cold.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(50, tiered.count(ADAPTER_NAME, READER_NAME));
+		
+		// the recent messages come from the hot tier, older ones from the cold tier.
+		Assert.assertNotNull(tiered.getHotTier().get("id1049"));
+		Assert.assertNull(tiered.getHotTier().get("id1000"));
+		Assert.assertEquals("<RO_ACCESS_REPORT id=\"1000\"/>", tiered.get("id1000").getContent());
+		
+		List<LLRPMessageItem> items = tiered.get(ADAPTER_NAME, READER_NAME, 15, false);
+		Assert.assertEquals(15, items.size());
+		Assert.assertEquals("id1049", items.get(0).getId());
+		Assert.assertEquals("id1035", items.get(14).getId());
+		Assert.assertEquals(50, tiered.get(ADAPTER_NAME, READER_NAME, Repository.RETRIEVE_ALL, false).size());
+		
+		// walk across the tier boundary in both directions.
+		List<LLRPMessageItem> page = tiered.page(ADAPTER_NAME, READER_NAME, 
+				new MessageKey(1042, "id1042"), true, 5, false);
+		Assert.assertEquals(5, page.size());
+		Assert.assertEquals("id1041", page.get(0).getId());
+		Assert.assertEquals("id1037", page.get(4).getId());
+		page = tiered.page(ADAPTER_NAME, READER_NAME, null, false, 3, false);
+		Assert.assertEquals("id1000", page.get(0).getId());
+		
+		tiered.close();
+	}
+	
+	@Test
+	public void testSpillWhenHotTierIsFull() throws Exception {
+		Repository cold = newCold();
+		TieredRepository tiered = newTiered(cold, 20);
+		for (int i=0; i<53; i++) {
+			tiered.put(newItem(1000 + i));
+		}
+		// nothing lost, the hot tier spilled its oldest messages.
+		Assert.assertEquals(53, tiered.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertTrue(tiered.getHotTier().count(ADAPTER_NAME, READER_NAME) <= 20);
+		Assert.assertNotNull(tiered.get("id1000"));
+		
+		// closing moves the hot tier into the cold tier.
+		Assert.assertEquals(tiered.getHotTier().count(ADAPTER_NAME, READER_NAME), tiered.migrateAll());
+		Assert.assertEquals(53, cold.count(ADAPTER_NAME, READER_NAME));
+	}
+	
+	@Test
+	public void testSlowColdTierBlocksOnlyTheSpillingReader() throws Exception {
+		final SlowRepository cold = Fixtures.initialize(new SlowRepository(), 1000);
+		final TieredRepository tiered = newTiered(cold, 20);
+		for (int i=0; i<20; i++) {
+			tiered.put(newItem(1000 + i));
+		}
+		
+		// the next message spills into the blocked cold tier.
+		Thread spilling = new Thread(new Runnable() {
+			public void run() {
+				tiered.put(newItem(1020));
+			}
+		});
+		spilling.start();
+		cold.writing.await();
+		
+		// the other reader is not held up by the cold write.
+		Thread other = new Thread(new Runnable() {
+			public void run() {
+				tiered.put(newItem(OTHER_READER_NAME, 5000));
+			}
+		});
+		other.start();
+		other.join(5000);
+		Assert.assertFalse(other.isAlive());
+		Assert.assertNotNull(tiered.get("id5000"));
+		
+		cold.release.countDown();
+		spilling.join();
+		// the moved messages are counted once.
+		Assert.assertEquals(21, tiered.count(ADAPTER_NAME, READER_NAME));
+		Assert.assertEquals(22, tiered.count(null, null));
+		Assert.assertEquals(5, cold.count(ADAPTER_NAME, READER_NAME));
+	}
+}
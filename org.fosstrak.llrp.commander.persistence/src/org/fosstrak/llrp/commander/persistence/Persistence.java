@@ -21,13 +21,22 @@
 
 package org.fosstrak.llrp.commander.persistence;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
 import org.fosstrak.llrp.client.LLRPMessageItem;
 import org.fosstrak.llrp.client.repository.sql.roaccess.ROAccessItem;
 import org.fosstrak.llrp.commander.persistence.exception.PersistenceException;
+import org.fosstrak.llrp.commander.persistence.type.MessageCountSnapshot;
+import org.fosstrak.llrp.commander.persistence.type.MessageCursor;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
 import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+import org.fosstrak.llrp.commander.persistence.type.ROAccessCursor;
+import org.fosstrak.llrp.commander.persistence.type.ROAccessQuery;
+import org.fosstrak.llrp.commander.persistence.type.ValidationResult;
 
 /**
  * interface to the persistence layer of the LLRP commander.
@@ -67,18 +76,38 @@ public interface Persistence {
 	 */
 	boolean test(PersistenceDescriptor desc) throws PersistenceException;
 	
+	/**
+	 * validate several persistence containers concurrently in the background. 
+	 * each container is created, benchmarked with a few inserts and selects, 
+	 * health checked and destroyed. the currently used container is kept.
+	 * @param descs descriptions of the persistence containers.
+	 * @param timeout the maximum time in ms per container.
+	 * @return one future result per descriptor, in the order of the descriptors.
+	 */
+	List<Future<ValidationResult>> validate(List<PersistenceDescriptor> descs, long timeout);
+	
 	/**
 	 * tests if the given persistence layer supports to store RoAccessRepositories.
 	 * @return true if supported, false otherwise.
 	 */
 	boolean supportsRoAccessRepository();
 	
+	/**
+	 * applies the priority policy of the load shedding to a message. call 
+	 * this method with the meta data of an incoming message before its 
+	 * content is built, to skip the work for messages that would be dropped.
+	 * @param message LLRP Message Wrapper Item (meta data only).
+	 * @return true if the message shall be stored, false if it is dropped.
+	 */
+	boolean admit(LLRPMessageItem message);
+	
 	/**
 	 * Put the LLRP Message Item to the repository. if null, then the method immediately returns.
 	 * 
 	 * @param message LLRP Message Wrapper Item
+	 * @return false if the message has been dropped by the load shedding, true otherwise.
 	 */
-	void put(LLRPMessageItem message);
+	boolean put(LLRPMessageItem message);
 	
 	/**
 	 * Get the LLRP Message identified by its message id.
@@ -102,7 +131,73 @@ public interface Persistence {
 	List<LLRPMessageItem> get(String adaptorName, String readerName, int num, boolean content);
 
 	/**
-	 * @return all the ro access reports stored in the database.
+	 * opens a cursor walking the messages from the specified adaptor and 
+	 * reader page by page, starting with the most recent messages. the pages 
+	 * are fetched by (time, id) keyset and hold no message content, the 
+	 * content is fetched on demand through the cursor.
+	 * @param adaptorName the name of the adaptor. if null, all the messages.
+	 * @param readerName the name of the reader. if null, all the readers of the adaptor.
+	 * @param pageSize the number of messages per page.
+	 * @return a cursor onto the messages.
+	 */
+	MessageCursor cursor(String adaptorName, String readerName, int pageSize);
+
+	/**
+	 * opens a cursor walking the messages matching the given query page by 
+	 * page, starting with the most recent messages. repositories with 
+	 * secondary indexes evaluate the query themselves. the pages hold no 
+	 * message content, the content is fetched on demand through the cursor.
+	 * <br/>
+	 * on the SQL repositories of the adaptor the criteria are evaluated by 
+	 * the database on indexed columns. repositories of other vendors are 
+	 * read through a growing window of the most recent messages and 
+	 * filtered in memory.
+	 * @param query the filter for the messages.
+	 * @param pageSize the number of messages per page.
+	 * @return a cursor onto the matching messages.
+	 */
+	MessageCursor query(MessageQuery query, int pageSize);
+	
+	/**
+	 * opens a cursor walking the RO_ACCESS reports matching the given query 
+	 * page by page, starting with the most recent reports. the reports are 
+	 * read from the RO_ACCESS repository, only the matching reports are kept. 
+	 * the cursor is empty if there is no RO_ACCESS repository.
+	 * @param query the filter for the reports. if null, all the reports.
+	 * @param pageSize the number of reports per page.
+	 * @return a cursor onto the reports.
+	 */
+	ROAccessCursor queryRoAccessReports(ROAccessQuery query, int pageSize);
+	
+	/**
+	 * export the stored messages into a framed binary archive. the messages 
+	 * are streamed page by page, the RO_ACCESS reports travel with their 
+	 * RO_ACCESS_REPORT messages. the stream is not closed.
+	 * @param adaptorName the name of the adaptor. if null, all the messages.
+	 * @param readerName the name of the reader. if null, all the readers of the adaptor.
+	 * @param out the stream to write the archive to.
+	 * @param compress if true, the chunks of the archive are deflated.
+	 * @return the number of messages exported.
+	 * @throws PersistenceException if the archive could not be written.
+	 */
+	long exportArchive(String adaptorName, String readerName, OutputStream out, 
+			boolean compress) throws PersistenceException;
+	
+	/**
+	 * import the messages of an archive written by 
+	 * {@link #exportArchive(String, String, OutputStream, boolean)}. the 
+	 * messages are stored in batches and the RO_ACCESS reports are fed to 
+	 * the RO_ACCESS repository if registered. the stream is not closed.
+	 * @param in the stream to read the archive from.
+	 * @return the number of messages imported.
+	 * @throws PersistenceException if the archive is invalid or could not be read.
+	 */
+	long importArchive(InputStream in) throws PersistenceException;
+	
+	/**
+	 * @return all the ro access reports stored in the database. loads the 
+	 * whole table, use {@link #queryRoAccessReports(ROAccessQuery, int)} for 
+	 * large tables.
 	 */
 	List<ROAccessItem> getAllRoAccessReports();
 	
@@ -122,6 +217,14 @@ public interface Persistence {
 	 */
 	int count(String adaptor, String reader);
 	
+	/**
+	 * returns a snapshot of the message counters per adapter, reader and 
+	 * message type.
+	 * @return the snapshot or null if the persistence layer does not maintain 
+	 * message counters.
+	 */
+	MessageCountSnapshot getCounts();
+	
 	/**
 	 * Clear all the items in repository.
 	 */
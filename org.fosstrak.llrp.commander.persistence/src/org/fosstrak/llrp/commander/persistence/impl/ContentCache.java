@@ -0,0 +1,198 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.fosstrak.llrp.client.Constants;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+
+/**
+ * least recently used cache of messages (including their content) bounded 
+ * by the estimated number of bytes held. the cache stores detached copies, 
+ * so callers may modify the items they put or get.
+ * @author swieland
+ *
+ */
+public class ContentCache {
+	
+	/** estimated per entry overhead in bytes (item, fields, map entry). */
+	public static final int ENTRY_OVERHEAD = 256;
+	
+	private final long maxBytes;
+	
+	// access ordered, the eldest entry is the least recently used one.
+	private final LinkedHashMap<String, LLRPMessageItem> entries = 
+		new LinkedHashMap<String, LLRPMessageItem> (1024, 0.75f, true);
+	
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	
+	/**
+	 * create a new cache.
+	 * @param maxBytes the maximum number of bytes held by the cache.
+	 */
+	public ContentCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * @param item the message.
+	 * @return the estimated number of bytes used by the cached message.
+	 */
+	public static long weight(LLRPMessageItem item) {
+		long weight = ENTRY_OVERHEAD;
+		weight += 2 * length(item.getId());
+		weight += 2 * length(item.getContent());
+		weight += 2 * length(item.getComment());
+		return weight;
+	}
+	
+	private static int length(String s) {
+		return (null == s) ? 0 : s.length();
+	}
+	
+	/**
+	 * add a message to the cache. messages without content or id are ignored.
+	 * @param item the message.
+	 */
+	public synchronized void put(LLRPMessageItem item) {
+		if ((null == item) || (null == item.getId()) || (null == item.getContent())) {
+			return;
+		}
+		LLRPMessageItem copy = PersistenceImpl.copy(item, true);
+		long weight = weight(copy);
+		if (weight > maxBytes) {
+			return;
+		}
+		LLRPMessageItem old = entries.put(copy.getId(), copy);
+		if (null != old) {
+			bytes -= weight(old);
+		}
+		bytes += weight;
+		evict();
+	}
+	
+	private void evict() {
+		Iterator<LLRPMessageItem> it = entries.values().iterator();
+		while ((bytes > maxBytes) && it.hasNext()) {
+			LLRPMessageItem eldest = it.next();
+			it.remove();
+			bytes -= weight(eldest);
+			evictions++;
+		}
+	}
+	
+	/**
+	 * lookup a message.
+	 * @param id the id of the message.
+	 * @return a copy of the cached message or null if not cached.
+	 */
+	public synchronized LLRPMessageItem get(String id) {
+		LLRPMessageItem item = entries.get(id);
+		if (null == item) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return PersistenceImpl.copy(item, true);
+	}
+	
+	/**
+	 * remove a message.
+	 * @param id the id of the message.
+	 */
+	public synchronized void remove(String id) {
+		LLRPMessageItem item = entries.remove(id);
+		if (null != item) {
+			bytes -= weight(item);
+		}
+	}
+	
+	/**
+	 * remove the messages to a given filter.
+	 * @param adapter the name of the adapter. if null (or the root) all the messages.
+	 * @param reader the name of the reader. if null all the messages of the adapter.
+	 */
+	public synchronized void invalidate(String adapter, String reader) {
+		if ((null == adapter) || Constants.ROOT_NAME.equals(adapter)) {
+			entries.clear();
+			bytes = 0;
+			return;
+		}
+		Iterator<Map.Entry<String, LLRPMessageItem>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			LLRPMessageItem item = it.next().getValue();
+			if (adapter.equals(item.getAdapter()) && 
+					((null == reader) || reader.equals(item.getReader()))) {
+				it.remove();
+				bytes -= weight(item);
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of cached messages.
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+	
+	/**
+	 * @return the estimated number of bytes held by the cache.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * @return the maximum number of bytes held by the cache.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	/**
+	 * @return the number of lookups served from the cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of lookups not found in the cache.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return the number of messages evicted to stay within the size bound.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.commander.persistence.type.Base64Text;
+import org.fosstrak.llrp.commander.type.ReaderMetaData;
+
+/**
+ * deflate compression of message content. the compressed content is stored 
+ * as base64 text behind a marker. the compression uses a preset dictionary 
+ * built from the LLRP tag vocabulary, so that even short messages compress 
+ * well. the deflaters and inflaters are pooled.
+ * @author swieland
+ *
+ */
+public class ContentCompressor {
+	
+	/** marker in front of compressed content. */
+	public static final String PREFIX = "llrp-deflate:";
+	
+	/** default minimum content length (in characters) to compress. */
+	public static final int DEFAULT_THRESHOLD = 256;
+	
+	/** the LLRP definitions the dictionary is built from. */
+	public static final String DEFINITIONS = "/Definitions/Core/llrp-1x0-def.xml";
+	
+	/** maximum size of a deflate dictionary. */
+	public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+	
+	private static final Logger LOG = Logger.getLogger(ContentCompressor.class);
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final int MAX_POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+	
+	private static final Pattern NAME = Pattern.compile(
+			"<(?:messageDefinition|parameterDefinition|field)\\s[^>]*?name=\"([A-Za-z0-9_]+)\"");
+	
+	// below this threshold the content is not compressed. negative disables the compression.
+	private volatile int threshold = -1;
+	
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater> ();
+	private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater> ();
+	private final AtomicInteger pooledDeflaters = new AtomicInteger(0);
+	private final AtomicInteger pooledInflaters = new AtomicInteger(0);
+	
+	private final AtomicLong compressed = new AtomicLong(0);
+	private final AtomicLong rawBytes = new AtomicLong(0);
+	private final AtomicLong compressedBytes = new AtomicLong(0);
+	
+	/**
+	 * lazily loaded dictionary shared by all the compressors.
+	 */
+	private static final class Dictionary {
+		private static final byte[] BYTES = build();
+		private static final long ADLER = adler(BYTES);
+	}
+	
+	private static long adler(byte[] bytes) {
+		Adler32 adler = new Adler32();
+		adler.update(bytes);
+		return adler.getValue();
+	}
+	
+	/**
+	 * build the dictionary from the LLRP definitions: the XML start and end 
+	 * tags of all the messages, parameters and fields. the dictionary must 
+	 * never change for already stored content, therefore it only depends on 
+	 * the definitions file.
+	 * @return the dictionary. an empty one if the definitions are not available.
+	 */
+	static byte[] build() {
+		InputStream in = ReaderMetaData.class.getResourceAsStream(DEFINITIONS);
+		if (null == in) {
+			LOG.error("LLRP definitions not found, compressing without dictionary.");
+			return new byte[0];
+		}
+		try {
+			ByteArrayOutputStream definitions = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				definitions.write(buffer, 0, read);
+			}
+			Set<String> names = new LinkedHashSet<String> ();
+			Matcher matcher = NAME.matcher(new String(definitions.toByteArray(), UTF8));
+			while (matcher.find()) {
+				names.add(matcher.group(1));
+			}
+			StringBuilder sb = new StringBuilder();
+			for (String name : names) {
+				sb.append("<llrp:").append(name).append(">");
+				sb.append("</llrp:").append(name).append(">\n");
+			}
+			// the message header, most common, therefore at the end.
+			sb.append(" xmlns:llrp=\"http://www.llrp.org/ltk/schema/core/encoding/xml/1.0\"");
+			sb.append(" Version=\"1\" MessageID=\"");
+			byte[] dictionary = sb.toString().getBytes(UTF8);
+			if (dictionary.length > MAX_DICTIONARY_SIZE) {
+				byte[] tail = new byte[MAX_DICTIONARY_SIZE];
+				System.arraycopy(dictionary, dictionary.length - MAX_DICTIONARY_SIZE, tail, 0, MAX_DICTIONARY_SIZE);
+				dictionary = tail;
+			}
+			LOG.debug(String.format("compression dictionary with %d tags (%d bytes).", 
+					names.size(), dictionary.length));
+			return dictionary;
+		} catch (IOException e) {
+			LOG.error("could not read the LLRP definitions, compressing without dictionary.", e);
+			return new byte[0];
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				LOG.debug("could not close the LLRP definitions.");
+			}
+		}
+	}
+	
+	/**
+	 * @param content the content of a message.
+	 * @return true if the content is compressed, false otherwise.
+	 */
+	public static boolean isCompressed(String content) {
+		return (null != content) && content.startsWith(PREFIX);
+	}
+	
+	/**
+	 * compress the content if compression is enabled and the content is 
+	 * long enough.
+	 * @param content the content to compress.
+	 * @return the compressed content or the content itself.
+	 */
+	public String compress(String content) {
+		final int minLength = threshold;
+		if ((minLength < 0) || (null == content) || (content.length() < minLength) || 
+				isCompressed(content)) {
+			return content;
+		}
+		byte[] raw = content.getBytes(UTF8);
+		Deflater deflater = deflaters.poll();
+		if (null == deflater) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+		} else {
+			pooledDeflaters.decrementAndGet();
+		}
+		try {
+			byte[] dictionary = Dictionary.BYTES;
+			if (dictionary.length > 0) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(raw);
+			deflater.finish();
+			byte[] out = new byte[Math.max(64, raw.length / 2)];
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == out.length) {
+					byte[] grown = new byte[out.length * 2];
+					System.arraycopy(out, 0, grown, 0, length);
+					out = grown;
+				}
+				length += deflater.deflate(out, length, out.length - length);
+			}
+			compressed.incrementAndGet();
+			rawBytes.addAndGet(raw.length);
+			compressedBytes.addAndGet(length);
+			return Base64Text.encode(PREFIX, out, length);
+		} finally {
+			deflater.reset();
+			if (pooledDeflaters.incrementAndGet() <= MAX_POOL_SIZE) {
+				deflaters.offer(deflater);
+			} else {
+				pooledDeflaters.decrementAndGet();
+				deflater.end();
+			}
+		}
+	}
+	
+	/**
+	 * decompress the content. content that is not compressed is returned unchanged.
+	 * @param content the content to decompress.
+	 * @return the decompressed content.
+	 * @throws DataFormatException if the compressed content is corrupt or 
+	 * has been compressed with a different dictionary.
+	 */
+	public String decompress(String content) throws DataFormatException {
+		if (!isCompressed(content)) {
+			return content;
+		}
+		byte[] data = Base64Text.decode(content, PREFIX.length());
+		Inflater inflater = inflaters.poll();
+		if (null == inflater) {
+			inflater = new Inflater();
+		} else {
+			pooledInflaters.decrementAndGet();
+		}
+		try {
+			inflater.setInput(data);
+			byte[] out = new byte[Math.max(256, data.length * 4)];
+			int length = 0;
+			while (!inflater.finished()) {
+				if (length == out.length) {
+					byte[] grown = new byte[out.length * 2];
+					System.arraycopy(out, 0, grown, 0, length);
+					out = grown;
+				}
+				int n = inflater.inflate(out, length, out.length - length);
+				length += n;
+				if (0 == n) {
+					if (inflater.needsDictionary()) {
+						setDictionary(inflater);
+					} else if (inflater.needsInput()) {
+						throw new DataFormatException("truncated compressed content.");
+					}
+				}
+			}
+			return new String(out, 0, length, UTF8);
+		} finally {
+			inflater.reset();
+			if (pooledInflaters.incrementAndGet() <= MAX_POOL_SIZE) {
+				inflaters.offer(inflater);
+			} else {
+				pooledInflaters.decrementAndGet();
+				inflater.end();
+			}
+		}
+	}
+	
+	private void setDictionary(Inflater inflater) throws DataFormatException {
+		byte[] dictionary = Dictionary.BYTES;
+		if ((0 == dictionary.length) || (Dictionary.ADLER != (inflater.getAdler() & 0xffffffffL))) {
+			throw new DataFormatException("content compressed with an unknown dictionary.");
+		}
+		inflater.setDictionary(dictionary);
+	}
+	
+	/**
+	 * @param threshold the minimum content length (in characters) to 
+	 * compress. negative disables the compression.
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+	
+	/**
+	 * @return the minimum content length to compress. negative if disabled.
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+	
+	/**
+	 * @return the number of compressed messages.
+	 */
+	public long getCompressed() {
+		return compressed.get();
+	}
+	
+	/**
+	 * @return the number of bytes of the content before compression.
+	 */
+	public long getRawBytes() {
+		return rawBytes.get();
+	}
+	
+	/**
+	 * @return the number of bytes of the content after compression.
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+	
+	/**
+	 * @return the compressed size divided by the original size over all the 
+	 * compressed messages (smaller is better). 1 if nothing compressed yet.
+	 */
+	public double getCompressionRatio() {
+		long raw = rawBytes.get();
+		if (0 == raw) {
+			return 1.0;
+		}
+		return (double) compressedBytes.get() / raw;
+	}
+}
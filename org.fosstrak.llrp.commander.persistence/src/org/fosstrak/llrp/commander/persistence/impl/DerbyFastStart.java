@@ -0,0 +1,255 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+
+/**
+ * fast startup of the fall-back Derby database. the Derby tuning 
+ * properties of the descriptor are applied before the engine boots, a 
+ * requested wipe moves the database folders aside (and deletes them in 
+ * the background) so Derby recreates empty tables instead of deleting the 
+ * rows one by one, and the database is warmed up in the background once 
+ * it is open.
+ * @author swieland
+ *
+ */
+public class DerbyFastStart {
+	
+	/** the Derby property holding the number of pages in the page cache. */
+	public static final String DERBY_PAGE_CACHE_SIZE = "derby.storage.pageCacheSize";
+	
+	/** the Derby property holding the size in bytes of the log buffer. */
+	public static final String DERBY_LOG_BUFFER_SIZE = "derby.storage.logBufferSize";
+	
+	/** every Derby database folder holds this file. */
+	public static final String DERBY_SERVICE_FILE = "service.properties";
+	
+	/** prefix of the database folders moved aside by a wipe. */
+	public static final String WIPED_PREFIX = "wiped-";
+	
+	private static final Logger LOG = Logger.getLogger(DerbyFastStart.class);
+	
+	private final PersistenceDescriptor descriptor;
+	private final File location;
+	
+	private Thread deleter;
+	private Thread warmer;
+	private volatile long warmUpTime = -1;
+
+	/**
+	 * create a new fast start.
+	 * @param descriptor the descriptor holding the Derby properties.
+	 * @param location the folder of the fall-back Derby database.
+	 */
+	public DerbyFastStart(PersistenceDescriptor descriptor, String location) {
+		this.descriptor = descriptor;
+		this.location = (null == location) ? null : new File(location);
+	}
+	
+	/**
+	 * apply the Derby tuning properties of the descriptor. properties set on 
+	 * the command line take precedence. must be called before Derby boots.
+	 */
+	public void tune() {
+		setDerbyProperty(DERBY_PAGE_CACHE_SIZE, 
+				descriptor.getIntProperty(PersistenceDescriptor.PROP_DERBY_PAGE_CACHE_SIZE, 0));
+		setDerbyProperty(DERBY_LOG_BUFFER_SIZE, 
+				descriptor.getIntProperty(PersistenceDescriptor.PROP_DERBY_LOG_BUFFER_SIZE, 0));
+	}
+	
+	private void setDerbyProperty(String key, int value) {
+		if (value <= 0) {
+			return;
+		}
+		if (null != System.getProperty(key)) {
+			LOG.debug(String.format("keeping %s=%s.", key, System.getProperty(key)));
+			return;
+		}
+		System.setProperty(key, Integer.toString(value));
+		LOG.debug(String.format("using %s=%d.", key, value));
+	}
+	
+	/**
+	 * wipe the database by moving the Derby database folders aside, if the 
+	 * descriptor requests a fast wipe of the messages and the RO_ACCESS 
+	 * reports (both live in the same database). the moved folders are 
+	 * deleted in the background. other files in the location are kept.
+	 * @return true if the database has been wiped, false if the repository 
+	 * has to wipe the tables itself.
+	 */
+	public boolean wipe() {
+		if ((null == location) || 
+				!descriptor.getBooleanProperty(PersistenceDescriptor.PROP_DERBY_FAST_WIPE, false) || 
+				!descriptor.isWipeDbAtStartup() || !descriptor.isWipeRoAccessDbAtStartup()) {
+			return false;
+		}
+		if (isDatabase(location)) {
+			// the location itself is the database, move it next to it.
+			return moveAside(location, location.getAbsoluteFile().getParentFile());
+		}
+		File[] children = location.listFiles();
+		if (null == children) {
+			// nothing to wipe.
+			return true;
+		}
+		boolean wiped = true;
+		for (File child : children) {
+			if (isDatabase(child)) {
+				wiped &= moveAside(child, location);
+			} else if (child.isDirectory() && child.getName().startsWith(WIPED_PREFIX)) {
+				// left over by an interrupted deletion.
+				scheduleDelete(child);
+			}
+		}
+		return wiped;
+	}
+	
+	private static boolean isDatabase(File folder) {
+		return folder.isDirectory() && new File(folder, DERBY_SERVICE_FILE).isFile();
+	}
+	
+	/**
+	 * rename a database folder and delete it in the background.
+	 */
+	private boolean moveAside(File database, File parent) {
+		final File wiped = new File(parent, WIPED_PREFIX + database.getName() + "-" + System.currentTimeMillis());
+		if (!database.renameTo(wiped)) {
+			LOG.info("could not move " + database + " aside, wiping the tables.");
+			return false;
+		}
+		LOG.debug("moved " + database + " aside to " + wiped);
+		scheduleDelete(wiped);
+		return true;
+	}
+	
+	/**
+	 * delete a folder in the background, one folder after the other.
+	 */
+	private void scheduleDelete(final File wiped) {
+		synchronized (this) {
+			final Thread previous = deleter;
+			deleter = new Thread(new Runnable() {
+				public void run() {
+					if (null != previous) {
+						try {
+							previous.join();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					delete(wiped);
+				}
+			}, "persistence-derby-wipe");
+			deleter.setDaemon(true);
+			deleter.start();
+		}
+	}
+	
+	/**
+	 * delete a folder and its content. iterative, so deep trees do not 
+	 * exhaust the stack.
+	 */
+	static void delete(File root) {
+		List<File> folders = new ArrayList<File> ();
+		List<File> pending = new ArrayList<File> ();
+		pending.add(root);
+		while (!pending.isEmpty()) {
+			File file = pending.remove(pending.size() - 1);
+			File[] children = file.listFiles();
+			if (null == children) {
+				file.delete();
+				continue;
+			}
+			folders.add(file);
+			for (File child : children) {
+				pending.add(child);
+			}
+		}
+		// the deepest folders come last.
+		for (int i=folders.size() - 1; i>=0; i--) {
+			folders.get(i).delete();
+		}
+	}
+	
+	/**
+	 * if requested by the descriptor, warm up the repository in the 
+	 * background: read the most recent page of messages and the counts, so 
+	 * the first refresh of the message box hits a warm page cache.
+	 * @param repository the repository to warm up.
+	 */
+	public synchronized void warmUp(final Repository repository) {
+		if ((null == repository) || 
+				!descriptor.getBooleanProperty(PersistenceDescriptor.PROP_DERBY_WARM_UP, false)) {
+			return;
+		}
+		warmer = new Thread(new Runnable() {
+			public void run() {
+				final long st = System.currentTimeMillis();
+				try {
+					repository.isHealth();
+					repository.get(null, null, 100, false);
+					repository.count(null, null);
+					warmUpTime = System.currentTimeMillis() - st;
+					LOG.debug(String.format("warmed up the repository in %d ms.", warmUpTime));
+				} catch (Exception e) {
+					LOG.info("could not warm up the repository.", e);
+				}
+			}
+		}, "persistence-derby-warm-up");
+		warmer.setDaemon(true);
+		warmer.start();
+	}
+	
+	/**
+	 * wait for the background work (deletion of the wiped database and warm up) to finish.
+	 * @param timeout the maximum time in ms to wait for each.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void join(long timeout) throws InterruptedException {
+		Thread d;
+		Thread w;
+		synchronized (this) {
+			d = deleter;
+			w = warmer;
+		}
+		if (null != d) {
+			d.join(timeout);
+		}
+		if (null != w) {
+			w.join(timeout);
+		}
+	}
+	
+	/**
+	 * @return the time in ms the warm up took, -1 if not (yet) warmed up.
+	 */
+	public long getWarmUpTime() {
+		return warmUpTime;
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+import org.fosstrak.llrp.commander.persistence.type.ValidationResult;
+import org.fosstrak.llrp.commander.persistence.type.ValidationResult.Verdict;
+
+/**
+ * validates persistence descriptors concurrently in the background. every 
+ * descriptor is validated by its own attempt: the repository is created, 
+ * a few messages are inserted and selected again, the health check is run 
+ * and the repository is closed. an attempt exceeding the timeout is 
+ * interrupted and reported as timed out, a hanging connect keeps only a 
+ * daemon thread busy.
+ * @author swieland
+ *
+ */
+public class DescriptorValidator {
+	
+	/** default number of messages inserted and selected per attempt. */
+	public static final int DEFAULT_BENCHMARK_SIZE = 20;
+	
+	/** the adapter of the benchmark messages. */
+	public static final String BENCHMARK_ADAPTER = "persistence-validation";
+	
+	private static final Logger LOG = Logger.getLogger(DescriptorValidator.class);
+	
+	private final PersistenceImpl persistence;
+	private final int benchmarkSize;
+	private final ExecutorService executor;
+
+	/**
+	 * create a new validator.
+	 * @param persistence the persistence layer creating the repositories.
+	 * @param benchmarkSize the number of messages inserted and selected per attempt. 0 skips the benchmark.
+	 */
+	public DescriptorValidator(PersistenceImpl persistence, int benchmarkSize) {
+		this.persistence = persistence;
+		this.benchmarkSize = Math.max(0, benchmarkSize);
+		final AtomicInteger threads = new AtomicInteger(0);
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "persistence-validator-" + threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * validate the given descriptors concurrently. the call returns at once.
+	 * @param descriptors the descriptors to validate.
+	 * @param timeout the maximum time in ms per attempt.
+	 * @return one future result per descriptor, in the order of the descriptors.
+	 */
+	public List<Future<ValidationResult>> validate(List<PersistenceDescriptor> descriptors, final long timeout) {
+		List<Future<ValidationResult>> results = new ArrayList<Future<ValidationResult>> ();
+		for (final PersistenceDescriptor descriptor : descriptors) {
+			results.add(executor.submit(new Callable<ValidationResult>() {
+				public ValidationResult call() {
+					return supervise(descriptor, timeout);
+				}
+			}));
+		}
+		return results;
+	}
+	
+	/**
+	 * run one attempt and wait for it at most the given timeout.
+	 */
+	private ValidationResult supervise(final PersistenceDescriptor descriptor, long timeout) {
+		if (persistence.isInUse(descriptor)) {
+			return new ValidationResult(descriptor, Verdict.IN_USE, -1, 0, -1, -1, null);
+		}
+		final AtomicLong connectTime = new AtomicLong(-1);
+		Future<ValidationResult> attempt = executor.submit(new Callable<ValidationResult>() {
+			public ValidationResult call() {
+				return attempt(descriptor, connectTime);
+			}
+		});
+		ValidationResult result;
+		try {
+			result = attempt.get(Math.max(1, timeout), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			attempt.cancel(true);
+			result = new ValidationResult(descriptor, Verdict.TIMED_OUT, connectTime.get(), 0, -1, -1, 
+					new TimeoutException(String.format("no answer within %d ms", timeout)));
+		} catch (ExecutionException e) {
+			result = new ValidationResult(descriptor, Verdict.FAILED, connectTime.get(), 0, -1, -1, e.getCause());
+		} catch (InterruptedException e) {
+			attempt.cancel(true);
+			Thread.currentThread().interrupt();
+			result = new ValidationResult(descriptor, Verdict.TIMED_OUT, connectTime.get(), 0, -1, -1, e);
+		}
+		LOG.debug("validated " + result);
+		return result;
+	}
+	
+	/**
+	 * open the repository, run the benchmark and the health check and close it.
+	 * @param descriptor the descriptor to validate.
+	 * @param connectTime receives the time in ms to open the repository.
+	 * @return the result of the attempt.
+	 */
+	ValidationResult attempt(PersistenceDescriptor descriptor, AtomicLong connectTime) {
+		final long start = System.currentTimeMillis();
+		Repository repository;
+		try {
+			repository = persistence.createTestRepository(descriptor);
+		} catch (Exception e) {
+			return new ValidationResult(descriptor, Verdict.FAILED, -1, 0, -1, -1, e);
+		}
+		final long connect = System.currentTimeMillis() - start;
+		connectTime.set(connect);
+		try {
+			long insertTime = -1;
+			long selectTime = -1;
+			boolean healthy = true;
+			if (benchmarkSize > 0) {
+				String reader = "validation-" + System.nanoTime();
+				long t = System.currentTimeMillis();
+				for (int i=0; i<benchmarkSize; i++) {
+					repository.put(newBenchmarkItem(reader, i));
+				}
+				insertTime = System.currentTimeMillis() - t;
+				
+				t = System.currentTimeMillis();
+				List<LLRPMessageItem> read = repository.get(BENCHMARK_ADAPTER, reader, benchmarkSize, true);
+				selectTime = System.currentTimeMillis() - t;
+				healthy = (null != read) && (read.size() == benchmarkSize);
+				repository.clearReader(BENCHMARK_ADAPTER, reader);
+			}
+			healthy = healthy && repository.isHealth();
+			return new ValidationResult(descriptor, healthy ? Verdict.HEALTHY : Verdict.UNHEALTHY, 
+					connect, benchmarkSize, insertTime, selectTime, null);
+		} catch (Exception e) {
+			return new ValidationResult(descriptor, Verdict.UNHEALTHY, connect, benchmarkSize, -1, -1, e);
+		} finally {
+			try {
+				repository.close();
+			} catch (Exception e) {
+				LOG.error("could not close the validated repository.", e);
+			}
+		}
+	}
+	
+	private LLRPMessageItem newBenchmarkItem(String reader, int i) {
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setId(reader + "-" + i);
+		item.setAdapter(BENCHMARK_ADAPTER);
+		item.setReader(reader);
+		item.setMessageType("KEEPALIVE");
+		item.setStatusCode("");
+		item.setContent("<KEEPALIVE MessageID=\"" + i + "\"/>");
+		item.setTime(new Timestamp(System.currentTimeMillis()));
+		return item;
+	}
+	
+	/**
+	 * @return the number of messages inserted and selected per attempt.
+	 */
+	public int getBenchmarkSize() {
+		return benchmarkSize;
+	}
+}
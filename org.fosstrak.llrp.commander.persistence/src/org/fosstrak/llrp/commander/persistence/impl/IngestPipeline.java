@@ -0,0 +1,459 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.MessageHandler;
+import org.fosstrak.llrp.commander.persistence.type.IngestEvent;
+import org.llrp.ltk.types.LLRPMessage;
+
+/**
+ * staged ingest pipeline for the received LLRP messages. the stages are 
+ * connected by bounded queues and every stage runs on its own lanes 
+ * (threads). the messages of a reader always take the same lane in every 
+ * stage, so they are processed in the order received, while the messages 
+ * of different readers are processed in parallel. when a queue is full, 
+ * the previous stage waits. the adaptor callback never waits for a full 
+ * queue of the first stage, except for the critical messages (see 
+ * {@link LoadShedder#isCritical(String)}), the other messages are dropped. 
+ * an admission step runs on the adaptor callback before a message is 
+ * queued, so the messages rejected by the load shedding do not take a 
+ * place in the queues. when the pipeline is not running, the messages 
+ * pass the stages synchronously.
+ * @author swieland
+ *
+ */
+public class IngestPipeline implements MessageHandler {
+	
+	/** default capacity of the queue in front of each lane. */
+	public static final int DEFAULT_CAPACITY = 1024;
+	
+	/**
+	 * one processing step of the pipeline.
+	 */
+	public interface Stage {
+		
+		/**
+		 * process a message.
+		 * @param event the message travelling through the pipeline.
+		 * @return true to hand the message on to the next stage, false to drop it.
+		 * @throws Exception failures are logged, the message is handed on.
+		 */
+		boolean process(IngestEvent event) throws Exception;
+	}
+	
+	private static final Logger LOG = Logger.getLogger(IngestPipeline.class);
+	
+	// tells a lane to stop once all the messages before have been processed.
+	private static final IngestEvent STOP = new IngestEvent(null, null, null);
+	
+	private final int capacity;
+	private final List<StageRunner> stages = new ArrayList<StageRunner> ();
+	
+	// decides on the adaptor callback whether a message enters the pipeline. null admits all.
+	private volatile Stage admission = null;
+	
+	private final AtomicLong rejected = new AtomicLong(0);
+	private final AtomicLong overflowed = new AtomicLong(0);
+	
+	// the callers hold the read lock while handing a message over, stop takes the write lock.
+	private final ReadWriteLock gate = new ReentrantReadWriteLock();
+	private volatile boolean running = false;
+	
+	/**
+	 * a stage with its lanes.
+	 */
+	private final class StageRunner {
+		private final String name;
+		private final Stage stage;
+		private final Lane[] lanes;
+		private StageRunner next;
+		
+		// true while the lanes take messages, false if they are processed synchronously.
+		private volatile boolean started = false;
+		
+		// the previous stages hold the read lock while handing a message 
+		// over, stop takes the write lock to clear started.
+		private final ReadWriteLock handover = new ReentrantReadWriteLock();
+		
+		private final AtomicLong processed = new AtomicLong(0);
+		private final AtomicLong dropped = new AtomicLong(0);
+		private final AtomicLong failed = new AtomicLong(0);
+		
+		private StageRunner(String name, Stage stage, int parallelism) {
+			this.name = name;
+			this.stage = stage;
+			lanes = new Lane[Math.max(1, parallelism)];
+			for (int i=0; i<lanes.length; i++) {
+				lanes[i] = new Lane(this, name + "-" + i);
+			}
+		}
+		
+		/**
+		 * hand a message to the lane of its reader. waits while the lane is full.
+		 */
+		private void submit(IngestEvent event) {
+			Lane lane = lane(event);
+			try {
+				lane.queue.put(event);
+			} catch (InterruptedException e) {
+				LOG.debug("interrupted while enqueuing - processing synchronously.");
+				Thread.currentThread().interrupt();
+				process(event);
+			}
+		}
+		
+		/**
+		 * hand a message to the lane of its reader without waiting for a full 
+		 * lane, only the critical messages wait.
+		 * @return false if the lane is full and the message has been dropped.
+		 */
+		private boolean offer(IngestEvent event) {
+			if (lane(event).queue.offer(event)) {
+				return true;
+			}
+			if (LoadShedder.isCritical(messageType(event))) {
+				submit(event);
+				return true;
+			}
+			return false;
+		}
+		
+		/**
+		 * hand a message over from the previous stage, to the lanes if 
+		 * started, otherwise it is processed synchronously.
+		 */
+		private void handOver(IngestEvent event) {
+			handover.readLock().lock();
+			try {
+				if (started) {
+					submit(event);
+					return;
+				}
+			} finally {
+				handover.readLock().unlock();
+			}
+			process(event);
+		}
+		
+		private Lane lane(IngestEvent event) {
+			return lanes[(event.getOrderKey() & Integer.MAX_VALUE) % lanes.length];
+		}
+		
+		/**
+		 * process a message and hand it on to the next stage.
+		 */
+		private void process(IngestEvent event) {
+			boolean forward = true;
+			try {
+				forward = stage.process(event);
+			} catch (Exception e) {
+				failed.incrementAndGet();
+				LOG.error(String.format("stage %s failed on a message of %s/%s.", 
+						name, event.getAdapter(), event.getReader()), e);
+			}
+			processed.incrementAndGet();
+			if (!forward) {
+				dropped.incrementAndGet();
+				return;
+			}
+			if (null != next) {
+				next.handOver(event);
+			}
+		}
+		
+		private int queued() {
+			int size = 0;
+			for (Lane lane : lanes) {
+				size += lane.queue.size();
+			}
+			return size;
+		}
+	}
+	
+	/**
+	 * a queue and the thread working it off.
+	 */
+	private final class Lane implements Runnable {
+		private final StageRunner runner;
+		private final String name;
+		private final BlockingQueue<IngestEvent> queue = new ArrayBlockingQueue<IngestEvent> (capacity);
+		private Thread thread;
+		
+		private Lane(StageRunner runner, String name) {
+			this.runner = runner;
+			this.name = name;
+		}
+		
+		public void run() {
+			try {
+				while (true) {
+					IngestEvent event = queue.take();
+					if (STOP == event) {
+						return;
+					}
+					runner.process(event);
+				}
+			} catch (InterruptedException e) {
+				LOG.debug("lane " + name + " interrupted.");
+			}
+		}
+	}
+
+	/**
+	 * create a new pipeline with the default queue capacity.
+	 */
+	public IngestPipeline() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * create a new pipeline.
+	 * @param capacity the capacity of the queue in front of each lane.
+	 */
+	public IngestPipeline(int capacity) {
+		this.capacity = Math.max(1, capacity);
+	}
+	
+	/**
+	 * append a stage to the pipeline. stages can only be added while the 
+	 * pipeline is stopped.
+	 * @param name the name of the stage (names the threads).
+	 * @param stage the processing step.
+	 * @param parallelism the number of lanes of the stage.
+	 * @return this pipeline.
+	 */
+	public synchronized IngestPipeline addStage(String name, Stage stage, int parallelism) {
+		if (running) {
+			throw new IllegalStateException("cannot add a stage to a running pipeline.");
+		}
+		StageRunner runner = new StageRunner(name, stage, parallelism);
+		if (!stages.isEmpty()) {
+			stages.get(stages.size() - 1).next = runner;
+		}
+		stages.add(runner);
+		return this;
+	}
+	
+	/**
+	 * @param admission the step deciding on the adaptor callback whether a 
+	 * message enters the pipeline (it may build the message item). a message 
+	 * is dropped if it returns false. null admits all the messages.
+	 */
+	public void setAdmission(Stage admission) {
+		this.admission = admission;
+	}
+	
+	/**
+	 * start the lanes of all the stages.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		for (StageRunner runner : stages) {
+			for (Lane lane : runner.lanes) {
+				lane.thread = new Thread(lane, "ingest-" + lane.name);
+				lane.thread.setDaemon(true);
+				lane.thread.start();
+			}
+			runner.started = true;
+		}
+		running = true;
+		LOG.debug(String.format("ingest pipeline started with %d stages.", stages.size()));
+	}
+	
+	/**
+	 * stop the pipeline. all the messages already handed over are 
+	 * processed by all the stages before this method returns.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		gate.writeLock().lock();
+		try {
+			running = false;
+		} finally {
+			gate.writeLock().unlock();
+		}
+		// stage by stage, so a stage has received everything before it stops.
+		for (StageRunner runner : stages) {
+			// the messages handed over from now on are processed synchronously, 
+			// so none is queued behind the STOP.
+			runner.handover.writeLock().lock();
+			try {
+				runner.started = false;
+			} finally {
+				runner.handover.writeLock().unlock();
+			}
+			for (Lane lane : runner.lanes) {
+				try {
+					lane.queue.put(STOP);
+					lane.thread.join();
+				} catch (InterruptedException e) {
+					LOG.error("interrupted while draining the ingest pipeline.", e);
+					Thread.currentThread().interrupt();
+				}
+				lane.thread = null;
+				// the lane might have been interrupted, process what is left.
+				List<IngestEvent> rest = new ArrayList<IngestEvent> ();
+				lane.queue.drainTo(rest);
+				for (IngestEvent event : rest) {
+					if (STOP != event) {
+						runner.process(event);
+					}
+				}
+			}
+		}
+		LOG.debug("ingest pipeline stopped.");
+	}
+
+	/**
+	 * hand a received message to the first stage. the message is dropped if 
+	 * the admission rejects it or if the lane of the reader is full (critical 
+	 * messages wait for the lane instead).
+	 */
+	@Override
+	public void handle(String adapter, String reader, LLRPMessage message) {
+		if (stages.isEmpty()) {
+			return;
+		}
+		IngestEvent event = new IngestEvent(adapter, reader, message);
+		if (!admit(event)) {
+			rejected.incrementAndGet();
+			return;
+		}
+		gate.readLock().lock();
+		try {
+			if (running) {
+				if (!stages.get(0).offer(event)) {
+					if (overflowed.incrementAndGet() % DEFAULT_CAPACITY == 1) {
+						LOG.warn(String.format("ingest pipeline full, %d messages dropped so far.", 
+								overflowed.get()));
+					}
+				}
+				return;
+			}
+		} finally {
+			gate.readLock().unlock();
+		}
+		stages.get(0).process(event);
+	}
+	
+	private boolean admit(IngestEvent event) {
+		Stage step = admission;
+		if (null == step) {
+			return true;
+		}
+		try {
+			return step.process(event);
+		} catch (Exception e) {
+			LOG.error(String.format("admission failed on a message of %s/%s.", 
+					event.getAdapter(), event.getReader()), e);
+			return true;
+		}
+	}
+	
+	private static String messageType(IngestEvent event) {
+		if (null != event.getItem()) {
+			return event.getItem().getMessageType();
+		}
+		return (null == event.getMessage()) ? null : event.getMessage().getName();
+	}
+	
+	/**
+	 * @return true if the lanes are running, false if the messages are processed synchronously.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * @return the names of the stages in processing order.
+	 */
+	public synchronized List<String> getStages() {
+		List<String> names = new ArrayList<String> ();
+		for (StageRunner runner : stages) {
+			names.add(runner.name);
+		}
+		return names;
+	}
+	
+	private synchronized StageRunner stage(int stage) {
+		return stages.get(stage);
+	}
+	
+	/**
+	 * @return the number of messages rejected by the admission.
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+	
+	/**
+	 * @return the number of messages dropped because the first stage was full.
+	 */
+	public long getOverflowed() {
+		return overflowed.get();
+	}
+	
+	/**
+	 * @param stage the index of the stage.
+	 * @return the number of messages processed by the stage.
+	 */
+	public long getProcessed(int stage) {
+		return stage(stage).processed.get();
+	}
+	
+	/**
+	 * @param stage the index of the stage.
+	 * @return the number of messages dropped by the stage.
+	 */
+	public long getDropped(int stage) {
+		return stage(stage).dropped.get();
+	}
+	
+	/**
+	 * @param stage the index of the stage.
+	 * @return the number of messages the stage failed on.
+	 */
+	public long getFailed(int stage) {
+		return stage(stage).failed.get();
+	}
+	
+	/**
+	 * @param stage the index of the stage.
+	 * @return the number of messages waiting in the queues of the stage.
+	 */
+	public int getQueued(int stage) {
+		return stage(stage).queued();
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.persistence.Persistence;
+import org.fosstrak.llrp.commander.persistence.type.IngestEvent;
+
+/**
+ * the stages of the ingest pipeline provided by the persistence layer.
+ * @author swieland
+ *
+ */
+public final class IngestStages {
+	
+	private static final Logger LOG = Logger.getLogger(IngestStages.class);
+	
+	private IngestStages() {
+	}
+	
+	/**
+	 * builds the meta data of the message item and applies the admission of 
+	 * the persistence layer. meant to run as the admission of the pipeline, 
+	 * before the message is queued.
+	 */
+	public static class AdmissionStage implements IngestPipeline.Stage {
+		
+		private final Persistence persistence;
+		
+		/**
+		 * @param persistence the persistence layer admitting the messages. null admits all.
+		 */
+		public AdmissionStage(Persistence persistence) {
+			this.persistence = persistence;
+		}
+
+		@Override
+		public boolean process(IngestEvent event) {
+			LLRPMessageItem item = new LLRPMessageItem();
+			item.setAdapter(event.getAdapter());
+			item.setReader(event.getReader());
+			item.setMessageType(event.getMessage().getName());
+			event.setItem(item);
+			
+			// skip the remaining work for messages dropped by the load shedding 
+			// or absorbed into a keepalive summary.
+			return (null == persistence) || persistence.admit(item);
+		}
+	}
+	
+	/**
+	 * builds the message item (meta data and status code) of a message. if 
+	 * the item has not been built by the admission, the messages dropped by 
+	 * the load shedding or absorbed into a keepalive summary are not handed on.
+	 */
+	public static class MetadataStage implements IngestPipeline.Stage {
+		
+		private final AdmissionStage admission;
+		
+		/**
+		 * @param persistence the persistence layer admitting the messages. null admits all.
+		 */
+		public MetadataStage(Persistence persistence) {
+			this.admission = new AdmissionStage(persistence);
+		}
+
+		@Override
+		public boolean process(IngestEvent event) {
+			if ((null == event.getItem()) && !admission.process(event)) {
+				return false;
+			}
+			event.getItem().setStatusCode(StatusCodeExtractor.getStatusCode(event.getMessage()));
+			return true;
+		}
+	}
+	
+	/**
+	 * stores the message item. messages dropped by the load shedding are 
+	 * not handed on.
+	 */
+	public static class PersistStage implements IngestPipeline.Stage {
+		
+		private final Persistence persistence;
+		
+		/**
+		 * @param persistence the persistence layer to store the messages.
+		 */
+		public PersistStage(Persistence persistence) {
+			this.persistence = persistence;
+		}
+
+		@Override
+		public boolean process(IngestEvent event) {
+			try {
+				// false if dropped by the load shedding.
+				return persistence.put(event.getItem());
+			} catch (Exception e) {
+				// repository might be null
+				LOG.error("repository is null", e);
+			}
+			return true;
+		}
+	}
+}
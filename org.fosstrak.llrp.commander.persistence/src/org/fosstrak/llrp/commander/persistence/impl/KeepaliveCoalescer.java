@@ -0,0 +1,366 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.persistence.type.KeepaliveSummary;
+
+/**
+ * collapses consecutive keepalives of a reader into one summary record. 
+ * the keepalives are absorbed and accounted in a run per reader (first and 
+ * last seen, count, maximum gap). gaps exceeding the keepalive period by 
+ * more than half a period are flagged as anomalies, the gap to the last 
+ * keepalive of the previous run included. a reader staying silent for 
+ * that long is flagged by the sweep thread without waiting for its next 
+ * keepalive. a run is closed and written as one KEEPALIVE summary message 
+ * when the reader sends another message, when the run exceeds the flush 
+ * interval (checked on every keepalive and by the sweep thread) or when 
+ * the coalescer is flushed.
+ * @author swieland
+ *
+ */
+public class KeepaliveCoalescer implements Runnable {
+	
+	/** the message type of the keepalives. */
+	public static final String KEEPALIVE = "KEEPALIVE";
+	
+	/** the message type of the keepalive acknowledgements. */
+	public static final String KEEPALIVE_ACK = "KEEPALIVE_ACK";
+	
+	/** prefix of the comment of the summary messages. */
+	public static final String SUMMARY_COMMENT = "coalesced: ";
+	
+	/** default expected time in ms between two keepalives. */
+	public static final long DEFAULT_PERIOD_MS = 10000;
+	
+	/** default maximum duration in ms of a run before its summary is written. */
+	public static final long DEFAULT_FLUSH_INTERVAL_MS = 600000;
+	
+	private static final Logger LOG = Logger.getLogger(KeepaliveCoalescer.class);
+	
+	private final PersistenceImpl persistence;
+	private final long period;
+	private final long flushInterval;
+	
+	private volatile boolean running = false;
+	private Thread sweeper;
+	
+	// adapter name -> reader name -> open run.
+	private final ConcurrentMap<String, ConcurrentMap<String, Run>> runs = 
+		new ConcurrentHashMap<String, ConcurrentMap<String, Run>> ();
+	
+	/**
+	 * keepalive run of one reader. guarded by its own monitor.
+	 */
+	private static final class Run {
+		private final String adapter;
+		private final String reader;
+		private long firstSeen = -1;
+		private long lastSeen = -1;
+		private long count = 0;
+		private long acks = 0;
+		private long maxGap = 0;
+		private long anomalies = 0;
+		private long missed = 0;
+		
+		// the last keepalive of the reader, kept when the run is closed. -1 if none.
+		private long lastKeepalive = -1;
+		// true if the sweep flagged the silence since the last keepalive.
+		private boolean silent = false;
+		
+		private Run(String adapter, String reader) {
+			this.adapter = adapter;
+			this.reader = reader;
+		}
+		
+		private boolean isEmpty() {
+			return (0 == count) && (0 == acks) && (0 == anomalies);
+		}
+		
+		private KeepaliveSummary summary() {
+			return new KeepaliveSummary(adapter, reader, firstSeen, lastSeen, 
+					count, acks, maxGap, anomalies, missed);
+		}
+		
+		private void reset() {
+			firstSeen = -1;
+			lastSeen = -1;
+			count = 0;
+			acks = 0;
+			maxGap = 0;
+			anomalies = 0;
+			missed = 0;
+		}
+	}
+
+	/**
+	 * create a new coalescer.
+	 * @param persistence the persistence layer where to write the summaries.
+	 * @param period the expected time in ms between two keepalives.
+	 * @param flushInterval the maximum duration in ms of a run.
+	 */
+	public KeepaliveCoalescer(PersistenceImpl persistence, long period, long flushInterval) {
+		this.persistence = persistence;
+		this.period = Math.max(1, period);
+		this.flushInterval = Math.max(1, flushInterval);
+	}
+	
+	/**
+	 * start the thread closing the expired runs and flagging the silent readers.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		sweeper = new Thread(this, "persistence-keepalive-sweeper");
+		sweeper.setDaemon(true);
+		sweeper.start();
+	}
+	
+	/**
+	 * stop the sweep thread and write the summaries of all the open runs.
+	 */
+	public synchronized void stop() {
+		if (running) {
+			running = false;
+			sweeper.interrupt();
+			try {
+				sweeper.join();
+			} catch (InterruptedException e) {
+				LOG.error("interrupted while stopping the keepalive coalescer.", e);
+				Thread.currentThread().interrupt();
+			}
+			sweeper = null;
+		}
+		flush();
+	}
+	
+	/**
+	 * sweep the runs periodically.
+	 */
+	public void run() {
+		final long tick = Math.max(10, Math.min(period, flushInterval) / 2);
+		while (running) {
+			try {
+				Thread.sleep(tick);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			try {
+				sweep(System.currentTimeMillis());
+			} catch (Exception e) {
+				LOG.error("keepalive coalescer failed.", e);
+			}
+		}
+	}
+	
+	/**
+	 * close the runs exceeding the flush interval and flag the readers 
+	 * whose last keepalive is overdue as anomaly.
+	 * @param now the current time in ms.
+	 * @return the number of summaries written.
+	 */
+	public int sweep(long now) {
+		List<KeepaliveSummary> closed = new ArrayList<KeepaliveSummary> ();
+		for (Map<String, Run> readers : runs.values()) {
+			for (Run run : readers.values()) {
+				synchronized (run) {
+					if (!run.silent && (run.lastKeepalive >= 0) && 
+							(now - run.lastKeepalive > period + period / 2)) {
+						run.silent = true;
+						run.anomalies++;
+					}
+					if ((run.firstSeen >= 0) && (now - run.firstSeen >= flushInterval)) {
+						closed.add(close(run));
+					}
+				}
+			}
+		}
+		for (KeepaliveSummary summary : closed) {
+			write(summary);
+		}
+		return closed.size();
+	}
+	
+	/**
+	 * @param messageType the type of a message.
+	 * @return true if messages of this type are coalesced.
+	 */
+	public static boolean isKeepalive(String messageType) {
+		return KEEPALIVE.equals(messageType) || KEEPALIVE_ACK.equals(messageType);
+	}
+	
+	/**
+	 * account a message. keepalives are absorbed into the run of their 
+	 * reader, any other message closes the run of its reader.
+	 * @param item the meta data of the message.
+	 * @return true if the message has been absorbed and must not be stored.
+	 */
+	public boolean offer(LLRPMessageItem item) {
+		final boolean keepalive = isKeepalive(item.getMessageType());
+		Run run = run(item.getAdapter(), item.getReader(), keepalive);
+		if (null == run) {
+			return false;
+		}
+		KeepaliveSummary closed = null;
+		synchronized (run) {
+			if (!keepalive) {
+				closed = close(run);
+			} else {
+				long time = (null == item.getTime()) ? System.currentTimeMillis() : item.getTime().getTime();
+				if ((run.firstSeen >= 0) && (time - run.firstSeen >= flushInterval)) {
+					closed = close(run);
+				}
+				account(run, item.getMessageType(), time);
+			}
+		}
+		if (null != closed) {
+			write(closed);
+		}
+		return keepalive;
+	}
+	
+	private void account(Run run, String messageType, long time) {
+		if (KEEPALIVE_ACK.equals(messageType)) {
+			run.acks++;
+			return;
+		}
+		if (run.firstSeen < 0) {
+			run.firstSeen = time;
+		}
+		if (run.lastKeepalive >= 0) {
+			long gap = time - run.lastKeepalive;
+			run.maxGap = Math.max(run.maxGap, gap);
+			if (gap > period + period / 2) {
+				if (!run.silent) {
+					// otherwise already flagged by the sweep.
+					run.anomalies++;
+				}
+				run.missed += Math.max(0, Math.round((double) gap / period) - 1);
+			}
+		}
+		run.silent = false;
+		run.lastKeepalive = time;
+		run.lastSeen = time;
+		run.count++;
+	}
+	
+	/**
+	 * close a run. the caller must hold the monitor of the run.
+	 * @return the summary of the run or null if the run was empty.
+	 */
+	private KeepaliveSummary close(Run run) {
+		if (run.isEmpty()) {
+			return null;
+		}
+		KeepaliveSummary summary = run.summary();
+		run.reset();
+		return summary;
+	}
+	
+	/**
+	 * write the summary of a closed run as KEEPALIVE message.
+	 */
+	private void write(KeepaliveSummary summary) {
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setAdapter(summary.getAdapter());
+		item.setReader(summary.getReader());
+		item.setMessageType(KEEPALIVE);
+		item.setStatusCode("");
+		item.setMark(LLRPMessageItem.MARK_INCOMING);
+		item.setTime(new Timestamp((summary.getLastSeen() < 0) ? System.currentTimeMillis() : summary.getLastSeen()));
+		item.setComment(SUMMARY_COMMENT + summary);
+		item.setContent("");
+		persistence.put(item);
+	}
+	
+	private Run run(String adapter, String reader, boolean create) {
+		String adapterName = (null == adapter) ? "" : adapter;
+		String readerName = (null == reader) ? "" : reader;
+		ConcurrentMap<String, Run> readers = runs.get(adapterName);
+		if (null == readers) {
+			if (!create) {
+				return null;
+			}
+			ConcurrentMap<String, Run> created = new ConcurrentHashMap<String, Run> ();
+			readers = runs.putIfAbsent(adapterName, created);
+			if (null == readers) {
+				readers = created;
+			}
+		}
+		Run run = readers.get(readerName);
+		if ((null == run) && create) {
+			Run created = new Run(adapter, reader);
+			run = readers.putIfAbsent(readerName, created);
+			if (null == run) {
+				run = created;
+			}
+		}
+		return run;
+	}
+	
+	/**
+	 * close all the open runs and write their summaries. the next run of a 
+	 * reader starts afresh, without the gap to the keepalives before.
+	 */
+	public void flush() {
+		for (Map<String, Run> readers : runs.values()) {
+			for (Run run : readers.values()) {
+				KeepaliveSummary closed;
+				synchronized (run) {
+					closed = close(run);
+					run.lastKeepalive = -1;
+					run.silent = false;
+				}
+				if (null != closed) {
+					write(closed);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the summaries of the currently open runs.
+	 */
+	public List<KeepaliveSummary> getSummaries() {
+		List<KeepaliveSummary> summaries = new ArrayList<KeepaliveSummary> ();
+		for (Map<String, Run> readers : runs.values()) {
+			for (Run run : readers.values()) {
+				synchronized (run) {
+					if (!run.isEmpty()) {
+						summaries.add(run.summary());
+					}
+				}
+			}
+		}
+		return summaries;
+	}
+}
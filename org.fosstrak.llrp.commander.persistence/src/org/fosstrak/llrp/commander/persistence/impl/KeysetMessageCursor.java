@@ -0,0 +1,169 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.repository.PageMerger;
+import org.fosstrak.llrp.commander.persistence.repository.PagedRepository;
+import org.fosstrak.llrp.commander.persistence.repository.QueryableRepository;
+import org.fosstrak.llrp.commander.persistence.type.MessageCursor;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
+
+/**
+ * message cursor paging by (time, id) keyset. repositories implementing 
+ * {@link PagedRepository} (or {@link QueryableRepository} for filtered 
+ * cursors) deliver the pages directly. for all the other repositories the 
+ * page is cut from a bounded window of the most recent messages (see 
+ * {@link PageMerger}).
+ * @author swieland
+ *
+ */
+public class KeysetMessageCursor implements MessageCursor {
+	
+	private final PersistenceImpl persistence;
+	private final String adaptorName;
+	private final String readerName;
+	private final int pageSize;
+	
+	// the filter, null for all the messages of the adaptor and reader.
+	private final MessageQuery query;
+	
+	// the keys of the most recent and the oldest message of the current page.
+	private MessageKey newest = null;
+	private MessageKey oldest = null;
+	
+	private boolean exhausted = false;
+
+	/**
+	 * create a new cursor.
+	 * @param persistence the persistence layer to walk.
+	 * @param adaptorName the name of the adaptor. if null, all the messages.
+	 * @param readerName the name of the reader. if null, all the readers of the adaptor.
+	 * @param pageSize the number of messages per page.
+	 */
+	public KeysetMessageCursor(PersistenceImpl persistence, String adaptorName, 
+			String readerName, int pageSize) {
+		
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("page size must be positive.");
+		}
+		this.persistence = persistence;
+		this.adaptorName = adaptorName;
+		this.readerName = readerName;
+		this.pageSize = pageSize;
+		this.query = null;
+	}
+	
+	/**
+	 * create a new cursor walking the messages matching a query.
+	 * @param persistence the persistence layer to walk.
+	 * @param query the filter.
+	 * @param pageSize the number of messages per page.
+	 */
+	public KeysetMessageCursor(PersistenceImpl persistence, MessageQuery query, int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("page size must be positive.");
+		}
+		this.persistence = persistence;
+		this.adaptorName = query.getAdapter();
+		this.readerName = query.getReader();
+		this.pageSize = pageSize;
+		this.query = query;
+	}
+
+	@Override
+	public List<LLRPMessageItem> next() {
+		if (exhausted) {
+			return Collections.emptyList();
+		}
+		List<LLRPMessageItem> page = page(oldest, true);
+		exhausted = (page.size() < pageSize);
+		if (!page.isEmpty()) {
+			newest = MessageKey.of(page.get(0));
+			oldest = MessageKey.of(page.get(page.size() - 1));
+		}
+		return page;
+	}
+
+	@Override
+	public List<LLRPMessageItem> previous() {
+		if (null == newest) {
+			return Collections.emptyList();
+		}
+		List<LLRPMessageItem> page = page(newest, false);
+		if (!page.isEmpty()) {
+			// the page comes in ascending order.
+			Collections.reverse(page);
+			newest = MessageKey.of(page.get(0));
+			oldest = MessageKey.of(page.get(page.size() - 1));
+			exhausted = false;
+		}
+		return page;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !exhausted;
+	}
+
+	@Override
+	public String getContent(LLRPMessageItem item) {
+		if (null == item) {
+			return null;
+		}
+		if (null != item.getContent()) {
+			return item.getContent();
+		}
+		LLRPMessageItem stored = persistence.get(item.getId());
+		if (null == stored) {
+			return null;
+		}
+		return stored.getContent();
+	}
+
+	@Override
+	public int getPageSize() {
+		return pageSize;
+	}
+	
+	/**
+	 * fetch one page from the repository currently used by the persistence layer.
+	 */
+	private List<LLRPMessageItem> page(MessageKey key, boolean older) {
+		Repository repository = persistence.getRepository();
+		if (null == repository) {
+			return new ArrayList<LLRPMessageItem> ();
+		}
+		if (null != query) {
+			return new ArrayList<LLRPMessageItem> (PageMerger.query(
+					repository, query, key, older, pageSize, false));
+		}
+		return new ArrayList<LLRPMessageItem> (PageMerger.page(
+				repository, adaptorName, readerName, key, older, pageSize, false));
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.persistence.type.MessageCountSnapshot;
+
+/**
+ * load shedding policy of the ingest path. the messages are classified by 
+ * their type:
+ * <ul>
+ * <li>critical: responses and error messages. never dropped, the caller 
+ * blocks if the write-behind queue is full.</li>
+ * <li>sheddable: by default KEEPALIVE and RO_ACCESS_REPORT. only one out of 
+ * sample rate messages is kept above the low watermark, all of them are 
+ * dropped above the high watermark.</li>
+ * <li>normal: all the other messages. dropped only if the queue is full.</li>
+ * </ul>
+ * the watermarks are fractions of the write-behind queue capacity. the 
+ * dropped messages are counted per adapter, reader and message type.
+ * @author swieland
+ *
+ */
+public class LoadShedder {
+	
+	/** the priority of a message type. */
+	public enum Priority { CRITICAL, NORMAL, SHEDDABLE };
+	
+	/** default queue fill level in percent where the sampling starts. */
+	public static final int DEFAULT_LOW_WATERMARK = 50;
+	
+	/** default queue fill level in percent where the sheddable messages are dropped. */
+	public static final int DEFAULT_HIGH_WATERMARK = 80;
+	
+	/** default sample rate: keep one out of that many sheddable messages above the low watermark. */
+	public static final int DEFAULT_SAMPLE_RATE = 10;
+	
+	/** default sheddable message types (comma separated). */
+	public static final String DEFAULT_SHEDDABLE_TYPES = "KEEPALIVE,RO_ACCESS_REPORT";
+	
+	private static final Logger LOG = Logger.getLogger(LoadShedder.class);
+	
+	private final int lowWatermark;
+	private final int highWatermark;
+	private final int sampleRate;
+	private final Set<String> sheddable = new HashSet<String> ();
+	
+	private final AtomicLong sample = new AtomicLong(0);
+	private final AtomicLong dropped = new AtomicLong(0);
+	private final MessageCounters dropCounters = new MessageCounters();
+	
+	// 0 below the low watermark, 1 between the watermarks, 2 above the high watermark.
+	private volatile int level = 0;
+
+	/**
+	 * create a new load shedding policy.
+	 * @param lowWatermark queue fill level in percent where the sampling starts.
+	 * @param highWatermark queue fill level in percent where the sheddable messages are dropped.
+	 * @param sampleRate keep one out of that many sheddable messages above the low watermark.
+	 * @param sheddableTypes the sheddable message types.
+	 */
+	public LoadShedder(int lowWatermark, int highWatermark, int sampleRate, Collection<String> sheddableTypes) {
+		this.lowWatermark = Math.max(0, Math.min(100, lowWatermark));
+		this.highWatermark = Math.max(this.lowWatermark, Math.min(100, highWatermark));
+		this.sampleRate = Math.max(1, sampleRate);
+		sheddable.addAll(sheddableTypes);
+	}
+	
+	/**
+	 * @param sheddableTypes comma separated list of message types.
+	 * @return the message types.
+	 */
+	public static Set<String> parseTypes(String sheddableTypes) {
+		Set<String> types = new HashSet<String> ();
+		for (String type : sheddableTypes.split(",")) {
+			if (type.trim().length() > 0) {
+				types.add(type.trim());
+			}
+		}
+		return types;
+	}
+	
+	/**
+	 * @param messageType the type of a message.
+	 * @return the priority of the message type.
+	 */
+	public Priority priority(String messageType) {
+		if (null == messageType) {
+			return Priority.NORMAL;
+		}
+		if (isCritical(messageType)) {
+			return Priority.CRITICAL;
+		}
+		if (sheddable.contains(messageType)) {
+			return Priority.SHEDDABLE;
+		}
+		return Priority.NORMAL;
+	}
+	
+	/**
+	 * @param messageType the type of a message.
+	 * @return true if messages of the type are never dropped (responses and error messages).
+	 */
+	public static boolean isCritical(String messageType) {
+		return (null != messageType) && 
+			(messageType.endsWith("_RESPONSE") || "ERROR_MESSAGE".equals(messageType));
+	}
+	
+	/**
+	 * decide whether to keep a message given the fill level of the queue. 
+	 * a rejected message is counted as dropped.
+	 * @param item the message.
+	 * @param depth the number of messages waiting in the queue.
+	 * @param capacity the capacity of the queue.
+	 * @return true if the message shall be stored, false if it is dropped.
+	 */
+	public boolean admit(LLRPMessageItem item, int depth, int capacity) {
+		long fill = (100L * depth) / Math.max(1, capacity);
+		updateLevel(fill);
+		if (Priority.SHEDDABLE != priority(item.getMessageType())) {
+			return true;
+		}
+		if (fill >= highWatermark) {
+			dropped(item);
+			return false;
+		}
+		if ((fill >= lowWatermark) && (sample.getAndIncrement() % sampleRate != 0)) {
+			dropped(item);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * count a dropped message.
+	 * @param item the message.
+	 */
+	public void dropped(LLRPMessageItem item) {
+		dropped.incrementAndGet();
+		dropCounters.increment(item);
+	}
+	
+	private void updateLevel(long fill) {
+		int current = (fill >= highWatermark) ? 2 : ((fill >= lowWatermark) ? 1 : 0);
+		int previous = level;
+		if (current == previous) {
+			return;
+		}
+		level = current;
+		if (current > previous) {
+			LOG.warn(String.format("persistence falls behind (queue %d%% full), shedding load. %d messages dropped so far.", 
+					fill, dropped.get()));
+		} else if (0 == current) {
+			LOG.info(String.format("persistence caught up, %d messages dropped so far.", dropped.get()));
+		}
+	}
+	
+	/**
+	 * @return the total number of dropped messages.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * @return the number of dropped messages per adapter, reader and message type.
+	 */
+	public MessageCountSnapshot getDropCounts() {
+		return dropCounters.snapshot();
+	}
+	
+	/**
+	 * @return true if the queue is above the low watermark.
+	 */
+	public boolean isShedding() {
+		return level > 0;
+	}
+}
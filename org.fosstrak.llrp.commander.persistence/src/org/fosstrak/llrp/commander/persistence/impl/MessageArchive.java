@@ -0,0 +1,360 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.MessageHandler;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.exception.PersistenceException;
+import org.fosstrak.llrp.commander.persistence.repository.PageMerger;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.llrp.ltk.types.LLRPMessage;
+
+/**
+ * streams the message store to and from a framed binary archive. the 
+ * archive starts with a header (magic, version, flags) followed by chunks 
+ * of message records. each chunk is framed by its record count and its 
+ * length and is deflated on its own if the archive is compressed. a chunk 
+ * with zero records ends the archive. the messages are written page by 
+ * page, oldest first, as they are stored (compressed or binary content is 
+ * kept), so only one page and one chunk are held in memory at a time.
+ * @author swieland
+ *
+ */
+public class MessageArchive {
+	
+	/** the magic bytes in front of an archive. */
+	public static final byte[] MAGIC = { 'L', 'L', 'R', 'P', 'A', 'R', 'C' };
+	
+	/** the version of the archive format. */
+	public static final int VERSION = 1;
+	
+	/** flag set in the header if the chunks are deflated. */
+	public static final int FLAG_COMPRESSED = 0x01;
+	
+	/** default number of raw bytes after which a chunk is closed. */
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+	
+	/** default number of messages stored at once on import. */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	
+	/** the message type of the RO_ACCESS reports. */
+	public static final String RO_ACCESS_REPORT_TYPE = RepositoryROAccessCursor.RO_ACCESS_REPORT_TYPE;
+	
+	private static final Logger LOG = Logger.getLogger(MessageArchive.class);
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// upper bound of a chunk accepted on import, guards against corrupt frames.
+	private static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+	
+	private final PersistenceImpl persistence;
+	private final int chunkSize;
+	private final int batchSize;
+
+	/**
+	 * create a new archive with the default chunk and batch size.
+	 * @param persistence the persistence layer to export from or import into.
+	 */
+	public MessageArchive(PersistenceImpl persistence) {
+		this(persistence, DEFAULT_CHUNK_SIZE, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * create a new archive.
+	 * @param persistence the persistence layer to export from or import into.
+	 * @param chunkSize the number of raw bytes after which a chunk is closed.
+	 * @param batchSize the number of messages stored at once on import.
+	 */
+	public MessageArchive(PersistenceImpl persistence, int chunkSize, int batchSize) {
+		this.persistence = persistence;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.batchSize = Math.max(1, batchSize);
+	}
+	
+	/**
+	 * export the messages of the given adaptor and reader into an archive. 
+	 * the stream is not closed.
+	 * @param adaptorName the name of the adaptor. if null, all the messages.
+	 * @param readerName the name of the reader. if null, all the readers of the adaptor.
+	 * @param out the stream to write the archive to.
+	 * @param compress if true, the chunks are deflated.
+	 * @return the number of messages exported.
+	 * @throws PersistenceException if the archive could not be written.
+	 */
+	public long export(String adaptorName, String readerName, OutputStream out, 
+			boolean compress) throws PersistenceException {
+		
+		long exported = 0;
+		try {
+			DataOutputStream data = new DataOutputStream(out);
+			data.write(MAGIC);
+			data.writeByte(VERSION);
+			data.writeByte(compress ? FLAG_COMPRESSED : 0);
+			
+			ChunkWriter chunk = new ChunkWriter(data, compress);
+			Repository repository = persistence.getRepository();
+			// pages with content, oldest first.
+			MessageKey key = null;
+			List<LLRPMessageItem> page;
+			do {
+				page = (null == repository) ? new ArrayList<LLRPMessageItem> () : 
+					PageMerger.page(repository, adaptorName, readerName, key, false, batchSize, true);
+				for (LLRPMessageItem item : page) {
+					chunk.write(item);
+					exported++;
+				}
+				if (!page.isEmpty()) {
+					key = MessageKey.of(page.get(page.size() - 1));
+				}
+			} while (page.size() >= batchSize);
+			chunk.close();
+			data.flush();
+		} catch (IOException e) {
+			throw new PersistenceException(e);
+		}
+		LOG.debug(String.format("exported %d messages.", exported));
+		return exported;
+	}
+	
+	/**
+	 * import the messages of an archive into the persistence layer. the 
+	 * messages are stored in batches with their original ids, the 
+	 * RO_ACCESS_REPORT messages are handed to the registered RO_ACCESS 
+	 * handler as well. the stream is not closed.
+	 * @param in the stream to read the archive from.
+	 * @return the number of messages imported.
+	 * @throws PersistenceException if the archive is invalid or could not be read.
+	 */
+	public long importArchive(InputStream in) throws PersistenceException {
+		long imported = 0;
+		try {
+			DataInputStream data = new DataInputStream(in);
+			byte[] magic = new byte[MAGIC.length];
+			data.readFully(magic);
+			if (!Arrays.equals(MAGIC, magic)) {
+				throw new PersistenceException("not a message archive.");
+			}
+			int version = data.readUnsignedByte();
+			if (version != VERSION) {
+				throw new PersistenceException("unsupported archive version " + version);
+			}
+			boolean compressed = (0 != (data.readUnsignedByte() & FLAG_COMPRESSED));
+			
+			MessageHandler roAccessHandler = persistence.getRoAccessHandler();
+			List<LLRPMessageItem> batch = new ArrayList<LLRPMessageItem> (batchSize);
+			Inflater inflater = compressed ? new Inflater() : null;
+			try {
+				while (true) {
+					int records = data.readInt();
+					if (0 == records) {
+						break;
+					}
+					DataInputStream chunk = readChunk(data, inflater);
+					for (int i=0; i<records; i++) {
+						LLRPMessageItem item = readItem(chunk);
+						batch.add(item);
+						if ((null != roAccessHandler) && RO_ACCESS_REPORT_TYPE.equals(item.getMessageType())) {
+							LLRPMessage message = persistence.decodeMessage(item.getId(), item.getContent());
+							if (null != message) {
+								roAccessHandler.handle(item.getAdapter(), item.getReader(), message);
+							}
+						}
+						if (batch.size() >= batchSize) {
+							imported += persistence.storeAll(batch);
+							batch = new ArrayList<LLRPMessageItem> (batchSize);
+						}
+					}
+				}
+			} finally {
+				if (null != inflater) {
+					inflater.end();
+				}
+			}
+			if (!batch.isEmpty()) {
+				imported += persistence.storeAll(batch);
+			}
+		} catch (EOFException e) {
+			throw new PersistenceException("truncated message archive after " + imported + " messages.");
+		} catch (IOException e) {
+			throw new PersistenceException(e);
+		} catch (DataFormatException e) {
+			throw new PersistenceException(e);
+		}
+		LOG.debug(String.format("imported %d messages.", imported));
+		return imported;
+	}
+	
+	/**
+	 * read the frame of one chunk and inflate it if required.
+	 */
+	private DataInputStream readChunk(DataInputStream data, Inflater inflater) 
+		throws IOException, DataFormatException {
+		
+		int rawLength = data.readInt();
+		int length = data.readInt();
+		if ((rawLength < 0) || (length < 0) || (rawLength > MAX_FRAME_SIZE) || (length > MAX_FRAME_SIZE)) {
+			throw new IOException("corrupt chunk frame.");
+		}
+		byte[] frame = new byte[length];
+		data.readFully(frame);
+		if (null == inflater) {
+			return new DataInputStream(new ByteArrayInputStream(frame));
+		}
+		byte[] raw = new byte[rawLength];
+		inflater.reset();
+		inflater.setInput(frame);
+		int inflated = 0;
+		while ((inflated < rawLength) && !inflater.finished()) {
+			int n = inflater.inflate(raw, inflated, rawLength - inflated);
+			if ((0 == n) && (inflater.needsInput() || inflater.needsDictionary())) {
+				break;
+			}
+			inflated += n;
+		}
+		if (inflated != rawLength) {
+			throw new DataFormatException("corrupt chunk.");
+		}
+		return new DataInputStream(new ByteArrayInputStream(raw));
+	}
+	
+	private static LLRPMessageItem readItem(DataInputStream in) throws IOException {
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setId(readString(in));
+		item.setAdapter(readString(in));
+		item.setReader(readString(in));
+		item.setMessageType(readString(in));
+		item.setStatusCode(readString(in));
+		item.setComment(readString(in));
+		long time = in.readLong();
+		item.setTime((Long.MIN_VALUE == time) ? null : new Timestamp(time));
+		item.setContent(readString(in));
+		return item;
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+	
+	/**
+	 * collects the records of one chunk and writes the chunk once full.
+	 */
+	private final class ChunkWriter {
+		private final DataOutputStream out;
+		private final Deflater deflater;
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private final DataOutputStream records = new DataOutputStream(buffer);
+		private final byte[] block = new byte[64 * 1024];
+		private int count = 0;
+		
+		private ChunkWriter(DataOutputStream out, boolean compress) {
+			this.out = out;
+			this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+		}
+		
+		private void write(LLRPMessageItem item) throws IOException {
+			writeString(item.getId());
+			writeString(item.getAdapter());
+			writeString(item.getReader());
+			writeString(item.getMessageType());
+			writeString(item.getStatusCode());
+			writeString(item.getComment());
+			records.writeLong((null == item.getTime()) ? Long.MIN_VALUE : item.getTime().getTime());
+			writeString(item.getContent());
+			count++;
+			if (buffer.size() >= chunkSize) {
+				flush();
+			}
+		}
+		
+		private void writeString(String value) throws IOException {
+			if (null == value) {
+				records.writeInt(-1);
+				return;
+			}
+			byte[] bytes = value.getBytes(UTF8);
+			records.writeInt(bytes.length);
+			records.write(bytes);
+		}
+		
+		private void flush() throws IOException {
+			if (0 == count) {
+				return;
+			}
+			byte[] raw = buffer.toByteArray();
+			out.writeInt(count);
+			out.writeInt(raw.length);
+			if (null == deflater) {
+				out.writeInt(raw.length);
+				out.write(raw);
+			} else {
+				ByteArrayOutputStream frame = new ByteArrayOutputStream(raw.length / 2 + 64);
+				deflater.reset();
+				deflater.setInput(raw);
+				deflater.finish();
+				while (!deflater.finished()) {
+					int n = deflater.deflate(block);
+					frame.write(block, 0, n);
+				}
+				out.writeInt(frame.size());
+				frame.writeTo(out);
+			}
+			buffer.reset();
+			count = 0;
+		}
+		
+		private void close() throws IOException {
+			try {
+				flush();
+				out.writeInt(0);
+			} finally {
+				if (null != deflater) {
+					deflater.end();
+				}
+			}
+		}
+	}
+}
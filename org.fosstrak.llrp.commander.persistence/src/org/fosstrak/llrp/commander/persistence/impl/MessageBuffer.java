@@ -0,0 +1,208 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * bounded ring buffer handing items from many producers to one consumer. 
+ * producers never block nor lock: they claim a sequence number and 
+ * publish the item into the slot of that sequence. when the consumer 
+ * falls behind by more than the capacity, the oldest items are 
+ * overwritten and counted as dropped. the consumer side (drain, peek, 
+ * clear) is serialized, so several readers may share the buffer.
+ * @author swieland
+ *
+ * @param <E> the type of the buffered items.
+ */
+public class MessageBuffer<E> {
+	
+	/** the default capacity of the buffer. */
+	public static final int DEFAULT_CAPACITY = 4096;
+	
+	/**
+	 * an item together with the sequence number it has been published with.
+	 */
+	private static final class Cell<E> {
+		private final long sequence;
+		private final E item;
+		
+		private Cell(long sequence, E item) {
+			this.sequence = sequence;
+			this.item = item;
+		}
+	}
+	
+	private final AtomicReferenceArray<Cell<E>> slots;
+	
+	private final int mask;
+	
+	// the next sequence number to be claimed by a producer.
+	private final AtomicLong tail = new AtomicLong(0);
+	
+	// the next sequence number to be consumed. guarded by the buffer.
+	private long head = 0;
+	
+	private final AtomicLong dropped = new AtomicLong(0);
+	
+	/**
+	 * creates a buffer with the default capacity.
+	 */
+	public MessageBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * @param capacity the maximum number of items kept. rounded up to the 
+	 * next power of two.
+	 */
+	public MessageBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size = size << 1;
+		}
+		slots = new AtomicReferenceArray<Cell<E>> (size);
+		mask = size - 1;
+	}
+	
+	/**
+	 * adds an item to the buffer. never blocks. if the buffer is full, the 
+	 * oldest item is overwritten.
+	 * @param item the item to add.
+	 */
+	public void offer(E item) {
+		if (null == item) {
+			throw new NullPointerException("item must not be null");
+		}
+		final long sequence = tail.getAndIncrement();
+		final int index = (int) (sequence & mask);
+		final Cell<E> cell = new Cell<E> (sequence, item);
+		while (true) {
+			Cell<E> old = slots.get(index);
+			// a producer of a later round has already taken the slot.
+			if ((null != old) && (old.sequence > sequence)) {
+				return;
+			}
+			if (slots.compareAndSet(index, old, cell)) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * removes all the published items from the buffer, oldest first.
+	 * @param batch the list where to add the items.
+	 * @param max the maximum number of items to remove, 0 or less for all.
+	 * @return the number of items added to the batch.
+	 */
+	public synchronized int drainTo(List<? super E> batch, int max) {
+		return consume(batch, max, true);
+	}
+	
+	/**
+	 * @return all the items currently in the buffer, oldest first. the 
+	 * buffer gets emptied.
+	 */
+	public synchronized List<E> drain() {
+		List<E> batch = new ArrayList<E> ();
+		consume(batch, 0, true);
+		return batch;
+	}
+	
+	/**
+	 * @return a copy of the items currently in the buffer, oldest first. 
+	 * the buffer remains untouched.
+	 */
+	public synchronized List<E> peek() {
+		List<E> batch = new ArrayList<E> ();
+		consume(batch, 0, false);
+		return batch;
+	}
+	
+	/**
+	 * discards all the items currently in the buffer. discarded items are 
+	 * not counted as dropped.
+	 */
+	public synchronized void clear() {
+		head = tail.get();
+	}
+	
+	/**
+	 * @return the approximate number of items in the buffer.
+	 */
+	public synchronized int size() {
+		long pending = tail.get() - head;
+		return (int) Math.min(pending, slots.length());
+	}
+	
+	/**
+	 * @return the capacity of the buffer.
+	 */
+	public int getCapacity() {
+		return slots.length();
+	}
+	
+	/**
+	 * @return the number of items overwritten before they could be consumed.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	// walks the published items starting at the head. stops at a sequence 
+	// claimed but not yet published, it will be picked up on the next call.
+	private int consume(List<? super E> batch, int max, boolean remove) {
+		final long end = tail.get();
+		long sequence = head;
+		long lost = 0;
+		if (end - sequence > slots.length()) {
+			lost = end - slots.length() - sequence;
+			sequence = end - slots.length();
+		}
+		int n = 0;
+		while ((sequence < end) && ((max <= 0) || (n < max))) {
+			Cell<E> cell = slots.get((int) (sequence & mask));
+			if ((null == cell) || (cell.sequence < sequence)) {
+				break;
+			}
+			if (cell.sequence > sequence) {
+				// overwritten by a later round.
+				lost++;
+			} else {
+				batch.add(cell.item);
+				n++;
+			}
+			sequence++;
+		}
+		if (remove) {
+			head = sequence;
+			dropped.addAndGet(lost);
+		}
+		return n;
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.Constants;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.repository.PagedRepository;
+import org.fosstrak.llrp.commander.persistence.repository.SQLPagedRepository;
+import org.fosstrak.llrp.commander.persistence.type.MessageCountSnapshot;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.fosstrak.llrp.commander.persistence.type.ReaderKey;
+
+/**
+ * message counters per adapter, reader and message type. the counters are 
+ * seeded once from the repository and then maintained incrementally on 
+ * every put and clear, so counting does not need to scan the repository. 
+ * repositories without paging (e.g. the SQL repositories) are seeded with 
+ * one count per reader, their seeded messages carry no message type.
+ * @author swieland
+ *
+ */
+public class MessageCounters {
+	
+	/** number of messages fetched per page while seeding. */
+	public static final int SEED_PAGE_SIZE = 1000;
+	
+	private static final Logger LOG = Logger.getLogger(MessageCounters.class);
+	
+	// used as the key for missing names (the concurrent maps do not allow null).
+	private static final String UNKNOWN = "";
+	
+	// adapter name -> reader name -> message type -> count.
+	private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, AtomicLong>>> counters = 
+		new ConcurrentHashMap<String, ConcurrentMap<String, ConcurrentMap<String, AtomicLong>>> ();
+	
+	/**
+	 * reset the counters and count all the messages in the given repository.
+	 * @param repository the repository to count.
+	 */
+	public void seed(Repository repository) {
+		seed(repository, null);
+	}
+	
+	/**
+	 * reset the counters and count all the messages in the given repository.
+	 * @param repository the repository to count.
+	 * @param readers the reader names per adapter name. used to seed the 
+	 * repositories without paging, the messages of other readers are 
+	 * counted under an unknown adapter and reader. may be null.
+	 */
+	public void seed(Repository repository, Map<String, List<String>> readers) {
+		final long start = System.currentTimeMillis();
+		counters.clear();
+		long total = 0;
+		if (repository instanceof SQLPagedRepository) {
+			total = seedGroups((SQLPagedRepository) repository, readers);
+		} else if (repository instanceof PagedRepository) {
+			PagedRepository paged = (PagedRepository) repository;
+			MessageKey key = null;
+			List<LLRPMessageItem> page;
+			do {
+				page = paged.page(null, null, key, true, SEED_PAGE_SIZE, false);
+				for (LLRPMessageItem item : page) {
+					increment(item);
+				}
+				total += page.size();
+				if (!page.isEmpty()) {
+					key = MessageKey.of(page.get(page.size() - 1));
+				}
+			} while (page.size() == SEED_PAGE_SIZE);
+		} else {
+			total = seedCounts(repository, readers);
+		}
+		LOG.debug(String.format("seeded message counters with %d messages in %d ms.", 
+				total, System.currentTimeMillis() - start));
+	}
+	
+	/**
+	 * seed the counters with the message counts per reader and type, 
+	 * grouped by the database.
+	 * @param repository the repository to count.
+	 * @param readers the reader names per adapter name or null.
+	 * @return the number of messages in the repository.
+	 */
+	private long seedGroups(SQLPagedRepository repository, Map<String, List<String>> readers) {
+		Map<ReaderKey, Map<String, Integer>> counts = repository.countByType();
+		if (null == counts) {
+			return seedCounts(repository, readers);
+		}
+		long total = 0;
+		for (Map.Entry<ReaderKey, Map<String, Integer>> reader : counts.entrySet()) {
+			ConcurrentMap<String, AtomicLong> types = types(
+					name(reader.getKey().getAdapter()), name(reader.getKey().getReader()));
+			for (Map.Entry<String, Integer> type : reader.getValue().entrySet()) {
+				counter(types, name(type.getKey())).addAndGet(type.getValue());
+				total += type.getValue();
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * seed the counters with one count per reader (the content is not loaded).
+	 * @param repository the repository to count.
+	 * @param readers the reader names per adapter name or null.
+	 * @return the number of messages in the repository.
+	 */
+	private long seedCounts(Repository repository, Map<String, List<String>> readers) {
+		long known = 0;
+		if (null != readers) {
+			for (Map.Entry<String, List<String>> entry : readers.entrySet()) {
+				for (String reader : entry.getValue()) {
+					int count = repository.count(entry.getKey(), reader);
+					if (count > 0) {
+						counter(types(name(entry.getKey()), name(reader)), UNKNOWN).addAndGet(count);
+						known += count;
+					}
+				}
+			}
+		}
+		long total = repository.count(null, null);
+		if (total > known) {
+			counter(types(UNKNOWN, UNKNOWN), UNKNOWN).addAndGet(total - known);
+		}
+		return Math.max(total, known);
+	}
+	
+	/**
+	 * count a new message.
+	 * @param item the message.
+	 */
+	public void increment(LLRPMessageItem item) {
+		ConcurrentMap<String, AtomicLong> types = types(name(item.getAdapter()), name(item.getReader()));
+		counter(types, name(item.getMessageType())).incrementAndGet();
+	}
+	
+	/**
+	 * uncount a deleted message.
+	 * @param item the message.
+	 */
+	public void decrement(LLRPMessageItem item) {
+		ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> readers = counters.get(name(item.getAdapter()));
+		if (null == readers) {
+			return;
+		}
+		ConcurrentMap<String, AtomicLong> types = readers.get(name(item.getReader()));
+		if (null == types) {
+			return;
+		}
+		AtomicLong counter = types.get(name(item.getMessageType()));
+		if ((null == counter) || (counter.get() <= 0)) {
+			// the message may have been seeded without its type.
+			counter = types.get(UNKNOWN);
+		}
+		if ((null != counter) && (counter.decrementAndGet() < 0)) {
+			counter.set(0);
+		}
+	}
+	
+	private static AtomicLong counter(ConcurrentMap<String, AtomicLong> types, String type) {
+		AtomicLong counter = types.get(type);
+		if (null == counter) {
+			AtomicLong created = new AtomicLong(0);
+			counter = types.putIfAbsent(type, created);
+			if (null == counter) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+	
+	private ConcurrentMap<String, AtomicLong> types(String adapter, String reader) {
+		ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> readers = counters.get(adapter);
+		if (null == readers) {
+			ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> created = 
+				new ConcurrentHashMap<String, ConcurrentMap<String, AtomicLong>> ();
+			readers = counters.putIfAbsent(adapter, created);
+			if (null == readers) {
+				readers = created;
+			}
+		}
+		ConcurrentMap<String, AtomicLong> types = readers.get(reader);
+		if (null == types) {
+			ConcurrentMap<String, AtomicLong> created = new ConcurrentHashMap<String, AtomicLong> ();
+			types = readers.putIfAbsent(reader, created);
+			if (null == types) {
+				types = created;
+			}
+		}
+		return types;
+	}
+	
+	private static String name(String name) {
+		return (null == name) ? UNKNOWN : name;
+	}
+	
+	/**
+	 * returns the number of messages to a given filter.
+	 * @param adapter the name of the adapter. if null (or the root) all the messages.
+	 * @param reader the name of the reader. if null all the messages of the adapter.
+	 * @return the number of messages.
+	 */
+	public long count(String adapter, String reader) {
+		long count = 0;
+		for (Map.Entry<String, ConcurrentMap<String, ConcurrentMap<String, AtomicLong>>> entry : counters.entrySet()) {
+			if ((null != adapter) && !Constants.ROOT_NAME.equals(adapter) && !adapter.equals(entry.getKey())) {
+				continue;
+			}
+			for (Map.Entry<String, ConcurrentMap<String, AtomicLong>> readerEntry : entry.getValue().entrySet()) {
+				if ((null != reader) && !reader.equals(readerEntry.getKey())) {
+					continue;
+				}
+				for (AtomicLong counter : readerEntry.getValue().values()) {
+					count += counter.get();
+				}
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * reset the counters to a given filter.
+	 * @param adapter the name of the adapter. if null (or the root) all the counters.
+	 * @param reader the name of the reader. if null all the counters of the adapter.
+	 */
+	public void clear(String adapter, String reader) {
+		if ((null == adapter) || Constants.ROOT_NAME.equals(adapter)) {
+			counters.clear();
+			return;
+		}
+		if (null == reader) {
+			counters.remove(adapter);
+			return;
+		}
+		ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> readers = counters.get(adapter);
+		if (null != readers) {
+			readers.remove(reader);
+		}
+	}
+	
+	/**
+	 * @return a snapshot of the current counters.
+	 */
+	public MessageCountSnapshot snapshot() {
+		Map<String, Map<String, Map<String, Long>>> copy = new HashMap<String, Map<String, Map<String, Long>>> ();
+		for (Map.Entry<String, ConcurrentMap<String, ConcurrentMap<String, AtomicLong>>> entry : counters.entrySet()) {
+			Map<String, Map<String, Long>> readers = new HashMap<String, Map<String, Long>> ();
+			for (Map.Entry<String, ConcurrentMap<String, AtomicLong>> readerEntry : entry.getValue().entrySet()) {
+				Map<String, Long> types = new HashMap<String, Long> ();
+				for (Map.Entry<String, AtomicLong> typeEntry : readerEntry.getValue().entrySet()) {
+					types.put(typeEntry.getKey(), Long.valueOf(typeEntry.getValue().get()));
+				}
+				readers.put(readerEntry.getKey(), types);
+			}
+			copy.put(entry.getKey(), readers);
+		}
+		return new MessageCountSnapshot(copy);
+	}
+}
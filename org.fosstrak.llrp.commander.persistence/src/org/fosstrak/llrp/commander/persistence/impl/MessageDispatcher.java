@@ -0,0 +1,148 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.commander.persistence.type.IngestEvent;
+import org.llrp.ltk.types.LLRPMessage;
+
+/**
+ * dispatches the received messages to the reactions registered for their 
+ * message class. the reactions are looked up by the exact class of the 
+ * message, so the routing of a message costs a single map lookup. the 
+ * dispatcher can be used as the last stage of the ingest pipeline.
+ * @author swieland
+ *
+ */
+public class MessageDispatcher implements IngestPipeline.Stage {
+	
+	/**
+	 * a reaction to a received message.
+	 */
+	public interface Reaction {
+		
+		/**
+		 * @param event the received message. the message item is set.
+		 * @throws Exception when the reaction fails. the remaining reactions 
+		 * are run anyway.
+		 */
+		void react(IngestEvent event) throws Exception;
+	}
+	
+	private static final Logger LOG = Logger.getLogger(MessageDispatcher.class);
+	
+	// the reactions per message class. the arrays are replaced on change, 
+	// never modified, so dispatching does not need to lock.
+	private final ConcurrentMap<Class<?>, Reaction[]> reactions = 
+		new ConcurrentHashMap<Class<?>, Reaction[]> ();
+	
+	/**
+	 * registers a reaction for a message class.
+	 * @param messageClass the class of the messages to react to.
+	 * @param reaction the reaction.
+	 * @return this dispatcher.
+	 */
+	public synchronized MessageDispatcher register(
+			Class<? extends LLRPMessage> messageClass, Reaction reaction) {
+		
+		Reaction[] current = reactions.get(messageClass);
+		int n = (null == current) ? 0 : current.length;
+		Reaction[] updated = new Reaction[n + 1];
+		if (null != current) {
+			System.arraycopy(current, 0, updated, 0, n);
+		}
+		updated[n] = reaction;
+		reactions.put(messageClass, updated);
+		return this;
+	}
+	
+	/**
+	 * removes a reaction.
+	 * @param messageClass the class of the messages the reaction has been 
+	 * registered for.
+	 * @param reaction the reaction.
+	 * @return true if the reaction has been registered.
+	 */
+	public synchronized boolean unregister(
+			Class<? extends LLRPMessage> messageClass, Reaction reaction) {
+		
+		Reaction[] current = reactions.get(messageClass);
+		if (null == current) {
+			return false;
+		}
+		for (int i=0; i<current.length; i++) {
+			if (current[i] == reaction) {
+				if (1 == current.length) {
+					reactions.remove(messageClass);
+				} else {
+					Reaction[] updated = new Reaction[current.length - 1];
+					System.arraycopy(current, 0, updated, 0, i);
+					System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+					reactions.put(messageClass, updated);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @param messageClass the message class.
+	 * @return whether there is a reaction registered for the message class.
+	 */
+	public boolean hasReaction(Class<?> messageClass) {
+		return reactions.containsKey(messageClass);
+	}
+	
+	/**
+	 * runs the reactions registered for the class of the message.
+	 * @param event the received message.
+	 * @return the number of reactions run.
+	 */
+	public int dispatch(IngestEvent event) {
+		LLRPMessage msg = event.getMessage();
+		if (null == msg) {
+			return 0;
+		}
+		Reaction[] current = reactions.get(msg.getClass());
+		if (null == current) {
+			return 0;
+		}
+		for (Reaction reaction : current) {
+			try {
+				reaction.react(event);
+			} catch (Exception e) {
+				LOG.error(String.format("reaction to %s failed", msg.getName()), e);
+			}
+		}
+		return current.length;
+	}
+
+	@Override
+	public boolean process(IngestEvent event) {
+		dispatch(event);
+		return true;
+	}
+}
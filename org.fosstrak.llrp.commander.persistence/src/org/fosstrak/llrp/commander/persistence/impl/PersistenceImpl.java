@@ -21,15 +21,27 @@
 
 package org.fosstrak.llrp.commander.persistence.impl;
 
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
 import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.MessageHandler;
 import org.fosstrak.llrp.client.ROAccessReportsRepository;
 import org.fosstrak.llrp.client.Repository;
 import org.fosstrak.llrp.client.RepositoryFactory;
@@ -38,9 +50,28 @@ import org.fosstrak.llrp.client.repository.sql.roaccess.ROAccessItem;
 import org.fosstrak.llrp.commander.llrpaccess.LLRPAccess;
 import org.fosstrak.llrp.commander.persistence.Persistence;
 import org.fosstrak.llrp.commander.persistence.exception.PersistenceException;
+import org.fosstrak.llrp.commander.persistence.repository.BatchRepository;
+import org.fosstrak.llrp.commander.persistence.repository.CountingRepository;
+import org.fosstrak.llrp.commander.persistence.repository.PruningRepository;
+import org.fosstrak.llrp.commander.persistence.repository.SQLPagedRepository;
+import org.fosstrak.llrp.commander.persistence.repository.SegmentLogRepository;
+import org.fosstrak.llrp.commander.persistence.repository.ShardedRepository;
+import org.fosstrak.llrp.commander.persistence.repository.TieredRepository;
+import org.fosstrak.llrp.commander.persistence.type.BinaryContent;
+import org.fosstrak.llrp.commander.persistence.type.MessageCountSnapshot;
+import org.fosstrak.llrp.commander.persistence.type.MessageCursor;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
 import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+import org.fosstrak.llrp.commander.persistence.type.ROAccessCursor;
+import org.fosstrak.llrp.commander.persistence.type.ROAccessQuery;
 import org.fosstrak.llrp.commander.persistence.type.RepositoryFactoryDelegate;
+import org.fosstrak.llrp.commander.persistence.type.ValidationResult;
+import org.jdom.Document;
+import org.jdom.input.SAXBuilder;
+import org.llrp.ltk.exceptions.InvalidLLRPMessageException;
+import org.llrp.ltk.generated.LLRPMessageFactory;
 import org.llrp.ltk.generated.messages.RO_ACCESS_REPORT;
+import org.llrp.ltk.types.LLRPMessage;
 
 /**
  * default implementation of the persistence layer.
@@ -53,10 +84,72 @@ public class PersistenceImpl implements Persistence {
 	
 	private static final Logger LOG = Logger.getLogger(PersistenceImpl.class);
 	
-	private Repository repository;
+	// ids of the messages stored through the write-behind queue.
+	private static final long ID_BASE = System.currentTimeMillis();
+	private static final AtomicLong idSequence = new AtomicLong(0);
+	
+	private volatile Repository repository;
 	private LLRPAccess llrpAccess;
 	private RepositoryFactoryDelegate repositoryFactory;
 	
+	// asynchronous writer in front of the repository. null if messages are stored synchronously.
+	private volatile WriteBehindQueue writeBehindQueue;
+	
+	// puts hold the read lock, a repository switch takes the write lock to drain them.
+	private final ReadWriteLock switchLock = new ReentrantReadWriteLock();
+	
+	// messages put while the repository is switched. null if no switch is in progress.
+	private List<PendingPut> switchBuffer;
+	
+	// the RO_ACCESS_REPORT handler registered on the LLRP access layer (the 
+	// repository or the tag aggregator in front of it). null if not registered.
+	private MessageHandler roAccessHandler;
+	
+	// statistics of the last repository switch.
+	private volatile long lastSwitchTime = 0;
+	private volatile long lastSwitchPause = 0;
+	private volatile int lastSwitchBuffered = 0;
+	
+	// message counters maintained on put and clear. null if the repository counts itself.
+	private volatile MessageCounters counters;
+	
+	// cache of recently stored or read messages. null if disabled.
+	private volatile ContentCache contentCache;
+	
+	// compresses the content on put and decompresses it on get.
+	private final ContentCompressor compressor = new ContentCompressor();
+	
+	// drops low priority messages when the write-behind queue fills up. null if disabled.
+	private LoadShedder loadShedder;
+	
+	// collapses consecutive keepalives into summary records. null if disabled.
+	private volatile KeepaliveCoalescer keepaliveCoalescer;
+	
+	// deletes the messages exceeding the retention policy. null if the messages are kept forever.
+	private RetentionPruner retentionPruner;
+	
+	// moves the aged messages from the hot into the cold tier. null if the repository is not tiered.
+	private TierMigrator tierMigrator;
+	
+	// validates candidate descriptors in the background. created on first use.
+	private DescriptorValidator validator;
+	
+	// the descriptor of the repository in use.
+	private PersistenceDescriptor descriptor;
+	
+	/**
+	 * a message put while switching the repository.
+	 */
+	private static final class PendingPut {
+		private final LLRPMessageItem message;
+		private final LLRPMessageItem stored;
+		
+		private PendingPut(LLRPMessageItem message, LLRPMessageItem stored) {
+			this.message = message;
+			this.stored = stored;
+		}
+	}
+	
 	/**
 	 * construct this persistence layer.
 	 * @param llrpAccess the handle onto the LLRP access layer.
@@ -79,7 +172,7 @@ public class PersistenceImpl implements Persistence {
 		
 		if (!useFallbackOnly) {
 			try {
-				repository = repositoryFactory.create(args);
+				repository = createRepository(desc, args);
 			} catch (PersistenceException e) {
 				LOG.error("Could not invoke the repository, using fallback", e);
 				initialException = e;
@@ -90,10 +183,20 @@ public class PersistenceImpl implements Persistence {
 		
 		if (useFallbackOnly || (null == repository)) {
 			LOG.debug("Starting internal Derby database.");
+			if (desc.getIntProperty(PersistenceDescriptor.PROP_SHARDS, 1) > 1) {
+				LOG.info("the internal Derby database is not sharded.");
+			}
 			args.put(DerbyRepository.ARG_REPO_LOCATION, 	dbLocation);
 			args.put(RepositoryFactory.ARG_USERNAME, 		StringUtils.EMPTY);
 			args.put(RepositoryFactory.ARG_PASSWRD, 		StringUtils.EMPTY);
 			args.put(RepositoryFactory.ARG_JDBC_STRING, 	StringUtils.EMPTY);
+			DerbyFastStart fastStart = new DerbyFastStart(desc, dbLocation);
+			fastStart.tune();
+			if (fastStart.wipe()) {
+				// the database has been recreated, nothing left to delete.
+				args.put(RepositoryFactory.ARG_WIPE_DB, 					Boolean.FALSE.toString());
+				args.put(RepositoryFactory.ARG_WIPE_RO_ACCESS_REPORTS_DB,	Boolean.FALSE.toString());
+			}
 			repository = new DerbyRepository();
 			try {
 				repository.initialize(args);
@@ -101,27 +204,91 @@ public class PersistenceImpl implements Persistence {
 				repository = null;
 				throw e;
 			}
+			repository = SQLPagedRepository.adapt(repository);
+			fastStart.warmUp(repository);
 		}
 		
+		repository = createTiers(desc, repository);
+		descriptor = desc;
+		counters = createCounters(desc, repository);
+		contentCache = createContentCache(desc);
+		configureCompression(desc);
+		loadShedder = createLoadShedder(desc);
+		startWriteBehind();
+		startRetention();
+		startTiering();
+		keepaliveCoalescer = createKeepaliveCoalescer(desc);
 		return initialException;
 	}
 
 	@Override
-	public boolean change(PersistenceDescriptor desc) throws PersistenceException {
+	public synchronized boolean change(PersistenceDescriptor desc) throws PersistenceException {
 		assertDescriptorNotNull(desc);
 		if (!verifyOldRepoNotSame(desc)) {
 			return false;
 		}
 		
 		// try to open the repository. if it works out, switch it.
-		Repository newRepository = repositoryFactory.create(map(desc));
-		Repository old = repository;
-		repository = newRepository;
+		Repository newRepository = createTiers(desc, createRepository(desc, map(desc)));
+		MessageCounters newCounters = createCounters(desc, newRepository);
+		final long st = System.currentTimeMillis();
 		
-		if (null != old) {
-			if (null != old.getROAccessRepository()) {
-				llrpAccess.deregisterPartialHandler(old.getROAccessRepository(), RO_ACCESS_REPORT.class);
+		// write the open keepalive runs into the old repository, they 
+		// belong to the history stored there.
+		stopRetention();
+		stopTiering();
+		flushKeepalives();
+		
+		// wait for the puts in flight, then buffer the new ones until the switch is done.
+		switchLock.writeLock().lock();
+		try {
+			switchBuffer = new ArrayList<PendingPut> ();
+		} finally {
+			switchLock.writeLock().unlock();
+		}
+		
+		// flush the queued messages into the old repository.
+		stopWriteBehind();
+		
+		Repository old;
+		int buffered;
+		final long pause = System.currentTimeMillis();
+		switchLock.writeLock().lock();
+		try {
+			old = repository;
+			repository = newRepository;
+			counters = newCounters;
+			contentCache = createContentCache(desc);
+			configureCompression(desc);
+			loadShedder = createLoadShedder(desc);
+			descriptor = desc;
+			startWriteBehind();
+			moveRoAccessHandler(old, newRepository);
+			
+			// replay the messages put during the switch into the new repository.
+			List<PendingPut> pending = switchBuffer;
+			switchBuffer = null;
+			buffered = pending.size();
+			for (PendingPut put : pending) {
+				try {
+					store(put.message, put.stored);
+				} catch (Exception e) {
+					LOG.error("could not store message buffered during the switch.", e);
+				}
 			}
+		} finally {
+			switchLock.writeLock().unlock();
+		}
+		lastSwitchPause = System.currentTimeMillis() - pause;
+		startRetention();
+		startTiering();
+		keepaliveCoalescer = createKeepaliveCoalescer(desc);
+		lastSwitchTime = System.currentTimeMillis() - st;
+		lastSwitchBuffered = buffered;
+		LOG.info(String.format("switched repository in %d ms (writers paused %d ms, %d messages buffered).", 
+				lastSwitchTime, lastSwitchPause, buffered));
+		
+		if (null != old) {
 			// stop the old repository
 			try {
 				old.close();
@@ -144,6 +311,40 @@ public class PersistenceImpl implements Persistence {
 		return true;
 	}
 	
+	@Override
+	public List<Future<ValidationResult>> validate(List<PersistenceDescriptor> descs, long timeout) {
+		return getValidator().validate(descs, timeout);
+	}
+	
+	/**
+	 * create, but do not use, the repository described by the given descriptor.
+	 * @param desc description of the persistence container.
+	 * @return the initialized repository.
+	 * @throws PersistenceException when the repository could not be created.
+	 */
+	Repository createTestRepository(PersistenceDescriptor desc) throws PersistenceException {
+		assertDescriptorNotNull(desc);
+		return repositoryFactory.create(map(desc));
+	}
+	
+	/**
+	 * @param desc description of the persistence container.
+	 * @return true if the described repository is the one in use, false otherwise.
+	 */
+	boolean isInUse(PersistenceDescriptor desc) {
+		return !verifyOldRepoNotSame(desc);
+	}
+	
+	/**
+	 * @return the validator of the persistence descriptors (created on first use).
+	 */
+	public synchronized DescriptorValidator getValidator() {
+		if (null == validator) {
+			validator = new DescriptorValidator(this, DescriptorValidator.DEFAULT_BENCHMARK_SIZE);
+		}
+		return validator;
+	}
+	
 	private void assertDescriptorNotNull(PersistenceDescriptor desc) throws PersistenceException {
 		if (null == desc) {
 			throw new PersistenceException("descriptor must not be null");
@@ -151,15 +352,350 @@ public class PersistenceImpl implements Persistence {
 	}
 	
 	private boolean verifyOldRepoNotSame(PersistenceDescriptor desc) {
-		if ((null != repository) && (repository.getClass().getName().equals(desc.getImplementingClass()))) {
+		Repository current = repository;
+		if (current instanceof TieredRepository) {
+			current = ((TieredRepository) current).getColdTier();
+		}
+		if (current instanceof ShardedRepository) {
+			current = ((ShardedRepository) current).getShards().get(0);
+		}
+		if (current instanceof SQLPagedRepository) {
+			current = ((SQLPagedRepository) current).getDelegate();
+		}
+		if ((null != current) && (current.getClass().getName().equals(desc.getImplementingClass()))) {
 			LOG.info("instantiate twice the same repository is not allowed.");
 			return false;
 		}
 		return true;
 	}
 	
-	private Map<String, String> map(PersistenceDescriptor desc) {
+	/**
+	 * if requested by the descriptor, start a write-behind queue in front of the repository. 
+	 * only a {@link BatchRepository} stores a batch in one call, the other 
+	 * repositories (e.g. the SQL repositories) receive one put per message.
+	 */
+	private void startWriteBehind() {
+		if ((null == repository) || (null == descriptor) || 
+				!descriptor.getBooleanProperty(PersistenceDescriptor.PROP_WRITE_BEHIND, false)) {
+			return;
+		}
+		WriteBehindQueue queue = new WriteBehindQueue(repository, 
+				descriptor.getIntProperty(PersistenceDescriptor.PROP_WRITE_BEHIND_CAPACITY, WriteBehindQueue.DEFAULT_CAPACITY),
+				descriptor.getIntProperty(PersistenceDescriptor.PROP_WRITE_BEHIND_BATCH_SIZE, WriteBehindQueue.DEFAULT_BATCH_SIZE),
+				descriptor.getLongProperty(PersistenceDescriptor.PROP_WRITE_BEHIND_FLUSH_INTERVAL, WriteBehindQueue.DEFAULT_FLUSH_INTERVAL_MS));
+		queue.setLoadShedder(loadShedder);
+		queue.start();
+		writeBehindQueue = queue;
+		LOG.debug("storing messages through the write-behind queue.");
+	}
+	
+	/**
+	 * stop the write-behind queue (if any) and flush all the pending messages.
+	 */
+	private void stopWriteBehind() {
+		WriteBehindQueue queue = writeBehindQueue;
+		if (null != queue) {
+			writeBehindQueue = null;
+			queue.stop();
+		}
+	}
+	
+	/**
+	 * if requested by the descriptor, create the load shedding policy. load 
+	 * shedding requires the write-behind queue.
+	 * @return the policy or null if disabled.
+	 */
+	private LoadShedder createLoadShedder(PersistenceDescriptor desc) {
+		if (!desc.getBooleanProperty(PersistenceDescriptor.PROP_LOAD_SHEDDING, false)) {
+			return null;
+		}
+		if (!desc.getBooleanProperty(PersistenceDescriptor.PROP_WRITE_BEHIND, false)) {
+			LOG.info("load shedding requires the write-behind queue, not shedding load.");
+			return null;
+		}
+		String types = desc.getProperty(PersistenceDescriptor.PROP_LOAD_SHEDDING_TYPES);
+		return new LoadShedder(
+				desc.getIntProperty(PersistenceDescriptor.PROP_LOAD_SHEDDING_LOW_WATERMARK, LoadShedder.DEFAULT_LOW_WATERMARK),
+				desc.getIntProperty(PersistenceDescriptor.PROP_LOAD_SHEDDING_HIGH_WATERMARK, LoadShedder.DEFAULT_HIGH_WATERMARK),
+				desc.getIntProperty(PersistenceDescriptor.PROP_LOAD_SHEDDING_SAMPLE_RATE, LoadShedder.DEFAULT_SAMPLE_RATE),
+				LoadShedder.parseTypes((null == types) ? LoadShedder.DEFAULT_SHEDDABLE_TYPES : types));
+	}
+	
+	/**
+	 * if requested by the descriptor, create and start the keepalive coalescer.
+	 * @return the coalescer or null if disabled.
+	 */
+	private KeepaliveCoalescer createKeepaliveCoalescer(PersistenceDescriptor desc) {
+		if (!desc.getBooleanProperty(PersistenceDescriptor.PROP_KEEPALIVE_COALESCING, false)) {
+			return null;
+		}
+		KeepaliveCoalescer coalescer = new KeepaliveCoalescer(this, 
+				desc.getLongProperty(PersistenceDescriptor.PROP_KEEPALIVE_PERIOD, KeepaliveCoalescer.DEFAULT_PERIOD_MS),
+				desc.getLongProperty(PersistenceDescriptor.PROP_KEEPALIVE_FLUSH_INTERVAL, KeepaliveCoalescer.DEFAULT_FLUSH_INTERVAL_MS));
+		coalescer.start();
+		return coalescer;
+	}
+	
+	/**
+	 * stop the keepalive coalescer (if any), write the summaries of the 
+	 * open runs and detach the coalescer.
+	 */
+	private void flushKeepalives() {
+		KeepaliveCoalescer coalescer = keepaliveCoalescer;
+		if (null != coalescer) {
+			keepaliveCoalescer = null;
+			coalescer.stop();
+		}
+	}
+	
+	/**
+	 * create the repository described by the arguments. if requested by the 
+	 * descriptor, several instances (shards) are created, each one in its 
+	 * own storage location. the number of shards of a storage location is 
+	 * kept in a {@link ShardMarker} and only changed when the database is 
+	 * wiped.
+	 * @param desc the descriptor.
+	 * @param args the arguments of the repository.
+	 * @return the repository.
+	 * @throws PersistenceException when no instantiation was possible.
+	 */
+	private Repository createRepository(PersistenceDescriptor desc, Map<String, String> args) throws PersistenceException {
+		int n = desc.getIntProperty(PersistenceDescriptor.PROP_SHARDS, 1);
+		String className = args.get(RepositoryFactory.ARG_DB_CLASSNAME);
+		boolean local = (null != className) && className.startsWith(RepositoryFactoryDelegate.LOCAL_REPOSITORY_PACKAGE);
+		String location = storageLocation(className, args);
+		if (null != location) {
+			n = new ShardMarker(location).resolve(n, Boolean.parseBoolean(args.get(RepositoryFactory.ARG_WIPE_DB)));
+		} else if (!local && (n > 1)) {
+			LOG.info("sharding requires a repository with its own storage location, not sharding.");
+			n = 1;
+		}
+		if (n <= 1) {
+			return SQLPagedRepository.adapt(repositoryFactory.create(args));
+		}
+		Map<String, String> base = new HashMap<String, String> (args);
+		if ((null != location) && (null == base.get(SegmentLogRepository.ARG_LOCATION)) && 
+				(null == base.get(DerbyRepository.ARG_REPO_LOCATION))) {
+			// the segment log falls back to the default location, split that one.
+			base.put(SegmentLogRepository.ARG_LOCATION, location);
+		}
+		List<Repository> shards = new ArrayList<Repository> (n);
+		try {
+			for (int i=0; i<n; i++) {
+				Map<String, String> shardArgs = new HashMap<String, String> (base);
+				shardLocation(shardArgs, SegmentLogRepository.ARG_LOCATION, i);
+				shardLocation(shardArgs, DerbyRepository.ARG_REPO_LOCATION, i);
+				shards.add(SQLPagedRepository.adapt(repositoryFactory.create(shardArgs)));
+			}
+			ShardedRepository sharded = new ShardedRepository(shards);
+			sharded.initialize(args);
+			return sharded;
+		} catch (Exception e) {
+			for (Repository shard : shards) {
+				shard.close();
+			}
+			if (e instanceof PersistenceException) {
+				throw (PersistenceException) e;
+			}
+			throw new PersistenceException(e);
+		}
+	}
+	
+	/**
+	 * @return the folder the repository stores its messages in, null for 
+	 * repositories without storage location (in-memory or remote).
+	 */
+	private static String storageLocation(String className, Map<String, String> args) {
+		String location = args.get(SegmentLogRepository.ARG_LOCATION);
+		if (null == location) {
+			location = args.get(DerbyRepository.ARG_REPO_LOCATION);
+		}
+		if ((null == location) && SegmentLogRepository.class.getName().equals(className)) {
+			location = System.getProperty(DB_STORE_LOCATION);
+		}
+		return location;
+	}
+	
+	/**
+	 * move the storage location argument (if any) into the folder of the shard.
+	 */
+	private static void shardLocation(Map<String, String> args, String name, int shard) {
+		String location = args.get(name);
+		if (null != location) {
+			args.put(name, location + File.separator + ShardMarker.SHARD_PREFIX + shard);
+		}
+	}
+	
+	/**
+	 * if requested by the descriptor, put an in-memory hot tier in front of 
+	 * the given repository.
+	 * @return the tiered repository or the given one if not tiered.
+	 */
+	private Repository createTiers(PersistenceDescriptor desc, Repository repo) {
+		if ((null == repo) || !desc.getBooleanProperty(PersistenceDescriptor.PROP_TIERED, false)) {
+			return repo;
+		}
+		int hotRows = desc.getIntProperty(PersistenceDescriptor.PROP_TIERED_HOT_ROWS, TierMigrator.DEFAULT_HOT_ROWS);
 		Map<String, String> args = new HashMap<String, String> ();
+		// leave room for the messages arriving between two migrator runs.
+		args.put(TieredRepository.ARG_HOT_CAPACITY, String.format("%d", 
+				(hotRows > 0) ? 2 * hotRows : TieredRepository.DEFAULT_HOT_CAPACITY));
+		args.put(TieredRepository.ARG_SPILL_BATCH_SIZE, String.format("%d", 
+				desc.getIntProperty(PersistenceDescriptor.PROP_TIERED_BATCH_SIZE, TierMigrator.DEFAULT_BATCH_SIZE)));
+		TieredRepository tiered = new TieredRepository(repo);
+		try {
+			tiered.initialize(args);
+		} catch (LLRPRuntimeException e) {
+			LOG.error("could not create the hot tier, storing into the repository directly.", e);
+			return repo;
+		}
+		return tiered;
+	}
+	
+	/**
+	 * if the repository is tiered, start the migrator moving the aged messages into the cold tier.
+	 */
+	private void startTiering() {
+		if (!(repository instanceof TieredRepository) || (null == descriptor)) {
+			return;
+		}
+		TierMigrator migrator = new TierMigrator((TieredRepository) repository, 
+				descriptor.getLongProperty(PersistenceDescriptor.PROP_TIERED_HOT_AGE, TierMigrator.DEFAULT_HOT_AGE_MS),
+				descriptor.getIntProperty(PersistenceDescriptor.PROP_TIERED_HOT_ROWS, TierMigrator.DEFAULT_HOT_ROWS),
+				descriptor.getLongProperty(PersistenceDescriptor.PROP_TIERED_INTERVAL, TierMigrator.DEFAULT_INTERVAL_MS),
+				descriptor.getIntProperty(PersistenceDescriptor.PROP_TIERED_BATCH_SIZE, TierMigrator.DEFAULT_BATCH_SIZE));
+		migrator.start();
+		tierMigrator = migrator;
+		LOG.debug("keeping the recent messages in the in-memory hot tier.");
+	}
+	
+	/**
+	 * stop the tier migrator (if any).
+	 */
+	private void stopTiering() {
+		TierMigrator migrator = tierMigrator;
+		if (null != migrator) {
+			tierMigrator = null;
+			migrator.stop();
+		}
+	}
+	
+	/**
+	 * if requested by the descriptor, start the retention pruner.
+	 */
+	private void startRetention() {
+		if ((null == repository) || (null == descriptor)) {
+			return;
+		}
+		long maxAge = descriptor.getLongProperty(PersistenceDescriptor.PROP_RETENTION_MAX_AGE, 0);
+		int maxRows = descriptor.getIntProperty(PersistenceDescriptor.PROP_RETENTION_MAX_ROWS, 0);
+		if ((maxAge <= 0) && (maxRows <= 0)) {
+			return;
+		}
+		if (!(repository instanceof PruningRepository)) {
+			LOG.info("repository does not support pruning, the retention policy is not applied.");
+			return;
+		}
+		RetentionPruner pruner = new RetentionPruner(this, maxAge, maxRows, 
+				descriptor.getLongProperty(PersistenceDescriptor.PROP_RETENTION_INTERVAL, RetentionPruner.DEFAULT_INTERVAL_MS),
+				descriptor.getIntProperty(PersistenceDescriptor.PROP_RETENTION_BATCH_SIZE, RetentionPruner.DEFAULT_BATCH_SIZE));
+		pruner.start();
+		retentionPruner = pruner;
+		LOG.debug(String.format("retention policy: max age %d ms, max %d messages per reader.", maxAge, maxRows));
+	}
+	
+	/**
+	 * stop the retention pruner (if any).
+	 */
+	private void stopRetention() {
+		RetentionPruner pruner = retentionPruner;
+		if (null != pruner) {
+			retentionPruner = null;
+			pruner.stop();
+		}
+	}
+	
+	/**
+	 * delete one batch of the oldest messages of a reader and keep the 
+	 * counters and the cache consistent.
+	 * @return the number of deleted messages.
+	 */
+	int prune(PruningRepository repo, String adapter, String reader, long olderThan, int keep, int batchSize) {
+		List<LLRPMessageItem> pruned = repo.prune(adapter, reader, olderThan, keep, batchSize);
+		MessageCounters messageCounters = counters;
+		ContentCache cache = contentCache;
+		for (LLRPMessageItem item : pruned) {
+			if (null != messageCounters) {
+				messageCounters.decrement(item);
+			}
+			if (null != cache) {
+				cache.remove(item.getId());
+			}
+		}
+		return pruned.size();
+	}
+	
+	/**
+	 * if requested by the descriptor, create the message counters and seed 
+	 * them from the given repository.
+	 * @return the counters or null if the repository shall count itself.
+	 */
+	private MessageCounters createCounters(PersistenceDescriptor desc, Repository repo) {
+		if ((null == repo) || (repo instanceof CountingRepository) || 
+				!desc.getBooleanProperty(PersistenceDescriptor.PROP_COUNTERS, false)) {
+			return null;
+		}
+		MessageCounters messageCounters = new MessageCounters();
+		messageCounters.seed(repo, readerNames());
+		return messageCounters;
+	}
+	
+	/**
+	 * @return the names of the readers per adapter known to the LLRP access 
+	 * layer or null if not available.
+	 */
+	private Map<String, List<String>> readerNames() {
+		if (null == llrpAccess) {
+			return null;
+		}
+		Map<String, List<String>> readers = new HashMap<String, List<String>> ();
+		try {
+			for (String adapter : llrpAccess.getAdaptorNames()) {
+				readers.put(adapter, llrpAccess.getReaderNames(adapter));
+			}
+		} catch (Exception e) {
+			LOG.debug("could not get the reader names.", e);
+		}
+		return readers;
+	}
+	
+	/**
+	 * if requested by the descriptor, create the message content cache.
+	 * @return the cache or null if disabled.
+	 */
+	private ContentCache createContentCache(PersistenceDescriptor desc) {
+		long size = desc.getLongProperty(PersistenceDescriptor.PROP_CONTENT_CACHE_SIZE, 0);
+		if (size <= 0) {
+			return null;
+		}
+		return new ContentCache(size);
+	}
+	
+	/**
+	 * enable or disable the compression as requested by the descriptor. 
+	 * compressed content is decompressed in any case.
+	 */
+	private void configureCompression(PersistenceDescriptor desc) {
+		int threshold = -1;
+		if (desc.getBooleanProperty(PersistenceDescriptor.PROP_COMPRESSION, false)) {
+			threshold = Math.max(0, desc.getIntProperty(
+					PersistenceDescriptor.PROP_COMPRESSION_THRESHOLD, ContentCompressor.DEFAULT_THRESHOLD));
+		}
+		compressor.setThreshold(threshold);
+	}
+	
+	private Map<String, String> map(PersistenceDescriptor desc) {
+		Map<String, String> args = new HashMap<String, String> (desc.getProperties());
   	  	
 		args.put(RepositoryFactory.ARG_WIPE_DB, 					String.format("%b", desc.isWipeDbAtStartup()));
   	  	args.put(RepositoryFactory.ARG_WIPE_RO_ACCESS_REPORTS_DB,	String.format("%b", desc.isWipeRoAccessDbAtStartup()));
@@ -178,15 +714,83 @@ public class PersistenceImpl implements Persistence {
 	}
 
 	@Override
-	public void put(LLRPMessageItem message) {
+	public boolean admit(LLRPMessageItem message) {
+		KeepaliveCoalescer coalescer = keepaliveCoalescer;
+		if ((null != coalescer) && (null != message) && coalescer.offer(message)) {
+			return false;
+		}
+		WriteBehindQueue queue = writeBehindQueue;
+		return (null == queue) || (null == message) || queue.admit(message);
+	}
+
+	@Override
+	public boolean put(LLRPMessageItem message) {
 		if (null == message) {
 			LOG.trace("not adding null message to the repository.");
-			return;
+			return true;
 		}
 		
 		//Add the Repository
 		LOG.trace("adding message to the repository." + message);
-		repository.put(message);
+		LLRPMessageItem stored = message;
+		String content = compressor.compress(message.getContent());
+		if (content != message.getContent()) {
+			// do not hand the compressed content back to the caller.
+			stored = copy(message, false);
+			stored.setContent(content);
+		}
+		switchLock.readLock().lock();
+		try {
+			List<PendingPut> buffer = switchBuffer;
+			if (null != buffer) {
+				synchronized (buffer) {
+					buffer.add(new PendingPut(message, stored));
+				}
+				return true;
+			}
+			return store(message, stored);
+		} finally {
+			switchLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * store a message into the write-behind queue or the repository and 
+	 * update the counters and the cache. the caller must hold the switch lock.
+	 * @param message the message as handed over by the caller.
+	 * @param stored the message as stored (with compressed content).
+	 * @return true if the message has been stored, false if it was dropped.
+	 */
+	private boolean store(LLRPMessageItem message, LLRPMessageItem stored) {
+		WriteBehindQueue queue = writeBehindQueue;
+		Repository repo = repository;
+		if (null != queue) {
+			if (null == stored.getId()) {
+				// the repository would assign the id only when the queue is flushed.
+				stored.setId(String.format("%d-%d", ID_BASE, idSequence.incrementAndGet()));
+			}
+			if (!queue.put(stored)) {
+				return false;
+			}
+		} else if (null == repo) {
+			LOG.error("no repository available, message not stored.");
+			return false;
+		} else {
+			repo.put(stored);
+		}
+		if ((stored != message) && (null == message.getId())) {
+			message.setId(stored.getId());
+		}
+		
+		MessageCounters messageCounters = counters;
+		if (null != messageCounters) {
+			messageCounters.increment(message);
+		}
+		ContentCache cache = contentCache;
+		if (null != cache) {
+			cache.put(message);
+		}
+		return true;
 	}
 
 	@Override
@@ -195,8 +799,134 @@ public class PersistenceImpl implements Persistence {
 			LOG.trace("id is null - returning null.");
 			return null;
 		}
+		
+		ContentCache cache = contentCache;
+		LLRPMessageItem item = null;
+		if (null != cache) {
+			item = cache.get(id);
+		}
+		boolean miss = (null == item);
+		if (miss) {
+			item = repository.get(id);
+		}
+		// keep the rendered XML instead of the binary frame in the cache.
+		boolean rendered = decode(item);
+		if ((null != cache) && (miss || rendered)) {
+			cache.put(item);
+		}
+		return item;
+	}
+	
+	/**
+	 * decompress the content of the given message and replace binary 
+	 * content by its XML representation.
+	 * @param item the message.
+	 * @return true if the content has been changed, false otherwise.
+	 */
+	private boolean decode(LLRPMessageItem item) {
+		if (null == item) {
+			return false;
+		}
+		boolean changed = false;
+		if (ContentCompressor.isCompressed(item.getContent())) {
+			try {
+				item.setContent(compressor.decompress(item.getContent()));
+				changed = true;
+			} catch (DataFormatException e) {
+				LOG.error("could not decompress message " + item.getId(), e);
+				return false;
+			}
+		}
+		if (BinaryContent.isBinary(item.getContent())) {
+			try {
+				item.setContent(BinaryContent.render(item.getContent()));
+				changed = true;
+			} catch (InvalidLLRPMessageException e) {
+				LOG.error("could not render binary message " + item.getId(), e);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * load a stored message as LLRP message. binary content is decoded 
+	 * directly, XML content is parsed.
+	 * @param id the id of the message.
+	 * @return the LLRP message or null if not found or not decodable.
+	 */
+	LLRPMessage getMessage(String id) {
+		ContentCache cache = contentCache;
+		LLRPMessageItem item = null;
+		if (null != cache) {
+			item = cache.get(id);
+		}
+		if (null == item) {
+			item = repository.get(id);
+		}
+		if (null == item) {
+			return null;
+		}
+		return decodeMessage(id, item.getContent());
+	}
+	
+	/**
+	 * decode stored content as LLRP message. binary content is decoded 
+	 * directly, XML content is parsed.
+	 * @param id the id of the message (for logging).
+	 * @param content the stored content, possibly compressed.
+	 * @return the LLRP message or null if not decodable.
+	 */
+	LLRPMessage decodeMessage(String id, String content) {
+		if (null == content) {
+			return null;
+		}
+		try {
+			if (ContentCompressor.isCompressed(content)) {
+				content = compressor.decompress(content);
+			}
+			if (BinaryContent.isBinary(content)) {
+				return LLRPMessageFactory.createLLRPMessage(BinaryContent.decode(content));
+			}
+			Document doc = new SAXBuilder().build(new StringReader(content));
+			return LLRPMessageFactory.createLLRPMessage(doc);
+		} catch (Exception e) {
+			LOG.error("could not decode message " + id, e);
+		}
+		return null;
+	}
 
-		return repository.get(id);
+	/**
+	 * store a batch of messages with their content as stored (compressed or 
+	 * binary content is kept). the batch goes to the repository in one go 
+	 * if it supports batches and neither a switch nor the write-behind queue 
+	 * is in the way, otherwise the messages are put one by one.
+	 * @param messages the messages to store.
+	 * @return the number of messages stored.
+	 */
+	int storeAll(List<LLRPMessageItem> messages) {
+		switchLock.readLock().lock();
+		try {
+			Repository repo = repository;
+			if ((null == switchBuffer) && (null == writeBehindQueue) && (repo instanceof BatchRepository)) {
+				((BatchRepository) repo).putAll(messages);
+				MessageCounters messageCounters = counters;
+				if (null != messageCounters) {
+					for (LLRPMessageItem message : messages) {
+						messageCounters.increment(message);
+					}
+				}
+				return messages.size();
+			}
+		} finally {
+			switchLock.readLock().unlock();
+		}
+		int stored = 0;
+		for (LLRPMessageItem message : messages) {
+			if (put(message)) {
+				stored++;
+			}
+		}
+		return stored;
 	}
 
 	@Override
@@ -205,7 +935,45 @@ public class PersistenceImpl implements Persistence {
 		if (RETRIEVE_ALL == num) {
 			retrieve = Repository.RETRIEVE_ALL;
 		}
-		return repository.get(adaptorName, readerName, retrieve, content);
+		List<LLRPMessageItem> messages = repository.get(adaptorName, readerName, retrieve, content);
+		if (content && (null != messages)) {
+			for (LLRPMessageItem item : messages) {
+				decode(item);
+			}
+		}
+		return messages;
+	}
+
+	@Override
+	public MessageCursor cursor(String adaptorName, String readerName, int pageSize) {
+		return new KeysetMessageCursor(this, adaptorName, readerName, pageSize);
+	}
+
+	@Override
+	public MessageCursor query(MessageQuery query, int pageSize) {
+		if (null == query) {
+			query = new MessageQuery();
+		}
+		// repositories not implementing QueryableRepository are filtered in memory, see PageMerger.
+		return new KeysetMessageCursor(this, query, pageSize);
+	}
+
+	@Override
+	public ROAccessCursor queryRoAccessReports(ROAccessQuery query, int pageSize) {
+		ROAccessReportsRepository rorepo = (null == repository) ? null : repository.getROAccessRepository();
+		return new RepositoryROAccessCursor(rorepo, query, pageSize);
+	}
+
+	@Override
+	public long exportArchive(String adaptorName, String readerName, OutputStream out, 
+			boolean compress) throws PersistenceException {
+		
+		return new MessageArchive(this).export(adaptorName, readerName, out, compress);
+	}
+
+	@Override
+	public long importArchive(InputStream in) throws PersistenceException {
+		return new MessageArchive(this).importArchive(in);
 	}
 
 	@Override
@@ -235,22 +1003,88 @@ public class PersistenceImpl implements Persistence {
 
 	@Override
 	public int count(String adaptor, String reader) {
+		MessageCounters messageCounters = counters;
+		if (null != messageCounters) {
+			return (int) messageCounters.count(adaptor, reader);
+		}
 		return repository.count(adaptor, reader);
 	}
+	
+	@Override
+	public MessageCountSnapshot getCounts() {
+		MessageCounters messageCounters = counters;
+		if (null == messageCounters) {
+			return null;
+		}
+		return messageCounters.snapshot();
+	}
 
 	@Override
 	public void clearAll() {
-		repository.clearAll();
+		clear(null, null);
 	}
 
 	@Override
 	public void clearAdapter(String adapter) {
-		repository.clearAdapter(adapter);
+		clear(adapter, null);
 	}
 
 	@Override
 	public void clearReader(String adapter, String reader) {
-		repository.clearReader(adapter, reader);
+		clear(adapter, reader);
+	}
+	
+	/**
+	 * clear the repository, the counters and the cached messages to a given 
+	 * filter. the puts wait until the messages of the filter still queued or 
+	 * buffered during a switch are dropped and the repository is cleared, 
+	 * otherwise these messages would be written into the cleared repository. 
+	 * the counters are reset under the same lock, so they neither count the 
+	 * dropped messages nor miss a message put right after the clear.
+	 */
+	private void clear(String adapter, String reader) {
+		switchLock.writeLock().lock();
+		try {
+			WriteBehindQueue queue = writeBehindQueue;
+			if (null != queue) {
+				queue.discard(adapter, reader);
+			}
+			List<PendingPut> buffer = switchBuffer;
+			if (null != buffer) {
+				synchronized (buffer) {
+					Iterator<PendingPut> it = buffer.iterator();
+					while (it.hasNext()) {
+						if (WriteBehindQueue.matches(it.next().message, adapter, reader)) {
+							it.remove();
+						}
+					}
+				}
+			}
+			if (null == adapter) {
+				repository.clearAll();
+			} else if (null == reader) {
+				repository.clearAdapter(adapter);
+			} else {
+				repository.clearReader(adapter, reader);
+			}
+			invalidate(adapter, reader);
+		} finally {
+			switchLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * reset the counters and the cached messages to a given filter.
+	 */
+	private void invalidate(String adapter, String reader) {
+		MessageCounters messageCounters = counters;
+		if (null != messageCounters) {
+			messageCounters.clear(adapter, reader);
+		}
+		ContentCache cache = contentCache;
+		if (null != cache) {
+			cache.invalidate(adapter, reader);
+		}
 	}
 
 	@Override
@@ -271,17 +1105,182 @@ public class PersistenceImpl implements Persistence {
 
 	@Override
 	public void close() {
+		stopRetention();
+		stopTiering();
+		flushKeepalives();
+		stopWriteBehind();
+		TagAggregator aggregator = getTagAggregator();
+		if (null != aggregator) {
+			aggregator.stop();
+		}
 		repository.close();
 	}
 
 	@Override
-	public void registerForRoAccessReports() {
+	public synchronized void registerForRoAccessReports() {
 		// get a handle of the repository.
 		ROAccessReportsRepository r = repository.getROAccessRepository();
-		if (null != r) {
-			LOG.debug("initializing RO_ACCESS_REPORTS logging facility.");			
-			llrpAccess.registerPartialHandler(r, RO_ACCESS_REPORT.class);
+		if ((null != r) && (null == roAccessHandler)) {
+			LOG.debug("initializing RO_ACCESS_REPORTS logging facility.");
+			MessageHandler handler = r;
+			long window = (null == descriptor) ? 0 : 
+				descriptor.getLongProperty(PersistenceDescriptor.PROP_TAG_AGGREGATION_WINDOW, 0);
+			if (window > 0) {
+				TagAggregator aggregator = new TagAggregator(r, window);
+				aggregator.start();
+				handler = aggregator;
+				LOG.debug(String.format("aggregating tag reads within %d ms.", window));
+			}
+			llrpAccess.registerPartialHandler(handler, RO_ACCESS_REPORT.class);
+			roAccessHandler = handler;
+		}
+	}
+	
+	/**
+	 * move the RO_ACCESS_REPORT handler from the old onto the new repository. 
+	 * if the handler was registered, the new one is registered before the 
+	 * old one is deregistered, so no report is missed.
+	 * @param old the old repository, null if none.
+	 * @param repo the new repository.
+	 */
+	private synchronized void moveRoAccessHandler(Repository old, Repository repo) {
+		if (null == llrpAccess) {
+			return;
+		}
+		MessageHandler registered = roAccessHandler;
+		if (registered instanceof TagAggregator) {
+			// the aggregator stays registered, only its target moves.
+			((TagAggregator) registered).setTarget(repo.getROAccessRepository());
+		} else if (null != registered) {
+			ROAccessReportsRepository r = repo.getROAccessRepository();
+			if (null != r) {
+				llrpAccess.registerPartialHandler(r, RO_ACCESS_REPORT.class);
+			} else {
+				LOG.info("new repository does not log RO_ACCESS_REPORTS.");
+			}
+			roAccessHandler = r;
+		}
+		if (null != old) {
+			ROAccessReportsRepository oldHandler = old.getROAccessRepository();
+			if (null != oldHandler) {
+				llrpAccess.deregisterPartialHandler(oldHandler, RO_ACCESS_REPORT.class);
+			}
+		}
+	}
+	
+	/**
+	 * @return the RO_ACCESS_REPORT handler registered on the LLRP access 
+	 * layer, null if not registered.
+	 */
+	synchronized MessageHandler getRoAccessHandler() {
+		return roAccessHandler;
+	}
+	
+	/**
+	 * @return the repository currently in use.
+	 */
+	Repository getRepository() {
+		return repository;
+	}
+	
+	/**
+	 * @return the content compressor.
+	 */
+	public ContentCompressor getCompressor() {
+		return compressor;
+	}
+	
+	/**
+	 * @return the message content cache or null if disabled.
+	 */
+	public ContentCache getContentCache() {
+		return contentCache;
+	}
+	
+	/**
+	 * create a detached copy of a message.
+	 * @param item the message to copy.
+	 * @param content if true the content is copied, otherwise the copy has no content.
+	 * @return the copy.
+	 */
+	public static LLRPMessageItem copy(LLRPMessageItem item, boolean content) {
+		LLRPMessageItem copy = new LLRPMessageItem();
+		copy.setId(item.getId());
+		copy.setAdapter(item.getAdapter());
+		copy.setReader(item.getReader());
+		copy.setMessageType(item.getMessageType());
+		copy.setStatusCode(item.getStatusCode());
+		copy.setComment(item.getComment());
+		copy.setTime(item.getTime());
+		copy.setMark(item.getMark());
+		if (content) {
+			copy.setContent(item.getContent());
 		}
+		return copy;
+	}
+	
+	/**
+	 * @return the load shedding policy or null if disabled.
+	 */
+	public LoadShedder getLoadShedder() {
+		return loadShedder;
+	}
+	
+	/**
+	 * @return the keepalive coalescer or null if disabled.
+	 */
+	public KeepaliveCoalescer getKeepaliveCoalescer() {
+		return keepaliveCoalescer;
+	}
+	
+	/**
+	 * @return the retention pruner or null if the messages are kept forever.
+	 */
+	public RetentionPruner getRetentionPruner() {
+		return retentionPruner;
+	}
+	
+	/**
+	 * @return the tag aggregator in front of the RO_ACCESS_REPORTS repository or null if not aggregating.
+	 */
+	public synchronized TagAggregator getTagAggregator() {
+		MessageHandler handler = roAccessHandler;
+		return (handler instanceof TagAggregator) ? (TagAggregator) handler : null;
+	}
+	
+	/**
+	 * @return the time in ms spent by the last repository switch.
+	 */
+	public long getLastSwitchTime() {
+		return lastSwitchTime;
+	}
+	
+	/**
+	 * @return the time in ms the writers were paused by the last repository switch.
+	 */
+	public long getLastSwitchPause() {
+		return lastSwitchPause;
+	}
+	
+	/**
+	 * @return the number of messages buffered during the last repository switch.
+	 */
+	public int getLastSwitchBuffered() {
+		return lastSwitchBuffered;
+	}
+	
+	/**
+	 * @return the tier migrator or null if the repository is not tiered.
+	 */
+	public TierMigrator getTierMigrator() {
+		return tierMigrator;
+	}
+	
+	/**
+	 * @return the write-behind queue in front of the repository or null if messages are stored synchronously.
+	 */
+	public WriteBehindQueue getWriteBehindQueue() {
+		return writeBehindQueue;
 	}
 	
 	/**
@@ -0,0 +1,114 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.fosstrak.llrp.commander.persistence.type.ReaderKey;
+
+/**
+ * thread-safe table holding a state value per reader. the readers are 
+ * identified by their interned {@link ReaderKey}.
+ * @author swieland
+ *
+ * @param <V> the type of the state values.
+ */
+public class ReaderStateTable<V> {
+	
+	private final ConcurrentMap<ReaderKey, V> states = 
+		new ConcurrentHashMap<ReaderKey, V> ();
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @param value the state of the reader. null removes the state.
+	 * @return the previous state of the reader or null.
+	 */
+	public V put(String adapter, String reader, V value) {
+		return put(ReaderKey.of(adapter, reader), value);
+	}
+	
+	/**
+	 * @param key the reader.
+	 * @param value the state of the reader. null removes the state.
+	 * @return the previous state of the reader or null.
+	 */
+	public V put(ReaderKey key, V value) {
+		if (null == value) {
+			return states.remove(key);
+		}
+		return states.put(key, value);
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @return the state of the reader or null if none.
+	 */
+	public V get(String adapter, String reader) {
+		return states.get(ReaderKey.of(adapter, reader));
+	}
+	
+	/**
+	 * @param key the reader.
+	 * @return the state of the reader or null if none.
+	 */
+	public V get(ReaderKey key) {
+		return states.get(key);
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @return the removed state of the reader or null if none.
+	 */
+	public V remove(String adapter, String reader) {
+		return states.remove(ReaderKey.of(adapter, reader));
+	}
+	
+	/**
+	 * removes the states of all the readers on an adapter.
+	 * @param adapter the name of the adapter.
+	 */
+	public void removeAdapter(String adapter) {
+		for (ReaderKey key : states.keySet()) {
+			if ((null == adapter) ? (null == key.getAdapter()) : adapter.equals(key.getAdapter())) {
+				states.remove(key);
+			}
+		}
+	}
+	
+	/**
+	 * removes all the states.
+	 */
+	public void clear() {
+		states.clear();
+	}
+	
+	/**
+	 * @return the number of readers having a state.
+	 */
+	public int size() {
+		return states.size();
+	}
+}
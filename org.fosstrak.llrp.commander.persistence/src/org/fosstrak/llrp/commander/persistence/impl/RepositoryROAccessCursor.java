@@ -0,0 +1,185 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.ROAccessReportsRepository;
+import org.fosstrak.llrp.client.repository.sql.roaccess.AbstractSQLROAccessReportsRepository;
+import org.fosstrak.llrp.client.repository.sql.roaccess.DerbyROAccessReportsRepository;
+import org.fosstrak.llrp.client.repository.sql.roaccess.ROAccessItem;
+import org.fosstrak.llrp.commander.persistence.type.ROAccessCursor;
+import org.fosstrak.llrp.commander.persistence.type.ROAccessQuery;
+
+/**
+ * RO_ACCESS cursor reading the reports logged in the RO_ACCESS repository, 
+ * so the cursor shows exactly what the repository holds (cleared reports 
+ * stay cleared). the RO_ACCESS repository of the adaptor only offers the 
+ * whole table, therefore the table is read once on the first page, the 
+ * filter is applied while reading and only the matching reports are kept.
+ * @author swieland
+ *
+ */
+public class RepositoryROAccessCursor implements ROAccessCursor {
+	
+	/** the message type of the RO_ACCESS reports. */
+	public static final String RO_ACCESS_REPORT_TYPE = "RO_ACCESS_REPORT";
+	
+	// log4j instance.
+	private static final Logger LOG = Logger.getLogger(RepositoryROAccessCursor.class);
+	
+	// the column indices of the adapter and the reader (-1 if unknown).
+	private static final int CINDEX_ADAPTER = columnIndex("adapt");
+	private static final int CINDEX_READER = columnIndex("reader");
+	
+	// orders the reports from the most recent to the oldest.
+	private static final Comparator<ROAccessItem> NEWEST_FIRST = new Comparator<ROAccessItem>() {
+		@Override
+		public int compare(ROAccessItem a, ROAccessItem b) {
+			long ta = (null == a.getLogTime()) ? 0 : a.getLogTime().getTime();
+			long tb = (null == b.getLogTime()) ? 0 : b.getLogTime().getTime();
+			return (ta < tb) ? 1 : ((ta > tb) ? -1 : 0);
+		}
+	};
+	
+	private final ROAccessReportsRepository repository;
+	private final ROAccessQuery query;
+	private final int pageSize;
+	
+	// the matching reports, newest first. null until the table has been read.
+	private List<ROAccessItem> reports = null;
+	private int position = 0;
+	private long scanned = 0;
+
+	/**
+	 * create a new cursor.
+	 * @param repository the RO_ACCESS repository to read. if null, the cursor is empty.
+	 * @param query the filter for the reports.
+	 * @param pageSize the number of reports per page.
+	 */
+	public RepositoryROAccessCursor(ROAccessReportsRepository repository, ROAccessQuery query, int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("page size must be positive.");
+		}
+		this.repository = repository;
+		this.query = (null == query) ? new ROAccessQuery() : query;
+		this.pageSize = pageSize;
+	}
+	
+	/**
+	 * @param name part of the column name (case insensitive).
+	 * @return the index of the first column containing the name or -1.
+	 */
+	private static int columnIndex(String name) {
+		String[][] columns = DerbyROAccessReportsRepository.COLUMN_NAMES_AND_TYPES;
+		for (int i=0; i<columns.length; i++) {
+			if (columns[i][0].toLowerCase().indexOf(name) >= 0) {
+				// the item indices start at one (derby index).
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * read the RO_ACCESS table and keep the matching reports.
+	 */
+	private void load() {
+		reports = new ArrayList<ROAccessItem> ();
+		if (null == repository) {
+			return;
+		}
+		List<ROAccessItem> all;
+		try {
+			all = repository.getAll();
+		} catch (Exception e) {
+			LOG.error("could not load ro access reports from db", e);
+			return;
+		}
+		if (null == all) {
+			return;
+		}
+		for (ROAccessItem item : all) {
+			scanned++;
+			if (matches(item)) {
+				reports.add(item);
+			}
+		}
+		Collections.sort(reports, NEWEST_FIRST);
+	}
+	
+	/**
+	 * @param item the report to check.
+	 * @return true if the report matches the query.
+	 */
+	private boolean matches(ROAccessItem item) {
+		long time = (null == item.getLogTime()) ? 0 : item.getLogTime().getTime();
+		if (!query.matchesTime(time)) {
+			return false;
+		}
+		if (!query.matchesEpc(item.getAsString(AbstractSQLROAccessReportsRepository.CINDEX_EPC))) {
+			return false;
+		}
+		if ((null != query.getAdapter()) && (CINDEX_ADAPTER > 0) && 
+				!query.getAdapter().equals(item.getAsString(CINDEX_ADAPTER))) {
+			return false;
+		}
+		if ((null != query.getReader()) && (CINDEX_READER > 0) && 
+				!query.getReader().equals(item.getAsString(CINDEX_READER))) {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public List<ROAccessItem> next() {
+		if (null == reports) {
+			load();
+		}
+		int end = Math.min(reports.size(), position + pageSize);
+		List<ROAccessItem> page = new ArrayList<ROAccessItem> (reports.subList(position, end));
+		position = end;
+		return page;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (null == reports) {
+			load();
+		}
+		return position < reports.size();
+	}
+
+	@Override
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	@Override
+	public long getScanned() {
+		return scanned;
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.repository.PruningRepository;
+
+/**
+ * background pruner enforcing the retention policy (maximum age and/or 
+ * maximum number of messages per reader) on the repository. the messages 
+ * are deleted in small batches, so the repository is never locked for 
+ * long. only repositories implementing {@link PruningRepository} are pruned.
+ * @author swieland
+ *
+ */
+public class RetentionPruner implements Runnable {
+	
+	/** default time in ms between two runs. */
+	public static final long DEFAULT_INTERVAL_MS = 60000;
+	
+	/** default maximum number of messages deleted at once. */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	
+	private static final Logger LOG = Logger.getLogger(RetentionPruner.class);
+	
+	private final PersistenceImpl persistence;
+	private final long maxAge;
+	private final int maxRows;
+	private final long interval;
+	private final int batchSize;
+	
+	private volatile boolean running = false;
+	private Thread pruner;
+	
+	private final AtomicLong pruned = new AtomicLong(0);
+	private final AtomicLong runs = new AtomicLong(0);
+	private final AtomicLong totalTime = new AtomicLong(0);
+	private volatile long lastPruned = 0;
+	private volatile long lastTime = 0;
+
+	/**
+	 * create a new pruner.
+	 * @param persistence the persistence layer to prune.
+	 * @param maxAge the maximum age in ms of the messages. 0 keeps the messages forever.
+	 * @param maxRows the maximum number of messages per reader. 0 does not limit the number.
+	 * @param interval the time in ms between two runs.
+	 * @param batchSize the maximum number of messages deleted at once.
+	 */
+	public RetentionPruner(PersistenceImpl persistence, long maxAge, int maxRows, long interval, int batchSize) {
+		this.persistence = persistence;
+		this.maxAge = Math.max(0, maxAge);
+		this.maxRows = Math.max(0, maxRows);
+		this.interval = Math.max(1, interval);
+		this.batchSize = Math.max(1, batchSize);
+	}
+	
+	/**
+	 * start the pruner thread.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		pruner = new Thread(this, "persistence-retention");
+		pruner.setDaemon(true);
+		pruner.setPriority(Thread.MIN_PRIORITY);
+		pruner.start();
+	}
+	
+	/**
+	 * stop the pruner thread. a batch in progress is completed.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		pruner.interrupt();
+		try {
+			pruner.join();
+		} catch (InterruptedException e) {
+			LOG.error("interrupted while stopping the retention pruner.", e);
+			Thread.currentThread().interrupt();
+		}
+		pruner = null;
+	}
+	
+	/**
+	 * prune periodically.
+	 */
+	public void run() {
+		while (running) {
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			try {
+				prune();
+			} catch (Exception e) {
+				LOG.error("retention pruner failed.", e);
+			}
+		}
+	}
+	
+	/**
+	 * run the retention policy once over all the readers.
+	 * @return the number of deleted messages.
+	 */
+	public long prune() {
+		Repository repository = persistence.getRepository();
+		if (!(repository instanceof PruningRepository)) {
+			LOG.debug("repository does not support pruning.");
+			return 0;
+		}
+		PruningRepository pruning = (PruningRepository) repository;
+		final long st = System.currentTimeMillis();
+		final long olderThan = (maxAge > 0) ? st - maxAge : 0;
+		final int keep = (maxRows > 0) ? maxRows : -1;
+		long total = 0;
+		for (Map.Entry<String, Set<String>> entry : pruning.getReaders().entrySet()) {
+			for (String reader : entry.getValue()) {
+				int n;
+				do {
+					n = persistence.prune(pruning, entry.getKey(), reader, olderThan, keep, batchSize);
+					total += n;
+					// let the writers in between two batches.
+					Thread.yield();
+				} while (n == batchSize);
+			}
+		}
+		final long time = System.currentTimeMillis() - st;
+		pruned.addAndGet(total);
+		runs.incrementAndGet();
+		totalTime.addAndGet(time);
+		lastPruned = total;
+		lastTime = time;
+		if (total > 0) {
+			LOG.info(String.format("retention pruner deleted %d messages in %d ms.", total, time));
+		}
+		return total;
+	}
+	
+	/**
+	 * @return the total number of deleted messages.
+	 */
+	public long getPruned() {
+		return pruned.get();
+	}
+	
+	/**
+	 * @return the number of runs.
+	 */
+	public long getRuns() {
+		return runs.get();
+	}
+	
+	/**
+	 * @return the total time in ms spent pruning.
+	 */
+	public long getTotalTime() {
+		return totalTime.get();
+	}
+	
+	/**
+	 * @return the number of messages deleted by the last run.
+	 */
+	public long getLastPruned() {
+		return lastPruned;
+	}
+	
+	/**
+	 * @return the time in ms spent by the last run.
+	 */
+	public long getLastTime() {
+		return lastTime;
+	}
+	
+	/**
+	 * @return true if the pruner thread is running.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * remembers the number of shards a storage location has been split into. 
+ * the readers are partitioned by their hash, so a different number of 
+ * shards would no longer find the messages stored before. a changed 
+ * number is therefore only accepted together with a wipe of the database, 
+ * otherwise the stored number is kept.
+ * @author swieland
+ *
+ */
+public class ShardMarker {
+	
+	/** the file in the storage location holding the number of shards. */
+	public static final String MARKER_FILE = "shards.properties";
+	
+	/** the key of the number of shards in the marker file. */
+	public static final String KEY_SHARDS = "shards";
+	
+	/** the folders of the shards are named with this prefix and the shard index. */
+	public static final String SHARD_PREFIX = "shard";
+	
+	private static final Logger LOG = Logger.getLogger(ShardMarker.class);
+	
+	private final File location;
+	
+	/**
+	 * create a new marker.
+	 * @param location the storage location split into the shards.
+	 */
+	public ShardMarker(String location) {
+		this.location = new File(location);
+	}
+	
+	/**
+	 * determine the number of shards to use.
+	 * @param requested the number of shards requested by the descriptor.
+	 * @param wipe whether the database is wiped at startup.
+	 * @return the number of shards to use: the requested one if the 
+	 * location is new, unchanged or wiped, the stored one otherwise.
+	 */
+	public int resolve(int requested, boolean wipe) {
+		requested = Math.max(1, requested);
+		int stored = read();
+		if (stored < 1) {
+			// a location without marker holds the messages of a single instance.
+			stored = hasMessages() ? 1 : requested;
+		}
+		if ((stored != requested) && !wipe) {
+			LOG.error(String.format("%s holds %d shard(s), keeping them instead of the requested %d. " + 
+					"wipe the database to change the number of shards.", location, stored, requested));
+			return stored;
+		}
+		if ((requested > 1) || new File(location, MARKER_FILE).isFile()) {
+			write(requested);
+		}
+		return requested;
+	}
+	
+	/**
+	 * @return the stored number of shards or -1 if there is no marker.
+	 */
+	private int read() {
+		File file = new File(location, MARKER_FILE);
+		if (!file.isFile()) {
+			return -1;
+		}
+		Properties properties = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			properties.load(in);
+			return Integer.parseInt(properties.getProperty(KEY_SHARDS, "-1").trim());
+		} catch (Exception e) {
+			LOG.error("could not read " + file, e);
+			return -1;
+		} finally {
+			close(in);
+		}
+	}
+	
+	private void write(int shards) {
+		File file = new File(location, MARKER_FILE);
+		location.mkdirs();
+		Properties properties = new Properties();
+		properties.setProperty(KEY_SHARDS, Integer.toString(shards));
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(file);
+			properties.store(out, "number of repository shards in this location");
+		} catch (IOException e) {
+			LOG.error("could not write " + file, e);
+		} finally {
+			close(out);
+		}
+	}
+	
+	/**
+	 * @return true if the location holds anything else than shards and 
+	 * wiped databases.
+	 */
+	private boolean hasMessages() {
+		File[] children = location.listFiles();
+		if (null == children) {
+			return false;
+		}
+		for (File child : children) {
+			String name = child.getName();
+			if (!name.equals(MARKER_FILE) && !name.startsWith(SHARD_PREFIX) && 
+					!name.startsWith(DerbyFastStart.WIPED_PREFIX)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static void close(Closeable closeable) {
+		if (null != closeable) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				LOG.debug("could not close the marker file.", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.llrp.ltk.generated.parameters.LLRPStatus;
+import org.llrp.ltk.types.LLRPMessage;
+
+/**
+ * extracts the status code of the LLRP messages carrying a LLRPStatus 
+ * parameter. the status getter of a message class is resolved once and 
+ * kept in a registry, classes without status are remembered as well. 
+ * after the first message of a class, the extraction neither looks up 
+ * methods nor throws exceptions.
+ * @author swieland
+ *
+ */
+public final class StatusCodeExtractor {
+	
+	/** the name of the status getter of the LTK generated messages. */
+	public static final String STATUS_GETTER = "getLLRPStatus";
+	
+	/** the status code of messages without status. */
+	public static final String NO_STATUS = "";
+	
+	private static final Logger LOG = Logger.getLogger(StatusCodeExtractor.class);
+	
+	private static final Object[] NO_ARGS = new Object[0];
+	
+	// the status getter per message class. NONE for classes without status.
+	private static final ConcurrentMap<Class<?>, Accessor> ACCESSORS = 
+		new ConcurrentHashMap<Class<?>, Accessor> ();
+	
+	private static final Accessor NONE = new Accessor(null);
+	
+	/**
+	 * the resolved status getter of a message class.
+	 */
+	private static final class Accessor {
+		private final Method getter;
+		
+		private Accessor(Method getter) {
+			this.getter = getter;
+		}
+	}
+	
+	private StatusCodeExtractor() {
+	}
+	
+	/**
+	 * @param msg the LLRP message.
+	 * @return the status code of the message or {@link #NO_STATUS} if the 
+	 * message does not carry a status.
+	 */
+	public static String getStatusCode(LLRPMessage msg) {
+		if (null == msg) {
+			return NO_STATUS;
+		}
+		Accessor accessor = ACCESSORS.get(msg.getClass());
+		if (null == accessor) {
+			accessor = register(msg.getClass());
+		}
+		if (NONE == accessor) {
+			return NO_STATUS;
+		}
+		try {
+			LLRPStatus status = (LLRPStatus) accessor.getter.invoke(msg, NO_ARGS);
+			if ((null == status) || (null == status.getStatusCode())) {
+				return NO_STATUS;
+			}
+			return status.getStatusCode().toString();
+		} catch (IllegalAccessException e) {
+			LOG.debug("could not read the status of " + msg.getName(), e);
+		} catch (InvocationTargetException e) {
+			LOG.debug("could not read the status of " + msg.getName(), e);
+		}
+		return NO_STATUS;
+	}
+	
+	/**
+	 * resolve the status getter of a message class.
+	 * @param messageClass the class of the LLRP message.
+	 * @return true if the messages of the class carry a status, false otherwise.
+	 */
+	public static boolean hasStatus(Class<? extends LLRPMessage> messageClass) {
+		Accessor accessor = ACCESSORS.get(messageClass);
+		if (null == accessor) {
+			accessor = register(messageClass);
+		}
+		return (NONE != accessor);
+	}
+	
+	private static Accessor register(Class<?> messageClass) {
+		Accessor accessor = NONE;
+		try {
+			Method getter = messageClass.getMethod(STATUS_GETTER);
+			if (LLRPStatus.class.isAssignableFrom(getter.getReturnType()) && 
+					!Modifier.isStatic(getter.getModifiers())) {
+				accessor = new Accessor(getter);
+			}
+		} catch (NoSuchMethodException e) {
+			// no status, remembered below.
+		} catch (SecurityException e) {
+			LOG.debug("could not resolve the status of " + messageClass.getName(), e);
+		}
+		Accessor existing = ACCESSORS.putIfAbsent(messageClass, accessor);
+		return (null == existing) ? accessor : existing;
+	}
+	
+	/**
+	 * @return the number of message classes resolved so far.
+	 */
+	public static int getRegistered() {
+		return ACCESSORS.size();
+	}
+}
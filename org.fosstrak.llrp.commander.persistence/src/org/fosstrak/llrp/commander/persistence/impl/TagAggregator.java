@@ -0,0 +1,385 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.MessageHandler;
+import org.fosstrak.llrp.commander.persistence.type.TagAggregate;
+import org.llrp.ltk.generated.interfaces.EPCParameter;
+import org.llrp.ltk.generated.messages.RO_ACCESS_REPORT;
+import org.llrp.ltk.generated.parameters.EPCData;
+import org.llrp.ltk.generated.parameters.EPC_96;
+import org.llrp.ltk.generated.parameters.FirstSeenTimestampUTC;
+import org.llrp.ltk.generated.parameters.LastSeenTimestampUTC;
+import org.llrp.ltk.generated.parameters.PeakRSSI;
+import org.llrp.ltk.generated.parameters.TagReportData;
+import org.llrp.ltk.generated.parameters.TagSeenCount;
+import org.llrp.ltk.types.LLRPMessage;
+import org.llrp.ltk.types.UnsignedLong_DATETIME;
+import org.llrp.ltk.types.UnsignedShort;
+
+/**
+ * aggregation stage in front of the RO_ACCESS_REPORTS repository. the tag 
+ * reads are grouped by (adapter, reader, antenna, EPC) within a time 
+ * window. when the window of a group expires, the group is handed to the 
+ * repository as one TagReportData row carrying the first and last seen 
+ * time stamps, the read count (TagSeenCount) and the peak RSSI. the 
+ * average RSSI has no LLRP field, it is available from the snapshots 
+ * of the open groups only.
+ * @author swieland
+ *
+ */
+public class TagAggregator implements MessageHandler, Runnable {
+	
+	/** default aggregation window in ms. */
+	public static final long DEFAULT_WINDOW_MS = 1000;
+	
+	// TagSeenCount is an unsigned short.
+	private static final int MAX_TAG_COUNT = 65535;
+	
+	private static final Logger LOG = Logger.getLogger(TagAggregator.class);
+	
+	private final long window;
+	
+	// the repository where the aggregated rows go to.
+	private volatile MessageHandler target;
+	
+	// open groups in the order they were opened. guarded by this.
+	private final Map<String, Group> groups = new LinkedHashMap<String, Group> ();
+	
+	private volatile boolean running = false;
+	private Thread flusher;
+	
+	private final AtomicLong reads = new AtomicLong(0);
+	private final AtomicLong rows = new AtomicLong(0);
+	
+	/**
+	 * the reads of one tag by one antenna within the window.
+	 */
+	private static final class Group {
+		private final String adapter;
+		private final String reader;
+		private final int antenna;
+		private final String epc;
+		private final long opened;
+		private final TagReportData template;
+		private FirstSeenTimestampUTC first;
+		private long firstSeen = Long.MAX_VALUE;
+		private LastSeenTimestampUTC last;
+		private long lastSeen = Long.MIN_VALUE;
+		private long count = 0;
+		private PeakRSSI peak;
+		private int peakRssi = Integer.MIN_VALUE;
+		private long rssiSum = 0;
+		private long rssiReads = 0;
+		
+		private Group(String adapter, String reader, int antenna, String epc, long opened, TagReportData template) {
+			this.adapter = adapter;
+			this.reader = reader;
+			this.antenna = antenna;
+			this.epc = epc;
+			this.opened = opened;
+			this.template = template;
+		}
+		
+		private TagAggregate snapshot() {
+			return new TagAggregate(adapter, reader, antenna, epc, firstSeen, lastSeen, count, 
+					peakRssi, (rssiReads > 0) ? (double) rssiSum / rssiReads : 0, rssiReads > 0);
+		}
+	}
+
+	/**
+	 * create a new aggregator.
+	 * @param target the RO_ACCESS_REPORTS repository receiving the aggregated rows.
+	 * @param window the aggregation window in ms.
+	 */
+	public TagAggregator(MessageHandler target, long window) {
+		this.target = target;
+		this.window = Math.max(1, window);
+	}
+	
+	/**
+	 * start the thread flushing the expired groups.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		flusher = new Thread(this, "persistence-tag-aggregator");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+	
+	/**
+	 * stop the flusher thread and flush all the open groups.
+	 */
+	public synchronized void stop() {
+		if (running) {
+			running = false;
+			flusher.interrupt();
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				LOG.error("interrupted while stopping the tag aggregator.", e);
+				Thread.currentThread().interrupt();
+			}
+			flusher = null;
+		}
+		flush(Long.MAX_VALUE);
+		LOG.debug(String.format("tag aggregator stored %d rows for %d reads.", rows.get(), reads.get()));
+	}
+	
+	/**
+	 * flush the expired groups periodically.
+	 */
+	public void run() {
+		final long tick = Math.max(10, window / 2);
+		while (running) {
+			try {
+				Thread.sleep(tick);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			try {
+				flush(System.currentTimeMillis());
+			} catch (Exception e) {
+				LOG.error("tag aggregator failed.", e);
+			}
+		}
+	}
+
+	@Override
+	public void handle(String adaptorName, String readerName, LLRPMessage message) {
+		if (!(message instanceof RO_ACCESS_REPORT)) {
+			MessageHandler handler = target;
+			if (null != handler) {
+				handler.handle(adaptorName, readerName, message);
+			}
+			return;
+		}
+		List<TagReportData> tags = ((RO_ACCESS_REPORT) message).getTagReportDataList();
+		if (null == tags) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		synchronized (this) {
+			for (TagReportData tag : tags) {
+				accumulate(adaptorName, readerName, tag, now);
+			}
+		}
+		reads.addAndGet(tags.size());
+	}
+	
+	/**
+	 * add a tag read to its group. the caller must hold the monitor.
+	 */
+	private void accumulate(String adapter, String reader, TagReportData tag, long now) {
+		int antenna = (null == tag.getAntennaID()) ? TagAggregate.UNKNOWN_ANTENNA : 
+			Integer.parseInt(tag.getAntennaID().getAntennaID().toString());
+		String epc = epc(tag.getEPCParameter());
+		String key = adapter + '\u0000' + reader + '\u0000' + antenna + '\u0000' + epc;
+		Group group = groups.get(key);
+		if (null == group) {
+			group = new Group(adapter, reader, antenna, epc, now, tag);
+			groups.put(key, group);
+		}
+		
+		group.count += (null == tag.getTagSeenCount()) ? 1 : 
+			Math.max(1, Integer.parseInt(tag.getTagSeenCount().getTagCount().toString()));
+		
+		final long micros = now * 1000;
+		long firstSeen = (null == tag.getFirstSeenTimestampUTC()) ? micros : 
+			tag.getFirstSeenTimestampUTC().getMicroseconds().toBigInteger().longValue();
+		if (firstSeen < group.firstSeen) {
+			group.firstSeen = firstSeen;
+			group.first = tag.getFirstSeenTimestampUTC();
+		}
+		long lastSeen = (null == tag.getLastSeenTimestampUTC()) ? Math.max(micros, firstSeen) : 
+			tag.getLastSeenTimestampUTC().getMicroseconds().toBigInteger().longValue();
+		if (lastSeen > group.lastSeen) {
+			group.lastSeen = lastSeen;
+			group.last = tag.getLastSeenTimestampUTC();
+		}
+		
+		if (null != tag.getPeakRSSI()) {
+			int rssi = Integer.parseInt(tag.getPeakRSSI().getPeakRSSI().toString());
+			group.rssiSum += rssi;
+			group.rssiReads++;
+			if (rssi > group.peakRssi) {
+				group.peakRssi = rssi;
+				group.peak = tag.getPeakRSSI();
+			}
+		}
+	}
+	
+	private static String epc(EPCParameter epc) {
+		if (epc instanceof EPC_96) {
+			return ((EPC_96) epc).getEPC().toString();
+		}
+		if (epc instanceof EPCData) {
+			return ((EPCData) epc).getEPC().toString();
+		}
+		return String.valueOf(epc);
+	}
+	
+	/**
+	 * hand the groups whose window has expired to the repository.
+	 * @param now the current time in ms. {@link Long#MAX_VALUE} flushes all the groups.
+	 * @return the number of rows handed to the repository.
+	 */
+	public int flush(long now) {
+		List<Group> expired = new ArrayList<Group> ();
+		synchronized (this) {
+			Iterator<Group> it = groups.values().iterator();
+			while (it.hasNext()) {
+				Group group = it.next();
+				if ((now != Long.MAX_VALUE) && (group.opened + window > now)) {
+					// the groups are ordered by opening time.
+					break;
+				}
+				expired.add(group);
+				it.remove();
+			}
+		}
+		if (expired.isEmpty()) {
+			return 0;
+		}
+		
+		// one report per reader.
+		Map<String, RO_ACCESS_REPORT> reports = new LinkedHashMap<String, RO_ACCESS_REPORT> ();
+		Map<String, Group> sources = new LinkedHashMap<String, Group> ();
+		for (Group group : expired) {
+			String key = group.adapter + '\u0000' + group.reader;
+			RO_ACCESS_REPORT report = reports.get(key);
+			if (null == report) {
+				report = new RO_ACCESS_REPORT();
+				reports.put(key, report);
+				sources.put(key, group);
+			}
+			report.addToTagReportDataList(row(group));
+		}
+		MessageHandler handler = target;
+		if (null == handler) {
+			LOG.debug("no RO_ACCESS_REPORTS repository, dropping aggregated tag reads.");
+			return 0;
+		}
+		for (Map.Entry<String, RO_ACCESS_REPORT> entry : reports.entrySet()) {
+			Group source = sources.get(entry.getKey());
+			try {
+				handler.handle(source.adapter, source.reader, entry.getValue());
+			} catch (Exception e) {
+				LOG.error("could not store aggregated tag reads.", e);
+			}
+		}
+		rows.addAndGet(expired.size());
+		return expired.size();
+	}
+	
+	/**
+	 * create the row of a group. the parameters of the reads are shared, not modified.
+	 */
+	private TagReportData row(Group group) {
+		TagReportData row = new TagReportData();
+		row.setEPCParameter(group.template.getEPCParameter());
+		row.setAntennaID(group.template.getAntennaID());
+		FirstSeenTimestampUTC first = group.first;
+		if (null == first) {
+			first = new FirstSeenTimestampUTC();
+			first.setMicroseconds(new UnsignedLong_DATETIME(group.firstSeen));
+		}
+		row.setFirstSeenTimestampUTC(first);
+		LastSeenTimestampUTC last = group.last;
+		if (null == last) {
+			last = new LastSeenTimestampUTC();
+			last.setMicroseconds(new UnsignedLong_DATETIME(group.lastSeen));
+		}
+		row.setLastSeenTimestampUTC(last);
+		TagSeenCount seen = new TagSeenCount();
+		seen.setTagCount(new UnsignedShort((int) Math.min(group.count, MAX_TAG_COUNT)));
+		row.setTagSeenCount(seen);
+		if (null != group.peak) {
+			row.setPeakRSSI(group.peak);
+		}
+		return row;
+	}
+	
+	/**
+	 * @param target the RO_ACCESS_REPORTS repository receiving the aggregated rows.
+	 */
+	public void setTarget(MessageHandler target) {
+		this.target = target;
+	}
+	
+	/**
+	 * @return the RO_ACCESS_REPORTS repository receiving the aggregated rows.
+	 */
+	public MessageHandler getTarget() {
+		return target;
+	}
+	
+	/**
+	 * @return snapshots of the open groups.
+	 */
+	public synchronized List<TagAggregate> getAggregates() {
+		List<TagAggregate> result = new ArrayList<TagAggregate> (groups.size());
+		for (Group group : groups.values()) {
+			result.add(group.snapshot());
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the aggregation window in ms.
+	 */
+	public long getWindow() {
+		return window;
+	}
+	
+	/**
+	 * @return the number of tag reads received.
+	 */
+	public long getReads() {
+		return reads.get();
+	}
+	
+	/**
+	 * @return the number of rows handed to the repository.
+	 */
+	public long getRows() {
+		return rows.get();
+	}
+	
+	/**
+	 * @return true if the flusher thread is running.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.commander.persistence.repository.TieredRepository;
+
+/**
+ * background migrator moving the aged messages from the hot tier into the 
+ * cold tier of a {@link TieredRepository}. a message is aged when it is 
+ * older than the hot age or exceeds the number of messages kept hot per 
+ * reader. the messages are moved in small batches, so the writers are 
+ * never blocked for long.
+ * @author swieland
+ *
+ */
+public class TierMigrator implements Runnable {
+	
+	/** default age in ms after which a message is moved into the cold tier. */
+	public static final long DEFAULT_HOT_AGE_MS = 300000;
+	
+	/** default number of messages per reader kept in the hot tier. */
+	public static final int DEFAULT_HOT_ROWS = 5000;
+	
+	/** default time in ms between two runs. */
+	public static final long DEFAULT_INTERVAL_MS = 10000;
+	
+	/** default maximum number of messages moved at once. */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	
+	private static final Logger LOG = Logger.getLogger(TierMigrator.class);
+	
+	private final TieredRepository repository;
+	private final long hotAge;
+	private final int hotRows;
+	private final long interval;
+	private final int batchSize;
+	
+	private volatile boolean running = false;
+	private Thread migrator;
+	
+	private final AtomicLong migrated = new AtomicLong(0);
+	private final AtomicLong runs = new AtomicLong(0);
+	private volatile long lastMigrated = 0;
+	private volatile long lastTime = 0;
+
+	/**
+	 * create a new migrator.
+	 * @param repository the tiered repository.
+	 * @param hotAge the age in ms after which a message is moved. 0 to ignore the age.
+	 * @param hotRows the number of messages per reader kept in the hot tier. 0 to ignore the number.
+	 * @param interval the time in ms between two runs.
+	 * @param batchSize the maximum number of messages moved at once.
+	 */
+	public TierMigrator(TieredRepository repository, long hotAge, int hotRows, long interval, int batchSize) {
+		this.repository = repository;
+		this.hotAge = Math.max(0, hotAge);
+		this.hotRows = Math.max(0, hotRows);
+		this.interval = Math.max(1, interval);
+		this.batchSize = Math.max(1, batchSize);
+	}
+	
+	/**
+	 * start the migrator thread.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		migrator = new Thread(this, "persistence-tier-migrator");
+		migrator.setDaemon(true);
+		migrator.setPriority(Thread.MIN_PRIORITY);
+		migrator.start();
+	}
+	
+	/**
+	 * stop the migrator thread. a batch in progress is completed.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		migrator.interrupt();
+		try {
+			migrator.join();
+		} catch (InterruptedException e) {
+			LOG.error("interrupted while stopping the tier migrator.", e);
+			Thread.currentThread().interrupt();
+		}
+		migrator = null;
+	}
+	
+	/**
+	 * migrate periodically.
+	 */
+	public void run() {
+		while (running) {
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			try {
+				migrate();
+			} catch (Exception e) {
+				LOG.error("tier migrator failed.", e);
+			}
+		}
+	}
+	
+	/**
+	 * move the aged messages of all the readers once.
+	 * @return the number of moved messages.
+	 */
+	public long migrate() {
+		final long st = System.currentTimeMillis();
+		final long olderThan = (hotAge > 0) ? st - hotAge : 0;
+		final int keep = (hotRows > 0) ? hotRows : -1;
+		long total = 0;
+		for (Map.Entry<String, Set<String>> entry : repository.getReaders().entrySet()) {
+			for (String reader : entry.getValue()) {
+				int n;
+				do {
+					n = repository.migrate(entry.getKey(), reader, olderThan, keep, batchSize);
+					total += n;
+					// let the writers in between two batches.
+					Thread.yield();
+				} while (n == batchSize);
+			}
+		}
+		final long time = System.currentTimeMillis() - st;
+		migrated.addAndGet(total);
+		runs.incrementAndGet();
+		lastMigrated = total;
+		lastTime = time;
+		if (total > 0) {
+			LOG.debug(String.format("tier migrator moved %d messages in %d ms.", total, time));
+		}
+		return total;
+	}
+	
+	/**
+	 * @return the total number of moved messages.
+	 */
+	public long getMigrated() {
+		return migrated.get();
+	}
+	
+	/**
+	 * @return the number of runs.
+	 */
+	public long getRuns() {
+		return runs.get();
+	}
+	
+	/**
+	 * @return the number of messages moved by the last run.
+	 */
+	public long getLastMigrated() {
+		return lastMigrated;
+	}
+	
+	/**
+	 * @return the time in ms spent by the last run.
+	 */
+	public long getLastTime() {
+		return lastTime;
+	}
+	
+	/**
+	 * @return true if the migrator thread is running.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.client.Constants;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.repository.BatchRepository;
+
+/**
+ * write-behind queue decoupling the callers of {@link #put(LLRPMessageItem)} 
+ * from the latency of the repository. the messages are stored in a bounded 
+ * queue and a dedicated writer thread groups them into batches. a batch is 
+ * flushed to the repository when either the batch size is reached or when 
+ * the flush interval has elapsed since the first message of the batch. a 
+ * {@link BatchRepository} stores the batch in one call, any other repository 
+ * receives one put per message of the batch. 
+ * with a {@link LoadShedder} only critical messages block the caller when 
+ * the queue is full, all the other messages are dropped.
+ * @author swieland
+ *
+ */
+public class WriteBehindQueue implements Runnable {
+	
+	/** default maximum number of messages waiting in the queue. */
+	public static final int DEFAULT_CAPACITY = 10000;
+	
+	/** default maximum number of messages per batch. */
+	public static final int DEFAULT_BATCH_SIZE = 200;
+	
+	/** default maximum time in ms a message waits before being flushed. */
+	public static final long DEFAULT_FLUSH_INTERVAL_MS = 250;
+	
+	private static final Logger LOG = Logger.getLogger(WriteBehindQueue.class);
+	
+	private final Repository repository;
+	private final BlockingQueue<LLRPMessageItem> queue;
+	private final int capacity;
+	private final int batchSize;
+	private final long flushInterval;
+	
+	private volatile boolean running = false;
+	private Thread writer;
+	
+	// puts hold the read lock while enqueuing, stop takes the write lock so 
+	// no message is enqueued after the writer has drained the queue.
+	private final ReadWriteLock gate = new ReentrantReadWriteLock();
+	
+	// held by the writer from taking the messages of a batch until the batch 
+	// is written, so no message is in flight while it is held by someone else.
+	private final ReentrantLock batchLock = new ReentrantLock(true);
+	
+	// load shedding policy, null if the callers block on a full queue.
+	private volatile LoadShedder loadShedder = null;
+	
+	private final AtomicLong written = new AtomicLong(0);
+	private final AtomicLong batches = new AtomicLong(0);
+	private final AtomicLong failed = new AtomicLong(0);
+
+	/**
+	 * create a new write-behind queue on top of the given repository.
+	 * @param repository the repository where to flush the messages to.
+	 * @param capacity the maximum number of messages waiting in the queue.
+	 * @param batchSize the maximum number of messages per batch.
+	 * @param flushInterval the maximum time in ms a message waits before being flushed.
+	 */
+	public WriteBehindQueue(Repository repository, int capacity, int batchSize, long flushInterval) {
+		this.repository = repository;
+		this.capacity = Math.max(1, capacity);
+		this.queue = new ArrayBlockingQueue<LLRPMessageItem>(this.capacity);
+		this.batchSize = Math.max(1, batchSize);
+		this.flushInterval = Math.max(1, flushInterval);
+	}
+	
+	/**
+	 * start the writer thread.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		writer = new Thread(this, "persistence-write-behind");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * stop the writer thread. all the messages still waiting in the queue 
+	 * are flushed to the repository before this method returns.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		gate.writeLock().lock();
+		try {
+			running = false;
+		} finally {
+			gate.writeLock().unlock();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			LOG.error("interrupted while draining the write-behind queue.", e);
+			Thread.currentThread().interrupt();
+		}
+		writer = null;
+		
+		// writer might have been interrupted, flush what is left.
+		List<LLRPMessageItem> rest = new ArrayList<LLRPMessageItem> ();
+		queue.drainTo(rest);
+		if (!rest.isEmpty()) {
+			flush(rest);
+		}
+		LOG.debug(String.format("write-behind queue stopped after %d messages in %d batches.", 
+				written.get(), batches.get()));
+	}
+	
+	/**
+	 * apply the load shedding policy to a message given the current fill 
+	 * level of the queue.
+	 * @param message the message.
+	 * @return true if the message shall be stored, false if it is dropped.
+	 */
+	public boolean admit(LLRPMessageItem message) {
+		LoadShedder shedder = loadShedder;
+		if ((null == shedder) || !running) {
+			return true;
+		}
+		return shedder.admit(message, queue.size(), capacity);
+	}
+	
+	/**
+	 * enqueue a message for writing. if the queue is full, the caller 
+	 * blocks until space becomes available, unless a load shedder is set 
+	 * and the message is not critical. if the writer is not running, 
+	 * the message is written synchronously.
+	 * @param message the message to store.
+	 * @return true if the message has been enqueued, false if it was dropped.
+	 */
+	public boolean put(LLRPMessageItem message) {
+		gate.readLock().lock();
+		try {
+			if (!running) {
+				repository.put(message);
+				return true;
+			}
+			LoadShedder shedder = loadShedder;
+			if ((null != shedder) && (LoadShedder.Priority.CRITICAL != shedder.priority(message.getMessageType()))) {
+				// never block the ingest path for non-critical messages.
+				if (!queue.offer(message)) {
+					shedder.dropped(message);
+					return false;
+				}
+				return true;
+			}
+			try {
+				queue.put(message);
+			} catch (InterruptedException e) {
+				LOG.debug("interrupted while enqueuing - writing synchronously.");
+				Thread.currentThread().interrupt();
+				repository.put(message);
+			}
+			return true;
+		} finally {
+			gate.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * drop the messages to a given filter waiting in the queue. returns once 
+	 * the batch the writer is currently writing is written, so a message of 
+	 * the filter is either in the repository or dropped.
+	 * @param adapter the name of the adapter. if null (or the root) all the messages.
+	 * @param reader the name of the reader. if null all the messages of the adapter.
+	 * @return the number of messages dropped.
+	 */
+	public int discard(String adapter, String reader) {
+		int discarded = 0;
+		batchLock.lock();
+		try {
+			Iterator<LLRPMessageItem> it = queue.iterator();
+			while (it.hasNext()) {
+				if (matches(it.next(), adapter, reader)) {
+					it.remove();
+					discarded++;
+				}
+			}
+		} finally {
+			batchLock.unlock();
+		}
+		LOG.debug(String.format("dropped %d queued messages.", discarded));
+		return discarded;
+	}
+	
+	/**
+	 * @param adapter the name of the adapter. if null (or the root) all the messages match.
+	 * @param reader the name of the reader. if null all the messages of the adapter match.
+	 * @return true if the message belongs to the given adapter and reader.
+	 */
+	static boolean matches(LLRPMessageItem message, String adapter, String reader) {
+		if ((null == adapter) || Constants.ROOT_NAME.equals(adapter)) {
+			return true;
+		}
+		return adapter.equals(message.getAdapter()) && 
+				((null == reader) || reader.equals(message.getReader()));
+	}
+	
+	/**
+	 * @param loadShedder the load shedding policy, null to block on a full queue.
+	 */
+	public void setLoadShedder(LoadShedder loadShedder) {
+		this.loadShedder = loadShedder;
+	}
+	
+	/**
+	 * @return the load shedding policy or null.
+	 */
+	public LoadShedder getLoadShedder() {
+		return loadShedder;
+	}
+	
+	/**
+	 * @return the capacity of the queue.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * drain the queue and write the batches to the repository.
+	 */
+	public void run() {
+		List<LLRPMessageItem> batch = new ArrayList<LLRPMessageItem> (batchSize);
+		while (running || !queue.isEmpty()) {
+			batchLock.lock();
+			try {
+				LLRPMessageItem first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+				if (null == first) {
+					continue;
+				}
+				batch.add(first);
+				final long deadline = System.currentTimeMillis() + flushInterval;
+				while (batch.size() < batchSize) {
+					queue.drainTo(batch, batchSize - batch.size());
+					long wait = deadline - System.currentTimeMillis();
+					if ((batch.size() >= batchSize) || (wait <= 0) || !running) {
+						break;
+					}
+					LLRPMessageItem next = queue.poll(wait, TimeUnit.MILLISECONDS);
+					if (null == next) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				LOG.info("write-behind writer interrupted.");
+				running = false;
+			} finally {
+				try {
+					if (!batch.isEmpty()) {
+						flush(batch);
+						batch.clear();
+					}
+				} finally {
+					batchLock.unlock();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * write a batch to the repository.
+	 * @param batch the batch to write.
+	 */
+	private void flush(List<LLRPMessageItem> batch) {
+		if (repository instanceof BatchRepository) {
+			try {
+				((BatchRepository) repository).putAll(batch);
+				written.addAndGet(batch.size());
+			} catch (Exception e) {
+				LOG.error("could not write batch to the repository.", e);
+				failed.addAndGet(batch.size());
+			}
+		} else {
+			for (LLRPMessageItem item : batch) {
+				try {
+					repository.put(item);
+					written.incrementAndGet();
+				} catch (Exception e) {
+					LOG.error("could not write message to the repository.", e);
+					failed.incrementAndGet();
+				}
+			}
+		}
+		batches.incrementAndGet();
+	}
+	
+	/**
+	 * @return the number of messages currently waiting in the queue.
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+	
+	/**
+	 * @return the number of messages written to the repository.
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+	
+	/**
+	 * @return the number of batches flushed to the repository.
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+	
+	/**
+	 * @return the number of messages that could not be written.
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+	
+	/**
+	 * @return true if the writer thread is running.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import java.util.List;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+
+/**
+ * a repository that is able to store a whole batch of messages in one go 
+ * (e.g. under a single lock or with a single append on a log). the SQL 
+ * repositories of the adaptor do not implement it.
+ * @author swieland
+ *
+ */
+public interface BatchRepository extends Repository {
+
+	/**
+	 * put all the LLRP message items of the batch to the repository.
+	 * @param messages the batch of LLRP message wrapper items.
+	 */
+	void putAll(List<LLRPMessageItem> messages);
+}
@@ -0,0 +1,36 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import org.fosstrak.llrp.client.Repository;
+
+/**
+ * a repository answering {@link #count(String, String)} cheaply on its own 
+ * (eg. because it keeps the messages in memory or drops messages by itself). 
+ * the persistence layer does not maintain message counters for such a 
+ * repository.
+ * @author swieland
+ *
+ */
+public interface CountingRepository extends Repository {
+
+}
@@ -0,0 +1,115 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+
+/**
+ * collects the messages of one keyset page while scanning an arbitrarily 
+ * ordered set of messages. only the best page size candidates are kept, 
+ * so the memory used does not depend on the number of scanned messages.
+ * @author swieland
+ *
+ * @param <T> the type of the reference onto a collected message.
+ */
+public class KeysetCollector<T> {
+	
+	private final MessageKey key;
+	private final boolean older;
+	private final int pageSize;
+	
+	// the head of the queue is the candidate most far away from the key.
+	private final PriorityQueue<Candidate<T>> candidates;
+	
+	private static final class Candidate<T> {
+		private final long time;
+		private final String id;
+		private final T value;
+		
+		private Candidate(long time, String id, T value) {
+			this.time = time;
+			this.id = id;
+			this.value = value;
+		}
+	}
+	
+	/**
+	 * create a collector for one page.
+	 * @param key the key where the page starts (exclusive). null to start at the end.
+	 * @param older true to collect the messages before the key, false for the ones after.
+	 * @param pageSize the maximum number of messages in the page.
+	 */
+	public KeysetCollector(MessageKey key, boolean older, int pageSize) {
+		this.key = key;
+		this.older = older;
+		this.pageSize = Math.max(1, pageSize);
+		final int sign = older ? 1 : -1;
+		candidates = new PriorityQueue<Candidate<T>>(this.pageSize + 1, new Comparator<Candidate<T>>() {
+			public int compare(Candidate<T> c1, Candidate<T> c2) {
+				return sign * MessageKey.compare(c1.time, c1.id, c2.time, c2.id);
+			}
+		});
+	}
+	
+	/**
+	 * offer a scanned message to the collector.
+	 * @param time the time stamp of the message.
+	 * @param id the id of the message.
+	 * @param value the reference onto the message.
+	 */
+	public void offer(long time, String id, T value) {
+		if (null != key) {
+			int cmp = key.compareTo(time, id);
+			if ((older && (cmp >= 0)) || (!older && (cmp <= 0))) {
+				return;
+			}
+		}
+		if (candidates.size() == pageSize) {
+			Candidate<T> worst = candidates.peek();
+			int cmp = MessageKey.compare(time, id, worst.time, worst.id);
+			if ((older && (cmp <= 0)) || (!older && (cmp >= 0))) {
+				return;
+			}
+			candidates.poll();
+		}
+		candidates.add(new Candidate<T>(time, id, value));
+	}
+	
+	/**
+	 * @return the references of the collected messages in walking order 
+	 * (descending when collecting older messages, ascending otherwise).
+	 */
+	public List<T> result() {
+		List<T> result = new ArrayList<T> (candidates.size());
+		while (!candidates.isEmpty()) {
+			result.add(candidates.poll().value);
+		}
+		Collections.reverse(result);
+		return result;
+	}
+}
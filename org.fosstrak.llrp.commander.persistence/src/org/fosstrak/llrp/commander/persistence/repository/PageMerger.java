@@ -0,0 +1,181 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
+
+/**
+ * helpers for repositories composed of other repositories (tiers, shards) 
+ * and for the cursors: fetch one page from a repository, whatever paging 
+ * it supports, and merge the pages of several repositories by time stamp.
+ * <br/>
+ * repositories supporting neither paging nor queries are scanned through 
+ * a window of their most recent messages (the SQL repositories of the 
+ * adaptor are paged by {@link SQLPagedRepository} instead). the window 
+ * starts at two pages and doubles until it holds a full page, so a page 
+ * deep in the history costs a few times the messages before it, but the 
+ * whole table is only read if the page requires it.
+ * @author swieland
+ *
+ */
+public final class PageMerger {
+	
+	private PageMerger() {
+	}
+	
+	/**
+	 * fetch one page of messages from a repository. repositories not 
+	 * supporting paging are scanned through a window of the most recent 
+	 * messages.
+	 * @param repository the repository.
+	 * @param adaptorName the name of the adaptor, null for all.
+	 * @param readerName the name of the reader, null for all.
+	 * @param key the key to start from (exclusive), null to start at the end.
+	 * @param older true for the messages before the key, false for the ones after.
+	 * @param pageSize the maximum number of messages.
+	 * @param content if true the message content is included.
+	 * @return the page in walking order.
+	 */
+	public static List<LLRPMessageItem> page(Repository repository, String adaptorName, String readerName, 
+			MessageKey key, boolean older, int pageSize, boolean content) {
+		
+		if (repository instanceof PagedRepository) {
+			return ((PagedRepository) repository).page(adaptorName, readerName, key, older, pageSize, content);
+		}
+		return scan(repository, adaptorName, readerName, null, key, older, pageSize, content);
+	}
+	
+	/**
+	 * fetch one page of messages matching a query from a repository. 
+	 * repositories not supporting queries are scanned through a window of 
+	 * the most recent messages.
+	 * @param repository the repository.
+	 * @param query the filter.
+	 * @param key the key to start from (exclusive), null to start at the end.
+	 * @param older true for the messages before the key, false for the ones after.
+	 * @param pageSize the maximum number of messages.
+	 * @param content if true the message content is included.
+	 * @return the page in walking order.
+	 */
+	public static List<LLRPMessageItem> query(Repository repository, MessageQuery query, 
+			MessageKey key, boolean older, int pageSize, boolean content) {
+		
+		if (repository instanceof QueryableRepository) {
+			return ((QueryableRepository) repository).query(query, key, older, pageSize, content);
+		}
+		return scan(repository, query.getAdapter(), query.getReader(), query, key, older, pageSize, content);
+	}
+	
+	/**
+	 * page through a repository not supporting paging. the window of the 
+	 * most recent messages grows until it holds a full page or all the 
+	 * messages. walking forward the window must reach back to the key as 
+	 * well, otherwise the page would skip the messages before the window.
+	 */
+	private static List<LLRPMessageItem> scan(Repository repository, String adaptorName, String readerName, 
+			MessageQuery query, MessageKey key, boolean older, int pageSize, boolean content) {
+		
+		List<LLRPMessageItem> result;
+		int window = 2 * Math.max(1, pageSize);
+		while (true) {
+			List<LLRPMessageItem> recent = repository.get(adaptorName, readerName, window, false);
+			KeysetCollector<LLRPMessageItem> collector = new KeysetCollector<LLRPMessageItem> (key, older, pageSize);
+			boolean reached = older;
+			if (null != recent) {
+				for (LLRPMessageItem item : recent) {
+					if (!reached && (null != key) && (key.compareTo(time(item), item.getId()) <= 0)) {
+						reached = true;
+					}
+					if ((null == query) || query.matches(item)) {
+						collector.offer(time(item), item.getId(), item);
+					}
+				}
+			}
+			result = collector.result();
+			if ((reached && (result.size() >= pageSize)) || (null == recent) || (recent.size() < window) || 
+					(window > Integer.MAX_VALUE / 2)) {
+				break;
+			}
+			window = 2 * window;
+		}
+		if (content) {
+			for (int i=0; i<result.size(); i++) {
+				LLRPMessageItem item = repository.get(result.get(i).getId());
+				if (null != item) {
+					result.set(i, item);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * merge the pages of several repositories into one page. a message 
+	 * present in several pages is taken from the first page holding it.
+	 * @param pages the pages to merge.
+	 * @param key the key the pages start from (exclusive), null if at the end.
+	 * @param older true if the pages hold the messages before the key, false for the ones after.
+	 * @param pageSize the maximum number of messages.
+	 * @return the merged page in walking order.
+	 */
+	static List<LLRPMessageItem> merge(List<List<LLRPMessageItem>> pages, 
+			MessageKey key, boolean older, int pageSize) {
+		
+		KeysetCollector<LLRPMessageItem> collector = new KeysetCollector<LLRPMessageItem> (key, older, pageSize);
+		Set<String> ids = new HashSet<String> ();
+		for (List<LLRPMessageItem> page : pages) {
+			if (null == page) {
+				continue;
+			}
+			for (LLRPMessageItem item : page) {
+				if (ids.add(item.getId())) {
+					collector.offer(time(item), item.getId(), item);
+				}
+			}
+		}
+		return collector.result();
+	}
+	
+	/**
+	 * @return the number of messages in all the pages.
+	 */
+	static int size(List<List<LLRPMessageItem>> pages) {
+		int size = 0;
+		for (List<LLRPMessageItem> page : pages) {
+			if (null != page) {
+				size += page.size();
+			}
+		}
+		return size;
+	}
+	
+	private static long time(LLRPMessageItem item) {
+		return (null == item.getTime()) ? 0 : item.getTime().getTime();
+	}
+}
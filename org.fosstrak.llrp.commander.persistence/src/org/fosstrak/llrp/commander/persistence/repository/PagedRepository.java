@@ -0,0 +1,52 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import java.util.List;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+
+/**
+ * a repository that is able to deliver the messages page by page in 
+ * (time, id) keyset order without materializing all the messages.
+ * @author swieland
+ *
+ */
+public interface PagedRepository extends Repository {
+
+	/**
+	 * returns one page of messages next to the given key.
+	 * @param adaptorName the name of the adaptor. if null, all the messages.
+	 * @param readerName the name of the reader. if null, all the readers of the adaptor.
+	 * @param key the key where to start from (exclusive). if null, the page 
+	 * starts at the most recent (older = true) or the oldest (older = false) message.
+	 * @param older if true, the page holds the messages before the key in 
+	 * descending order, otherwise the messages after the key in ascending order.
+	 * @param pageSize the maximum number of messages in the page.
+	 * @param content if true retrieve the message content, false no content.
+	 * @return a list of messages in walking order.
+	 */
+	List<LLRPMessageItem> page(String adaptorName, String readerName, 
+			MessageKey key, boolean older, int pageSize, boolean content);
+}
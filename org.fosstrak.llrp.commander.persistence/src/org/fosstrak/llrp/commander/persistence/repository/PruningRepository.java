@@ -0,0 +1,55 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.Repository;
+
+/**
+ * a repository that is able to delete the oldest messages of a reader, used 
+ * to enforce a retention policy.
+ * @author swieland
+ *
+ */
+public interface PruningRepository extends Repository {
+
+	/**
+	 * @return adapter name -> names of the readers having stored messages.
+	 */
+	Map<String, Set<String>> getReaders();
+	
+	/**
+	 * delete the oldest messages of a reader that are either older than the 
+	 * given time or exceed the given number of messages.
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @param olderThan messages stored before this time (in ms) are deleted. 0 to ignore the age.
+	 * @param keep the number of most recent messages to keep. negative to ignore.
+	 * @param batchSize the maximum number of messages deleted by this call.
+	 * @return the meta data (without content) of the deleted messages.
+	 */
+	List<LLRPMessageItem> prune(String adapter, String reader, long olderThan, int keep, int batchSize);
+}
@@ -0,0 +1,48 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import java.util.List;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
+
+/**
+ * a repository able to evaluate a message query on its own indexes and to 
+ * deliver the matches page by page in (time, id) keyset order.
+ * @author swieland
+ *
+ */
+public interface QueryableRepository extends PagedRepository {
+
+	/**
+	 * fetch one page of messages matching the query.
+	 * @param query the filter.
+	 * @param key the key to start from (exclusive). null to start at the most recent (older) or the oldest (newer) message.
+	 * @param older if true the page holds the messages older than the key (most recent first), otherwise the newer ones (oldest first).
+	 * @param pageSize the maximum number of messages in the page.
+	 * @param content if true the message content is included.
+	 * @return the page of messages.
+	 */
+	List<LLRPMessageItem> query(MessageQuery query, MessageKey key, boolean older, int pageSize, boolean content);
+}
@@ -0,0 +1,710 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
+import org.fosstrak.llrp.client.Constants;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.ROAccessReportsRepository;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
+
+/**
+ * pure in-heap repository keeping the most recent messages of each reader in 
+ * a fixed-capacity ring buffer. the ring buffers store the message fields in 
+ * pre-allocated arrays, so a full buffer simply overwrites the slot of the 
+ * oldest message. nothing is stored durably, the messages are lost when the 
+ * repository is closed. an inverted index per ring buffer maps the message 
+ * types and status codes onto the slots, so queries only visit matching 
+ * slots. RO_ACCESS_REPORTS logging is not supported.
+ * @author swieland
+ *
+ */
+public class RingBufferRepository implements BatchRepository, QueryableRepository, CountingRepository, PruningRepository {
+	
+	/** argument: the number of messages kept per reader. */
+	public static final String ARG_CAPACITY = "persistence.ringBuffer.capacity";
+	
+	/** the default number of messages kept per reader. */
+	public static final int DEFAULT_CAPACITY = 10000;
+	
+	private static final Logger LOG = Logger.getLogger(RingBufferRepository.class);
+	
+	// orders messages from the most recent to the oldest.
+	private static final Comparator<LLRPMessageItem> NEWEST_FIRST = new Comparator<LLRPMessageItem>() {
+		public int compare(LLRPMessageItem m1, LLRPMessageItem m2) {
+			long t1 = m1.getTime().getTime();
+			long t2 = m2.getTime().getTime();
+			return (t1 < t2) ? 1 : ((t1 == t2) ? 0 : -1);
+		}
+	};
+	
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	// adapter name -> reader name -> ring buffer.
+	private final Map<String, Map<String, Ring>> rings = new HashMap<String, Map<String, Ring>> ();
+	
+	// all ring buffers, indexed by their number.
+	private final List<Ring> ringList = new ArrayList<Ring> ();
+	
+	// message id -> location (ring number and slot) of the message.
+	private final Map<String, Long> index = new HashMap<String, Long> ();
+	
+	// used to create an id for messages that do not have one.
+	private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis());
+	
+	private int capacity = DEFAULT_CAPACITY;
+	
+	private Map<String, String> args;
+	
+	/**
+	 * fixed-capacity ring buffer holding the messages of one reader.
+	 */
+	private static final class Ring {
+		
+		private final int number;
+		private final String adapter;
+		private final String reader;
+		private final String[] ids;
+		private final String[] types;
+		private final String[] statusCodes;
+		private final String[] contents;
+		private final String[] comments;
+		private final long[] times;
+		private final int[] marks;
+		
+		// message type / status code -> slots holding such a message.
+		private final Map<String, BitSet> typeIndex = new HashMap<String, BitSet> ();
+		private final Map<String, BitSet> statusIndex = new HashMap<String, BitSet> ();
+		
+		// the slot where the next message is written to.
+		private int head = 0;
+		private int size = 0;
+		
+		private Ring(int number, String adapter, String reader, int capacity) {
+			this.number = number;
+			this.adapter = adapter;
+			this.reader = reader;
+			ids = new String[capacity];
+			types = new String[capacity];
+			statusCodes = new String[capacity];
+			contents = new String[capacity];
+			comments = new String[capacity];
+			times = new long[capacity];
+			marks = new int[capacity];
+		}
+		
+		/**
+		 * @return the id of the message that is overwritten by the next write, null if none.
+		 */
+		private String evictionCandidate() {
+			return ids[head];
+		}
+		
+		/**
+		 * write the message into the next slot (overwriting the oldest one if full).
+		 * @return the slot the message has been written to.
+		 */
+		private int write(LLRPMessageItem item) {
+			final int slot = head;
+			if (null != ids[slot]) {
+				unindex(slot);
+			}
+			ids[slot] = item.getId();
+			types[slot] = item.getMessageType();
+			statusCodes[slot] = item.getStatusCode();
+			contents[slot] = item.getContent();
+			comments[slot] = item.getComment();
+			times[slot] = item.getTime().getTime();
+			marks[slot] = item.getMark();
+			index(typeIndex, MessageQuery.status(types[slot]), slot);
+			index(statusIndex, MessageQuery.status(statusCodes[slot]), slot);
+			head = (head + 1) % ids.length;
+			size = Math.min(size + 1, ids.length);
+			return slot;
+		}
+		
+		/**
+		 * @param age 0 for the most recent message, 1 for the one before and so on.
+		 * @return the slot holding the message of the given age.
+		 */
+		private int slot(int age) {
+			return (head - 1 - age + 2 * ids.length) % ids.length;
+		}
+		
+		/**
+		 * @return the age of the message held in the given slot.
+		 */
+		private int age(int slot) {
+			return (head - 1 - slot + 2 * ids.length) % ids.length;
+		}
+		
+		/**
+		 * remove the message of the given age. the more recent messages move 
+		 * one slot back, so the messages with an age below the given one 
+		 * change their slot.
+		 */
+		private void remove(int age) {
+			unindex(slot(age));
+			for (int a=age; a>0; a--) {
+				final int to = slot(a);
+				final int from = slot(a - 1);
+				unindex(from);
+				ids[to] = ids[from];
+				types[to] = types[from];
+				statusCodes[to] = statusCodes[from];
+				contents[to] = contents[from];
+				comments[to] = comments[from];
+				times[to] = times[from];
+				marks[to] = marks[from];
+				index(typeIndex, MessageQuery.status(types[to]), to);
+				index(statusIndex, MessageQuery.status(statusCodes[to]), to);
+			}
+			final int newest = slot(0);
+			ids[newest] = null;
+			types[newest] = null;
+			statusCodes[newest] = null;
+			contents[newest] = null;
+			comments[newest] = null;
+			head = newest;
+			size--;
+		}
+		
+		/**
+		 * create a copy of the message stored in the given slot.
+		 */
+		private LLRPMessageItem read(int slot, boolean content) {
+			LLRPMessageItem item = new LLRPMessageItem();
+			item.setId(ids[slot]);
+			item.setAdapter(adapter);
+			item.setReader(reader);
+			item.setMessageType(types[slot]);
+			item.setStatusCode(statusCodes[slot]);
+			item.setComment(comments[slot]);
+			item.setTime(new Timestamp(times[slot]));
+			item.setMark(marks[slot]);
+			if (content) {
+				item.setContent(contents[slot]);
+			}
+			return item;
+		}
+		
+		/**
+		 * remove the given number of oldest messages from the buffer.
+		 */
+		private void removeOldest(int n) {
+			for (int age=size - n; age<size; age++) {
+				int slot = slot(age);
+				unindex(slot);
+				ids[slot] = null;
+				types[slot] = null;
+				statusCodes[slot] = null;
+				contents[slot] = null;
+				comments[slot] = null;
+			}
+			size -= n;
+		}
+		
+		/**
+		 * remove all the messages from the buffer.
+		 */
+		private void clear() {
+			Arrays.fill(ids, null);
+			Arrays.fill(types, null);
+			Arrays.fill(statusCodes, null);
+			Arrays.fill(contents, null);
+			Arrays.fill(comments, null);
+			typeIndex.clear();
+			statusIndex.clear();
+			head = 0;
+			size = 0;
+		}
+		
+		/**
+		 * remove the message in the given slot from the inverted index.
+		 */
+		private void unindex(int slot) {
+			unindex(typeIndex, MessageQuery.status(types[slot]), slot);
+			unindex(statusIndex, MessageQuery.status(statusCodes[slot]), slot);
+		}
+		
+		private static void index(Map<String, BitSet> index, String key, int slot) {
+			BitSet slots = index.get(key);
+			if (null == slots) {
+				slots = new BitSet();
+				index.put(key, slots);
+			}
+			slots.set(slot);
+		}
+		
+		private static void unindex(Map<String, BitSet> index, String key, int slot) {
+			BitSet slots = index.get(key);
+			if (null != slots) {
+				slots.clear(slot);
+				if (slots.isEmpty()) {
+					index.remove(key);
+				}
+			}
+		}
+		
+		private static BitSet union(Map<String, BitSet> index, Set<String> keys) {
+			BitSet result = new BitSet();
+			for (String key : keys) {
+				BitSet slots = index.get(key);
+				if (null != slots) {
+					result.or(slots);
+				}
+			}
+			return result;
+		}
+		
+		/**
+		 * @return the slots of the messages having the requested types and status codes.
+		 */
+		private BitSet candidates(MessageQuery query) {
+			BitSet result = null;
+			if (!query.getMessageTypes().isEmpty()) {
+				result = union(typeIndex, query.getMessageTypes());
+			}
+			if (!query.getStatusCodes().isEmpty()) {
+				BitSet slots = union(statusIndex, query.getStatusCodes());
+				if (null == result) {
+					result = slots;
+				} else {
+					result.and(slots);
+				}
+			}
+			if (null == result) {
+				result = new BitSet(ids.length);
+				for (int age=0; age<size; age++) {
+					result.set(slot(age));
+				}
+			}
+			if (!query.getExcludedStatusCodes().isEmpty()) {
+				result.andNot(union(statusIndex, query.getExcludedStatusCodes()));
+			}
+			return result;
+		}
+	}
+	
+	@Override
+	public void initialize(Map<String, String> args) throws LLRPRuntimeException {
+		this.args = args;
+		if ((null != args) && (null != args.get(ARG_CAPACITY))) {
+			try {
+				capacity = Integer.parseInt(args.get(ARG_CAPACITY).trim());
+			} catch (NumberFormatException e) {
+				throw new LLRPRuntimeException("invalid ring buffer capacity: " + args.get(ARG_CAPACITY));
+			}
+			if (capacity <= 0) {
+				throw new LLRPRuntimeException("ring buffer capacity must be positive.");
+			}
+		}
+		LOG.debug(String.format("in-memory repository keeps %d messages per reader.", capacity));
+	}
+
+	@Override
+	public Map<String, String> getArgs() {
+		return args;
+	}
+
+	@Override
+	public boolean isHealth() {
+		return true;
+	}
+
+	@Override
+	public void put(LLRPMessageItem aMessage) {
+		if (null == aMessage) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			putInternal(aMessage);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void putAll(List<LLRPMessageItem> messages) {
+		lock.writeLock().lock();
+		try {
+			for (LLRPMessageItem message : messages) {
+				if (null != message) {
+					putInternal(message);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * store the message. the caller must hold the write lock.
+	 */
+	private void putInternal(LLRPMessageItem message) {
+		if (null == message.getId()) {
+			message.setId(Long.toString(sequence.incrementAndGet()));
+		}
+		if (null == message.getTime()) {
+			message.setTime(new Timestamp(System.currentTimeMillis()));
+		}
+		Long previous = index.remove(message.getId());
+		if (null != previous) {
+			// the message is stored again (eg. re-imported), drop the old copy.
+			remove(ringList.get((int) (previous.longValue() >>> 32)), (int) previous.longValue());
+		}
+		Ring ring = ring(message.getAdapter(), message.getReader(), true);
+		String evicted = ring.evictionCandidate();
+		if (null != evicted) {
+			index.remove(evicted);
+		}
+		int slot = ring.write(message);
+		index.put(message.getId(), locator(ring.number, slot));
+	}
+	
+	/**
+	 * lookup the ring buffer of the given reader.
+	 * @param create if true, a missing buffer is created.
+	 * @return the ring buffer or null if not existing and create is false.
+	 */
+	private Ring ring(String adapter, String reader, boolean create) {
+		Map<String, Ring> readers = rings.get(adapter);
+		if (null == readers) {
+			if (!create) {
+				return null;
+			}
+			readers = new HashMap<String, Ring> ();
+			rings.put(adapter, readers);
+		}
+		Ring ring = readers.get(reader);
+		if ((null == ring) && create) {
+			ring = new Ring(ringList.size(), adapter, reader, capacity);
+			ringList.add(ring);
+			readers.put(reader, ring);
+		}
+		return ring;
+	}
+	
+	/**
+	 * remove the message in the given slot and repoint the index entries of 
+	 * the messages moved by the removal. the caller must hold the write lock.
+	 */
+	private void remove(Ring ring, int slot) {
+		int age = ring.age(slot);
+		ring.remove(age);
+		for (int a=0; a<age; a++) {
+			int moved = ring.slot(a);
+			index.put(ring.ids[moved], locator(ring.number, moved));
+		}
+	}
+	
+	private static Long locator(int ringNumber, int slot) {
+		return Long.valueOf(((long) ringNumber << 32) | slot);
+	}
+
+	@Override
+	public LLRPMessageItem get(String aMsgSysId) {
+		lock.readLock().lock();
+		try {
+			Long loc = index.get(aMsgSysId);
+			if (null == loc) {
+				return null;
+			}
+			Ring ring = ringList.get((int) (loc.longValue() >>> 32));
+			return ring.read((int) loc.longValue(), true);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<LLRPMessageItem> get(String adaptorName, String readerName,
+			int num, boolean content) {
+		
+		lock.readLock().lock();
+		try {
+			List<Ring> selected = select(adaptorName, readerName);
+			List<LLRPMessageItem> result = new ArrayList<LLRPMessageItem> ();
+			for (Ring ring : selected) {
+				int n = (RETRIEVE_ALL == num) ? ring.size : Math.min(num, ring.size);
+				for (int age=0; age<n; age++) {
+					result.add(ring.read(ring.slot(age), content));
+				}
+			}
+			if (selected.size() > 1) {
+				// merge the readers and keep only the most recent ones.
+				Collections.sort(result, NEWEST_FIRST);
+				if ((RETRIEVE_ALL != num) && (result.size() > num)) {
+					result.subList(num, result.size()).clear();
+				}
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	@Override
+	public List<LLRPMessageItem> page(String adaptorName, String readerName,
+			MessageKey key, boolean older, int pageSize, boolean content) {
+		
+		lock.readLock().lock();
+		try {
+			KeysetCollector<Long> collector = new KeysetCollector<Long> (key, older, pageSize);
+			for (Ring ring : select(adaptorName, readerName)) {
+				for (int age=0; age<ring.size; age++) {
+					int slot = ring.slot(age);
+					collector.offer(ring.times[slot], ring.ids[slot], locator(ring.number, slot));
+				}
+			}
+			List<LLRPMessageItem> result = new ArrayList<LLRPMessageItem> ();
+			for (Long loc : collector.result()) {
+				Ring ring = ringList.get((int) (loc.longValue() >>> 32));
+				result.add(ring.read((int) loc.longValue(), content));
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	@Override
+	public List<LLRPMessageItem> query(MessageQuery query, MessageKey key,
+			boolean older, int pageSize, boolean content) {
+		
+		lock.readLock().lock();
+		try {
+			KeysetCollector<Long> collector = new KeysetCollector<Long> (key, older, pageSize);
+			for (Ring ring : select(query.getAdapter(), query.getReader())) {
+				BitSet candidates = ring.candidates(query);
+				for (int slot=candidates.nextSetBit(0); slot>=0; slot=candidates.nextSetBit(slot + 1)) {
+					if (query.matches(ring.types[slot], ring.statusCodes[slot], ring.marks[slot], ring.times[slot]) && 
+							query.matchesComment(ring.comments[slot])) {
+						collector.offer(ring.times[slot], ring.ids[slot], locator(ring.number, slot));
+					}
+				}
+			}
+			List<LLRPMessageItem> result = new ArrayList<LLRPMessageItem> ();
+			for (Long loc : collector.result()) {
+				Ring ring = ringList.get((int) (loc.longValue() >>> 32));
+				result.add(ring.read((int) loc.longValue(), content));
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * select the ring buffers matching the filter. the caller must hold a lock.
+	 * @param adapter the name of the adapter, null (or the root) for all.
+	 * @param reader the name of the reader, null for all readers of the adapter.
+	 * @return a list of matching ring buffers.
+	 */
+	private List<Ring> select(String adapter, String reader) {
+		if ((null == adapter) || Constants.ROOT_NAME.equals(adapter)) {
+			return new ArrayList<Ring> (ringList);
+		}
+		Map<String, Ring> readers = rings.get(adapter);
+		if (null == readers) {
+			return new ArrayList<Ring> ();
+		}
+		if (null == reader) {
+			return new ArrayList<Ring> (readers.values());
+		}
+		List<Ring> selected = new ArrayList<Ring> (1);
+		Ring ring = readers.get(reader);
+		if (null != ring) {
+			selected.add(ring);
+		}
+		return selected;
+	}
+
+	@Override
+	public int count(String adaptor, String reader) {
+		lock.readLock().lock();
+		try {
+			int count = 0;
+			for (Ring ring : select(adaptor, reader)) {
+				count += ring.size;
+			}
+			return count;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void clearAll() {
+		clear(null, null);
+	}
+
+	@Override
+	public void clearAdapter(String adapter) {
+		clear(adapter, null);
+	}
+
+	@Override
+	public void clearReader(String adapter, String reader) {
+		clear(adapter, reader);
+	}
+	
+	@Override
+	public Map<String, Set<String>> getReaders() {
+		lock.readLock().lock();
+		try {
+			Map<String, Set<String>> result = new HashMap<String, Set<String>> ();
+			for (Ring ring : ringList) {
+				if (0 == ring.size) {
+					continue;
+				}
+				Set<String> readers = result.get(ring.adapter);
+				if (null == readers) {
+					readers = new HashSet<String> ();
+					result.put(ring.adapter, readers);
+				}
+				readers.add(ring.reader);
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<LLRPMessageItem> prune(String adapter, String reader, long olderThan, int keep, int batchSize) {
+		List<LLRPMessageItem> pruned = new ArrayList<LLRPMessageItem> ();
+		lock.writeLock().lock();
+		try {
+			Ring ring = ring(adapter, reader, false);
+			if (null == ring) {
+				return pruned;
+			}
+			int n = oldest(ring, olderThan, keep, batchSize);
+			for (int age=ring.size - 1; age>=ring.size - n; age--) {
+				int slot = ring.slot(age);
+				pruned.add(ring.read(slot, false));
+				index.remove(ring.ids[slot]);
+			}
+			if (n > 0) {
+				ring.removeOldest(n);
+			}
+			return pruned;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * read the oldest messages of a reader that would be deleted by 
+	 * {@link #prune(String, String, long, int, int)} with the same 
+	 * arguments, without deleting them.
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @param olderThan messages stored before this time (in ms) are selected. 0 to ignore the age.
+	 * @param keep the number of most recent messages not to select. negative to ignore.
+	 * @param batchSize the maximum number of messages selected by this call.
+	 * @return the selected messages including the content, oldest first.
+	 */
+	public List<LLRPMessageItem> peekOldest(String adapter, String reader, long olderThan, int keep, int batchSize) {
+		List<LLRPMessageItem> selected = new ArrayList<LLRPMessageItem> ();
+		lock.readLock().lock();
+		try {
+			Ring ring = ring(adapter, reader, false);
+			if (null == ring) {
+				return selected;
+			}
+			int n = oldest(ring, olderThan, keep, batchSize);
+			for (int age=ring.size - 1; age>=ring.size - n; age--) {
+				selected.add(ring.read(ring.slot(age), true));
+			}
+			return selected;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * the number of oldest messages in the ring buffer that are either 
+	 * older than the given time or exceed the given number of messages. 
+	 * the caller must hold a lock.
+	 */
+	private int oldest(Ring ring, long olderThan, int keep, int batchSize) {
+		int n = 0;
+		while ((n < ring.size) && (ring.times[ring.slot(ring.size - 1 - n)] < olderThan)) {
+			n++;
+		}
+		if (keep >= 0) {
+			n = Math.max(n, ring.size - keep);
+		}
+		return Math.min(n, batchSize);
+	}
+	
+	/**
+	 * @return the number of messages kept per reader.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	private void clear(String adapter, String reader) {
+		lock.writeLock().lock();
+		try {
+			for (Ring ring : select(adapter, reader)) {
+				for (int age=0; age<ring.size; age++) {
+					index.remove(ring.ids[ring.slot(age)]);
+				}
+				ring.clear();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		clearAll();
+	}
+
+	@Override
+	public ROAccessReportsRepository getROAccessRepository() {
+		return null;
+	}
+}
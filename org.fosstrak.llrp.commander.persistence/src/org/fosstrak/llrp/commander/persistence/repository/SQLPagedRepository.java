@@ -0,0 +1,419 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
+import org.fosstrak.llrp.client.Constants;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.ROAccessReportsRepository;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.client.repository.sql.AbstractSQLRepository;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
+import org.fosstrak.llrp.commander.persistence.type.ReaderKey;
+
+/**
+ * adapter putting keyset paging on top of the SQL repositories of the 
+ * adaptor. a page is one SELECT on the message table ordered by 
+ * (MSG_TIME, ID) starting after the key of the previous page and limited 
+ * to the page size, so walking the whole store reads every message once 
+ * and holds one page in memory. the criteria of a query (type, status 
+ * code, time range, comment) are part of the WHERE clause, the mark is 
+ * checked on the selected rows. the other calls are handed to the SQL 
+ * repository.
+ * @author swieland
+ *
+ */
+public class SQLPagedRepository implements QueryableRepository {
+	
+	/** the table of the messages in the SQL repositories of the adaptor. */
+	public static final String TABLE = "llrp_msg";
+	
+	// the columns of the message table, the content is selected on demand.
+	private static final String COLUMNS = "ID, MSG_TYPE, READER, ADAPTER, MSG_TIME, STATUS, COMMENT, MARK";
+	private static final String CONTENT_COLUMN = "CONTENT";
+	
+	// the indexes backing the keyset order and the queries, name -> columns.
+	private static final String[][] INDEXES = {
+		{ "llrp_msg_time", "MSG_TIME, ID" },
+		{ "llrp_msg_reader_time", "ADAPTER, READER, MSG_TIME, ID" },
+		{ "llrp_msg_type_time", "MSG_TYPE, MSG_TIME" },
+		{ "llrp_msg_status_time", "STATUS, MSG_TIME" }
+	};
+	
+	private static final Logger LOG = Logger.getLogger(SQLPagedRepository.class);
+	
+	private final AbstractSQLRepository delegate;
+	
+	/**
+	 * create a new adapter. the indexes of the keyset order are created if missing.
+	 * @param delegate the initialized SQL repository.
+	 */
+	public SQLPagedRepository(AbstractSQLRepository delegate) {
+		this.delegate = delegate;
+		createIndexes();
+	}
+	
+	/**
+	 * put the adapter on top of the given repository if it is a SQL repository.
+	 * @param repository the repository.
+	 * @return the adapter or the given repository if it is no SQL repository.
+	 */
+	public static Repository adapt(Repository repository) {
+		if ((repository instanceof AbstractSQLRepository) && 
+				(null != ((AbstractSQLRepository) repository).getDBConnection())) {
+			return new SQLPagedRepository((AbstractSQLRepository) repository);
+		}
+		return repository;
+	}
+	
+	/**
+	 * @return the SQL repository behind the adapter.
+	 */
+	public AbstractSQLRepository getDelegate() {
+		return delegate;
+	}
+	
+	private void createIndexes() {
+		Connection conn = delegate.getDBConnection();
+		for (String[] index : INDEXES) {
+			Statement statement = null;
+			try {
+				statement = conn.createStatement();
+				statement.execute(String.format("CREATE INDEX %s ON %s (%s)", index[0], TABLE, index[1]));
+				LOG.info(String.format("created the index %s on %s.", index[0], TABLE));
+			} catch (SQLException e) {
+				// the index exists already.
+				LOG.debug(String.format("not creating the index %s: %s", index[0], e.getMessage()));
+				rollback(conn);
+			} finally {
+				close(statement);
+			}
+		}
+	}
+
+	@Override
+	public List<LLRPMessageItem> page(String adaptorName, String readerName, 
+			MessageKey key, boolean older, int pageSize, boolean content) {
+		
+		StringBuilder where = new StringBuilder();
+		List<Object> params = new ArrayList<Object> ();
+		readerCondition(adaptorName, readerName, where, params);
+		return select(where, params, key, older, pageSize, content);
+	}
+	
+	@Override
+	public List<LLRPMessageItem> query(MessageQuery query, MessageKey key, 
+			boolean older, int pageSize, boolean content) {
+		
+		List<LLRPMessageItem> page = new ArrayList<LLRPMessageItem> ();
+		MessageKey next = key;
+		while (page.size() < pageSize) {
+			StringBuilder where = new StringBuilder();
+			List<Object> params = new ArrayList<Object> ();
+			readerCondition(query.getAdapter(), query.getReader(), where, params);
+			queryConditions(query, where, params);
+			int limit = pageSize - page.size();
+			List<LLRPMessageItem> rows = select(where, params, next, older, limit, content);
+			for (LLRPMessageItem item : rows) {
+				// the mark and the exact comment match are checked here.
+				if (query.matches(item)) {
+					page.add(item);
+				}
+			}
+			if (rows.size() < limit) {
+				break;
+			}
+			next = MessageKey.of(rows.get(rows.size() - 1));
+		}
+		return page;
+	}
+	
+	/**
+	 * restrict the messages to the type, status code, time range and 
+	 * comment of the query.
+	 */
+	private static void queryConditions(MessageQuery query, StringBuilder where, List<Object> params) {
+		if (!query.getMessageTypes().isEmpty()) {
+			and(where).append("MSG_TYPE IN (").append(placeholders(query.getMessageTypes(), params)).append(")");
+		}
+		// a missing status code matches the empty string.
+		Set<String> codes = query.getStatusCodes();
+		if (!codes.isEmpty()) {
+			and(where).append("(STATUS IN (").append(placeholders(codes, params)).append(")");
+			where.append(codes.contains("") ? " OR STATUS IS NULL)" : ")");
+		}
+		Set<String> excluded = query.getExcludedStatusCodes();
+		if (!excluded.isEmpty()) {
+			and(where).append(excluded.contains("") ? "(STATUS IS NOT NULL AND " : "(STATUS IS NULL OR ");
+			where.append("STATUS NOT IN (").append(placeholders(excluded, params)).append("))");
+		}
+		if (query.getFrom() > 0) {
+			and(where).append("MSG_TIME >= ?");
+			params.add(new Timestamp(query.getFrom()));
+		}
+		if (query.getTo() < Long.MAX_VALUE) {
+			and(where).append("MSG_TIME <= ?");
+			params.add(new Timestamp(query.getTo()));
+		}
+		if (null != query.getComment()) {
+			and(where).append("LOWER(COMMENT) LIKE ? ESCAPE '!'");
+			params.add("%" + query.getComment().replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%");
+		}
+	}
+	
+	private static String placeholders(Set<String> values, List<Object> params) {
+		StringBuilder placeholders = new StringBuilder();
+		for (String value : values) {
+			placeholders.append((placeholders.length() == 0) ? "?" : ", ?");
+			params.add(value);
+		}
+		return placeholders.toString();
+	}
+	
+	/**
+	 * restrict the messages to the given adapter and reader.
+	 */
+	private static void readerCondition(String adaptorName, String readerName, 
+			StringBuilder where, List<Object> params) {
+		
+		if ((null == adaptorName) || Constants.ROOT_NAME.equals(adaptorName)) {
+			return;
+		}
+		and(where).append("ADAPTER = ?");
+		params.add(adaptorName);
+		if (null != readerName) {
+			and(where).append("READER = ?");
+			params.add(readerName);
+		}
+	}
+	
+	private static StringBuilder and(StringBuilder where) {
+		return where.append((where.length() == 0) ? " WHERE " : " AND ");
+	}
+	
+	/**
+	 * select one page of messages after the key in keyset order.
+	 * @param where the conditions on the messages (empty or starting with WHERE).
+	 * @param params the parameters of the conditions.
+	 */
+	private List<LLRPMessageItem> select(StringBuilder where, List<Object> params, 
+			MessageKey key, boolean older, int pageSize, boolean content) {
+		
+		List<LLRPMessageItem> page = new ArrayList<LLRPMessageItem> ();
+		if (pageSize <= 0) {
+			return page;
+		}
+		if (null != key) {
+			String cmp = older ? "<" : ">";
+			Timestamp time = new Timestamp(key.getTime());
+			if (null == key.getId()) {
+				// a key without id is before all the messages of its time stamp.
+				and(where).append(String.format("MSG_TIME %s ?", older ? "<" : ">="));
+				params.add(time);
+			} else {
+				and(where).append(String.format("(MSG_TIME %s ? OR (MSG_TIME = ? AND ID %s ?))", cmp, cmp));
+				params.add(time);
+				params.add(time);
+				params.add(key.getId());
+			}
+		}
+		String order = older ? "DESC" : "ASC";
+		String sql = String.format("SELECT %s%s FROM %s%s ORDER BY MSG_TIME %s, ID %s", 
+				COLUMNS, content ? ", " + CONTENT_COLUMN : "", TABLE, where, order, order);
+		
+		PreparedStatement statement = null;
+		try {
+			statement = delegate.getDBConnection().prepareStatement(sql);
+			for (int i=0; i<params.size(); i++) {
+				statement.setObject(i + 1, params.get(i));
+			}
+			statement.setMaxRows(pageSize);
+			statement.setFetchSize(pageSize);
+			ResultSet rs = statement.executeQuery();
+			while (rs.next()) {
+				page.add(item(rs, content));
+			}
+			rs.close();
+		} catch (SQLException e) {
+			LOG.error("could not select a page of messages: " + sql, e);
+		} finally {
+			close(statement);
+		}
+		return page;
+	}
+	
+	/**
+	 * read the message at the current row. the CHAR columns are padded by the 
+	 * database, the values are trimmed.
+	 */
+	private static LLRPMessageItem item(ResultSet rs, boolean content) throws SQLException {
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setId(trim(rs.getString(1)));
+		item.setMessageType(trim(rs.getString(2)));
+		item.setReader(trim(rs.getString(3)));
+		item.setAdapter(trim(rs.getString(4)));
+		item.setTime(rs.getTimestamp(5));
+		item.setStatusCode(trim(rs.getString(6)));
+		item.setComment(rs.getString(7));
+		String mark = trim(rs.getString(8));
+		if (null != mark) {
+			try {
+				item.setMark(Integer.parseInt(mark));
+			} catch (NumberFormatException e) {
+				LOG.debug("invalid mark " + mark);
+			}
+		}
+		if (content) {
+			item.setContent(rs.getString(9));
+		}
+		return item;
+	}
+	
+	private static String trim(String value) {
+		return (null == value) ? null : value.trim();
+	}
+	
+	/**
+	 * count the messages per reader and message type with one grouped query.
+	 * @return reader -> message type -> number of messages, null if the 
+	 * query failed.
+	 */
+	public Map<ReaderKey, Map<String, Integer>> countByType() {
+		String sql = String.format("SELECT ADAPTER, READER, MSG_TYPE, COUNT(*) FROM %s GROUP BY ADAPTER, READER, MSG_TYPE", TABLE);
+		Map<ReaderKey, Map<String, Integer>> counts = new HashMap<ReaderKey, Map<String, Integer>> ();
+		Statement statement = null;
+		try {
+			statement = delegate.getDBConnection().createStatement();
+			ResultSet rs = statement.executeQuery(sql);
+			while (rs.next()) {
+				ReaderKey reader = ReaderKey.of(trim(rs.getString(1)), trim(rs.getString(2)));
+				Map<String, Integer> types = counts.get(reader);
+				if (null == types) {
+					types = new HashMap<String, Integer> ();
+					counts.put(reader, types);
+				}
+				types.put(trim(rs.getString(3)), rs.getInt(4));
+			}
+			rs.close();
+		} catch (SQLException e) {
+			LOG.error("could not count the messages.", e);
+			return null;
+		} finally {
+			close(statement);
+		}
+		return counts;
+	}
+	
+	private static void rollback(Connection conn) {
+		try {
+			if (!conn.getAutoCommit()) {
+				conn.rollback();
+			}
+		} catch (SQLException e) {
+			LOG.debug("could not roll back.", e);
+		}
+	}
+	
+	private static void close(Statement statement) {
+		if (null != statement) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				LOG.debug("could not close the statement.", e);
+			}
+		}
+	}
+
+	@Override
+	public void initialize(Map<String, String> args) throws LLRPRuntimeException {
+		delegate.initialize(args);
+	}
+
+	@Override
+	public Map<String, String> getArgs() {
+		return delegate.getArgs();
+	}
+
+	@Override
+	public boolean isHealth() {
+		return delegate.isHealth();
+	}
+
+	@Override
+	public void put(LLRPMessageItem aMessage) {
+		delegate.put(aMessage);
+	}
+
+	@Override
+	public LLRPMessageItem get(String aMsgSysId) {
+		return delegate.get(aMsgSysId);
+	}
+
+	@Override
+	public List<LLRPMessageItem> get(String adaptorName, String readerName, int num, boolean content) {
+		return delegate.get(adaptorName, readerName, num, content);
+	}
+
+	@Override
+	public int count(String adaptor, String reader) {
+		return delegate.count(adaptor, reader);
+	}
+
+	@Override
+	public void clearAll() {
+		delegate.clearAll();
+	}
+
+	@Override
+	public void clearAdapter(String adapter) {
+		delegate.clearAdapter(adapter);
+	}
+
+	@Override
+	public void clearReader(String adapter, String reader) {
+		delegate.clearReader(adapter, reader);
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+
+	@Override
+	public ROAccessReportsRepository getROAccessRepository() {
+		return delegate.getROAccessRepository();
+	}
+}
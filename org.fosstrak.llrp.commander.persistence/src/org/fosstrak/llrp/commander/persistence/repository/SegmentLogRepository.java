@@ -0,0 +1,1097 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
+import org.fosstrak.llrp.client.Constants;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.ROAccessReportsRepository;
+import org.fosstrak.llrp.client.RepositoryFactory;
+import org.fosstrak.llrp.client.repository.sql.DerbyRepository;
+import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
+
+/**
+ * durable repository writing the messages into an append-only log of 
+ * memory-mapped segment files. each message is stored as a length-prefixed 
+ * record (meta data and content). an in-memory offset index per adapter and 
+ * reader allows to serve the most recent messages by reading only those 
+ * records. the index also holds the message type, status code and mark of 
+ * each message, so queries on these fields never touch the segment files. 
+ * clearing a reader or an adapter appends a tombstone record, 
+ * segments holding mostly dead records are compacted afterwards. 
+ * RO_ACCESS_REPORTS logging is not supported.
+ * <p>
+ * record layout: length (int, bytes following the length), type (byte), 
+ * sequence number (long), payload. a length of zero marks the end of the 
+ * data in a segment.
+ * </p>
+ * @author swieland
+ *
+ */
+public class SegmentLogRepository implements BatchRepository, QueryableRepository, PruningRepository {
+	
+	/** argument: the folder where to store the segments. */
+	public static final String ARG_LOCATION = "persistence.segmentLog.location";
+	
+	/** argument: the size of a segment file in bytes. */
+	public static final String ARG_SEGMENT_SIZE = "persistence.segmentLog.segmentSize";
+	
+	/** the default size of a segment file (64MB). */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	
+	/** the name of the sub-folder holding the segments (when not explicitly configured). */
+	public static final String LOG_SUBFOLDER = "segmentlog";
+	
+	/** segments with less live records than this ratio get compacted. */
+	public static final double COMPACTION_THRESHOLD = 0.5;
+	
+	private static final Logger LOG = Logger.getLogger(SegmentLogRepository.class);
+	
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final byte TYPE_MESSAGE = 1;
+	private static final byte TYPE_TOMBSTONE = 2;
+	
+	// length (int), type (byte) and sequence number (long).
+	private static final int HEADER_SIZE = 4 + 1 + 8;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment> ();
+	
+	// adapter name -> reader name -> offset index.
+	private final Map<String, Map<String, ReaderIndex>> readers = new HashMap<String, Map<String, ReaderIndex>> ();
+	
+	// message id -> position of the record.
+	private final Map<String, Long> ids = new HashMap<String, Long> ();
+	
+	private final List<Tombstone> tombstones = new LinkedList<Tombstone> ();
+	
+	private Segment active;
+	private int lastSegmentNumber = -1;
+	private long nextSeq = 1;
+	private File folder;
+	private int segmentSize = DEFAULT_SEGMENT_SIZE;
+	private volatile boolean healthy = false;
+	private Map<String, String> args;
+	
+	/**
+	 * one memory-mapped segment file.
+	 */
+	private static final class Segment {
+		private final int number;
+		private final File file;
+		private final RandomAccessFile raf;
+		private final MappedByteBuffer buffer;
+		private int writePos = 0;
+		private int records = 0;
+		private int live = 0;
+		private long minSeq = Long.MAX_VALUE;
+		
+		private Segment(int number, File file, int size) throws IOException {
+			this.number = number;
+			this.file = file;
+			raf = new RandomAccessFile(file, "rw");
+			if (raf.length() < size) {
+				raf.setLength(size);
+			}
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		}
+		
+		private int remaining() {
+			return buffer.capacity() - writePos;
+		}
+		
+		/**
+		 * mark the segment as empty. a segment file that cannot be deleted 
+		 * (e.g. because it is still mapped) is ignored upon recovery.
+		 */
+		private void invalidate() {
+			buffer.putInt(0, 0);
+		}
+		
+		private void close() {
+			try {
+				buffer.force();
+				raf.close();
+			} catch (IOException e) {
+				LOG.error("could not close segment " + file, e);
+			}
+		}
+	}
+	
+	/**
+	 * offset index of the messages of one reader ordered by sequence number.
+	 */
+	private static final class ReaderIndex {
+		private long[] seqs = new long[16];
+		private long[] positions = new long[16];
+		private long[] times = new long[16];
+		private String[] ids = new String[16];
+		private String[] types = new String[16];
+		private String[] statusCodes = new String[16];
+		private int[] marks = new int[16];
+		private int size = 0;
+		
+		private void add(long seq, long position, long time, String id, String type, String statusCode, int mark) {
+			if (size == seqs.length) {
+				int capacity = size * 2;
+				long[] s = new long[capacity];
+				long[] p = new long[capacity];
+				long[] t = new long[capacity];
+				String[] i = new String[capacity];
+				String[] ty = new String[capacity];
+				String[] st = new String[capacity];
+				int[] m = new int[capacity];
+				System.arraycopy(seqs, 0, s, 0, size);
+				System.arraycopy(positions, 0, p, 0, size);
+				System.arraycopy(times, 0, t, 0, size);
+				System.arraycopy(ids, 0, i, 0, size);
+				System.arraycopy(types, 0, ty, 0, size);
+				System.arraycopy(statusCodes, 0, st, 0, size);
+				System.arraycopy(marks, 0, m, 0, size);
+				seqs = s;
+				positions = p;
+				times = t;
+				ids = i;
+				types = ty;
+				statusCodes = st;
+				marks = m;
+			}
+			seqs[size] = seq;
+			positions[size] = position;
+			times[size] = time;
+			ids[size] = id;
+			types[size] = type;
+			statusCodes[size] = statusCode;
+			marks[size] = mark;
+			size++;
+		}
+		
+		/**
+		 * drop the given number of oldest entries.
+		 */
+		private void removeOldest(int n) {
+			size -= n;
+			System.arraycopy(seqs, n, seqs, 0, size);
+			System.arraycopy(positions, n, positions, 0, size);
+			System.arraycopy(times, n, times, 0, size);
+			System.arraycopy(ids, n, ids, 0, size);
+			System.arraycopy(types, n, types, 0, size);
+			System.arraycopy(statusCodes, n, statusCodes, 0, size);
+			System.arraycopy(marks, n, marks, 0, size);
+			Arrays.fill(ids, size, size + n, null);
+			Arrays.fill(types, size, size + n, null);
+			Arrays.fill(statusCodes, size, size + n, null);
+		}
+		
+		/**
+		 * drop the entry at the given index.
+		 */
+		private void remove(int index) {
+			int n = size - index - 1;
+			System.arraycopy(seqs, index + 1, seqs, index, n);
+			System.arraycopy(positions, index + 1, positions, index, n);
+			System.arraycopy(times, index + 1, times, index, n);
+			System.arraycopy(ids, index + 1, ids, index, n);
+			System.arraycopy(types, index + 1, types, index, n);
+			System.arraycopy(statusCodes, index + 1, statusCodes, index, n);
+			System.arraycopy(marks, index + 1, marks, index, n);
+			size--;
+			ids[size] = null;
+			types[size] = null;
+			statusCodes[size] = null;
+		}
+		
+		private int find(long seq) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (seqs[mid] < seq) {
+					low = mid + 1;
+				} else if (seqs[mid] > seq) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -1;
+		}
+	}
+	
+	/**
+	 * a clear request: kills all the matching records with a smaller sequence number.
+	 */
+	private static final class Tombstone {
+		private final String adapter;
+		private final String reader;
+		private final long killSeq;
+		private long position;
+		
+		private Tombstone(String adapter, String reader, long killSeq, long position) {
+			this.adapter = adapter;
+			this.reader = reader;
+			this.killSeq = killSeq;
+			this.position = position;
+		}
+		
+		private boolean kills(String recordAdapter, String recordReader, long seq) {
+			return (seq < killSeq) && adapter.equals(recordAdapter) && 
+				((null == reader) || reader.equals(recordReader));
+		}
+	}
+	
+	/**
+	 * meta data of a message record, used while recovering and compacting.
+	 */
+	private static final class Header {
+		private long seq;
+		private long position;
+		private String id;
+		private String adapter;
+		private String reader;
+		private String type;
+		private String statusCode;
+		private long time;
+		private int mark;
+	}
+	
+	@Override
+	public void initialize(Map<String, String> args) throws LLRPRuntimeException {
+		this.args = args;
+		String location = null;
+		if (null != args) {
+			location = args.get(ARG_LOCATION);
+			if (null == location) {
+				location = args.get(DerbyRepository.ARG_REPO_LOCATION);
+			}
+			if (null != args.get(ARG_SEGMENT_SIZE)) {
+				try {
+					segmentSize = Integer.parseInt(args.get(ARG_SEGMENT_SIZE).trim());
+				} catch (NumberFormatException e) {
+					throw new LLRPRuntimeException("invalid segment size: " + args.get(ARG_SEGMENT_SIZE));
+				}
+			}
+		}
+		if (null == location) {
+			location = System.getProperty(PersistenceImpl.DB_STORE_LOCATION);
+		}
+		if (null == location) {
+			throw new LLRPRuntimeException("no location for the segment log provided.");
+		}
+		if (segmentSize < 1024) {
+			throw new LLRPRuntimeException("segment size must be at least 1024 bytes.");
+		}
+		
+		folder = new File(location, LOG_SUBFOLDER);
+		if (!folder.exists() && !folder.mkdirs()) {
+			throw new LLRPRuntimeException("could not create the segment log folder " + folder);
+		}
+		
+		lock.writeLock().lock();
+		try {
+			if ((null != args) && Boolean.parseBoolean(args.get(RepositoryFactory.ARG_WIPE_DB))) {
+				LOG.info("wiping the segment log.");
+				deleteSegmentFiles();
+			}
+			recover();
+			healthy = true;
+		} catch (IOException e) {
+			throw new LLRPRuntimeException(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * open all existing segments and rebuild the in-memory indexes.
+	 */
+	private void recover() throws IOException {
+		long st = System.currentTimeMillis();
+		File[] files = folder.listFiles();
+		List<Integer> numbers = new ArrayList<Integer> ();
+		if (null != files) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(SEGMENT_SUFFIX)) {
+					try {
+						numbers.add(Integer.valueOf(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+					} catch (NumberFormatException e) {
+						LOG.warn("ignoring unknown file in the segment log: " + file);
+					}
+				}
+			}
+		}
+		Collections.sort(numbers);
+		if (!numbers.isEmpty()) {
+			lastSegmentNumber = numbers.get(numbers.size() - 1);
+		}
+		
+		// the latest copy of a record wins (a compaction might have been interrupted).
+		Map<String, Header> headers = new HashMap<String, Header> ();
+		for (Integer number : numbers) {
+			Segment segment = new Segment(number, segmentFile(number), 0);
+			segments.put(number, segment);
+			int pos = 0;
+			ByteBuffer b = segment.buffer.duplicate();
+			while (pos + HEADER_SIZE <= b.capacity()) {
+				int length = b.getInt(pos);
+				if ((length <= 0) || (pos + 4 + length > b.capacity())) {
+					break;
+				}
+				byte type = b.get(pos + 4);
+				long seq = b.getLong(pos + 5);
+				nextSeq = Math.max(nextSeq, seq + 1);
+				b.position(pos + HEADER_SIZE);
+				if (TYPE_MESSAGE == type) {
+					Header header = new Header();
+					header.seq = seq;
+					header.position = position(number, pos);
+					header.id = readString(b);
+					header.adapter = readString(b);
+					header.reader = readString(b);
+					header.type = intern(readString(b));
+					header.statusCode = intern(readString(b));
+					skipString(b);
+					header.time = b.getLong();
+					header.mark = b.getInt();
+					headers.put(header.id, header);
+					segment.records++;
+					segment.minSeq = Math.min(segment.minSeq, seq);
+				} else if (TYPE_TOMBSTONE == type) {
+					tombstones.add(new Tombstone(readString(b), readString(b), b.getLong(), position(number, pos)));
+				}
+				pos += 4 + length;
+			}
+			segment.writePos = pos;
+			if ((0 == pos) && (number != numbers.get(numbers.size() - 1))) {
+				// left over from a compaction.
+				segments.remove(number);
+				segment.close();
+				segment.file.delete();
+				continue;
+			}
+			active = segment;
+		}
+		
+		List<Header> survivors = new ArrayList<Header> (headers.size());
+		for (Header header : headers.values()) {
+			if (!killed(header)) {
+				survivors.add(header);
+			}
+		}
+		Collections.sort(survivors, new Comparator<Header>() {
+			public int compare(Header h1, Header h2) {
+				return (h1.seq < h2.seq) ? -1 : ((h1.seq == h2.seq) ? 0 : 1);
+			}
+		});
+		for (Header header : survivors) {
+			index(header.adapter, header.reader, header.seq, header.position, header.time, header.id, 
+					header.type, header.statusCode, header.mark);
+		}
+		LOG.info(String.format("recovered %d messages from %d segments in %d ms.", 
+				survivors.size(), segments.size(), System.currentTimeMillis() - st));
+	}
+	
+	private boolean killed(Header header) {
+		for (Tombstone tombstone : tombstones) {
+			if (tombstone.kills(header.adapter, header.reader, header.seq)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private File segmentFile(int number) {
+		return new File(folder, String.format("%010d%s", number, SEGMENT_SUFFIX));
+	}
+	
+	private static long position(int segment, int offset) {
+		return ((long) segment << 32) | offset;
+	}
+	
+	private static int segmentOf(long position) {
+		return (int) (position >>> 32);
+	}
+	
+	private static int offsetOf(long position) {
+		return (int) position;
+	}
+	
+	/**
+	 * add a record to the in-memory indexes. a record with the same id 
+	 * replaces the previous record. the caller must hold the write lock.
+	 */
+	private void index(String adapter, String reader, long seq, long position, long time, String id, 
+			String type, String statusCode, int mark) {
+		Long previous = ids.get(id);
+		if (null != previous) {
+			unindex(previous.longValue());
+		}
+		Map<String, ReaderIndex> adapterReaders = readers.get(adapter);
+		if (null == adapterReaders) {
+			adapterReaders = new HashMap<String, ReaderIndex> ();
+			readers.put(adapter, adapterReaders);
+		}
+		ReaderIndex readerIndex = adapterReaders.get(reader);
+		if (null == readerIndex) {
+			readerIndex = new ReaderIndex();
+			adapterReaders.put(reader, readerIndex);
+		}
+		readerIndex.add(seq, position, time, id, type, statusCode, mark);
+		ids.put(id, Long.valueOf(position));
+		segments.get(segmentOf(position)).live++;
+	}
+	
+	/**
+	 * remove a record from the reader index, its record turns dead. the 
+	 * caller must hold the write lock.
+	 */
+	private void unindex(long position) {
+		Segment segment = segments.get(segmentOf(position));
+		long seq = segment.buffer.getLong(offsetOf(position) + 5);
+		LLRPMessageItem item = read(position, false);
+		Map<String, ReaderIndex> adapterReaders = readers.get(item.getAdapter());
+		ReaderIndex readerIndex = (null == adapterReaders) ? null : adapterReaders.get(item.getReader());
+		int index = (null == readerIndex) ? -1 : readerIndex.find(seq);
+		if (index < 0) {
+			return;
+		}
+		readerIndex.remove(index);
+		segment.live--;
+		if (0 == readerIndex.size) {
+			adapterReaders.remove(item.getReader());
+			if (adapterReaders.isEmpty()) {
+				readers.remove(item.getAdapter());
+			}
+		}
+	}
+
+	@Override
+	public Map<String, String> getArgs() {
+		return args;
+	}
+
+	@Override
+	public boolean isHealth() {
+		return healthy;
+	}
+
+	@Override
+	public void put(LLRPMessageItem aMessage) {
+		if (null == aMessage) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			putInternal(aMessage);
+		} catch (IOException e) {
+			LOG.error("could not append the message to the segment log.", e);
+			healthy = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void putAll(List<LLRPMessageItem> messages) {
+		lock.writeLock().lock();
+		try {
+			for (LLRPMessageItem message : messages) {
+				if (null != message) {
+					putInternal(message);
+				}
+			}
+		} catch (IOException e) {
+			LOG.error("could not append the messages to the segment log.", e);
+			healthy = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * append the message to the log. the caller must hold the write lock.
+	 */
+	private void putInternal(LLRPMessageItem message) throws IOException {
+		if (null == message.getId()) {
+			message.setId(String.format("%d-%d", System.currentTimeMillis(), nextSeq));
+		}
+		if (null == message.getTime()) {
+			message.setTime(new Timestamp(System.currentTimeMillis()));
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeString(out, message.getId());
+		writeString(out, message.getAdapter());
+		writeString(out, message.getReader());
+		writeString(out, message.getMessageType());
+		writeString(out, message.getStatusCode());
+		writeString(out, message.getComment());
+		out.writeLong(message.getTime().getTime());
+		out.writeInt(message.getMark());
+		writeString(out, message.getContent());
+		out.flush();
+		
+		final long seq = nextSeq++;
+		long position = append(TYPE_MESSAGE, seq, bytes.toByteArray());
+		active.records++;
+		active.minSeq = Math.min(active.minSeq, seq);
+		index(message.getAdapter(), message.getReader(), seq, position, message.getTime().getTime(), message.getId(), 
+				intern(message.getMessageType()), intern(message.getStatusCode()), message.getMark());
+	}
+	
+	/**
+	 * append a record to the active segment (rolling to a new segment if required).
+	 * @return the position of the record.
+	 */
+	private long append(byte type, long seq, byte[] payload) throws IOException {
+		final int length = 1 + 8 + payload.length;
+		// reserve space for the end marker.
+		final int needed = 4 + length + 4;
+		if ((null == active) || (active.remaining() < needed)) {
+			roll(needed);
+		}
+		final int pos = active.writePos;
+		ByteBuffer b = active.buffer.duplicate();
+		b.position(pos + 4);
+		b.put(type);
+		b.putLong(seq);
+		b.put(payload);
+		// write the length last, it commits the record.
+		b.putInt(pos, length);
+		active.writePos = pos + 4 + length;
+		return position(active.number, pos);
+	}
+	
+	/**
+	 * seal the active segment and open a new one.
+	 * @param needed the minimum number of bytes the new segment must provide.
+	 */
+	private void roll(int needed) throws IOException {
+		if (null != active) {
+			active.buffer.force();
+		}
+		// never reuse the number of a segment, its file might not have been deleted.
+		int number = ++lastSegmentNumber;
+		active = new Segment(number, segmentFile(number), Math.max(segmentSize, needed));
+		segments.put(number, active);
+		LOG.debug("opened new segment " + active.file);
+	}
+
+	@Override
+	public LLRPMessageItem get(String aMsgSysId) {
+		lock.readLock().lock();
+		try {
+			Long position = ids.get(aMsgSysId);
+			if (null == position) {
+				return null;
+			}
+			return read(position.longValue(), true);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * read a message record. the caller must hold a lock.
+	 */
+	private LLRPMessageItem read(long position, boolean content) {
+		ByteBuffer b = segments.get(segmentOf(position)).buffer.duplicate();
+		b.position(offsetOf(position) + HEADER_SIZE);
+		LLRPMessageItem item = new LLRPMessageItem();
+		item.setId(readString(b));
+		item.setAdapter(readString(b));
+		item.setReader(readString(b));
+		item.setMessageType(readString(b));
+		item.setStatusCode(readString(b));
+		item.setComment(readString(b));
+		item.setTime(new Timestamp(b.getLong()));
+		item.setMark(b.getInt());
+		if (content) {
+			item.setContent(readString(b));
+		}
+		return item;
+	}
+
+	@Override
+	public List<LLRPMessageItem> get(String adaptorName, String readerName,
+			int num, boolean content) {
+		
+		lock.readLock().lock();
+		try {
+			List<ReaderIndex> selected = select(adaptorName, readerName);
+			List<long[]> candidates = new ArrayList<long[]> ();
+			for (ReaderIndex readerIndex : selected) {
+				int n = (RETRIEVE_ALL == num) ? readerIndex.size : Math.min(num, readerIndex.size);
+				for (int i=readerIndex.size - 1; i>=readerIndex.size - n; i--) {
+					candidates.add(new long[] { readerIndex.times[i], readerIndex.positions[i] });
+				}
+			}
+			if (selected.size() > 1) {
+				// merge the readers and keep only the most recent ones.
+				Collections.sort(candidates, new Comparator<long[]>() {
+					public int compare(long[] c1, long[] c2) {
+						return (c1[0] < c2[0]) ? 1 : ((c1[0] == c2[0]) ? 0 : -1);
+					}
+				});
+				if ((RETRIEVE_ALL != num) && (candidates.size() > num)) {
+					candidates = candidates.subList(0, num);
+				}
+			}
+			List<LLRPMessageItem> result = new ArrayList<LLRPMessageItem> (candidates.size());
+			for (long[] candidate : candidates) {
+				result.add(read(candidate[1], content));
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	@Override
+	public List<LLRPMessageItem> page(String adaptorName, String readerName,
+			MessageKey key, boolean older, int pageSize, boolean content) {
+		
+		lock.readLock().lock();
+		try {
+			KeysetCollector<Long> collector = new KeysetCollector<Long> (key, older, pageSize);
+			for (ReaderIndex readerIndex : select(adaptorName, readerName)) {
+				for (int i=0; i<readerIndex.size; i++) {
+					collector.offer(readerIndex.times[i], readerIndex.ids[i], readerIndex.positions[i]);
+				}
+			}
+			List<LLRPMessageItem> result = new ArrayList<LLRPMessageItem> ();
+			for (Long position : collector.result()) {
+				result.add(read(position.longValue(), content));
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	@Override
+	public List<LLRPMessageItem> query(MessageQuery query, MessageKey key,
+			boolean older, int pageSize, boolean content) {
+		
+		lock.readLock().lock();
+		try {
+			KeysetCollector<Long> collector = new KeysetCollector<Long> (key, older, pageSize);
+			for (ReaderIndex readerIndex : select(query.getAdapter(), query.getReader())) {
+				for (int i=0; i<readerIndex.size; i++) {
+					if (!query.matches(readerIndex.types[i], readerIndex.statusCodes[i], 
+							readerIndex.marks[i], readerIndex.times[i])) {
+						continue;
+					}
+					// the comment is not indexed, read it from the record.
+					if ((null != query.getComment()) && 
+							!query.matchesComment(read(readerIndex.positions[i], false).getComment())) {
+						continue;
+					}
+					collector.offer(readerIndex.times[i], readerIndex.ids[i], readerIndex.positions[i]);
+				}
+			}
+			List<LLRPMessageItem> result = new ArrayList<LLRPMessageItem> ();
+			for (Long position : collector.result()) {
+				result.add(read(position.longValue(), content));
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * share the instances of the few distinct message types and status codes.
+	 */
+	private static String intern(String value) {
+		return (null == value) ? null : value.intern();
+	}
+	
+	/**
+	 * select the reader indexes matching the filter. the caller must hold a lock.
+	 */
+	private List<ReaderIndex> select(String adapter, String reader) {
+		List<ReaderIndex> selected = new ArrayList<ReaderIndex> ();
+		for (Map.Entry<String, Map<String, ReaderIndex>> entry : readers.entrySet()) {
+			if ((null != adapter) && !Constants.ROOT_NAME.equals(adapter) && !adapter.equals(entry.getKey())) {
+				continue;
+			}
+			for (Map.Entry<String, ReaderIndex> readerEntry : entry.getValue().entrySet()) {
+				if ((null == reader) || reader.equals(readerEntry.getKey())) {
+					selected.add(readerEntry.getValue());
+				}
+			}
+		}
+		return selected;
+	}
+
+	@Override
+	public int count(String adaptor, String reader) {
+		lock.readLock().lock();
+		try {
+			int count = 0;
+			for (ReaderIndex readerIndex : select(adaptor, reader)) {
+				count += readerIndex.size;
+			}
+			return count;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void clearAll() {
+		lock.writeLock().lock();
+		try {
+			deleteSegmentFiles();
+			LOG.debug("cleared the segment log.");
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void clearAdapter(String adapter) {
+		clear(adapter, null);
+	}
+
+	@Override
+	public void clearReader(String adapter, String reader) {
+		clear(adapter, reader);
+	}
+	
+	@Override
+	public Map<String, Set<String>> getReaders() {
+		lock.readLock().lock();
+		try {
+			Map<String, Set<String>> result = new HashMap<String, Set<String>> ();
+			for (Map.Entry<String, Map<String, ReaderIndex>> entry : readers.entrySet()) {
+				result.put(entry.getKey(), new HashSet<String> (entry.getValue().keySet()));
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<LLRPMessageItem> prune(String adapter, String reader, long olderThan, int keep, int batchSize) {
+		List<LLRPMessageItem> pruned = new ArrayList<LLRPMessageItem> ();
+		lock.writeLock().lock();
+		try {
+			Map<String, ReaderIndex> adapterReaders = readers.get(adapter);
+			ReaderIndex readerIndex = (null == adapterReaders) ? null : adapterReaders.get(reader);
+			if ((null == readerIndex) || (0 == readerIndex.size)) {
+				return pruned;
+			}
+			int n = 0;
+			while ((n < readerIndex.size) && (readerIndex.times[n] < olderThan)) {
+				n++;
+			}
+			if (keep >= 0) {
+				n = Math.max(n, readerIndex.size - keep);
+			}
+			n = Math.min(n, batchSize);
+			if (n <= 0) {
+				return pruned;
+			}
+			
+			// the oldest surviving record bounds the tombstone.
+			final long killSeq = (n < readerIndex.size) ? readerIndex.seqs[n] : nextSeq;
+			final long seq = nextSeq++;
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			writeString(out, adapter);
+			writeString(out, reader);
+			out.writeLong(killSeq);
+			out.flush();
+			long position = append(TYPE_TOMBSTONE, seq, bytes.toByteArray());
+			tombstones.add(new Tombstone(adapter, reader, killSeq, position));
+			
+			for (int i=0; i<n; i++) {
+				pruned.add(read(readerIndex.positions[i], false));
+				ids.remove(readerIndex.ids[i]);
+				segments.get(segmentOf(readerIndex.positions[i])).live--;
+			}
+			readerIndex.removeOldest(n);
+			if (0 == readerIndex.size) {
+				adapterReaders.remove(reader);
+				if (adapterReaders.isEmpty()) {
+					readers.remove(adapter);
+				}
+			}
+			compact();
+		} catch (IOException e) {
+			LOG.error("could not prune the segment log.", e);
+			healthy = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return pruned;
+	}
+	
+	/**
+	 * append a tombstone for the adapter (and reader), drop the matching 
+	 * records from the indexes and compact the segments.
+	 */
+	private void clear(String adapter, String reader) {
+		if ((null == adapter) || Constants.ROOT_NAME.equals(adapter)) {
+			clearAll();
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			Map<String, ReaderIndex> adapterReaders = readers.get(adapter);
+			if (null == adapterReaders) {
+				return;
+			}
+			final long seq = nextSeq++;
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			writeString(out, adapter);
+			writeString(out, reader);
+			out.writeLong(seq);
+			out.flush();
+			long position = append(TYPE_TOMBSTONE, seq, bytes.toByteArray());
+			tombstones.add(new Tombstone(adapter, reader, seq, position));
+			
+			Iterator<Map.Entry<String, ReaderIndex>> it = adapterReaders.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, ReaderIndex> entry = it.next();
+				if ((null != reader) && !reader.equals(entry.getKey())) {
+					continue;
+				}
+				ReaderIndex readerIndex = entry.getValue();
+				for (int i=0; i<readerIndex.size; i++) {
+					ids.remove(readerIndex.ids[i]);
+					segments.get(segmentOf(readerIndex.positions[i])).live--;
+				}
+				it.remove();
+			}
+			if (adapterReaders.isEmpty()) {
+				readers.remove(adapter);
+			}
+			compact();
+		} catch (IOException e) {
+			LOG.error("could not clear the segment log.", e);
+			healthy = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * rewrite the live records of sparse sealed segments into the active 
+	 * segment and delete those segments. tombstones that might still hide 
+	 * records in other segments are carried forward. the caller must hold 
+	 * the write lock.
+	 */
+	private void compact() throws IOException {
+		List<Segment> candidates = new ArrayList<Segment> ();
+		for (Segment segment : segments.values()) {
+			if ((segment != active) && (segment.live <= segment.records * COMPACTION_THRESHOLD)) {
+				candidates.add(segment);
+			}
+		}
+		for (Segment segment : candidates) {
+			if (segment.live > 0) {
+				relocateLiveRecords(segment);
+			}
+			segments.remove(segment.number);
+			for (Tombstone tombstone : new ArrayList<Tombstone> (tombstones)) {
+				if (segmentOf(tombstone.position) != segment.number) {
+					continue;
+				}
+				if (stillRequired(tombstone)) {
+					ByteBuffer b = segment.buffer.duplicate();
+					int offset = offsetOf(tombstone.position);
+					byte[] payload = new byte[b.getInt(offset) - 1 - 8];
+					b.position(offset + HEADER_SIZE);
+					b.get(payload);
+					tombstone.position = append(TYPE_TOMBSTONE, b.getLong(offset + 5), payload);
+				} else {
+					tombstones.remove(tombstone);
+				}
+			}
+			segment.invalidate();
+			segment.close();
+			if (!segment.file.delete()) {
+				LOG.warn("could not delete compacted segment " + segment.file);
+			}
+			LOG.debug("compacted segment " + segment.file);
+		}
+	}
+	
+	/**
+	 * @return true if a remaining segment might hold records killed by the tombstone.
+	 */
+	private boolean stillRequired(Tombstone tombstone) {
+		for (Segment segment : segments.values()) {
+			if (segment.minSeq < tombstone.killSeq) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * copy the live records of a segment to the active segment keeping their 
+	 * sequence numbers. the caller must hold the write lock.
+	 */
+	private void relocateLiveRecords(Segment segment) throws IOException {
+		ByteBuffer b = segment.buffer.duplicate();
+		int pos = 0;
+		while (pos < segment.writePos) {
+			int length = b.getInt(pos);
+			if (TYPE_MESSAGE == b.get(pos + 4)) {
+				b.position(pos + HEADER_SIZE);
+				String id = readString(b);
+				Long current = ids.get(id);
+				if ((null != current) && (current.longValue() == position(segment.number, pos))) {
+					Header header = new Header();
+					header.seq = b.getLong(pos + 5);
+					header.id = id;
+					header.adapter = readString(b);
+					header.reader = readString(b);
+					
+					byte[] payload = new byte[length - 1 - 8];
+					b.position(pos + HEADER_SIZE);
+					b.get(payload);
+					long position = append(TYPE_MESSAGE, header.seq, payload);
+					active.records++;
+					active.live++;
+					active.minSeq = Math.min(active.minSeq, header.seq);
+					
+					ids.put(id, Long.valueOf(position));
+					ReaderIndex readerIndex = readers.get(header.adapter).get(header.reader);
+					readerIndex.positions[readerIndex.find(header.seq)] = position;
+				}
+			}
+			pos += 4 + length;
+		}
+	}
+	
+	/**
+	 * close and delete all segments and reset the indexes. the caller must hold the write lock.
+	 */
+	private void deleteSegmentFiles() {
+		for (Segment segment : segments.values()) {
+			segment.invalidate();
+			segment.close();
+		}
+		segments.clear();
+		readers.clear();
+		ids.clear();
+		tombstones.clear();
+		active = null;
+		File[] files = folder.listFiles();
+		if (null != files) {
+			for (File file : files) {
+				if (file.getName().endsWith(SEGMENT_SUFFIX) && !file.delete()) {
+					LOG.warn("could not delete segment " + file);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		lock.writeLock().lock();
+		try {
+			for (Segment segment : segments.values()) {
+				segment.close();
+			}
+			segments.clear();
+			readers.clear();
+			ids.clear();
+			tombstones.clear();
+			active = null;
+			healthy = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public ROAccessReportsRepository getROAccessRepository() {
+		return null;
+	}
+	
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (null == value) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(ByteBuffer b) {
+		int length = b.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		b.get(bytes);
+		return new String(bytes, UTF8);
+	}
+	
+	private static void skipString(ByteBuffer b) {
+		int length = b.getInt();
+		if (length > 0) {
+			b.position(b.position() + length);
+		}
+	}
+}
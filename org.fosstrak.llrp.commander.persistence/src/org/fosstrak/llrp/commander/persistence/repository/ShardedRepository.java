@@ -0,0 +1,346 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
+import org.fosstrak.llrp.client.Constants;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.ROAccessReportsRepository;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
+
+/**
+ * repository partitioning the messages by adapter/reader hash over several 
+ * repository instances (shards). all the messages of a reader live in the 
+ * same shard, so reads and clears of a reader touch one shard only, while 
+ * reads over several readers fan out and merge by time stamp. each shard 
+ * has its own writer thread: a batch is split by shard and the parts are 
+ * written in parallel. RO_ACCESS_REPORTS are logged by the first shard.
+ * @author swieland
+ *
+ */
+public class ShardedRepository implements BatchRepository, QueryableRepository, PruningRepository {
+	
+	private static final Logger LOG = Logger.getLogger(ShardedRepository.class);
+	
+	private final List<Repository> shards;
+	
+	// one writer thread per shard. empty until initialized.
+	private final List<ExecutorService> writers = new ArrayList<ExecutorService> ();
+	
+	private Map<String, String> args;
+	
+	/**
+	 * create a new sharded repository.
+	 * @param shards the initialized shards. the order must not change between runs.
+	 */
+	public ShardedRepository(List<Repository> shards) {
+		if ((null == shards) || shards.isEmpty()) {
+			throw new IllegalArgumentException("at least one shard is required.");
+		}
+		this.shards = new ArrayList<Repository> (shards);
+	}
+
+	/**
+	 * start the writer threads of the shards.
+	 */
+	@Override
+	public void initialize(Map<String, String> args) throws LLRPRuntimeException {
+		this.args = args;
+		for (int i=0; i<shards.size(); i++) {
+			final String name = "persistence-shard-" + i;
+			writers.add(Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, name);
+					thread.setDaemon(true);
+					return thread;
+				}
+			}));
+		}
+		LOG.debug(String.format("storing messages into %d shards.", shards.size()));
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @return the number of the shard holding the messages of the reader.
+	 */
+	public int shardOf(String adapter, String reader) {
+		int hash = 31 * ((null == adapter) ? 0 : adapter.hashCode()) + 
+			((null == reader) ? 0 : reader.hashCode());
+		// spread the bits, names of a fleet often differ in the last character only.
+		hash ^= (hash >>> 16);
+		return (hash & 0x7fffffff) % shards.size();
+	}
+	
+	private Repository shard(String adapter, String reader) {
+		return shards.get(shardOf(adapter, reader));
+	}
+	
+	/**
+	 * select the shards holding the messages of the given adapter/reader.
+	 * @return one shard if the reader is given, all the shards otherwise.
+	 */
+	private List<Repository> select(String adapter, String reader) {
+		if ((null == adapter) || Constants.ROOT_NAME.equals(adapter) || (null == reader)) {
+			return shards;
+		}
+		List<Repository> selected = new ArrayList<Repository> (1);
+		selected.add(shard(adapter, reader));
+		return selected;
+	}
+
+	@Override
+	public Map<String, String> getArgs() {
+		return args;
+	}
+
+	@Override
+	public boolean isHealth() {
+		for (Repository shard : shards) {
+			if (!shard.isHealth()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void put(LLRPMessageItem aMessage) {
+		if (null == aMessage) {
+			return;
+		}
+		shard(aMessage.getAdapter(), aMessage.getReader()).put(aMessage);
+	}
+
+	@Override
+	public void putAll(List<LLRPMessageItem> messages) {
+		Map<Integer, List<LLRPMessageItem>> parts = new HashMap<Integer, List<LLRPMessageItem>> ();
+		for (LLRPMessageItem message : messages) {
+			if (null == message) {
+				continue;
+			}
+			Integer n = Integer.valueOf(shardOf(message.getAdapter(), message.getReader()));
+			List<LLRPMessageItem> part = parts.get(n);
+			if (null == part) {
+				part = new ArrayList<LLRPMessageItem> ();
+				parts.put(n, part);
+			}
+			part.add(message);
+		}
+		if ((parts.size() == 1) || writers.isEmpty()) {
+			// nothing to parallelize.
+			for (Map.Entry<Integer, List<LLRPMessageItem>> entry : parts.entrySet()) {
+				write(shards.get(entry.getKey()), entry.getValue());
+			}
+			return;
+		}
+		List<Future<?>> pending = new ArrayList<Future<?>> (parts.size());
+		for (Map.Entry<Integer, List<LLRPMessageItem>> entry : parts.entrySet()) {
+			final Repository shard = shards.get(entry.getKey());
+			final List<LLRPMessageItem> part = entry.getValue();
+			pending.add(writers.get(entry.getKey()).submit(new Runnable() {
+				public void run() {
+					write(shard, part);
+				}
+			}));
+		}
+		// the batch is written when all the parts are written.
+		for (Future<?> future : pending) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while writing the shards.", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("could not write a shard.", e.getCause());
+			}
+		}
+	}
+	
+	private static void write(Repository shard, List<LLRPMessageItem> part) {
+		if (shard instanceof BatchRepository) {
+			((BatchRepository) shard).putAll(part);
+		} else {
+			for (LLRPMessageItem item : part) {
+				shard.put(item);
+			}
+		}
+	}
+
+	@Override
+	public LLRPMessageItem get(String aMsgSysId) {
+		for (Repository shard : shards) {
+			LLRPMessageItem item = shard.get(aMsgSysId);
+			if (null != item) {
+				return item;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public List<LLRPMessageItem> get(String adaptorName, String readerName,
+			int num, boolean content) {
+		
+		List<Repository> selected = select(adaptorName, readerName);
+		if (selected.size() == 1) {
+			return selected.get(0).get(adaptorName, readerName, num, content);
+		}
+		List<List<LLRPMessageItem>> pages = new ArrayList<List<LLRPMessageItem>> (selected.size());
+		for (Repository shard : selected) {
+			pages.add(shard.get(adaptorName, readerName, num, content));
+		}
+		int pageSize = (RETRIEVE_ALL == num) ? PageMerger.size(pages) : num;
+		return PageMerger.merge(pages, null, true, pageSize);
+	}
+
+	@Override
+	public List<LLRPMessageItem> page(String adaptorName, String readerName,
+			MessageKey key, boolean older, int pageSize, boolean content) {
+		
+		List<Repository> selected = select(adaptorName, readerName);
+		if (selected.size() == 1) {
+			return PageMerger.page(selected.get(0), adaptorName, readerName, key, older, pageSize, content);
+		}
+		List<List<LLRPMessageItem>> pages = new ArrayList<List<LLRPMessageItem>> (selected.size());
+		for (Repository shard : selected) {
+			pages.add(PageMerger.page(shard, adaptorName, readerName, key, older, pageSize, content));
+		}
+		return PageMerger.merge(pages, key, older, pageSize);
+	}
+
+	@Override
+	public List<LLRPMessageItem> query(MessageQuery query, MessageKey key,
+			boolean older, int pageSize, boolean content) {
+		
+		List<Repository> selected = select(query.getAdapter(), query.getReader());
+		if (selected.size() == 1) {
+			return PageMerger.query(selected.get(0), query, key, older, pageSize, content);
+		}
+		List<List<LLRPMessageItem>> pages = new ArrayList<List<LLRPMessageItem>> (selected.size());
+		for (Repository shard : selected) {
+			pages.add(PageMerger.query(shard, query, key, older, pageSize, content));
+		}
+		return PageMerger.merge(pages, key, older, pageSize);
+	}
+
+	@Override
+	public int count(String adaptor, String reader) {
+		int count = 0;
+		for (Repository shard : select(adaptor, reader)) {
+			count += shard.count(adaptor, reader);
+		}
+		return count;
+	}
+
+	@Override
+	public void clearAll() {
+		for (Repository shard : shards) {
+			shard.clearAll();
+		}
+	}
+
+	@Override
+	public void clearAdapter(String adapter) {
+		for (Repository shard : shards) {
+			shard.clearAdapter(adapter);
+		}
+	}
+
+	@Override
+	public void clearReader(String adapter, String reader) {
+		shard(adapter, reader).clearReader(adapter, reader);
+	}
+	
+	@Override
+	public Map<String, Set<String>> getReaders() {
+		Map<String, Set<String>> result = new HashMap<String, Set<String>> ();
+		for (Repository shard : shards) {
+			if (!(shard instanceof PruningRepository)) {
+				continue;
+			}
+			for (Map.Entry<String, Set<String>> entry : ((PruningRepository) shard).getReaders().entrySet()) {
+				Set<String> readers = result.get(entry.getKey());
+				if (null == readers) {
+					readers = new HashSet<String> ();
+					result.put(entry.getKey(), readers);
+				}
+				readers.addAll(entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<LLRPMessageItem> prune(String adapter, String reader, long olderThan, int keep, int batchSize) {
+		Repository shard = shard(adapter, reader);
+		if (!(shard instanceof PruningRepository)) {
+			return new ArrayList<LLRPMessageItem> ();
+		}
+		return ((PruningRepository) shard).prune(adapter, reader, olderThan, keep, batchSize);
+	}
+
+	/**
+	 * stop the writer threads and close all the shards.
+	 */
+	@Override
+	public void close() {
+		for (ExecutorService writer : writers) {
+			writer.shutdown();
+		}
+		writers.clear();
+		for (Repository shard : shards) {
+			try {
+				shard.close();
+			} catch (Exception e) {
+				LOG.error("could not close shard.", e);
+			}
+		}
+	}
+
+	@Override
+	public ROAccessReportsRepository getROAccessRepository() {
+		return shards.get(0).getROAccessRepository();
+	}
+	
+	/**
+	 * @return the shards.
+	 */
+	public List<Repository> getShards() {
+		return new ArrayList<Repository> (shards);
+	}
+}
@@ -0,0 +1,456 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.fosstrak.llrp.client.ROAccessReportsRepository;
+import org.fosstrak.llrp.client.Repository;
+import org.fosstrak.llrp.commander.persistence.type.MessageKey;
+import org.fosstrak.llrp.commander.persistence.type.MessageQuery;
+import org.fosstrak.llrp.commander.persistence.type.ReaderKey;
+
+/**
+ * two-tier repository. new messages are written into an in-memory hot tier 
+ * ({@link RingBufferRepository}) and later moved in batches into the cold 
+ * tier (the configured repository, eg. Derby) by {@link #migrate(String, String, long, int, int)}. 
+ * reads are answered by the hot tier when it holds enough messages, 
+ * otherwise the results of both tiers are merged by time stamp. a message 
+ * is written into the cold tier before it is removed from the hot tier, 
+ * so it is always visible in at least one tier (duplicates are removed 
+ * when merging). when the hot tier of a reader is full, the oldest 
+ * messages are spilled into the cold tier before writing new ones. 
+ * the cold tier is written without holding any lock the writers of the 
+ * hot tier wait for, only the writers of a reader with a full hot tier 
+ * wait for its spill.
+ * @author swieland
+ *
+ */
+public class TieredRepository implements BatchRepository, QueryableRepository {
+	
+	/** argument: the number of messages kept per reader in the hot tier. */
+	public static final String ARG_HOT_CAPACITY = "persistence.tiered.hotCapacity";
+	
+	/** argument: the number of messages spilled at once when the hot tier of a reader is full. */
+	public static final String ARG_SPILL_BATCH_SIZE = "persistence.tiered.spillBatchSize";
+	
+	/** the default number of messages kept per reader in the hot tier. */
+	public static final int DEFAULT_HOT_CAPACITY = 10000;
+	
+	/** the default number of messages spilled at once. */
+	public static final int DEFAULT_SPILL_BATCH_SIZE = 500;
+	
+	private static final Logger LOG = Logger.getLogger(TieredRepository.class);
+	
+	// number of optimistic attempts to count while messages are moved.
+	private static final int COUNT_ATTEMPTS = 16;
+	
+	/**
+	 * the locks of a reader.
+	 */
+	private static final class ReaderLocks {
+		
+		// guards the hot tier of the reader (capacity check and put, peek, removal).
+		private final Lock hot = new ReentrantLock();
+		
+		// serializes the moves of the reader, held while writing to the cold tier.
+		private final Lock move = new ReentrantLock();
+	}
+	
+	private final Repository cold;
+	
+	private RingBufferRepository hot;
+	
+	private int spillBatchSize = DEFAULT_SPILL_BATCH_SIZE;
+	
+	// the locks per reader.
+	private final ConcurrentMap<ReaderKey, ReaderLocks> locks = 
+		new ConcurrentHashMap<ReaderKey, ReaderLocks> ();
+	
+	// shared by the writers and the moves, exclusive for clearing.
+	private final ReadWriteLock clearLock = new ReentrantReadWriteLock();
+	
+	// moves started and finished. a move is in progress from before its 
+	// cold write until its messages have been removed from the hot tier.
+	private final AtomicLong movesStarted = new AtomicLong(0);
+	private final AtomicLong movesFinished = new AtomicLong(0);
+	
+	private Map<String, String> args;
+	
+	/**
+	 * create a new tiered repository.
+	 * @param cold the initialized cold tier.
+	 */
+	public TieredRepository(Repository cold) {
+		this.cold = cold;
+	}
+
+	@Override
+	public void initialize(Map<String, String> args) throws LLRPRuntimeException {
+		this.args = args;
+		int capacity = DEFAULT_HOT_CAPACITY;
+		if (null != args) {
+			capacity = parse(args, ARG_HOT_CAPACITY, DEFAULT_HOT_CAPACITY);
+			spillBatchSize = parse(args, ARG_SPILL_BATCH_SIZE, DEFAULT_SPILL_BATCH_SIZE);
+		}
+		if ((capacity <= 0) || (spillBatchSize <= 0)) {
+			throw new LLRPRuntimeException("hot tier capacity and spill batch size must be positive.");
+		}
+		Map<String, String> hotArgs = new HashMap<String, String> ();
+		hotArgs.put(RingBufferRepository.ARG_CAPACITY, Integer.toString(capacity));
+		RingBufferRepository ring = new RingBufferRepository();
+		ring.initialize(hotArgs);
+		hot = ring;
+		spillBatchSize = Math.min(spillBatchSize, capacity);
+		LOG.debug(String.format("hot tier keeps %d messages per reader in front of %s.", 
+				capacity, cold.getClass().getName()));
+	}
+	
+	private static int parse(Map<String, String> args, String name, int defaultValue) throws LLRPRuntimeException {
+		String value = args.get(name);
+		if (null == value) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new LLRPRuntimeException("invalid value for " + name + ": " + value);
+		}
+	}
+
+	@Override
+	public Map<String, String> getArgs() {
+		return args;
+	}
+
+	@Override
+	public boolean isHealth() {
+		return cold.isHealth();
+	}
+
+	@Override
+	public void put(LLRPMessageItem aMessage) {
+		if (null == aMessage) {
+			return;
+		}
+		clearLock.readLock().lock();
+		try {
+			putInternal(aMessage);
+		} finally {
+			clearLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void putAll(List<LLRPMessageItem> messages) {
+		clearLock.readLock().lock();
+		try {
+			for (LLRPMessageItem message : messages) {
+				if (null != message) {
+					putInternal(message);
+				}
+			}
+		} finally {
+			clearLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * write the message into the hot tier. if the hot tier of the reader is 
+	 * full, its oldest messages are first moved into the cold tier. the 
+	 * caller must hold the read lock of the clear lock.
+	 */
+	private void putInternal(LLRPMessageItem message) {
+		String adapter = message.getAdapter();
+		String reader = message.getReader();
+		ReaderLocks readerLocks = locks(adapter, reader);
+		while (true) {
+			readerLocks.hot.lock();
+			try {
+				if (hot.count(adapter, reader) < hot.getCapacity()) {
+					hot.put(message);
+					return;
+				}
+			} finally {
+				readerLocks.hot.unlock();
+			}
+			move(readerLocks, adapter, reader, 0, hot.getCapacity() - spillBatchSize, spillBatchSize);
+		}
+	}
+	
+	private ReaderLocks locks(String adapter, String reader) {
+		ReaderKey key = ReaderKey.of(adapter, reader);
+		ReaderLocks readerLocks = locks.get(key);
+		if (null == readerLocks) {
+			ReaderLocks created = new ReaderLocks();
+			readerLocks = locks.putIfAbsent(key, created);
+			if (null == readerLocks) {
+				readerLocks = created;
+			}
+		}
+		return readerLocks;
+	}
+	
+	/**
+	 * move the oldest messages of a reader from the hot into the cold tier.
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @param olderThan messages stored before this time (in ms) are moved. 0 to ignore the age.
+	 * @param keep the number of most recent messages to keep in the hot tier. negative to ignore.
+	 * @param batchSize the maximum number of messages moved by this call.
+	 * @return the number of moved messages.
+	 */
+	public int migrate(String adapter, String reader, long olderThan, int keep, int batchSize) {
+		clearLock.readLock().lock();
+		try {
+			return move(locks(adapter, reader), adapter, reader, olderThan, keep, batchSize);
+		} finally {
+			clearLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * move all the messages of the hot tier into the cold tier.
+	 * @return the number of moved messages.
+	 */
+	public int migrateAll() {
+		int total = 0;
+		for (Map.Entry<String, Set<String>> entry : getReaders().entrySet()) {
+			for (String reader : entry.getValue()) {
+				int n;
+				do {
+					n = migrate(entry.getKey(), reader, 0, 0, spillBatchSize);
+					total += n;
+				} while (n > 0);
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * take the oldest messages of the reader, write them into the cold tier 
+	 * and then remove them from the hot tier. only the move lock of the 
+	 * reader is held while writing to the cold tier. the caller must hold 
+	 * the read lock of the clear lock.
+	 */
+	private int move(ReaderLocks readerLocks, String adapter, String reader, long olderThan, int keep, int batchSize) {
+		readerLocks.move.lock();
+		try {
+			List<LLRPMessageItem> batch;
+			readerLocks.hot.lock();
+			try {
+				batch = hot.peekOldest(adapter, reader, olderThan, keep, batchSize);
+			} finally {
+				readerLocks.hot.unlock();
+			}
+			if (batch.isEmpty()) {
+				return 0;
+			}
+			movesStarted.incrementAndGet();
+			try {
+				if (cold instanceof BatchRepository) {
+					((BatchRepository) cold).putAll(batch);
+				} else {
+					for (LLRPMessageItem item : batch) {
+						cold.put(item);
+					}
+				}
+				readerLocks.hot.lock();
+				try {
+					// no other move got in between and the writers never 
+					// overwrite a full hot tier, so the oldest messages are 
+					// still the same.
+					hot.prune(adapter, reader, 0, 0, batch.size());
+				} finally {
+					readerLocks.hot.unlock();
+				}
+			} finally {
+				movesFinished.incrementAndGet();
+			}
+			return batch.size();
+		} finally {
+			readerLocks.move.unlock();
+		}
+	}
+	
+	/**
+	 * @return adapter name -> names of the readers having messages in the hot tier.
+	 */
+	public Map<String, Set<String>> getReaders() {
+		return hot.getReaders();
+	}
+
+	@Override
+	public LLRPMessageItem get(String aMsgSysId) {
+		LLRPMessageItem item = hot.get(aMsgSysId);
+		if (null == item) {
+			item = cold.get(aMsgSysId);
+		}
+		return item;
+	}
+
+	@Override
+	public List<LLRPMessageItem> get(String adaptorName, String readerName,
+			int num, boolean content) {
+		
+		List<LLRPMessageItem> recent = hot.get(adaptorName, readerName, num, content);
+		if ((RETRIEVE_ALL != num) && (recent.size() >= num)) {
+			// the most recent messages are all in the hot tier.
+			return recent;
+		}
+		List<List<LLRPMessageItem>> pages = new ArrayList<List<LLRPMessageItem>> (2);
+		pages.add(recent);
+		pages.add(cold.get(adaptorName, readerName, num, content));
+		int pageSize = (RETRIEVE_ALL == num) ? PageMerger.size(pages) : num;
+		return PageMerger.merge(pages, null, true, pageSize);
+	}
+	
+	@Override
+	public List<LLRPMessageItem> page(String adaptorName, String readerName,
+			MessageKey key, boolean older, int pageSize, boolean content) {
+		
+		List<LLRPMessageItem> recent = hot.page(adaptorName, readerName, key, older, pageSize, content);
+		if (older && (recent.size() >= pageSize)) {
+			return recent;
+		}
+		List<List<LLRPMessageItem>> pages = new ArrayList<List<LLRPMessageItem>> (2);
+		pages.add(recent);
+		pages.add(PageMerger.page(cold, adaptorName, readerName, key, older, pageSize, content));
+		return PageMerger.merge(pages, key, older, pageSize);
+	}
+
+	@Override
+	public List<LLRPMessageItem> query(MessageQuery query, MessageKey key,
+			boolean older, int pageSize, boolean content) {
+		
+		List<LLRPMessageItem> recent = hot.query(query, key, older, pageSize, content);
+		if (older && (recent.size() >= pageSize)) {
+			return recent;
+		}
+		List<List<LLRPMessageItem>> pages = new ArrayList<List<LLRPMessageItem>> (2);
+		pages.add(recent);
+		pages.add(PageMerger.query(cold, query, key, older, pageSize, content));
+		return PageMerger.merge(pages, key, older, pageSize);
+	}
+
+	/**
+	 * a moved message is in both tiers until it is removed from the hot 
+	 * tier. the tiers are therefore counted while no move is in progress.
+	 */
+	@Override
+	public int count(String adaptor, String reader) {
+		for (int i=0; i<COUNT_ATTEMPTS; i++) {
+			long finished = movesFinished.get();
+			if (movesStarted.get() == finished) {
+				int count = hot.count(adaptor, reader) + cold.count(adaptor, reader);
+				if (movesStarted.get() == finished) {
+					return count;
+				}
+			}
+			Thread.yield();
+		}
+		// moves keep overlapping, wait for them to finish.
+		clearLock.writeLock().lock();
+		try {
+			return hot.count(adaptor, reader) + cold.count(adaptor, reader);
+		} finally {
+			clearLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void clearAll() {
+		clearLock.writeLock().lock();
+		try {
+			hot.clearAll();
+			cold.clearAll();
+		} finally {
+			clearLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void clearAdapter(String adapter) {
+		clearLock.writeLock().lock();
+		try {
+			hot.clearAdapter(adapter);
+			cold.clearAdapter(adapter);
+		} finally {
+			clearLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void clearReader(String adapter, String reader) {
+		clearLock.writeLock().lock();
+		try {
+			hot.clearReader(adapter, reader);
+			cold.clearReader(adapter, reader);
+		} finally {
+			clearLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * move the hot tier into the cold tier and close both.
+	 */
+	@Override
+	public void close() {
+		int moved = migrateAll();
+		LOG.debug(String.format("moved %d messages into the cold tier on close.", moved));
+		hot.close();
+		cold.close();
+	}
+
+	@Override
+	public ROAccessReportsRepository getROAccessRepository() {
+		return cold.getROAccessRepository();
+	}
+	
+	/**
+	 * @return the in-memory hot tier.
+	 */
+	public RingBufferRepository getHotTier() {
+		return hot;
+	}
+	
+	/**
+	 * @return the cold tier.
+	 */
+	public Repository getColdTier() {
+		return cold;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+/**
+ * base64 encoding of binary data into message content (text), so that binary 
+ * data fits into the content column of any repository.
+ * @author swieland
+ *
+ */
+public final class Base64Text {
+	
+	private static final char[] ALPHABET = 
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	
+	private static final int[] VALUES = new int[128];
+	
+	static {
+		for (int i=0; i<ALPHABET.length; i++) {
+			VALUES[ALPHABET[i]] = i;
+		}
+	}
+	
+	private Base64Text() {
+	}
+	
+	/**
+	 * encode binary data.
+	 * @param prefix the marker put in front of the encoded data.
+	 * @param data the buffer holding the data.
+	 * @param length the number of bytes to encode.
+	 * @return the marker followed by the base64 encoded data.
+	 */
+	public static String encode(String prefix, byte[] data, int length) {
+		StringBuilder sb = new StringBuilder(prefix.length() + ((length + 2) / 3) * 4);
+		sb.append(prefix);
+		for (int i=0; i<length; i+=3) {
+			int b0 = data[i] & 0xff;
+			int b1 = (i + 1 < length) ? (data[i + 1] & 0xff) : 0;
+			int b2 = (i + 2 < length) ? (data[i + 2] & 0xff) : 0;
+			sb.append(ALPHABET[b0 >> 2]);
+			sb.append(ALPHABET[((b0 << 4) | (b1 >> 4)) & 0x3f]);
+			sb.append((i + 1 < length) ? ALPHABET[((b1 << 2) | (b2 >> 6)) & 0x3f] : '=');
+			sb.append((i + 2 < length) ? ALPHABET[b2 & 0x3f] : '=');
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * decode binary data.
+	 * @param text the text holding the encoded data.
+	 * @param start the index of the first encoded character (behind the marker).
+	 * @return the decoded data.
+	 */
+	public static byte[] decode(String text, int start) {
+		int end = text.length();
+		while ((end > start) && ('=' == text.charAt(end - 1))) {
+			end--;
+		}
+		byte[] data = new byte[((end - start) * 3) / 4];
+		int bits = 0;
+		int n = 0;
+		int pos = 0;
+		for (int i=start; i<end; i++) {
+			bits = (bits << 6) | VALUES[text.charAt(i) & 0x7f];
+			n += 6;
+			if (n >= 8) {
+				n -= 8;
+				data[pos++] = (byte) (bits >> n);
+			}
+		}
+		return data;
+	}
+}
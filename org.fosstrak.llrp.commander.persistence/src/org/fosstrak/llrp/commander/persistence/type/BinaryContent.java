@@ -0,0 +1,89 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+import org.llrp.ltk.exceptions.InvalidLLRPMessageException;
+import org.llrp.ltk.generated.LLRPMessageFactory;
+import org.llrp.ltk.types.LLRPMessage;
+
+/**
+ * message content holding the encoded binary LLRP frame instead of the XML 
+ * representation. the frame is stored as base64 text behind a marker, so 
+ * it fits into the content column of any repository. the XML is rendered 
+ * only when the content is requested.
+ * @author swieland
+ *
+ */
+public final class BinaryContent {
+	
+	/** marker in front of binary content. */
+	public static final String PREFIX = "llrp-binary:";
+	
+	private BinaryContent() {
+	}
+	
+	/**
+	 * @param message the LLRP message.
+	 * @return the binary content of the given message.
+	 * @throws InvalidLLRPMessageException if the message cannot be encoded.
+	 */
+	public static String encode(LLRPMessage message) throws InvalidLLRPMessageException {
+		return encode(message.encodeBinary());
+	}
+	
+	/**
+	 * @param frame the encoded binary LLRP frame.
+	 * @return the binary content holding the given frame.
+	 */
+	public static String encode(byte[] frame) {
+		return Base64Text.encode(PREFIX, frame, frame.length);
+	}
+	
+	/**
+	 * @param content the content of a message.
+	 * @return true if the content holds a binary frame, false otherwise.
+	 */
+	public static boolean isBinary(String content) {
+		return (null != content) && content.startsWith(PREFIX);
+	}
+	
+	/**
+	 * @param content binary content.
+	 * @return the encoded binary LLRP frame.
+	 */
+	public static byte[] decode(String content) {
+		return Base64Text.decode(content, PREFIX.length());
+	}
+	
+	/**
+	 * render the XML of binary content. other content is returned unchanged.
+	 * @param content the content of a message.
+	 * @return the XML representation of the message.
+	 * @throws InvalidLLRPMessageException if the frame cannot be decoded.
+	 */
+	public static String render(String content) throws InvalidLLRPMessageException {
+		if (!isBinary(content)) {
+			return content;
+		}
+		return LLRPMessageFactory.createLLRPMessage(decode(content)).toXMLString();
+	}
+}
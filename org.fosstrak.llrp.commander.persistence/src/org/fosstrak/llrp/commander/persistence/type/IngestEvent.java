@@ -0,0 +1,107 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+import org.llrp.ltk.types.LLRPMessage;
+
+/**
+ * a message travelling through the stages of the ingest pipeline. the 
+ * stages fill in the message item step by step.
+ * @author swieland
+ *
+ */
+public class IngestEvent {
+	
+	private final String adapter;
+	private final String reader;
+	private final LLRPMessage message;
+	private final long received;
+	private final int orderKey;
+	
+	private LLRPMessageItem item;
+
+	/**
+	 * create a new event.
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @param message the received LLRP message.
+	 */
+	public IngestEvent(String adapter, String reader, LLRPMessage message) {
+		this.adapter = adapter;
+		this.reader = reader;
+		this.message = message;
+		this.received = System.currentTimeMillis();
+		int hash = (null == adapter) ? 0 : adapter.hashCode();
+		this.orderKey = 31 * hash + ((null == reader) ? 0 : reader.hashCode());
+	}
+	
+	/**
+	 * @return the name of the adapter.
+	 */
+	public String getAdapter() {
+		return adapter;
+	}
+	
+	/**
+	 * @return the name of the reader.
+	 */
+	public String getReader() {
+		return reader;
+	}
+	
+	/**
+	 * @return the received LLRP message.
+	 */
+	public LLRPMessage getMessage() {
+		return message;
+	}
+	
+	/**
+	 * @return the time in ms when the message has been received.
+	 */
+	public long getReceived() {
+		return received;
+	}
+	
+	/**
+	 * @return the key keeping the messages of a reader in order (the same 
+	 * for all the messages of a reader).
+	 */
+	public int getOrderKey() {
+		return orderKey;
+	}
+	
+	/**
+	 * @return the message item, null until built by the metadata stage.
+	 */
+	public LLRPMessageItem getItem() {
+		return item;
+	}
+	
+	/**
+	 * @param item the message item.
+	 */
+	public void setItem(LLRPMessageItem item) {
+		this.item = item;
+	}
+}
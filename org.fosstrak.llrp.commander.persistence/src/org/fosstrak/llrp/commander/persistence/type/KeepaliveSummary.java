@@ -0,0 +1,142 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+/**
+ * immutable summary of a run of consecutive keepalives of a reader.
+ * @author swieland
+ *
+ */
+public class KeepaliveSummary {
+	
+	private final String adapter;
+	private final String reader;
+	private final long firstSeen;
+	private final long lastSeen;
+	private final long count;
+	private final long acks;
+	private final long maxGap;
+	private final long anomalies;
+	private final long missed;
+
+	/**
+	 * create a new summary.
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @param firstSeen the time in ms of the first keepalive of the run.
+	 * @param lastSeen the time in ms of the last keepalive of the run.
+	 * @param count the number of keepalives.
+	 * @param acks the number of keepalive acknowledgements.
+	 * @param maxGap the largest gap in ms between two keepalives.
+	 * @param anomalies the number of gaps exceeding the keepalive period.
+	 * @param missed the estimated number of missed keepalives.
+	 */
+	public KeepaliveSummary(String adapter, String reader, long firstSeen, 
+			long lastSeen, long count, long acks, long maxGap, long anomalies, long missed) {
+		this.adapter = adapter;
+		this.reader = reader;
+		this.firstSeen = firstSeen;
+		this.lastSeen = lastSeen;
+		this.count = count;
+		this.acks = acks;
+		this.maxGap = maxGap;
+		this.anomalies = anomalies;
+		this.missed = missed;
+	}
+	
+	/**
+	 * @return the name of the adapter.
+	 */
+	public String getAdapter() {
+		return adapter;
+	}
+	
+	/**
+	 * @return the name of the reader.
+	 */
+	public String getReader() {
+		return reader;
+	}
+	
+	/**
+	 * @return the time in ms of the first keepalive of the run.
+	 */
+	public long getFirstSeen() {
+		return firstSeen;
+	}
+	
+	/**
+	 * @return the time in ms of the last keepalive of the run.
+	 */
+	public long getLastSeen() {
+		return lastSeen;
+	}
+	
+	/**
+	 * @return the number of keepalives.
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return the number of keepalive acknowledgements.
+	 */
+	public long getAcks() {
+		return acks;
+	}
+	
+	/**
+	 * @return the largest gap in ms between two keepalives.
+	 */
+	public long getMaxGap() {
+		return maxGap;
+	}
+	
+	/**
+	 * @return the number of gaps exceeding the keepalive period.
+	 */
+	public long getAnomalies() {
+		return anomalies;
+	}
+	
+	/**
+	 * @return the estimated number of missed keepalives.
+	 */
+	public long getMissed() {
+		return missed;
+	}
+	
+	/**
+	 * @return true if at least one gap exceeded the keepalive period.
+	 */
+	public boolean isAnomalous() {
+		return anomalies > 0;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d keepalives (%d acks) from %tT to %tT, max gap %d ms%s", 
+				count, acks, firstSeen, lastSeen, maxGap, 
+				isAnomalous() ? String.format(", ANOMALY: %d late, ~%d missed", anomalies, missed) : "");
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * immutable snapshot of the message counters of the persistence layer.
+ * @author swieland
+ *
+ */
+public class MessageCountSnapshot {
+	
+	// adapter name -> reader name -> message type -> count.
+	private final Map<String, Map<String, Map<String, Long>>> counts;
+	
+	private final long timestamp;
+	
+	/**
+	 * create a new snapshot.
+	 * @param counts adapter name -> reader name -> message type -> count. 
+	 * the map is taken over without copy and must not be modified afterwards.
+	 */
+	public MessageCountSnapshot(Map<String, Map<String, Map<String, Long>>> counts) {
+		this.counts = counts;
+		this.timestamp = System.currentTimeMillis();
+	}
+	
+	/**
+	 * @return the total number of messages.
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (String adapter : counts.keySet()) {
+			total += getCount(adapter);
+		}
+		return total;
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @return the number of messages of the given adapter.
+	 */
+	public long getCount(String adapter) {
+		long total = 0;
+		Map<String, Map<String, Long>> readers = counts.get(adapter);
+		if (null != readers) {
+			for (String reader : readers.keySet()) {
+				total += getCount(adapter, reader);
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @return the number of messages of the given reader.
+	 */
+	public long getCount(String adapter, String reader) {
+		long total = 0;
+		for (Long count : getTypeCounts(adapter, reader).values()) {
+			total += count.longValue();
+		}
+		return total;
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @return message type -> number of messages of the given reader.
+	 */
+	public Map<String, Long> getTypeCounts(String adapter, String reader) {
+		Map<String, Map<String, Long>> readers = counts.get(adapter);
+		if ((null == readers) || (null == readers.get(reader))) {
+			return Collections.emptyMap();
+		}
+		return Collections.unmodifiableMap(readers.get(reader));
+	}
+	
+	/**
+	 * @return message type -> number of messages over all the readers.
+	 */
+	public Map<String, Long> getTypeCounts() {
+		Map<String, Long> types = new HashMap<String, Long> ();
+		for (Map<String, Map<String, Long>> readers : counts.values()) {
+			for (Map<String, Long> readerTypes : readers.values()) {
+				for (Map.Entry<String, Long> entry : readerTypes.entrySet()) {
+					Long count = types.get(entry.getKey());
+					long sum = entry.getValue().longValue() + ((null == count) ? 0 : count.longValue());
+					types.put(entry.getKey(), Long.valueOf(sum));
+				}
+			}
+		}
+		return types;
+	}
+	
+	/**
+	 * @return the names of the adapters.
+	 */
+	public Set<String> getAdapters() {
+		return Collections.unmodifiableSet(counts.keySet());
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @return the names of the readers of the given adapter.
+	 */
+	public Set<String> getReaders(String adapter) {
+		Map<String, Map<String, Long>> readers = counts.get(adapter);
+		if (null == readers) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(readers.keySet());
+	}
+	
+	/**
+	 * @return the time in ms when the snapshot has been taken.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+}
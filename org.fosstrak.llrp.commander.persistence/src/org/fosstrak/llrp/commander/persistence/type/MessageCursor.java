@@ -0,0 +1,66 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+import java.util.List;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+
+/**
+ * cursor walking the messages of the persistence layer page by page in 
+ * (time, id) keyset order. the cursor starts at the most recent messages. 
+ * the pages hold the meta data only, the content is fetched on demand.
+ * @author swieland
+ *
+ */
+public interface MessageCursor {
+
+	/**
+	 * @return the next page of older messages (most recent first). an empty 
+	 * list if there are no older messages.
+	 */
+	List<LLRPMessageItem> next();
+	
+	/**
+	 * @return the previous page of more recent messages (most recent first). 
+	 * an empty list if there are no more recent messages.
+	 */
+	List<LLRPMessageItem> previous();
+	
+	/**
+	 * @return false once a page towards the older messages came back shorter 
+	 * than the page size, true otherwise.
+	 */
+	boolean hasNext();
+	
+	/**
+	 * fetch the content of a message delivered by this cursor.
+	 * @param item the message.
+	 * @return the content of the message or null if not available.
+	 */
+	String getContent(LLRPMessageItem item);
+	
+	/**
+	 * @return the number of messages per page.
+	 */
+	int getPageSize();
+}
@@ -0,0 +1,121 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+import org.fosstrak.llrp.client.LLRPMessageItem;
+
+/**
+ * position of a message in the (time, id) keyset order used to page 
+ * through the persistence layer.
+ * @author swieland
+ *
+ */
+public final class MessageKey implements Comparable<MessageKey> {
+	
+	private final long time;
+	private final String id;
+	
+	/**
+	 * create a new key.
+	 * @param time the time stamp of the message in ms.
+	 * @param id the id of the message.
+	 */
+	public MessageKey(long time, String id) {
+		this.time = time;
+		this.id = id;
+	}
+	
+	/**
+	 * @param item the message.
+	 * @return the key of the given message.
+	 */
+	public static MessageKey of(LLRPMessageItem item) {
+		long time = (null == item.getTime()) ? 0 : item.getTime().getTime();
+		return new MessageKey(time, item.getId());
+	}
+	
+	/**
+	 * compare a message given by time and id against this key.
+	 * @param otherTime the time stamp of the other message.
+	 * @param otherId the id of the other message.
+	 * @return a negative number, zero or a positive number if the other message 
+	 * is before, at or after this key.
+	 */
+	public int compareTo(long otherTime, String otherId) {
+		return compare(otherTime, otherId, time, id);
+	}
+	
+	/**
+	 * compare two messages in keyset order.
+	 * @return a negative number, zero or a positive number if the first message 
+	 * is before, at or after the second one.
+	 */
+	public static int compare(long time1, String id1, long time2, String id2) {
+		if (time1 != time2) {
+			return (time1 < time2) ? -1 : 1;
+		}
+		if (null == id1) {
+			return (null == id2) ? 0 : -1;
+		}
+		if (null == id2) {
+			return 1;
+		}
+		return id1.compareTo(id2);
+	}
+
+	@Override
+	public int compareTo(MessageKey other) {
+		return compare(time, id, other.time, other.id);
+	}
+	
+	/**
+	 * @return the time stamp of the message in ms.
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * @return the id of the message.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof MessageKey)) {
+			return false;
+		}
+		return 0 == compareTo((MessageKey) obj);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (time ^ (time >>> 32)) * 31 + ((null == id) ? 0 : id.hashCode());
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("(%d, %s)", time, id);
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.fosstrak.llrp.client.Constants;
+import org.fosstrak.llrp.client.LLRPMessageItem;
+
+/**
+ * filter for the stored messages. all the criteria are optional and 
+ * combined with AND, an empty query matches all the messages. a missing 
+ * status code is treated as the empty string.
+ * @author swieland
+ *
+ */
+public class MessageQuery {
+	
+	/** value of the mark criterion matching any mark. */
+	public static final int ANY_MARK = -1;
+	
+	private String adapter = null;
+	private String reader = null;
+	private final Set<String> messageTypes = new HashSet<String> ();
+	private final Set<String> statusCodes = new HashSet<String> ();
+	private final Set<String> excludedStatusCodes = new HashSet<String> ();
+	private int mark = ANY_MARK;
+	private String comment = null;
+	private long from = 0;
+	private long to = Long.MAX_VALUE;
+	
+	/**
+	 * @return the name of the adapter or null for all the adapters.
+	 */
+	public String getAdapter() {
+		return adapter;
+	}
+	
+	/**
+	 * @param adapter the name of the adapter or null for all the adapters.
+	 */
+	public void setAdapter(String adapter) {
+		this.adapter = adapter;
+	}
+	
+	/**
+	 * @return the name of the reader or null for all the readers.
+	 */
+	public String getReader() {
+		return reader;
+	}
+	
+	/**
+	 * @param reader the name of the reader or null for all the readers.
+	 */
+	public void setReader(String reader) {
+		this.reader = reader;
+	}
+	
+	/**
+	 * @param messageType a message type to match (eg. ADD_ROSPEC_RESPONSE).
+	 */
+	public void addMessageType(String messageType) {
+		messageTypes.add(messageType);
+	}
+	
+	/**
+	 * @return the message types to match. empty for all the types.
+	 */
+	public Set<String> getMessageTypes() {
+		return Collections.unmodifiableSet(messageTypes);
+	}
+	
+	/**
+	 * @param statusCode a status code to match (eg. M_Success).
+	 */
+	public void addStatusCode(String statusCode) {
+		statusCodes.add(status(statusCode));
+	}
+	
+	/**
+	 * @return the status codes to match. empty for all the status codes.
+	 */
+	public Set<String> getStatusCodes() {
+		return Collections.unmodifiableSet(statusCodes);
+	}
+	
+	/**
+	 * @param statusCode a status code the messages must not have (eg. M_Success).
+	 */
+	public void excludeStatusCode(String statusCode) {
+		excludedStatusCodes.add(status(statusCode));
+	}
+	
+	/**
+	 * @return the status codes the messages must not have.
+	 */
+	public Set<String> getExcludedStatusCodes() {
+		return Collections.unmodifiableSet(excludedStatusCodes);
+	}
+	
+	/**
+	 * @return the mark to match or {@link #ANY_MARK}.
+	 */
+	public int getMark() {
+		return mark;
+	}
+	
+	/**
+	 * @param mark the mark to match (LLRPMessageItem.MARK_INCOMING or 
+	 * LLRPMessageItem.MARK_OUTGOING) or {@link #ANY_MARK}.
+	 */
+	public void setMark(int mark) {
+		this.mark = mark;
+	}
+	
+	/**
+	 * @return the text the comment must contain or null.
+	 */
+	public String getComment() {
+		return comment;
+	}
+	
+	/**
+	 * @param comment the text the comment must contain (case insensitive) or null.
+	 */
+	public void setComment(String comment) {
+		this.comment = ((null == comment) || (comment.length() == 0)) ? null : comment.toLowerCase();
+	}
+	
+	/**
+	 * @return the start of the time range in ms (inclusive).
+	 */
+	public long getFrom() {
+		return from;
+	}
+	
+	/**
+	 * @param from the start of the time range in ms (inclusive). 0 for no lower bound.
+	 */
+	public void setFrom(long from) {
+		this.from = from;
+	}
+	
+	/**
+	 * @return the end of the time range in ms (inclusive).
+	 */
+	public long getTo() {
+		return to;
+	}
+	
+	/**
+	 * @param to the end of the time range in ms (inclusive). Long.MAX_VALUE for no upper bound.
+	 */
+	public void setTo(long to) {
+		this.to = to;
+	}
+	
+	/**
+	 * @param itemAdapter the adapter of a message.
+	 * @param itemReader the reader of a message.
+	 * @return true if the message belongs to the adapter and reader of the query.
+	 */
+	public boolean matchesSource(String itemAdapter, String itemReader) {
+		if ((null == adapter) || Constants.ROOT_NAME.equals(adapter)) {
+			return true;
+		}
+		return adapter.equals(itemAdapter) && ((null == reader) || reader.equals(itemReader));
+	}
+	
+	/**
+	 * match the indexed fields of a message.
+	 * @param type the message type.
+	 * @param statusCode the status code.
+	 * @param itemMark the mark.
+	 * @param time the time in ms.
+	 * @return true if the fields match the query.
+	 */
+	public boolean matches(String type, String statusCode, int itemMark, long time) {
+		if ((time < from) || (time > to)) {
+			return false;
+		}
+		if ((ANY_MARK != mark) && (mark != itemMark)) {
+			return false;
+		}
+		if (!messageTypes.isEmpty() && !messageTypes.contains(type)) {
+			return false;
+		}
+		String status = status(statusCode);
+		if (!statusCodes.isEmpty() && !statusCodes.contains(status)) {
+			return false;
+		}
+		return !excludedStatusCodes.contains(status);
+	}
+	
+	/**
+	 * @param itemComment the comment of a message.
+	 * @return true if the comment matches the query.
+	 */
+	public boolean matchesComment(String itemComment) {
+		return (null == comment) || ((null != itemComment) && itemComment.toLowerCase().contains(comment));
+	}
+	
+	/**
+	 * @param item a message.
+	 * @return true if the message matches the query.
+	 */
+	public boolean matches(LLRPMessageItem item) {
+		long time = (null == item.getTime()) ? 0 : item.getTime().getTime();
+		return matchesSource(item.getAdapter(), item.getReader()) && 
+			matches(item.getMessageType(), item.getStatusCode(), item.getMark(), time) && 
+			matchesComment(item.getComment());
+	}
+	
+	/**
+	 * @param statusCode a status code.
+	 * @return the status code, the empty string for null.
+	 */
+	public static String status(String statusCode) {
+		return (null == statusCode) ? "" : statusCode;
+	}
+}
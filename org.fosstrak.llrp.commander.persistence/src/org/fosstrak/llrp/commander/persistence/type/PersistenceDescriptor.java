@@ -21,6 +21,10 @@
 
 package org.fosstrak.llrp.commander.persistence.type;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.commons.lang.StringUtils;
 
 
@@ -32,6 +36,99 @@ import org.apache.commons.lang.StringUtils;
  */
 public class PersistenceDescriptor {
 	
+	/** property: whether messages shall be stored asynchronously through a write-behind queue. */
+	public static final String PROP_WRITE_BEHIND = "persistence.writeBehind";
+	
+	/** property: the maximum number of messages waiting in the write-behind queue. */
+	public static final String PROP_WRITE_BEHIND_CAPACITY = "persistence.writeBehind.capacity";
+	
+	/** property: the maximum number of messages handed to the repository in one batch (one call on batch repositories only). */
+	public static final String PROP_WRITE_BEHIND_BATCH_SIZE = "persistence.writeBehind.batchSize";
+	
+	/** property: the maximum time in ms a message waits in the write-behind queue before being flushed. */
+	public static final String PROP_WRITE_BEHIND_FLUSH_INTERVAL = "persistence.writeBehind.flushInterval";
+	
+	/** property: whether the persistence layer shall maintain message counters instead of counting in the repository. */
+	public static final String PROP_COUNTERS = "persistence.counters";
+	
+	/** property: the maximum number of bytes held by the message content cache. 0 disables the cache. */
+	public static final String PROP_CONTENT_CACHE_SIZE = "persistence.contentCache.size";
+	
+	/** property: whether the message content shall be stored compressed. */
+	public static final String PROP_COMPRESSION = "persistence.compression";
+	
+	/** property: the minimum content length (in characters) to compress. */
+	public static final String PROP_COMPRESSION_THRESHOLD = "persistence.compression.threshold";
+	
+	/** property: whether to shed load (drop low priority messages) when the write-behind queue fills up. */
+	public static final String PROP_LOAD_SHEDDING = "persistence.loadShedding";
+	
+	/** property: the write-behind queue fill level in percent where sampling of the sheddable messages starts. */
+	public static final String PROP_LOAD_SHEDDING_LOW_WATERMARK = "persistence.loadShedding.lowWatermark";
+	
+	/** property: the write-behind queue fill level in percent where the sheddable messages are dropped. */
+	public static final String PROP_LOAD_SHEDDING_HIGH_WATERMARK = "persistence.loadShedding.highWatermark";
+	
+	/** property: keep one out of that many sheddable messages between the watermarks. */
+	public static final String PROP_LOAD_SHEDDING_SAMPLE_RATE = "persistence.loadShedding.sampleRate";
+	
+	/** property: comma separated list of the sheddable message types. */
+	public static final String PROP_LOAD_SHEDDING_TYPES = "persistence.loadShedding.types";
+	
+	/** property: the maximum age in ms of the stored messages. 0 keeps the messages forever. */
+	public static final String PROP_RETENTION_MAX_AGE = "persistence.retention.maxAge";
+	
+	/** property: the maximum number of stored messages per reader. 0 does not limit the number. */
+	public static final String PROP_RETENTION_MAX_ROWS = "persistence.retention.maxRowsPerReader";
+	
+	/** property: the time in ms between two runs of the retention pruner. */
+	public static final String PROP_RETENTION_INTERVAL = "persistence.retention.interval";
+	
+	/** property: the maximum number of messages deleted at once by the retention pruner. */
+	public static final String PROP_RETENTION_BATCH_SIZE = "persistence.retention.batchSize";
+	
+	/** property: whether to collapse consecutive keepalives of a reader into one summary record. */
+	public static final String PROP_KEEPALIVE_COALESCING = "persistence.keepalive.coalescing";
+	
+	/** property: the expected time in ms between two keepalives. larger gaps are flagged as anomalies. */
+	public static final String PROP_KEEPALIVE_PERIOD = "persistence.keepalive.period";
+	
+	/** property: the maximum duration in ms of a keepalive run before its summary is written. */
+	public static final String PROP_KEEPALIVE_FLUSH_INTERVAL = "persistence.keepalive.flushInterval";
+	
+	/** property: the window in ms within which the reads of a tag by an antenna are aggregated into one RO_ACCESS_REPORTS row. 0 stores every read. */
+	public static final String PROP_TAG_AGGREGATION_WINDOW = "persistence.tagAggregation.window";
+	
+	/** property: the number of repository instances the readers are partitioned over. 1 for no sharding. only repositories with their own storage location are sharded (not the internal Derby database), the number of a location changes only when the database is wiped. */
+	public static final String PROP_SHARDS = "persistence.shards";
+	
+	/** property: whether to keep the recent messages in an in-memory hot tier in front of the repository. */
+	public static final String PROP_TIERED = "persistence.tiered";
+	
+	/** property: the age in ms after which a message is moved from the hot tier into the repository. */
+	public static final String PROP_TIERED_HOT_AGE = "persistence.tiered.hotAge";
+	
+	/** property: the number of messages per reader kept in the hot tier. */
+	public static final String PROP_TIERED_HOT_ROWS = "persistence.tiered.hotRows";
+	
+	/** property: the time in ms between two runs of the tier migrator. */
+	public static final String PROP_TIERED_INTERVAL = "persistence.tiered.interval";
+	
+	/** property: the maximum number of messages moved at once into the repository. */
+	public static final String PROP_TIERED_BATCH_SIZE = "persistence.tiered.batchSize";
+	
+	/** property: whether the fall-back Derby database is wiped by recreating it instead of deleting the rows. */
+	public static final String PROP_DERBY_FAST_WIPE = "persistence.derby.fastWipe";
+	
+	/** property: whether to warm up the fall-back Derby database in the background after startup. */
+	public static final String PROP_DERBY_WARM_UP = "persistence.derby.warmUp";
+	
+	/** property: the number of pages in the Derby page cache. 0 for the Derby default. */
+	public static final String PROP_DERBY_PAGE_CACHE_SIZE = "persistence.derby.pageCacheSize";
+	
+	/** property: the size in bytes of the Derby log buffer. 0 for the Derby default. */
+	public static final String PROP_DERBY_LOG_BUFFER_SIZE = "persistence.derby.logBufferSize";
+	
 	private boolean wipeDbAtStartup;
 	private boolean wipeRoAccessDbAtStartup;
 	private boolean logRoAccess;
@@ -39,6 +136,7 @@ public class PersistenceDescriptor {
 	private  String password;
 	private  String jdbc;
 	private  String implementingClass;
+	private Map<String, String> properties = new HashMap<String, String> ();
 
 	/**
 	 * create a descriptor.
@@ -109,6 +207,74 @@ public class PersistenceDescriptor {
 		return logRoAccess;
 	}
 	
+	/**
+	 * set an additional (optional) property on the descriptor. the properties 
+	 * are handed down to the repository together with the other arguments.
+	 * @param key the name of the property.
+	 * @param value the value of the property. if null, the property is removed.
+	 */
+	public void setProperty(String key, String value) {
+		if (null == value) {
+			properties.remove(key);
+		} else {
+			properties.put(key, value);
+		}
+	}
+	
+	/**
+	 * @param key the name of the property.
+	 * @return the value of the property or null if not set.
+	 */
+	public String getProperty(String key) {
+		return properties.get(key);
+	}
+	
+	/**
+	 * @param key the name of the property.
+	 * @param defaultValue the value to return if the property is not set.
+	 * @return the property as boolean or the default value if not set.
+	 */
+	public boolean getBooleanProperty(String key, boolean defaultValue) {
+		String value = getProperty(key);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		return Boolean.parseBoolean(value.trim());
+	}
+	
+	/**
+	 * @param key the name of the property.
+	 * @param defaultValue the value to return if the property is not set or not a number.
+	 * @return the property as integer or the default value if not set.
+	 */
+	public int getIntProperty(String key, int defaultValue) {
+		return (int) getLongProperty(key, defaultValue);
+	}
+	
+	/**
+	 * @param key the name of the property.
+	 * @param defaultValue the value to return if the property is not set or not a number.
+	 * @return the property as long or the default value if not set.
+	 */
+	public long getLongProperty(String key, long defaultValue) {
+		String value = getProperty(key);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * @return an unmodifiable view on all the additional properties.
+	 */
+	public Map<String, String> getProperties() {
+		return Collections.unmodifiableMap(properties);
+	}
+	
 	/**
 	 * @return a dummy persistence descriptor.
 	 */
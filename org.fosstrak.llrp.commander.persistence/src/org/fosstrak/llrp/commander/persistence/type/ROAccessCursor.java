@@ -0,0 +1,56 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+import java.util.List;
+
+import org.fosstrak.llrp.client.repository.sql.roaccess.ROAccessItem;
+
+/**
+ * cursor walking the RO_ACCESS reports matching a query page by page, 
+ * starting with the most recent reports. only the current page is held 
+ * in memory.
+ * @author swieland
+ *
+ */
+public interface ROAccessCursor {
+
+	/**
+	 * @return the next page of older reports. an empty list if there are no more reports.
+	 */
+	List<ROAccessItem> next();
+	
+	/**
+	 * @return true if there might be more reports, false if the cursor is exhausted.
+	 */
+	boolean hasNext();
+	
+	/**
+	 * @return the number of reports per page.
+	 */
+	int getPageSize();
+	
+	/**
+	 * @return the number of stored reports scanned so far.
+	 */
+	long getScanned();
+}
@@ -0,0 +1,129 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+/**
+ * filter for the RO_ACCESS reports. all the criteria are optional, an 
+ * empty query matches all the reports.
+ * @author swieland
+ *
+ */
+public class ROAccessQuery {
+	
+	private String adapter = null;
+	private String reader = null;
+	private long from = 0;
+	private long to = Long.MAX_VALUE;
+	private String epcPrefix = null;
+	
+	/**
+	 * @return the name of the adapter or null for all the adapters.
+	 */
+	public String getAdapter() {
+		return adapter;
+	}
+	
+	/**
+	 * @param adapter the name of the adapter or null for all the adapters.
+	 */
+	public void setAdapter(String adapter) {
+		this.adapter = adapter;
+	}
+	
+	/**
+	 * @return the name of the reader or null for all the readers.
+	 */
+	public String getReader() {
+		return reader;
+	}
+	
+	/**
+	 * @param reader the name of the reader or null for all the readers.
+	 */
+	public void setReader(String reader) {
+		this.reader = reader;
+	}
+	
+	/**
+	 * @return the start of the time range in ms (inclusive).
+	 */
+	public long getFrom() {
+		return from;
+	}
+	
+	/**
+	 * @param from the start of the time range in ms (inclusive). 0 for no lower bound.
+	 */
+	public void setFrom(long from) {
+		this.from = from;
+	}
+	
+	/**
+	 * @return the end of the time range in ms (inclusive).
+	 */
+	public long getTo() {
+		return to;
+	}
+	
+	/**
+	 * @param to the end of the time range in ms (inclusive). Long.MAX_VALUE for no upper bound.
+	 */
+	public void setTo(long to) {
+		this.to = to;
+	}
+	
+	/**
+	 * @return the hex prefix of the EPC or null for all the tags.
+	 */
+	public String getEpcPrefix() {
+		return epcPrefix;
+	}
+	
+	/**
+	 * @param epcPrefix the hex prefix of the EPC or null for all the tags.
+	 */
+	public void setEpcPrefix(String epcPrefix) {
+		if ((null != epcPrefix) && (epcPrefix.trim().length() == 0)) {
+			epcPrefix = null;
+		}
+		this.epcPrefix = (null == epcPrefix) ? null : epcPrefix.trim();
+	}
+	
+	/**
+	 * @param time the time of a report in ms.
+	 * @return true if the time lies within the time range.
+	 */
+	public boolean matchesTime(long time) {
+		return (time >= from) && (time <= to);
+	}
+	
+	/**
+	 * @param epc the EPC of a tag.
+	 * @return true if the EPC starts with the prefix (case insensitive).
+	 */
+	public boolean matchesEpc(String epc) {
+		if (null == epcPrefix) {
+			return true;
+		}
+		return (null != epc) && epc.regionMatches(true, 0, epcPrefix, 0, epcPrefix.length());
+	}
+}
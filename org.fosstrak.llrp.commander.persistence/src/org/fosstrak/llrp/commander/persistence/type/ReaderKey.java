@@ -0,0 +1,98 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * the identity of a reader on an adapter. the keys are interned: there 
+ * is exactly one key per (adapter, reader) pair, so the keys compare by 
+ * identity and looking up an existing key does not allocate.
+ * @author swieland
+ *
+ */
+public final class ReaderKey {
+	
+	// stands in for null names, the concurrent maps do not accept null.
+	private static final Object NULL_NAME = new Object();
+	
+	// the interned keys by adapter and reader name.
+	private static final ConcurrentMap<Object, ConcurrentMap<Object, ReaderKey>> KEYS = 
+		new ConcurrentHashMap<Object, ConcurrentMap<Object, ReaderKey>> ();
+	
+	private final String adapter;
+	private final String reader;
+	
+	private ReaderKey(String adapter, String reader) {
+		this.adapter = adapter;
+		this.reader = reader;
+	}
+	
+	/**
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @return the unique key of the given reader.
+	 */
+	public static ReaderKey of(String adapter, String reader) {
+		Object adapterName = (null == adapter) ? NULL_NAME : adapter;
+		Object readerName = (null == reader) ? NULL_NAME : reader;
+		
+		ConcurrentMap<Object, ReaderKey> readers = KEYS.get(adapterName);
+		if (null == readers) {
+			ConcurrentMap<Object, ReaderKey> created = 
+				new ConcurrentHashMap<Object, ReaderKey> ();
+			readers = KEYS.putIfAbsent(adapterName, created);
+			if (null == readers) {
+				readers = created;
+			}
+		}
+		ReaderKey key = readers.get(readerName);
+		if (null == key) {
+			ReaderKey created = new ReaderKey(adapter, reader);
+			key = readers.putIfAbsent(readerName, created);
+			if (null == key) {
+				key = created;
+			}
+		}
+		return key;
+	}
+	
+	/**
+	 * @return the name of the adapter.
+	 */
+	public String getAdapter() {
+		return adapter;
+	}
+	
+	/**
+	 * @return the name of the reader.
+	 */
+	public String getReader() {
+		return reader;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s@%s", reader, adapter);
+	}
+}
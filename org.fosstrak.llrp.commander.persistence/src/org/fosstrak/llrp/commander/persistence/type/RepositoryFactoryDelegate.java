@@ -37,6 +37,9 @@ public class RepositoryFactoryDelegate {
 
 	private static final Logger LOG = Logger.getLogger(RepositoryFactoryDelegate.class);
 	
+	/** repositories shipped with the persistence layer live in this package. */
+	public static final String LOCAL_REPOSITORY_PACKAGE = "org.fosstrak.llrp.commander.persistence.repository.";
+	
 	/**
 	 * create a new repository with the configuration parameters provided 
 	 * via the parameters hash map.
@@ -45,6 +48,10 @@ public class RepositoryFactoryDelegate {
 	 * @throws PersistenceException when no instantiation was possible.
 	 */
 	public Repository create(Map<String, String> args) throws PersistenceException {
+		String className = args.get(RepositoryFactory.ARG_DB_CLASSNAME);
+		if ((null != className) && className.startsWith(LOCAL_REPOSITORY_PACKAGE)) {
+			return createLocal(className, args);
+		}
 		try {
 			return RepositoryFactory.create(args);
 		} catch (Exception e) {
@@ -52,4 +59,29 @@ public class RepositoryFactoryDelegate {
 			throw new PersistenceException(e);
 		}
 	}
+	
+	/**
+	 * the class loader of the adaptor bundle cannot see the repositories of 
+	 * the persistence layer, therefore they are instantiated here.
+	 * @param className the name of the repository class.
+	 * @param args a hash-map providing the parameters.
+	 * @return an initialized instance of the repository.
+	 * @throws PersistenceException when no instantiation was possible.
+	 */
+	private Repository createLocal(String className, Map<String, String> args) throws PersistenceException {
+		try {
+			Object instance = Class.forName(className).newInstance();
+			if (!(instance instanceof Repository)) {
+				throw new PersistenceException(className + " is not a repository");
+			}
+			Repository repository = (Repository) instance;
+			repository.initialize(args);
+			return repository;
+		} catch (PersistenceException e) {
+			throw e;
+		} catch (Exception e) {
+			LOG.info("could not create the repository", e);
+			throw new PersistenceException(e);
+		}
+	}
 }
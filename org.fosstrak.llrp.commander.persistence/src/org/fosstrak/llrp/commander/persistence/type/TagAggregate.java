@@ -0,0 +1,148 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+/**
+ * immutable snapshot of the reads of one tag by one antenna of a reader 
+ * within an aggregation window.
+ * @author swieland
+ *
+ */
+public class TagAggregate {
+	
+	/** antenna id used when the reports do not carry the antenna. */
+	public static final int UNKNOWN_ANTENNA = -1;
+	
+	private final String adapter;
+	private final String reader;
+	private final int antenna;
+	private final String epc;
+	private final long firstSeen;
+	private final long lastSeen;
+	private final long count;
+	private final int peakRssi;
+	private final double averageRssi;
+	private final boolean rssi;
+
+	/**
+	 * create a new snapshot.
+	 * @param adapter the name of the adapter.
+	 * @param reader the name of the reader.
+	 * @param antenna the antenna id or {@link #UNKNOWN_ANTENNA}.
+	 * @param epc the EPC of the tag.
+	 * @param firstSeen the time in microseconds the tag was first seen.
+	 * @param lastSeen the time in microseconds the tag was last seen.
+	 * @param count the number of reads.
+	 * @param peakRssi the peak RSSI in dBm.
+	 * @param averageRssi the average of the reported RSSI values in dBm.
+	 * @param rssi true if the reports carried RSSI values at all.
+	 */
+	public TagAggregate(String adapter, String reader, int antenna, String epc, 
+			long firstSeen, long lastSeen, long count, int peakRssi, double averageRssi, boolean rssi) {
+		this.adapter = adapter;
+		this.reader = reader;
+		this.antenna = antenna;
+		this.epc = epc;
+		this.firstSeen = firstSeen;
+		this.lastSeen = lastSeen;
+		this.count = count;
+		this.peakRssi = peakRssi;
+		this.averageRssi = averageRssi;
+		this.rssi = rssi;
+	}
+	
+	/**
+	 * @return the name of the adapter.
+	 */
+	public String getAdapter() {
+		return adapter;
+	}
+	
+	/**
+	 * @return the name of the reader.
+	 */
+	public String getReader() {
+		return reader;
+	}
+	
+	/**
+	 * @return the antenna id or {@link #UNKNOWN_ANTENNA}.
+	 */
+	public int getAntenna() {
+		return antenna;
+	}
+	
+	/**
+	 * @return the EPC of the tag.
+	 */
+	public String getEpc() {
+		return epc;
+	}
+	
+	/**
+	 * @return the time in microseconds the tag was first seen.
+	 */
+	public long getFirstSeen() {
+		return firstSeen;
+	}
+	
+	/**
+	 * @return the time in microseconds the tag was last seen.
+	 */
+	public long getLastSeen() {
+		return lastSeen;
+	}
+	
+	/**
+	 * @return the number of reads.
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return the peak RSSI in dBm. only meaningful if {@link #hasRssi()}.
+	 */
+	public int getPeakRssi() {
+		return peakRssi;
+	}
+	
+	/**
+	 * @return the average of the reported RSSI values in dBm. only meaningful if {@link #hasRssi()}.
+	 */
+	public double getAverageRssi() {
+		return averageRssi;
+	}
+	
+	/**
+	 * @return true if the reports carried RSSI values.
+	 */
+	public boolean hasRssi() {
+		return rssi;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s/%s antenna %d %s: %d reads%s", adapter, reader, antenna, epc, count, 
+				rssi ? String.format(", peak %d dBm, avg %.1f dBm", peakRssi, averageRssi) : "");
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ *  
+ *  Fosstrak LLRP Commander (www.fosstrak.org)
+ * 
+ *  Copyright (C) 2008 ETH Zurich
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/> 
+ *
+ */
+
+package org.fosstrak.llrp.commander.persistence.type;
+
+/**
+ * immutable result of the validation of a persistence descriptor: the 
+ * verdict, the time to open the repository and the timing of a small 
+ * insert/select micro-benchmark.
+ * @author swieland
+ *
+ */
+public class ValidationResult {
+	
+	/**
+	 * the health verdict of a validated descriptor.
+	 */
+	public enum Verdict {
+		/** the repository opened, stored and returned the benchmark messages. */
+		HEALTHY,
+		/** the repository opened but failed the health check or the benchmark. */
+		UNHEALTHY,
+		/** the repository could not be opened. */
+		FAILED,
+		/** the validation did not finish within the timeout. */
+		TIMED_OUT,
+		/** the descriptor denotes the repository currently in use, not tested. */
+		IN_USE
+	}
+	
+	private final PersistenceDescriptor descriptor;
+	private final Verdict verdict;
+	private final long connectTime;
+	private final int benchmarkSize;
+	private final long insertTime;
+	private final long selectTime;
+	private final Throwable error;
+
+	/**
+	 * create a new result.
+	 * @param descriptor the validated descriptor.
+	 * @param verdict the health verdict.
+	 * @param connectTime the time in ms to open the repository, -1 if not opened.
+	 * @param benchmarkSize the number of messages inserted and selected by the benchmark.
+	 * @param insertTime the time in ms to insert the benchmark messages, -1 if not run.
+	 * @param selectTime the time in ms to select the benchmark messages, -1 if not run.
+	 * @param error the cause of a failure, null if none.
+	 */
+	public ValidationResult(PersistenceDescriptor descriptor, Verdict verdict, 
+			long connectTime, int benchmarkSize, long insertTime, long selectTime, Throwable error) {
+		this.descriptor = descriptor;
+		this.verdict = verdict;
+		this.connectTime = connectTime;
+		this.benchmarkSize = benchmarkSize;
+		this.insertTime = insertTime;
+		this.selectTime = selectTime;
+		this.error = error;
+	}
+	
+	/**
+	 * @return the validated descriptor.
+	 */
+	public PersistenceDescriptor getDescriptor() {
+		return descriptor;
+	}
+	
+	/**
+	 * @return the health verdict.
+	 */
+	public Verdict getVerdict() {
+		return verdict;
+	}
+	
+	/**
+	 * @return true if the repository is healthy, false otherwise.
+	 */
+	public boolean isHealthy() {
+		return Verdict.HEALTHY == verdict;
+	}
+	
+	/**
+	 * @return the time in ms to open the repository, -1 if not opened.
+	 */
+	public long getConnectTime() {
+		return connectTime;
+	}
+	
+	/**
+	 * @return the number of messages inserted and selected by the benchmark.
+	 */
+	public int getBenchmarkSize() {
+		return benchmarkSize;
+	}
+	
+	/**
+	 * @return the time in ms to insert the benchmark messages, -1 if not run.
+	 */
+	public long getInsertTime() {
+		return insertTime;
+	}
+	
+	/**
+	 * @return the time in ms to select the benchmark messages, -1 if not run.
+	 */
+	public long getSelectTime() {
+		return selectTime;
+	}
+	
+	/**
+	 * @return the cause of a failure, null if none.
+	 */
+	public Throwable getError() {
+		return error;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(descriptor.getImplementingClass()).append(": ").append(verdict);
+		if (connectTime >= 0) {
+			sb.append(String.format(", connect %d ms", connectTime));
+		}
+		if ((insertTime >= 0) && (selectTime >= 0)) {
+			sb.append(String.format(", %d inserts %d ms, select %d ms", 
+					benchmarkSize, insertTime, selectTime));
+		}
+		if (null != error) {
+			sb.append(", ").append(error.getMessage());
+		}
+		return sb.toString();
+	}
+}
@@ -21,17 +21,20 @@
 
 package org.fosstrak.llrp.commander;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.StringReader;
-import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLDecoder;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -61,13 +64,17 @@ import org.eclipse.ui.ide.IDE;
 import org.fosstrak.llrp.adaptor.exception.LLRPRuntimeException;
 import org.fosstrak.llrp.client.LLRPExceptionHandlerTypeMap;
 import org.fosstrak.llrp.client.LLRPMessageItem;
-import org.fosstrak.llrp.client.MessageHandler;
+import org.fosstrak.llrp.commander.engine.CaptureEngine;
 import org.fosstrak.llrp.commander.llrpaccess.LLRPAccess;
 import org.fosstrak.llrp.commander.llrpaccess.exception.LLRPAccessException;
 import org.fosstrak.llrp.commander.llrpaccess.impl.LLRPAccessImpl;
 import org.fosstrak.llrp.commander.persistence.Persistence;
 import org.fosstrak.llrp.commander.persistence.exception.PersistenceException;
+import org.fosstrak.llrp.commander.persistence.impl.IngestPipeline;
+import org.fosstrak.llrp.commander.persistence.impl.MessageBuffer;
+import org.fosstrak.llrp.commander.persistence.impl.MessageDispatcher;
 import org.fosstrak.llrp.commander.persistence.impl.PersistenceImpl;
+import org.fosstrak.llrp.commander.persistence.type.IngestEvent;
 import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
 import org.fosstrak.llrp.commander.preferences.PreferenceConstants;
 import org.fosstrak.llrp.commander.util.JarFolderExtractor;
@@ -79,7 +86,6 @@ import org.fosstrak.tdt.TDTEngine;
 import org.jdom.Document;
 import org.llrp.ltk.exceptions.InvalidLLRPMessageException;
 import org.llrp.ltk.generated.LLRPMessageFactory;
-import org.llrp.ltk.generated.parameters.LLRPStatus;
 import org.llrp.ltk.types.LLRPMessage;
 
 /**
@@ -134,24 +140,20 @@ public final class ResourceCenter {
 	
 	private static final Logger log = Logger.getLogger(ResourceCenter.class);
 	
-	private Persistence persistence;
-	
 	private String eclipseProjectName;
 	
 	private String readerDefinitionFilename;
 	
 	private ExceptionHandler exceptionHandler;
 	
-	private Map<String, String> readerConfigMap;
-	
-	private Map<String, String> readerROSpecMap;
-	
 	private ReaderExplorerView readerExplorerView;
 	
 	/**
-	 * Only store meta data, without XML content, to save the memory
+	 * Only store meta data, without XML content, to save the memory. 
+	 * filled by the adaptor threads, drained by the message box.
 	 */
-	private List<LLRPMessageItem> messageList;
+	private final MessageBuffer<LLRPMessageItem> messageList = 
+		new MessageBuffer<LLRPMessageItem> ();
 	
 	/** the worker thread that refreshes the message box periodically. */
 	private MessageBoxRefresh messageBoxRefresh = null;
@@ -167,8 +169,9 @@ public final class ResourceCenter {
 	
 	private TDTEngine tdtEngine = null;
 	
-	// TODO: find a nicer way to inject this one... 
-	private LLRPAccess llrpAccess = new LLRPAccessImpl();
+	// captures the received messages (persistence, ingest, reader state).
+	// TODO: find a nicer way to inject the LLRP access... 
+	private final CaptureEngine engine = new CaptureEngine(new LLRPAccessImpl());
 	
     /**
      * Private Constructor, internally called.
@@ -180,11 +183,6 @@ public final class ResourceCenter {
 			
 		setEclipseProjectName(DEFAULT_ECLIPSE_PROJECT);
 		setReaderDefinitionFilename(DEFAULT_READER_DEF_FILENAME);
-		
-		messageList = new ArrayList<LLRPMessageItem>();
-
-		readerConfigMap = new HashMap<String, String>();
-		readerROSpecMap = new HashMap<String, String>();
 	}
 	
 	/**
@@ -236,67 +234,23 @@ public final class ResourceCenter {
 				log.error("could not copy config file - got a core exception", e);
 			}
 		}
-		// create our message handler
-		MessageHandler handler = new MessageHandler() {
-
-			public void handle(String adapter, String reader, LLRPMessage msg) {
-				LLRPMessageItem item = new LLRPMessageItem();
-				item.setAdapter(adapter);
-				item.setReader(reader);
-				
-				String msgName = msg.getName();
-				item.setMessageType(msgName);
-				
-				// if the message contains a "LLRPStatus" parameter, set the status code (otherwise use empty string)
-				String statusCode = "";
-				try {
-					Method getLLRPStatusMethod = msg.getClass().getMethod("getLLRPStatus", new Class[0]);
-					LLRPStatus status = (LLRPStatus) getLLRPStatusMethod.invoke(msg, new Object[0]);
-					statusCode = status.getStatusCode().toString();
-				} catch (Exception e) {
-					// do nothing
-				} 
-				item.setStatusCode(statusCode);
-				
-				// store the xml string to the repository
-				try {
-					item.setContent(msg.toXMLString());
-				} catch (InvalidLLRPMessageException e) {
-					log.error("invalid LLRP message", e);
-				}
-				
-				try {
-					getPersistence().put(item);
-				} catch (Exception e) {
-					// repository might be null
-					log.error("repository is null", e);
-				}
-				
+		// the capture engine processes the received messages, the message 
+		// box gets the stored ones.
+		IPreferenceStore store = LLRPPlugin.getDefault().getPreferenceStore();
+		getPersistence();
+		engine.setParallelism(store.getInt(PreferenceConstants.P_INGEST_PARALLELISM));
+		engine.setPublisher(new IngestPipeline.Stage() {
+			public boolean process(IngestEvent event) {
 				// add the message to the meta data list.
-				addToMessageMetadataList(item);
-				
-				if (item.getMessageType().equals("GET_READER_CONFIG_RESPONSE")) {
-					ResourceCenter.getInstance().addReaderConfig(
-							item.getAdapter(), 
-							item.getReader(), 
-							item.getId());
-				}
-				
-				if (item.getMessageType().equals("GET_ROSPECS_RESPONSE")) {
-					ResourceCenter.getInstance().addReaderROSpec(
-							item.getAdapter(), 
-							item.getReader(), 
-							item.getId());
-				}
+				addToMessageMetadataList(event.getItem());
+				return true;
 			}
-		};
-		
-		getLLRPAccess().registerFullHandler(handler);
+		});
 		IWorkspaceRoot myWorkspaceRoot = ResourcesPlugin.getWorkspace().getRoot();
 		String readConfig = myWorkspaceRoot.getLocation().toString() + cfg.getFullPath().toString();
 		
 		try {
-			getLLRPAccess().initialize(readConfig);
+			engine.start(readConfig);
 		} catch (LLRPAccessException e) {
 			log.error("could not initialize the adaptor management", e);
 		}
@@ -327,12 +281,30 @@ public final class ResourceCenter {
 	}
 	
 	/**
-	 * Get the message meta data list.
+	 * Get the message meta data list. the list is a copy, the meta data 
+	 * remains in the buffer.
 	 * 
 	 * @return Message meta data list 
 	 */
 	public List<LLRPMessageItem> getMessageMetadataList() {
-		return messageList;
+		return messageList.peek();
+	}
+	
+	/**
+	 * Remove and return all the message meta data from the buffer.
+	 * 
+	 * @return Message meta data list, oldest first.
+	 */
+	public List<LLRPMessageItem> drainMessageMetadataList() {
+		return messageList.drain();
+	}
+	
+	/**
+	 * @return the number of message meta data items that have been 
+	 * overwritten in the buffer before the message box picked them up.
+	 */
+	public long getMessageMetadataDropped() {
+		return messageList.getDropped();
 	}
 	
 	/**
@@ -340,9 +312,11 @@ public final class ResourceCenter {
 	 * @param aNewMessage New message meta data item
 	 */
 	public void addToMessageMetadataList(LLRPMessageItem aNewMessage) {
-		//Remove XML Content to save the memory, then put into the 1st place of the list
-		aNewMessage.setContent("");
-		messageList.add(aNewMessage);
+		//Remove XML Content to save the memory, then put into the 1st place of the list.
+		// the item itself might still be waiting to be stored, so keep a copy.
+		LLRPMessageItem metadata = PersistenceImpl.copy(aNewMessage, false);
+		metadata.setContent("");
+		messageList.offer(metadata);
 		
 		// flag the refresher to refresh the messagebox 
 		if (messageBoxRefresh != null) {
@@ -376,6 +350,7 @@ public final class ResourceCenter {
 	 * @return the persistence layer or null if not initialized correctly.
 	 */
 	public Persistence getPersistence() {
+		Persistence persistence = engine.getPersistence();
 		if (null == persistence) {
 			
 			log.debug("open/create new persistence layer");
@@ -408,11 +383,11 @@ public final class ResourceCenter {
 					store.getString(PreferenceConstants.P_EXT_DB_JDBC),
 					store.getString(PreferenceConstants.P_EXT_DB_IMPLEMENTOR)
 					);
+			configurePersistenceDescriptor(descriptor);
 			
 			try {
-				// TODO: need to find a nicer way to inject this via osgi? 
-				persistence = new PersistenceImpl(getLLRPAccess());
-				PersistenceException beforeFallbackException = persistence.initialize(internalDB, descriptor);
+				PersistenceException beforeFallbackException = engine.openPersistence(internalDB, descriptor);
+				persistence = engine.getPersistence();
 				if (null != beforeFallbackException) {
 					// we had an automatic fallback, display the exception.
 					log.error("Could not invoke the repository, using fallback", beforeFallbackException);
@@ -421,7 +396,6 @@ public final class ResourceCenter {
 				}
 					
 			} catch (LLRPRuntimeException e) {
-				persistence = null;
 				log.error("could not initialize the repository", e);
 				IStatus status = new Status(IStatus.WARNING, LLRPPlugin.PLUGIN_ID, "LLRP Repository Warning.", e);
 				ErrorDialog.openError(LLRPPlugin.getDefault().getWorkbench().getDisplay().getActiveShell(), "Could not open Default/Fallback repository LLRP Commander cannot continue properly!", e.getMessage(), status);				
@@ -431,6 +405,46 @@ public final class ResourceCenter {
 		return persistence;
 	}
 	
+	/**
+	 * apply the tuning options of the persistence layer from the eclipse 
+	 * preference store to the given descriptor.
+	 * @param descriptor the descriptor to configure.
+	 */
+	public void configurePersistenceDescriptor(PersistenceDescriptor descriptor) {
+		IPreferenceStore store = LLRPPlugin.getDefault().getPreferenceStore();
+		descriptor.setProperty(PersistenceDescriptor.PROP_WRITE_BEHIND, 
+				String.format("%b", store.getBoolean(PreferenceConstants.P_PERSISTENCE_WRITE_BEHIND)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_COUNTERS, 
+				String.format("%b", store.getBoolean(PreferenceConstants.P_PERSISTENCE_COUNTERS)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_CONTENT_CACHE_SIZE, 
+				String.format("%d", 1024L * store.getInt(PreferenceConstants.P_PERSISTENCE_CONTENT_CACHE_KB)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_COMPRESSION, 
+				String.format("%b", store.getBoolean(PreferenceConstants.P_PERSISTENCE_COMPRESSION)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_LOAD_SHEDDING, 
+				String.format("%b", store.getBoolean(PreferenceConstants.P_PERSISTENCE_LOAD_SHEDDING)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_KEEPALIVE_COALESCING, 
+				String.format("%b", store.getBoolean(PreferenceConstants.P_PERSISTENCE_KEEPALIVE_COALESCING)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_TAG_AGGREGATION_WINDOW, 
+				String.format("%d", store.getInt(PreferenceConstants.P_PERSISTENCE_TAG_AGGREGATION_MS)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_SHARDS, 
+				String.format("%d", store.getInt(PreferenceConstants.P_PERSISTENCE_SHARDS)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_TIERED, 
+				String.format("%b", store.getBoolean(PreferenceConstants.P_PERSISTENCE_TIERED)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_TIERED_HOT_AGE, 
+				String.format("%d", 60000L * store.getInt(PreferenceConstants.P_PERSISTENCE_TIERED_HOT_MINUTES)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_RETENTION_MAX_AGE, 
+				String.format("%d", 3600000L * store.getInt(PreferenceConstants.P_PERSISTENCE_RETENTION_HOURS)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_RETENTION_MAX_ROWS, 
+				String.format("%d", store.getInt(PreferenceConstants.P_PERSISTENCE_RETENTION_ROWS)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_DERBY_FAST_WIPE, 
+				String.format("%b", store.getBoolean(PreferenceConstants.P_PERSISTENCE_DERBY_FAST_START)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_DERBY_WARM_UP, 
+				String.format("%b", store.getBoolean(PreferenceConstants.P_PERSISTENCE_DERBY_FAST_START)));
+		descriptor.setProperty(PersistenceDescriptor.PROP_DERBY_PAGE_CACHE_SIZE, 
+				String.format("%d", store.getInt(PreferenceConstants.P_PERSISTENCE_DERBY_PAGE_CACHE_SIZE)));
+		engine.setStoreBinaryContent(store.getBoolean(PreferenceConstants.P_PERSISTENCE_BINARY_CONTENT));
+	}
+	
 	/**
 	 * @return true if RO_ACCESS_REPORTS shall be logged, false otherwise.
 	 */
@@ -560,7 +574,7 @@ public final class ResourceCenter {
 			item.setMark(LLRPMessageItem.MARK_OUTGOING);
 			item.setAdapter(aAdapterName);
 			item.setReader(aReaderName);
-			item.setContent(aMessage.toXMLString());
+			item.setContent(engine.encodeContent(aMessage));
 			item.setMessageType(msgName);
 			item.setComment(aComment);
 			
@@ -672,29 +686,45 @@ public final class ResourceCenter {
 		return readerExplorerView;
 	}
 	
+	/**
+	 * @return the dispatcher running the reactions to the received messages. 
+	 * register a reaction for a message class to be notified about the 
+	 * messages of that class.
+	 */
+	public MessageDispatcher getMessageDispatcher() {
+		return engine.getMessageDispatcher();
+	}
+	
+	/**
+	 * @return the engine capturing the received messages.
+	 */
+	public CaptureEngine getCaptureEngine() {
+		return engine;
+	}
+	
 	public void addReaderConfig(String aAdapterName, String aReaderName, String aMessageID) {
-		readerConfigMap.put(aAdapterName + aReaderName, aMessageID);
+		engine.setReaderConfigMsgId(aAdapterName, aReaderName, aMessageID);
 	}
 	
 	public void removeReaderConfig(String aAdapterName, String aReaderName) {
-		readerConfigMap.remove(aAdapterName + aReaderName);
+		engine.setReaderConfigMsgId(aAdapterName, aReaderName, null);
 	}
 	
 	public String getReaderConfigMsgId(String aAdapterName, String aReaderName) {
-		String result = readerConfigMap.get(aAdapterName + aReaderName);
+		String result = engine.getReaderConfigMsgId(aAdapterName, aReaderName);
 		return result;
 	}
 	
 	public void addReaderROSpec(String aAdapterName, String aReaderName, String aMessageID) {
-		readerROSpecMap.put(aAdapterName + aReaderName, aMessageID);
+		engine.setReaderROSpecMsgId(aAdapterName, aReaderName, aMessageID);
 	}
 	
 	public void removeReaderROSpec(String aAdapterName, String aReaderName) {
-		readerROSpecMap.remove(aAdapterName + aReaderName);
+		engine.setReaderROSpecMsgId(aAdapterName, aReaderName, null);
 	}
 	
 	public String getReaderROSpecMsgId(String aAdapterName, String aReaderName) {
-		String result = readerROSpecMap.get(aAdapterName + aReaderName);
+		String result = engine.getReaderROSpecMsgId(aAdapterName, aReaderName);
 		return result;
 	}
 	
@@ -772,14 +802,61 @@ public final class ResourceCenter {
 		}
 	}
 	
+	/**
+	 * export the messages of the persistence layer into an archive file.
+	 * @param file the archive file to write.
+	 * @param compress if true, the archive is compressed.
+	 * @return the number of messages exported, -1 upon errors.
+	 */
+	public long exportArchive(File file, boolean compress) {
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+			return getPersistence().exportArchive(null, null, out, compress);
+		} catch (Exception e) {
+			log.error("could not export the messages to " + file, e);
+			return -1;
+		} finally {
+			if (null != out) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					log.error("could not close " + file, e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * import the messages of an archive file into the persistence layer.
+	 * @param file the archive file to read.
+	 * @return the number of messages imported, -1 upon errors.
+	 */
+	public long importArchive(File file) {
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+			return getPersistence().importArchive(in);
+		} catch (Exception e) {
+			log.error("could not import the messages from " + file, e);
+			return -1;
+		} finally {
+			if (null != in) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					log.error("could not close " + file, e);
+				}
+			}
+		}
+	}
+	
 	/**
 	 * tear down the resource center.
 	 */
 	public void close() {
-		log.info("Closing Database...");
-		ResourceCenter.getInstance().getPersistence().close();
-		log.info("Undefine all readers...");
-		ResourceCenter.getInstance().disconnectAllReaders();
+		// drains the received messages, closes the database and disconnects the readers.
+		engine.stop();
 		log.info("stopping message box refresher...");
 		messageBoxRefresh.stop();
 	}
@@ -828,6 +905,6 @@ public final class ResourceCenter {
 	 * @return a handle onto the LLRP access layer.
 	 */
 	public LLRPAccess getLLRPAccess() {
-		return llrpAccess;
+		return engine.getLLRPAccess();
 	}
 }
@@ -23,6 +23,7 @@ package org.fosstrak.llrp.commander.preferences;
 
 import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.preference.RadioGroupFieldEditor;
 import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.ui.IWorkbench;
@@ -107,6 +108,70 @@ public class LLRPCommanderPreferencePage
 				PreferenceConstants.P_USE_INTERNAL_DB, 
 				"Use internal standalone Derby Database. NOTICE: You need to restart the Commander!!!", getFieldEditorParent())
 		);
+		addField(new BooleanFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_WRITE_BEHIND, 
+				"Store messages asynchronously (write-behind)", getFieldEditorParent())
+		);
+		addField(new BooleanFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_COUNTERS, 
+				"Maintain message counters in memory", getFieldEditorParent())
+		);
+		addField(new IntegerFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_CONTENT_CACHE_KB, 
+				"Message content cache size in KB (0 to disable)", getFieldEditorParent())
+		);
+		addField(new BooleanFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_BINARY_CONTENT, 
+				"Store binary LLRP frames, render XML on demand", getFieldEditorParent())
+		);
+		addField(new BooleanFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_COMPRESSION, 
+				"Compress stored message content", getFieldEditorParent())
+		);
+		addField(new BooleanFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_LOAD_SHEDDING, 
+				"Drop KEEPALIVE and RO_ACCESS_REPORT first when storing falls behind (needs asynchronous storing)", getFieldEditorParent())
+		);
+		addField(new BooleanFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_KEEPALIVE_COALESCING, 
+				"Store one summary record per run of KEEPALIVE messages", getFieldEditorParent())
+		);
+		addField(new IntegerFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_TAG_AGGREGATION_MS, 
+				"Store one RO_ACCESS_REPORTS row per tag and antenna within (ms, 0 for every read)", getFieldEditorParent())
+		);
+		addField(new IntegerFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_SHARDS, 
+				"Partition the readers over repository instances (1 for a single one, not for the internal database)", getFieldEditorParent())
+		);
+		addField(new BooleanFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_TIERED, 
+				"Keep recent messages in memory, move them into the database later", getFieldEditorParent())
+		);
+		addField(new IntegerFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_TIERED_HOT_MINUTES, 
+				"Keep messages in memory for (minutes)", getFieldEditorParent())
+		);
+		addField(new IntegerFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_RETENTION_HOURS, 
+				"Delete messages older than (hours, 0 to keep forever)", getFieldEditorParent())
+		);
+		addField(new IntegerFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_RETENTION_ROWS, 
+				"Maximum messages per reader (0 for no limit)", getFieldEditorParent())
+		);
+		addField(new BooleanFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_DERBY_FAST_START, 
+				"Fast startup of the internal database (recreate instead of wipe, warm up)", getFieldEditorParent())
+		);
+		addField(new IntegerFieldEditor(
+				PreferenceConstants.P_PERSISTENCE_DERBY_PAGE_CACHE_SIZE, 
+				"Page cache of the internal database (pages, 0 for the default)", getFieldEditorParent())
+		);
+		addField(new IntegerFieldEditor(
+				PreferenceConstants.P_INGEST_PARALLELISM, 
+				"Threads per stage processing received messages (after restart)", getFieldEditorParent())
+		);
 		addField(new GroupedStringFieldEditor(
 				"External Database settings", 
 				new String[][] { 
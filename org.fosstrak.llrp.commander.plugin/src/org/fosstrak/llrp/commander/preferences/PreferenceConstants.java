@@ -75,4 +75,52 @@ public class PreferenceConstants {
 	
 	/** preference name for external DB JDBC connector string. */
 	public static final String P_EXT_DB_JDBC = "extDBJDBC";
+	
+	/** name of the preference field whether to store messages asynchronously (write-behind). */
+	public static final String P_PERSISTENCE_WRITE_BEHIND = "persistenceWriteBehind";
+	
+	/** name of the preference field whether to maintain message counters in memory. */
+	public static final String P_PERSISTENCE_COUNTERS = "persistenceCounters";
+	
+	/** name of the preference field holding the size of the message content cache in KB. */
+	public static final String P_PERSISTENCE_CONTENT_CACHE_KB = "persistenceContentCacheKB";
+	
+	/** name of the preference field whether to store binary LLRP frames instead of XML. */
+	public static final String P_PERSISTENCE_BINARY_CONTENT = "persistenceBinaryContent";
+	
+	/** name of the preference field whether to compress the stored message content. */
+	public static final String P_PERSISTENCE_COMPRESSION = "persistenceCompression";
+	
+	/** name of the preference field whether to drop low priority messages when the persistence falls behind. */
+	public static final String P_PERSISTENCE_LOAD_SHEDDING = "persistenceLoadShedding";
+	
+	/** name of the preference field whether to store one summary record per run of keepalives. */
+	public static final String P_PERSISTENCE_KEEPALIVE_COALESCING = "persistenceKeepaliveCoalescing";
+	
+	/** name of the preference field for the window in ms within which the reads of a tag are stored as one row (0 stores every read). */
+	public static final String P_PERSISTENCE_TAG_AGGREGATION_MS = "persistenceTagAggregationMs";
+	
+	/** name of the preference field for the number of repository instances the readers are partitioned over. */
+	public static final String P_PERSISTENCE_SHARDS = "persistenceShards";
+	
+	/** name of the preference field whether to keep the recent messages in memory in front of the database. */
+	public static final String P_PERSISTENCE_TIERED = "persistenceTiered";
+	
+	/** name of the preference field for the minutes a message is kept in memory before moving it into the database. */
+	public static final String P_PERSISTENCE_TIERED_HOT_MINUTES = "persistenceTieredHotMinutes";
+	
+	/** name of the preference field for the maximum age in hours of the stored messages (0 keeps them forever). */
+	public static final String P_PERSISTENCE_RETENTION_HOURS = "persistenceRetentionHours";
+	
+	/** name of the preference field for the maximum number of stored messages per reader (0 for no limit). */
+	public static final String P_PERSISTENCE_RETENTION_ROWS = "persistenceRetentionRows";
+	
+	/** name of the preference field whether to wipe the internal database by recreating it and warm it up in the background. */
+	public static final String P_PERSISTENCE_DERBY_FAST_START = "persistenceDerbyFastStart";
+	
+	/** name of the preference field for the number of pages in the page cache of the internal database (0 for the default). */
+	public static final String P_PERSISTENCE_DERBY_PAGE_CACHE_SIZE = "persistenceDerbyPageCacheSize";
+	
+	/** name of the preference field for the number of threads per stage decoding, serializing and storing the received messages. */
+	public static final String P_INGEST_PARALLELISM = "ingestParallelism";
 }
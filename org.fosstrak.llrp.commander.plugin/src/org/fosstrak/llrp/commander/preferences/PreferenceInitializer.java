@@ -62,6 +62,22 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 				PostgreSQLRepository.JDBC_STR);
 		store.setDefault(PreferenceConstants.P_EXT_DB_USERNAME, "llrp");
 		store.setDefault(PreferenceConstants.P_EXT_DB_PWD, "llrp");
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_WRITE_BEHIND, false);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_COUNTERS, false);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_CONTENT_CACHE_KB, 0);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_BINARY_CONTENT, false);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_COMPRESSION, false);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_LOAD_SHEDDING, false);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_KEEPALIVE_COALESCING, false);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_TAG_AGGREGATION_MS, 0);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_SHARDS, 1);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_TIERED, false);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_TIERED_HOT_MINUTES, 5);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_RETENTION_HOURS, 0);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_RETENTION_ROWS, 0);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_DERBY_FAST_START, false);
+		store.setDefault(PreferenceConstants.P_PERSISTENCE_DERBY_PAGE_CACHE_SIZE, 0);
+		store.setDefault(PreferenceConstants.P_INGEST_PARALLELISM, 2);
 		
 	}
 
@@ -21,6 +21,9 @@
 
 package org.fosstrak.llrp.commander.preferences.pref;
 
+import java.util.Collections;
+import java.util.concurrent.Future;
+
 import org.apache.log4j.Logger;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -45,7 +48,10 @@ import org.fosstrak.llrp.client.repository.sql.PostgreSQLRepository;
 import org.fosstrak.llrp.commander.LLRPPlugin;
 import org.fosstrak.llrp.commander.ResourceCenter;
 import org.fosstrak.llrp.commander.persistence.exception.PersistenceException;
+import org.fosstrak.llrp.commander.persistence.repository.RingBufferRepository;
+import org.fosstrak.llrp.commander.persistence.repository.SegmentLogRepository;
 import org.fosstrak.llrp.commander.persistence.type.PersistenceDescriptor;
+import org.fosstrak.llrp.commander.persistence.type.ValidationResult;
 import org.fosstrak.llrp.commander.preferences.PreferenceConstants;
 
 /**
@@ -81,6 +87,9 @@ public class GroupedStringFieldEditor extends FieldEditor  {
 	// a 2D array holding the labels and the names of the preferences.
 	private String[][] preferencesLabelsAndNames;
 		
+	/** the maximum time in ms to validate a repository. */
+	public static final long VALIDATION_TIMEOUT_MS = 30000;
+	
 	// log4j instance.
 	private static Logger log = Logger.getLogger(GroupedStringFieldEditor.class);
 	
@@ -124,7 +133,7 @@ public class GroupedStringFieldEditor extends FieldEditor  {
 	 * @return a descriptor for the persistence container (repository) to use.
 	 */
 	private PersistenceDescriptor prepareDescriptor() {
-		return new PersistenceDescriptor(
+		PersistenceDescriptor descriptor = new PersistenceDescriptor(
 				Boolean.parseBoolean(preferences[getPrefIndex(PreferenceConstants.P_WIPE_DB_ON_STARTUP)].getText()),
 				Boolean.parseBoolean(preferences[getPrefIndex(PreferenceConstants.P_WIPE_RO_ACCESS_REPORTS_ON_STARTUP)].getText()),
 				Boolean.parseBoolean(preferences[getPrefIndex(PreferenceConstants.P_LOG_RO_ACCESS_REPORTS)].getText()),
@@ -133,6 +142,8 @@ public class GroupedStringFieldEditor extends FieldEditor  {
 				preferences[getPrefIndex(PreferenceConstants.P_EXT_DB_JDBC)].getText(),
 				preferences[getPrefIndex(PreferenceConstants.P_EXT_DB_IMPLEMENTOR)].getText()
 				);
+		ResourceCenter.getInstance().configurePersistenceDescriptor(descriptor);
+		return descriptor;
 	}
 	
 	/**
@@ -187,23 +198,35 @@ public class GroupedStringFieldEditor extends FieldEditor  {
 			buttonTest.setText("Test configuration");
 			buttonTest.addSelectionListener(new SelectionAdapter() {
 			      public void widgetSelected(SelectionEvent e) {
-			    	  // try to open the repository. if it works out, allow to switch it.
+			    	  // validate the repository in the background. if it works out, allow to switch it.
 			    	  PersistenceDescriptor descriptor = prepareDescriptor();
-			    	  try {
-			    		  if (!ResourceCenter.getInstance().getPersistence().test(descriptor)) {
-			    			  log.debug("We do not allow to set the same repository.");
-			    			  String notice = "Your selection is currently in use.";
-			    			  IStatus status = new Status(IStatus.INFO, LLRPPlugin.PLUGIN_ID, notice);
-			    			  ErrorDialog.openError(shell, "Please Notice: " + notice, notice, status);
-			    		  } else {
-			    			  buttonSwitch.setEnabled(true);
+			    	  final Future<ValidationResult> future = ResourceCenter.getInstance().getPersistence().validate(
+			    			  Collections.singletonList(descriptor), VALIDATION_TIMEOUT_MS).get(0);
+			    	  buttonTest.setEnabled(false);
+			    	  Thread waiter = new Thread(new Runnable() {
+			    		  public void run() {
+			    			  ValidationResult result = null;
+			    			  try {
+			    				  result = future.get();
+			    			  } catch (Exception ex) {
+			    				  log.error("Could not test the repository.", ex);
+			    			  }
+			    			  final ValidationResult validated = result;
+			    			  if (shell.isDisposed()) {
+			    				  return;
+			    			  }
+			    			  shell.getDisplay().asyncExec(new Runnable() {
+			    				  public void run() {
+			    					  if (!buttonTest.isDisposed()) {
+			    						  buttonTest.setEnabled(true);
+			    					  }
+			    					  showValidationResult(shell, buttonSwitch, validated);
+			    				  }
+			    			  });
 			    		  }
-			    	  } catch (PersistenceException persExce) {
-			    		  log.error("Could not test the repository.", persExce);
-						
-			    		  IStatus status = new Status(IStatus.ERROR, LLRPPlugin.PLUGIN_ID, "LLRP Repository Error.", persExce);
-			    		  ErrorDialog.openError(shell, "Repository Error", persExce.getMessage(), status);
-			    	  }  
+			    	  }, "persistence-validation-waiter");
+			    	  waiter.setDaemon(true);
+			    	  waiter.start();
 			      }
 				}
 			);
@@ -253,6 +276,38 @@ public class GroupedStringFieldEditor extends FieldEditor  {
 		return groupedFields;
 	}
 	
+	/**
+	 * report the result of a repository validation and allow to switch to a 
+	 * healthy repository.
+	 * @param shell the shell of the dialogs.
+	 * @param buttonSwitch the button switching the repository.
+	 * @param result the result of the validation, null if the validation failed.
+	 */
+	private void showValidationResult(Shell shell, Button buttonSwitch, ValidationResult result) {
+		if (shell.isDisposed()) {
+			return;
+		}
+		if ((null != result) && (ValidationResult.Verdict.IN_USE == result.getVerdict())) {
+			log.debug("We do not allow to set the same repository.");
+			String notice = "Your selection is currently in use.";
+			IStatus status = new Status(IStatus.INFO, LLRPPlugin.PLUGIN_ID, notice);
+			ErrorDialog.openError(shell, "Please Notice: " + notice, notice, status);
+		} else if ((null != result) && result.isHealthy()) {
+			log.info("repository validated: " + result);
+			if (!buttonSwitch.isDisposed()) {
+				buttonSwitch.setEnabled(true);
+			}
+			IStatus status = new Status(IStatus.INFO, LLRPPlugin.PLUGIN_ID, result.toString());
+			ErrorDialog.openError(shell, "Repository OK", "The repository can be used.", status);
+		} else {
+			String message = (null == result) ? "Could not test the repository." : result.toString();
+			log.error("Could not test the repository: " + message);
+			IStatus status = new Status(IStatus.ERROR, LLRPPlugin.PLUGIN_ID, "LLRP Repository Error.", 
+					(null == result) ? null : result.getError());
+			ErrorDialog.openError(shell, "Repository Error", message, status);
+		}
+	}
+	
 	private void addJDBCHints(Composite parent) {
 		Label hints = new Label(parent, SWT.NONE);
 		hints.setText("Examples: ");
@@ -280,7 +335,9 @@ public class GroupedStringFieldEditor extends FieldEditor  {
 		final Combo combo = new Combo(parent, SWT.DROP_DOWN | SWT.READ_ONLY);
 		String[] items = new String [] {
 			MySQLRepository.class.getName(),
-			PostgreSQLRepository.class.getName()
+			PostgreSQLRepository.class.getName(),
+			RingBufferRepository.class.getName(),
+			SegmentLogRepository.class.getName()
 		};
 		combo.setItems(items);
 		combo.setBounds(0, 0, 200, 20);
@@ -51,6 +51,7 @@ import org.fosstrak.llrp.client.LLRPMessageItem;
 import org.fosstrak.llrp.commander.ResourceCenter;
 import org.fosstrak.llrp.commander.dialogs.MessageboxViewOptionsDialog;
 import org.fosstrak.llrp.commander.persistence.Persistence;
+import org.fosstrak.llrp.commander.persistence.type.MessageCursor;
 import org.fosstrak.llrp.commander.util.MessageBoxRefresh;
 
 /**
@@ -117,6 +118,9 @@ public class MessageboxView extends TableViewPart implements ISelectionListener
 	 */
 	public static final int COL_MSG_COMMENT = 7;
 	
+	/** the number of messages fetched per page when reloading the message box. */
+	public static final int RELOAD_PAGE_SIZE = 500;
+	
 	/** the number of messages to display in the message box. */
 	private int displayNumMessages = ResourceCenter.GET_MAX_MESSAGES;
 
@@ -491,26 +495,42 @@ public class MessageboxView extends TableViewPart implements ISelectionListener
 			filter.setCondition(selectedAdapter, selectedReader);
 			if (reload) {
 	
-				// first load all the messages from the database backend.
-				List<LLRPMessageItem> msgs = ResourceCenter.getInstance().getPersistence().get(
-						selectedAdapter, 
-						selectedReader, 
-						displayNumMessages,
-						false);
-				
 				getViewer().getTable().removeAll();
 				
-				getViewer().add(msgs.toArray());
+				// stream the messages from the database backend page by page. 
+				// do not fetch more than displayed.
+				int pageSize = RELOAD_PAGE_SIZE;
+				if (Persistence.RETRIEVE_ALL != displayNumMessages) {
+					pageSize = Math.max(1, Math.min(RELOAD_PAGE_SIZE, displayNumMessages));
+				}
+				MessageCursor cursor = ResourceCenter.getInstance().getPersistence().cursor(
+						selectedAdapter, 
+						selectedReader, 
+						pageSize);
+				int loaded = 0;
+				while (cursor.hasNext() && 
+						((Persistence.RETRIEVE_ALL == displayNumMessages) || 
+								(loaded < displayNumMessages))) {
+					
+					List<LLRPMessageItem> msgs = cursor.next();
+					if ((Persistence.RETRIEVE_ALL != displayNumMessages) && 
+							(loaded + msgs.size() > displayNumMessages)) {
+						msgs = msgs.subList(0, displayNumMessages - loaded);
+					}
+					getViewer().add(msgs.toArray());
+					loaded += msgs.size();
+				}
 				ResourceCenter.getInstance().clearMessageMetadataList();
 				
 			} else {
 				
+				// take the pending messages in one go, the adaptors keep on 
+				// adding new ones meanwhile.
 				List<LLRPMessageItem> list = 
-					ResourceCenter.getInstance().getMessageMetadataList();
+					ResourceCenter.getInstance().drainMessageMetadataList();
 				
 				if (list.size() > 0) {
 					getViewer().add(list.toArray());
-					ResourceCenter.getInstance().clearMessageMetadataList();
 					
 					//bound the number of displayed messages.
 					if (0 < displayNumMessages) {
@@ -26,9 +26,14 @@ import java.util.Date;
 import java.util.List;
 
 import org.apache.log4j.Logger;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IMenuManager;
 import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.dialogs.InputDialog;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.viewers.ColumnLayoutData;
 import org.eclipse.jface.viewers.ColumnWeightData;
@@ -38,6 +43,7 @@ import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerComparator;
+import org.eclipse.jface.window.Window;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Table;
@@ -49,6 +55,8 @@ import org.fosstrak.llrp.client.MessageHandler;
 import org.fosstrak.llrp.client.repository.sql.roaccess.DerbyROAccessReportsRepository;
 import org.fosstrak.llrp.client.repository.sql.roaccess.ROAccessItem;
 import org.fosstrak.llrp.commander.ResourceCenter;
+import org.fosstrak.llrp.commander.persistence.type.ROAccessCursor;
+import org.fosstrak.llrp.commander.persistence.type.ROAccessQuery;
 import org.fosstrak.llrp.commander.views.TableViewPart;
 import org.llrp.ltk.generated.messages.RO_ACCESS_REPORT;
 import org.llrp.ltk.types.LLRPMessage;
@@ -77,6 +85,9 @@ public class ROAccessReportsView extends TableViewPart implements MessageHandler
 	// allow to load the entries from the database.
 	private Action actionLoadFromDatabase;
 	
+	// continue loading the entries from the database.
+	private Action actionLoadMore;
+	
 	// clear the viewer from the messages.
 	private Action actionClearViewer;
 	
@@ -89,6 +100,18 @@ public class ROAccessReportsView extends TableViewPart implements MessageHandler
 	// whether to log or not.
 	private boolean enabled = false;
 	
+	/** the number of reports fetched from the database at once. */
+	public static final int LOAD_PAGE_SIZE = 1000;
+	
+	/** the number of reports loaded into the table by one load action. */
+	public static final int LOAD_LIMIT = 100000;
+	
+	// cursor onto the reports in the database.
+	private ROAccessCursor loadCursor;
+	
+	// background job loading the reports.
+	private Job loadJob;
+	
 	// the log4j logger.
 	private static Logger log = Logger.getLogger(ROAccessReportsView.class);
 
@@ -153,19 +176,39 @@ public class ROAccessReportsView extends TableViewPart implements MessageHandler
 		actionLoadFromDatabase = new Action() {
 			@Override
 			public void run() {
-				List<ROAccessItem> items = ResourceCenter.getInstance().getPersistence().getAllRoAccessReports();
-				for (ROAccessItem item : items) {
-					getViewer().add(item);
+				InputDialog dlg = new InputDialog(getViewer().getControl().getShell(), 
+						"Load from DB", "EPC prefix (empty for all tags):", "", null);
+				if (dlg.open() != Window.OK) {
+					return;
 				}
+				ROAccessQuery query = new ROAccessQuery();
+				query.setEpcPrefix(dlg.getValue());
+				getViewer().getTable().removeAll();
+				load(ResourceCenter.getInstance().getPersistence().queryRoAccessReports(
+						query, LOAD_PAGE_SIZE));
 			}
 		};
 		
 		actionLoadFromDatabase.setEnabled(ResourceCenter.getInstance().getPersistence().supportsRoAccessRepository());
 		actionLoadFromDatabase.setText("Load from DB");
 		actionLoadFromDatabase.setToolTipText(
-				"Loads the messages from the RO_ACCESS_REPORTS database in " +
-				"the backend. This action is only available, if you have " +
-				"a running instance of the backend.");
+				"Loads the RO_ACCESS_REPORTS stored in the database " +
+				"page by page in the background.");
+		
+		actionLoadMore = new Action() {
+			@Override
+			public void run() {
+				ROAccessCursor cursor = loadCursor;
+				if ((null != cursor) && cursor.hasNext()) {
+					load(cursor);
+				}
+			}
+		};
+		
+		actionLoadMore.setEnabled(ResourceCenter.getInstance().getPersistence().supportsRoAccessRepository());
+		actionLoadMore.setText("Load more from DB");
+		actionLoadMore.setToolTipText(String.format(
+				"Loads the next %d reports of the last database query.", LOAD_LIMIT));
 		
 		actionClearDB = new Action() {
 			@Override
@@ -232,6 +275,49 @@ public class ROAccessReportsView extends TableViewPart implements MessageHandler
 		viewer.refresh();
 	}
 	
+	/**
+	 * load the next reports from the given cursor into the table. the reports 
+	 * are fetched page by page in a background job, a running load is canceled.
+	 * @param cursor the cursor onto the reports.
+	 */
+	private synchronized void load(final ROAccessCursor cursor) {
+		if (null != loadJob) {
+			loadJob.cancel();
+		}
+		loadCursor = cursor;
+		loadJob = new Job("Loading RO_ACCESS reports") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				monitor.beginTask("Loading RO_ACCESS reports", LOAD_LIMIT);
+				int loaded = 0;
+				while (cursor.hasNext() && (loaded < LOAD_LIMIT)) {
+					if (monitor.isCanceled()) {
+						return Status.CANCEL_STATUS;
+					}
+					final List<ROAccessItem> page = cursor.next();
+					if (page.isEmpty() || display.isDisposed()) {
+						break;
+					}
+					display.asyncExec(new Runnable() {
+						public void run() {
+							if (!getViewer().getTable().isDisposed()) {
+								getViewer().add(page.toArray());
+							}
+						}
+					});
+					loaded += page.size();
+					monitor.worked(page.size());
+				}
+				monitor.done();
+				log.debug(String.format("loaded %d RO_ACCESS reports (%d reports scanned).", 
+						loaded, cursor.getScanned()));
+				return Status.OK_STATUS;
+			}
+		};
+		loadJob.setPriority(Job.LONG);
+		loadJob.schedule();
+	}
+	
 	/**
 	 * @return the content of the table as a comma-separated-values string.
 	 */
@@ -287,6 +373,7 @@ public class ROAccessReportsView extends TableViewPart implements MessageHandler
 		manager.add(actionEnable);
 		manager.add(actionClearViewer);
 		manager.add(actionLoadFromDatabase);
+		manager.add(actionLoadMore);
 		manager.add(actionClearDB);
 	}
 	